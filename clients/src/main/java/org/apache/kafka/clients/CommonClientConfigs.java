@@ -79,6 +79,13 @@ public class CommonClientConfigs {
                                                          + "elapses the client will resend the request if necessary or fail the request if "
                                                          + "retries are exhausted.";
 
+    public static final String COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG = "compression.zstd.dictionary.dir";
+    public static final String COMPRESSION_ZSTD_DICTIONARY_DIR_DOC = "A directory of zstd dictionaries, with one <code>&lt;topic&gt;.dict</code> file "
+                                                                      + "for every topic that is compressed with a dictionary. Dictionaries can be trained "
+                                                                      + "on sample records with <code>zstd --train</code>. Producers compress the <code>zstd</code> "
+                                                                      + "batches of a topic with its dictionary, and brokers and consumers need the same "
+                                                                      + "dictionaries to decompress them.";
+
     private static List<String> nonTestingSecurityProtocolNames() {
         List<String> names = new ArrayList<>();
         for (SecurityProtocol protocol : SecurityProtocol.nonTestingValues())
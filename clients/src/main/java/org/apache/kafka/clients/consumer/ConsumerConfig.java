@@ -128,6 +128,18 @@ public class ConsumerConfig extends AbstractConfig {
     private static final String MAX_PARTITION_FETCH_BYTES_DOC = "The maximum amount of data per-partition the server will return. The maximum total memory used for a request will be <code>#partitions * max.partition.fetch.bytes</code>. This size must be at least as large as the maximum message size the server allows or else it is possible for the producer to send messages larger than the consumer can fetch. If that happens, the consumer can get stuck trying to fetch a large message on a certain partition.";
     public static final int DEFAULT_MAX_PARTITION_FETCH_BYTES = 1 * 1024 * 1024;
 
+    /**
+     * <code>fetch.buffer.memory</code>
+     */
+    public static final String FETCH_BUFFER_MEMORY_CONFIG = "fetch.buffer.memory";
+    private static final String FETCH_BUFFER_MEMORY_DOC = "The total bytes of memory the consumer can use for fetched data which has not been returned by poll() yet. Every partition fetch in flight takes up <code>max.partition.fetch.bytes</code> of this memory until its response arrives, after which it takes up the size of the fetched data until that data is parsed. Partitions which do not fit are fetched once memory is released, taking turns with the other partitions. A single partition is always fetched if nothing else is buffered, even when <code>max.partition.fetch.bytes</code> is larger than this.";
+
+    /**
+     * <code>fetch.prefetch.bytes</code>
+     */
+    public static final String FETCH_PREFETCH_BYTES_CONFIG = "fetch.prefetch.bytes";
+    private static final String FETCH_PREFETCH_BYTES_DOC = "The maximum amount of fetched data the consumer will buffer ahead of the application. When this is greater than 0, partitions whose fetched data has not been fully returned by poll() are fetched again from the offset following that data, so that the network round trip overlaps with the processing of the current records. The data buffered ahead plus <code>max.partition.fetch.bytes</code> for every such fetch in flight is kept below this bound, and at most one fetch is in flight for each partition, but several may be in flight to the same broker. The default of 0 disables prefetching: a partition is only fetched once all of its fetched data has been returned and a broker only has one fetch in flight at a time.";
+
     /** <code>send.buffer.bytes</code> */
     public static final String SEND_BUFFER_CONFIG = CommonClientConfigs.SEND_BUFFER_CONFIG;
 
@@ -170,6 +182,9 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String CHECK_CRCS_CONFIG = "check.crcs";
     private static final String CHECK_CRCS_DOC = "Automatically check the CRC32 of the records consumed. This ensures no on-the-wire or on-disk corruption to the messages occurred. This check adds some overhead, so it may be disabled in cases seeking extreme performance.";
 
+    /** <code>compression.zstd.dictionary.dir</code> */
+    public static final String COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG = CommonClientConfigs.COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG;
+
     /** <code>key.deserializer</code> */
     public static final String KEY_DESERIALIZER_CLASS_CONFIG = "key.deserializer";
     public static final String KEY_DESERIALIZER_CLASS_DOC = "Deserializer class for key that implements the <code>Deserializer</code> interface.";
@@ -247,6 +262,18 @@ public class ConsumerConfig extends AbstractConfig {
                                         atLeast(0),
                                         Importance.HIGH,
                                         MAX_PARTITION_FETCH_BYTES_DOC)
+                                .define(FETCH_BUFFER_MEMORY_CONFIG,
+                                        Type.LONG,
+                                        64 * 1024 * 1024L,
+                                        atLeast(0L),
+                                        Importance.MEDIUM,
+                                        FETCH_BUFFER_MEMORY_DOC)
+                                .define(FETCH_PREFETCH_BYTES_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        FETCH_PREFETCH_BYTES_DOC)
                                 .define(SEND_BUFFER_CONFIG,
                                         Type.INT,
                                         128 * 1024,
@@ -294,6 +321,11 @@ public class ConsumerConfig extends AbstractConfig {
                                         true,
                                         Importance.LOW,
                                         CHECK_CRCS_DOC)
+                                .define(COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG,
+                                        Type.STRING,
+                                        null,
+                                        Importance.LOW,
+                                        CommonClientConfigs.COMPRESSION_ZSTD_DICTIONARY_DIR_DOC)
                                 .define(METRICS_SAMPLE_WINDOW_MS_CONFIG,
                                         Type.LONG,
                                         30000,
@@ -31,18 +31,22 @@ import org.apache.kafka.common.errors.RetriableException;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Avg;
 import org.apache.kafka.common.metrics.stats.Count;
 import org.apache.kafka.common.metrics.stats.Max;
 import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.metrics.stats.Total;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.LogEntry;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.Records;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
@@ -50,6 +54,7 @@ import org.apache.kafka.common.requests.ListOffsetRequest;
 import org.apache.kafka.common.requests.ListOffsetResponse;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.serialization.ByteBufferViewDeserializer;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
@@ -62,12 +67,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class manage the fetching process with the brokers.
@@ -81,6 +90,8 @@ public class Fetcher<K, V> {
     private final int minBytes;
     private final int maxWaitMs;
     private final int fetchSize;
+    private final int prefetchBytes;
+    private final long fetchBufferMemory;
     private final long retryBackoffMs;
     private final int maxPollRecords;
     private final boolean checkCrcs;
@@ -89,15 +100,22 @@ public class Fetcher<K, V> {
     private final SubscriptionState subscriptions;
     private final ConcurrentLinkedQueue<CompletedFetch> completedFetches;
     private final AtomicInteger numInFlightFetches = new AtomicInteger(0);
+    private final Set<TopicPartition> inFlightPartitions;
+    private final Set<TopicPartition> inFlightPrefetches;
+    private final AtomicLong fetchBufferUsed = new AtomicLong(0);
+    private final LinkedHashSet<TopicPartition> fetchOrder = new LinkedHashSet<>();
     private final Deserializer<K> keyDeserializer;
     private final Deserializer<V> valueDeserializer;
 
     private PartitionRecords<K, V> nextInLineRecords = null;
+    private long fetchBufferWaitMarkMs = -1L;
 
     public Fetcher(ConsumerNetworkClient client,
                    int minBytes,
                    int maxWaitMs,
                    int fetchSize,
+                   int prefetchBytes,
+                   long fetchBufferMemory,
                    int maxPollRecords,
                    boolean checkCrcs,
                    Deserializer<K> keyDeserializer,
@@ -115,12 +133,16 @@ public class Fetcher<K, V> {
         this.minBytes = minBytes;
         this.maxWaitMs = maxWaitMs;
         this.fetchSize = fetchSize;
+        this.prefetchBytes = prefetchBytes;
+        this.fetchBufferMemory = fetchBufferMemory;
         this.maxPollRecords = maxPollRecords;
         this.checkCrcs = checkCrcs;
         this.keyDeserializer = keyDeserializer;
         this.valueDeserializer = valueDeserializer;
         this.completedFetches = new ConcurrentLinkedQueue<>();
-        this.sensors = new FetchManagerMetrics(metrics, metricGrpPrefix);
+        this.inFlightPartitions = Collections.newSetFromMap(new ConcurrentHashMap<TopicPartition, Boolean>());
+        this.inFlightPrefetches = Collections.newSetFromMap(new ConcurrentHashMap<TopicPartition, Boolean>());
+        this.sensors = new FetchManagerMetrics(metrics, metricGrpPrefix, fetchBufferMemory, fetchBufferUsed);
         this.retryBackoffMs = retryBackoffMs;
     }
 
@@ -149,7 +171,8 @@ public class Fetcher<K, V> {
 
     /**
      * Set-up a fetch request for any node that we have assigned partitions for which doesn't already have
-     * an in-flight fetch or pending fetch data.
+     * an in-flight fetch or pending fetch data. If prefetching is enabled, partitions with pending fetch data
+     * are fetched as well, starting after that data, and a node may have several fetches in flight.
      */
     public void sendFetches() {
         for (Map.Entry<Node, FetchRequest> fetchEntry: createFetchRequests().entrySet()) {
@@ -157,6 +180,7 @@ public class Fetcher<K, V> {
             final Node fetchTarget = fetchEntry.getKey();
 
             numInFlightFetches.incrementAndGet();
+            inFlightPartitions.addAll(request.fetchData().keySet());
             client.send(fetchTarget, ApiKeys.FETCH, request)
                     .addListener(new RequestFutureListener<ClientResponse>() {
                         @Override
@@ -170,6 +194,8 @@ public class Fetcher<K, V> {
                                 log.warn("Ignoring fetch response containing partitions {} since it does not match " +
                                         "the requested partitions {}", response.responseData().keySet(),
                                         request.fetchData().keySet());
+                                releaseFetchBuffer((long) fetchSize * request.fetchData().size());
+                                removeInFlight(request.fetchData().keySet());
                                 return;
                             }
 
@@ -180,8 +206,14 @@ public class Fetcher<K, V> {
                                 TopicPartition partition = entry.getKey();
                                 long fetchOffset = request.fetchData().get(partition).offset;
                                 FetchResponse.PartitionData fetchData = entry.getValue();
-                                completedFetches.add(new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator));
+                                CompletedFetch completedFetch = new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator);
+                                // the memory reserved for the fetch is now held by the completed fetch until it is parsed
+                                releaseFetchBuffer(fetchSize - completedFetch.sizeInBytes());
+                                completedFetches.add(completedFetch);
                             }
+                            // clear these only after queueing the completed fetches so that a partition is never seen
+                            // with neither a fetch in flight nor pending fetch data
+                            removeInFlight(request.fetchData().keySet());
 
                             sensors.fetchLatency.record(resp.requestLatencyMs());
                             sensors.fetchThrottleTimeSensor.record(response.getThrottleTime());
@@ -190,12 +222,73 @@ public class Fetcher<K, V> {
                         @Override
                         public void onFailure(RuntimeException e) {
                             numInFlightFetches.decrementAndGet();
+                            releaseFetchBuffer((long) fetchSize * request.fetchData().size());
+                            removeInFlight(request.fetchData().keySet());
                             log.debug("Fetch request to {} failed", fetchTarget, e);
                         }
                     });
         }
     }
 
+    private void removeInFlight(Set<TopicPartition> partitions) {
+        inFlightPrefetches.removeAll(partitions);
+        inFlightPartitions.removeAll(partitions);
+    }
+
+    /**
+     * Reserve room in the fetch buffer for fetching one partition. This is always allowed if nothing is buffered
+     * or in flight, so that fetching cannot get stuck if the fetch size is larger than the fetch buffer.
+     * @return true if the memory was reserved, false if the fetch buffer is full
+     */
+    private boolean tryReserveFetchBuffer() {
+        // the used memory can only shrink concurrently since responses never exceed the memory reserved for them
+        long used = fetchBufferUsed.get();
+        if (used > 0 && used + fetchSize > fetchBufferMemory)
+            return false;
+        fetchBufferUsed.addAndGet(fetchSize);
+        return true;
+    }
+
+    private void releaseFetchBuffer(long bytes) {
+        fetchBufferUsed.addAndGet(-bytes);
+    }
+
+    /**
+     * Order the given partitions by the time they were last fetched, starting with those which have never been
+     * fetched, so that partitions take turns when the fetch buffer cannot hold a fetch for each of them.
+     */
+    private List<TopicPartition> inFetchOrder(Set<TopicPartition> partitions) {
+        List<TopicPartition> ordered = new ArrayList<>(partitions.size());
+        for (TopicPartition partition : partitions) {
+            if (!fetchOrder.contains(partition))
+                ordered.add(partition);
+        }
+        for (Iterator<TopicPartition> iter = fetchOrder.iterator(); iter.hasNext(); ) {
+            TopicPartition partition = iter.next();
+            if (partitions.contains(partition))
+                ordered.add(partition);
+            else if (!subscriptions.isAssigned(partition))
+                iter.remove();
+        }
+        return ordered;
+    }
+
+    private void fetchScheduled(TopicPartition partition) {
+        fetchOrder.remove(partition);
+        fetchOrder.add(partition);
+    }
+
+    /**
+     * Record the time since the previous round of fetches if partitions were kept from fetching by the fetch buffer
+     * in that round.
+     */
+    private void updateFetchBufferWaitTime(boolean waiting) {
+        long now = time.milliseconds();
+        if (fetchBufferWaitMarkMs >= 0)
+            sensors.fetchBufferWaitTime.record(now - fetchBufferWaitMarkMs, now);
+        fetchBufferWaitMarkMs = waiting ? now : -1L;
+    }
+
     /**
      * Lookup and set offsets for any partitions which are awaiting an explicit reset.
      * @param partitions the partitions to reset
@@ -399,6 +492,7 @@ public class Fetcher<K, V> {
                 if (completedFetch == null)
                     break;
 
+                releaseFetchBuffer(completedFetch.sizeInBytes());
                 nextInLineRecords = parseFetchedData(completedFetch);
             } else {
                 recordsRemaining -= append(drained, nextInLineRecords, recordsRemaining);
@@ -528,14 +622,23 @@ public class Fetcher<K, V> {
      * that have no existing requests in flight.
      */
     private Map<Node, FetchRequest> createFetchRequests() {
+        if (prefetchBytes > 0)
+            return createPrefetchRequests();
+
         // create the fetch info
         Cluster cluster = metadata.fetch();
         Map<Node, Map<TopicPartition, FetchRequest.PartitionData>> fetchable = new HashMap<>();
-        for (TopicPartition partition : fetchablePartitions()) {
+        boolean waitingForFetchBuffer = false;
+        for (TopicPartition partition : inFetchOrder(fetchablePartitions())) {
             Node node = cluster.leaderFor(partition);
             if (node == null) {
                 metadata.requestUpdate();
-            } else if (this.client.pendingRequestCount(node) == 0) {
+            } else if (this.client.pendingRequestCount(node) != 0) {
+                log.trace("Skipping fetch for partition {} because there is an inflight request to {}", partition, node);
+            } else if (!tryReserveFetchBuffer()) {
+                log.trace("Skipping fetch for partition {} because the fetch buffer is full", partition);
+                waitingForFetchBuffer = true;
+            } else {
                 // if there is a leader and no in-flight requests, issue a new fetch
                 Map<TopicPartition, FetchRequest.PartitionData> fetch = fetchable.get(node);
                 if (fetch == null) {
@@ -545,13 +648,98 @@ public class Fetcher<K, V> {
 
                 long position = this.subscriptions.position(partition);
                 fetch.put(partition, new FetchRequest.PartitionData(position, this.fetchSize));
+                fetchScheduled(partition);
                 log.trace("Added fetch request for partition {} at offset {}", partition, position);
+            }
+        }
+        updateFetchBufferWaitTime(waitingForFetchBuffer);
+
+        return toFetchRequests(fetchable);
+    }
+
+    /**
+     * Create fetch requests for all assigned partitions which have no fetch in flight, regardless of other
+     * fetches in flight to the same node. A partition with pending fetch data is fetched from the offset following
+     * that data, as long as the unparsed fetch data plus the maximum size of every prefetch in flight stays within
+     * the prefetch bound.
+     */
+    private Map<Node, FetchRequest> createPrefetchRequests() {
+        Set<TopicPartition> fetchablePartitions = subscriptions.fetchablePartitions();
+        Map<TopicPartition, Long> nextFetchOffsets = new HashMap<>();
+        Set<TopicPartition> unfetchable = new HashSet<>();
+        long bufferedBytes = 0;
+
+        if (nextInLineRecords != null && !nextInLineRecords.isEmpty()) {
+            TopicPartition partition = nextInLineRecords.partition;
+            if (!fetchablePartitions.contains(partition) || nextInLineRecords.fetchOffset != subscriptions.position(partition))
+                unfetchable.add(partition);
+            else
+                nextFetchOffsets.put(partition, nextInLineRecords.nextFetchOffset());
+        }
+        for (CompletedFetch completedFetch : completedFetches) {
+            TopicPartition partition = completedFetch.partition;
+            bufferedBytes += completedFetch.sizeInBytes();
+            if (!fetchablePartitions.contains(partition) || unfetchable.contains(partition))
+                continue;
+            Long nextFetchOffset = nextFetchOffsets.get(partition);
+            long expectedOffset = nextFetchOffset == null ? subscriptions.position(partition) : nextFetchOffset;
+            // only chain onto data which the consumer is going to return, without errors or gaps
+            if (completedFetch.fetchedOffset == expectedOffset && completedFetch.nextFetchOffset() >= 0)
+                nextFetchOffsets.put(partition, completedFetch.nextFetchOffset());
+            else
+                unfetchable.add(partition);
+        }
+        bufferedBytes += (long) fetchSize * inFlightPrefetches.size();
+
+        Cluster cluster = metadata.fetch();
+        Map<Node, Map<TopicPartition, FetchRequest.PartitionData>> fetchable = new HashMap<>();
+        boolean waitingForFetchBuffer = false;
+        for (TopicPartition partition : inFetchOrder(fetchablePartitions)) {
+            if (inFlightPartitions.contains(partition) || unfetchable.contains(partition))
+                continue;
+
+            Node node = cluster.leaderFor(partition);
+            if (node == null) {
+                metadata.requestUpdate();
+                continue;
+            }
+
+            Long nextFetchOffset = nextFetchOffsets.get(partition);
+            if (nextFetchOffset != null && bufferedBytes + fetchSize > prefetchBytes) {
+                log.trace("Skipping prefetch for partition {} since {} bytes are already buffered or in flight",
+                        partition, bufferedBytes);
+                continue;
+            }
+            if (!tryReserveFetchBuffer()) {
+                log.trace("Skipping fetch for partition {} because the fetch buffer is full", partition);
+                waitingForFetchBuffer = true;
+                continue;
+            }
+
+            long offset;
+            if (nextFetchOffset == null) {
+                offset = this.subscriptions.position(partition);
             } else {
-                log.trace("Skipping fetch for partition {} because there is an inflight request to {}", partition, node);
+                offset = nextFetchOffset;
+                bufferedBytes += fetchSize;
+                inFlightPrefetches.add(partition);
+            }
+            fetchScheduled(partition);
+
+            Map<TopicPartition, FetchRequest.PartitionData> fetch = fetchable.get(node);
+            if (fetch == null) {
+                fetch = new HashMap<>();
+                fetchable.put(node, fetch);
             }
+            fetch.put(partition, new FetchRequest.PartitionData(offset, this.fetchSize));
+            log.trace("Added fetch request for partition {} at offset {}", partition, offset);
         }
+        updateFetchBufferWaitTime(waitingForFetchBuffer);
+
+        return toFetchRequests(fetchable);
+    }
 
-        // create the fetches
+    private Map<Node, FetchRequest> toFetchRequests(Map<Node, Map<TopicPartition, FetchRequest.PartitionData>> fetchable) {
         Map<Node, FetchRequest> requests = new HashMap<>();
         for (Map.Entry<Node, Map<TopicPartition, FetchRequest.PartitionData>> entry : fetchable.entrySet()) {
             Node node = entry.getKey();
@@ -671,16 +859,14 @@ public class Fetcher<K, V> {
             long timestamp = record.timestamp();
             TimestampType timestampType = record.timestampType();
             ByteBuffer keyBytes = record.key();
-            byte[] keyByteArray = keyBytes == null ? null : Utils.toArray(keyBytes);
-            K key = keyBytes == null ? null : this.keyDeserializer.deserialize(partition.topic(), keyByteArray);
+            K key = keyBytes == null ? null : deserialize(this.keyDeserializer, partition.topic(), keyBytes);
             ByteBuffer valueBytes = record.value();
-            byte[] valueByteArray = valueBytes == null ? null : Utils.toArray(valueBytes);
-            V value = valueBytes == null ? null : this.valueDeserializer.deserialize(partition.topic(), valueByteArray);
+            V value = valueBytes == null ? null : deserialize(this.valueDeserializer, partition.topic(), valueBytes);
 
             return new ConsumerRecord<>(partition.topic(), partition.partition(), offset,
                                         timestamp, timestampType, record.checksum(),
-                                        keyByteArray == null ? ConsumerRecord.NULL_SIZE : keyByteArray.length,
-                                        valueByteArray == null ? ConsumerRecord.NULL_SIZE : valueByteArray.length,
+                                        keyBytes == null ? ConsumerRecord.NULL_SIZE : keyBytes.remaining(),
+                                        valueBytes == null ? ConsumerRecord.NULL_SIZE : valueBytes.remaining(),
                                         key, value);
         } catch (RuntimeException e) {
             throw new SerializationException("Error deserializing key/value for partition " + partition +
@@ -688,6 +874,17 @@ public class Fetcher<K, V> {
         }
     }
 
+    /**
+     * Deserialize the key or value in place if the deserializer supports it, otherwise from a copy of its bytes. The
+     * position of the given buffer is not changed.
+     */
+    private static <T> T deserialize(Deserializer<T> deserializer, String topic, ByteBuffer bytes) {
+        if (deserializer instanceof ByteBufferViewDeserializer)
+            return ((ByteBufferViewDeserializer<T>) deserializer).deserializeView(topic, bytes.asReadOnlyBuffer());
+        else
+            return deserializer.deserialize(topic, Utils.toArray(bytes));
+    }
+
     private static class PartitionRecords<K, V> {
         private long fetchOffset;
         private TopicPartition partition;
@@ -729,6 +926,10 @@ public class Fetcher<K, V> {
 
             return res;
         }
+
+        private long nextFetchOffset() {
+            return records.get(records.size() - 1).offset() + 1;
+        }
     }
 
     private static class CompletedFetch {
@@ -736,6 +937,7 @@ public class Fetcher<K, V> {
         private final long fetchedOffset;
         private final FetchResponse.PartitionData partitionData;
         private final FetchResponseMetricAggregator metricAggregator;
+        private Long nextFetchOffset = null;
 
         public CompletedFetch(TopicPartition partition,
                               long fetchedOffset,
@@ -746,6 +948,33 @@ public class Fetcher<K, V> {
             this.partitionData = partitionData;
             this.metricAggregator = metricAggregator;
         }
+
+        private int sizeInBytes() {
+            return partitionData.recordSet.remaining();
+        }
+
+        /**
+         * The offset following the last complete message set entry of the fetched data, or -1 if the fetch
+         * failed or did not return a complete entry. This only reads the offset and size of each shallow entry.
+         */
+        private long nextFetchOffset() {
+            if (nextFetchOffset == null) {
+                long lastOffset = -1L;
+                if (partitionData.errorCode == Errors.NONE.code()) {
+                    ByteBuffer buffer = partitionData.recordSet;
+                    int position = buffer.position();
+                    while (position + Records.LOG_OVERHEAD <= buffer.limit()) {
+                        int size = buffer.getInt(position + Records.OFFSET_LENGTH);
+                        if (size < 0 || position + Records.LOG_OVERHEAD + size > buffer.limit())
+                            break;
+                        lastOffset = buffer.getLong(position);
+                        position += Records.LOG_OVERHEAD + size;
+                    }
+                }
+                nextFetchOffset = lastOffset < 0 ? -1L : lastOffset + 1;
+            }
+            return nextFetchOffset;
+        }
     }
 
     /**
@@ -793,7 +1022,10 @@ public class Fetcher<K, V> {
         public final Sensor recordsFetchLag;
         public final Sensor fetchThrottleTimeSensor;
 
-        public FetchManagerMetrics(Metrics metrics, String metricGrpPrefix) {
+        public final Sensor fetchBufferWaitTime;
+
+        public FetchManagerMetrics(Metrics metrics, String metricGrpPrefix, final long fetchBufferMemory,
+                                   final AtomicLong fetchBufferUsed) {
             this.metrics = metrics;
             this.metricGrpName = metricGrpPrefix + "-fetch-manager-metrics";
 
@@ -840,6 +1072,32 @@ public class Fetcher<K, V> {
             this.fetchThrottleTimeSensor.add(metrics.metricName("fetch-throttle-time-max",
                                                          this.metricGrpName,
                                                          "The maximum throttle time in ms"), new Max());
+
+            this.fetchBufferWaitTime = metrics.sensor("fetch-buffer-wait-time");
+            this.fetchBufferWaitTime.add(metrics.metricName("fetch-buffer-wait-ratio",
+                this.metricGrpName,
+                "The fraction of time partitions could not be fetched because the fetch buffer was full"),
+                new Rate(TimeUnit.MILLISECONDS));
+            this.fetchBufferWaitTime.add(metrics.metricName("fetch-buffer-wait-time-total",
+                this.metricGrpName,
+                "The total time in ms partitions could not be fetched because the fetch buffer was full"), new Total());
+
+            metrics.addMetric(metrics.metricName("fetch-buffer-total-bytes",
+                this.metricGrpName,
+                "The maximum amount of memory for fetches in flight and fetched data which has not been parsed yet"),
+                new Measurable() {
+                    public double measure(MetricConfig config, long now) {
+                        return fetchBufferMemory;
+                    }
+                });
+            metrics.addMetric(metrics.metricName("fetch-buffer-used-bytes",
+                this.metricGrpName,
+                "The amount of memory reserved for fetches in flight and held by fetched data which has not been parsed yet"),
+                new Measurable() {
+                    public double measure(MetricConfig config, long now) {
+                        return fetchBufferUsed.get();
+                    }
+                });
         }
 
         public void recordTopicFetchMetrics(String topic, int bytes, int records) {
@@ -161,15 +161,33 @@ public class ProducerConfig extends AbstractConfig {
                                                     + "not all memory the producer uses is used for buffering. Some additional memory will be used for compression (if "
                                                     + "compression is enabled) as well as for maintaining in-flight requests.";
 
+    /** <code>buffer.memory.direct</code> */
+    public static final String BUFFER_MEMORY_DIRECT_CONFIG = "buffer.memory.direct";
+    private static final String BUFFER_MEMORY_DIRECT_DOC = "Whether the batch buffers that the producer recycles are allocated outside of the Java heap. Buffers of "
+                                                           + "<code>" + BATCH_SIZE_CONFIG + "</code> and of its power-of-two multiples up to eight times that size are kept for reuse "
+                                                           + "once their batch has been sent; with this setting they do not count towards the heap, but towards the "
+                                                           + "direct memory limit of the JVM.";
+
     /** <code>retry.backoff.ms</code> */
     public static final String RETRY_BACKOFF_MS_CONFIG = CommonClientConfigs.RETRY_BACKOFF_MS_CONFIG;
 
     /** <code>compression.type</code> */
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     private static final String COMPRESSION_TYPE_DOC = "The compression type for all data generated by the producer. The default is none (i.e. no compression). Valid "
-                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, or <code>lz4</code>. "
+                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, <code>lz4</code>, or <code>zstd</code>. "
                                                        + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression).";
 
+    /** <code>compression.zstd.dictionary.dir</code> */
+    public static final String COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG = CommonClientConfigs.COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG;
+
+    /** <code>checksum.type</code> */
+    public static final String CHECKSUM_TYPE_CONFIG = "checksum.type";
+    private static final String CHECKSUM_TYPE_DOC = "The checksum algorithm for the records generated by the producer. Valid values are <code>crc32</code> "
+                                                    + "and <code>crc32c</code>. CRC32C is cheaper to compute on JVMs with an intrinsic for it (Java 9 and later), "
+                                                    + "and the algorithm is recorded in the attributes of every record so that brokers and consumers verify it "
+                                                    + "with the same algorithm. Only use <code>crc32c</code> once all brokers and consumers of the topic support it, "
+                                                    + "since older versions would treat the records as corrupt.";
+
     /** <code>metrics.sample.window.ms</code> */
     public static final String METRICS_SAMPLE_WINDOW_MS_CONFIG = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_CONFIG;
 
@@ -229,6 +247,9 @@ public class ProducerConfig extends AbstractConfig {
                                         Importance.HIGH,
                                         ACKS_DOC)
                                 .define(COMPRESSION_TYPE_CONFIG, Type.STRING, "none", Importance.HIGH, COMPRESSION_TYPE_DOC)
+                                .define(COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG, Type.STRING, null, Importance.LOW,
+                                        CommonClientConfigs.COMPRESSION_ZSTD_DICTIONARY_DIR_DOC)
+                                .define(CHECKSUM_TYPE_CONFIG, Type.STRING, "crc32", in("crc32", "crc32c"), Importance.LOW, CHECKSUM_TYPE_DOC)
                                 .define(BATCH_SIZE_CONFIG, Type.INT, 16384, atLeast(0), Importance.MEDIUM, BATCH_SIZE_DOC)
                                 .define(TIMEOUT_CONFIG, Type.INT, 30 * 1000, atLeast(0), Importance.MEDIUM, TIMEOUT_DOC)
                                 .define(LINGER_MS_CONFIG, Type.LONG, 0, atLeast(0L), Importance.MEDIUM, LINGER_MS_DOC)
@@ -241,6 +262,7 @@ public class ProducerConfig extends AbstractConfig {
                                         atLeast(0),
                                         Importance.MEDIUM,
                                         MAX_REQUEST_SIZE_DOC)
+                                .define(BUFFER_MEMORY_DIRECT_CONFIG, Type.BOOLEAN, false, Importance.LOW, BUFFER_MEMORY_DIRECT_DOC)
                                 .define(BLOCK_ON_BUFFER_FULL_CONFIG, Type.BOOLEAN, false, Importance.LOW, BLOCK_ON_BUFFER_FULL_DOC)
                                 .define(RECONNECT_BACKOFF_MS_CONFIG, Type.LONG, 50L, atLeast(0L), Importance.LOW, CommonClientConfigs.RECONNECT_BACKOFF_MS_DOC)
                                 .define(METRIC_REPORTER_CLASSES_CONFIG, Type.LIST, "", Importance.LOW, CommonClientConfigs.METRIC_REPORTER_CLASSES_DOC)
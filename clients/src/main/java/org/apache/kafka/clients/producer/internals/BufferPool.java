@@ -18,7 +18,9 @@ package org.apache.kafka.clients.producer.internals;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -36,25 +38,38 @@ import org.apache.kafka.common.utils.Time;
  * particular it has the following properties:
  * <ol>
  * <li>There is a special "poolable size" and buffers of this size are kept in a free list and recycled
+ * <li>Optionally there are larger size classes of twice, four times, etc. the poolable size. Requests larger than
+ * the poolable size are rounded up to the smallest size class that fits and recycled through the free list of that
+ * size class, so that oversized batches do not allocate a new buffer every time
  * <li>It is fair. That is all memory is given to the longest waiting thread until it has sufficient memory. This
  * prevents starvation or deadlock when a thread asks for a large chunk of memory and needs to block until multiple
  * buffers are deallocated.
  * </ol>
+ * Recycled buffers may optionally be allocated outside of the Java heap.
  */
 public final class BufferPool {
 
+    /**
+     * The number of size classes used by the producer: the poolable size up to eight times the poolable size
+     */
+    public static final int DEFAULT_SIZE_CLASSES = 4;
+
     private final long totalMemory;
     private final int poolableSize;
+    private final boolean direct;
     private final ReentrantLock lock;
-    private final Deque<ByteBuffer> free;
+    private final List<Deque<ByteBuffer>> free;
     private final Deque<Condition> waiters;
     private long availableMemory;
+    private long freeListMemory;
     private final Metrics metrics;
     private final Time time;
     private final Sensor waitTime;
+    private final Sensor poolHits;
+    private final Sensor poolMisses;
 
     /**
-     * Create a new buffer pool
+     * Create a new buffer pool which only recycles heap buffers of the poolable size
      * 
      * @param memory The maximum amount of memory that this buffer pool can allocate
      * @param poolableSize The buffer size to cache in the free list rather than deallocating
@@ -63,12 +78,33 @@ public final class BufferPool {
      * @param metricGrpName logical group name for metrics
      */
     public BufferPool(long memory, int poolableSize, Metrics metrics, Time time, String metricGrpName) {
+        this(memory, poolableSize, 1, false, metrics, time, metricGrpName);
+    }
+
+    /**
+     * Create a new buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The smallest buffer size to cache in a free list rather than deallocating
+     * @param sizeClasses The number of size classes to recycle, each twice as large as the previous one
+     * @param direct Whether to allocate the buffers that are recycled outside of the Java heap
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    public BufferPool(long memory, int poolableSize, int sizeClasses, boolean direct, Metrics metrics, Time time, String metricGrpName) {
+        if (sizeClasses < 1)
+            throw new IllegalArgumentException("There must be at least one size class, but " + sizeClasses + " were requested");
         this.poolableSize = poolableSize;
+        this.direct = direct;
         this.lock = new ReentrantLock();
-        this.free = new ArrayDeque<ByteBuffer>();
+        this.free = new ArrayList<Deque<ByteBuffer>>(sizeClasses);
+        for (int i = 0; i < sizeClasses; i++)
+            this.free.add(new ArrayDeque<ByteBuffer>());
         this.waiters = new ArrayDeque<Condition>();
         this.totalMemory = memory;
         this.availableMemory = memory;
+        this.freeListMemory = 0;
         this.metrics = metrics;
         this.time = time;
         this.waitTime = this.metrics.sensor("bufferpool-wait-time");
@@ -76,11 +112,22 @@ public final class BufferPool {
                                                    metricGrpName,
                                                    "The fraction of time an appender waits for space allocation.");
         this.waitTime.add(metricName, new Rate(TimeUnit.NANOSECONDS));
+        this.poolHits = this.metrics.sensor("bufferpool-hits");
+        metricName = metrics.metricName("bufferpool-hit-rate",
+                                        metricGrpName,
+                                        "The number of allocations per second served with a recycled buffer from the free list.");
+        this.poolHits.add(metricName, new Rate());
+        this.poolMisses = this.metrics.sensor("bufferpool-misses");
+        metricName = metrics.metricName("bufferpool-miss-rate",
+                                        metricGrpName,
+                                        "The number of allocations per second that had to allocate a new buffer.");
+        this.poolMisses.add(metricName, new Rate());
     }
 
     /**
      * Allocate a buffer of the given size. This method blocks if there is not enough memory and the buffer pool
-     * is configured with blocking mode.
+     * is configured with blocking mode. Sizes larger than the poolable size may be rounded up to a size class, in
+     * which case the returned buffer has the capacity of the size class.
      * 
      * @param size The buffer size to allocate in bytes
      * @param maxTimeToBlockMs The maximum time in milliseconds to block for buffer memory to be available
@@ -96,22 +143,25 @@ public final class BufferPool {
                                                + this.totalMemory
                                                + " on memory allocations.");
 
+        int sizeClass = sizeClassFor(size);
+        if (sizeClass >= 0)
+            size = sizeOf(sizeClass);
+
         this.lock.lock();
         try {
             // check if we have a free buffer of the right size pooled
-            if (size == poolableSize && !this.free.isEmpty())
-                return this.free.pollFirst();
+            if (sizeClass >= 0 && !this.free.get(sizeClass).isEmpty())
+                return pollFree(sizeClass);
 
             // now check if the request is immediately satisfiable with the
             // memory on hand or if we need to block
-            int freeListSize = this.free.size() * this.poolableSize;
-            if (this.availableMemory + freeListSize >= size) {
+            if (this.availableMemory + this.freeListMemory >= size) {
                 // we have enough unallocated or pooled memory to immediately
                 // satisfy the request
                 freeUp(size);
                 this.availableMemory -= size;
                 lock.unlock();
-                return ByteBuffer.allocate(size);
+                return allocateBuffer(size, sizeClass);
             } else {
                 // we are out of memory and will have to block
                 int accumulated = 0;
@@ -144,9 +194,9 @@ public final class BufferPool {
                     remainingTimeToBlockNs -= timeNs;
                     // check if we can satisfy this request from the free list,
                     // otherwise allocate memory
-                    if (accumulated == 0 && size == this.poolableSize && !this.free.isEmpty()) {
+                    if (accumulated == 0 && sizeClass >= 0 && !this.free.get(sizeClass).isEmpty()) {
                         // just grab a buffer from the free list
-                        buffer = this.free.pollFirst();
+                        buffer = pollFree(sizeClass);
                         accumulated = size;
                     } else {
                         // we'll need to allocate memory, but we may only get
@@ -166,7 +216,7 @@ public final class BufferPool {
 
                 // signal any additional waiters if there is more memory left
                 // over for them
-                if (this.availableMemory > 0 || !this.free.isEmpty()) {
+                if (this.availableMemory > 0 || this.freeListMemory > 0) {
                     if (!this.waiters.isEmpty())
                         this.waiters.peekFirst().signal();
                 }
@@ -174,7 +224,7 @@ public final class BufferPool {
                 // unlock and return the buffer
                 lock.unlock();
                 if (buffer == null)
-                    return ByteBuffer.allocate(size);
+                    return allocateBuffer(size, sizeClass);
                 else
                     return buffer;
             }
@@ -184,18 +234,63 @@ public final class BufferPool {
         }
     }
 
+    /**
+     * Allocate a new buffer outside of the lock. Only buffers that will be recycled are allocated off-heap, since
+     * releasing direct memory is left to the garbage collector.
+     */
+    private ByteBuffer allocateBuffer(int size, int sizeClass) {
+        this.poolMisses.record();
+        if (direct && sizeClass >= 0)
+            return ByteBuffer.allocateDirect(size);
+        else
+            return ByteBuffer.allocate(size);
+    }
+
+    private ByteBuffer pollFree(int sizeClass) {
+        ByteBuffer buffer = this.free.get(sizeClass).pollFirst();
+        this.freeListMemory -= buffer.capacity();
+        this.poolHits.record();
+        return buffer;
+    }
+
+    /**
+     * The size class whose buffers are large enough for the given size, or -1 if buffers of that size are not recycled
+     */
+    private int sizeClassFor(int size) {
+        if (size < this.poolableSize)
+            return -1;
+        for (int i = 0; i < this.free.size(); i++) {
+            long classSize = (long) this.poolableSize << i;
+            if (classSize > this.totalMemory || classSize > Integer.MAX_VALUE)
+                return -1;
+            if (size <= classSize)
+                return i;
+        }
+        return -1;
+    }
+
+    private int sizeOf(int sizeClass) {
+        return this.poolableSize << sizeClass;
+    }
+
     /**
      * Attempt to ensure we have at least the requested number of bytes of memory for allocation by deallocating pooled
-     * buffers (if needed)
+     * buffers (if needed), starting with the largest size class
      */
     private void freeUp(int size) {
-        while (!this.free.isEmpty() && this.availableMemory < size)
-            this.availableMemory += this.free.pollLast().capacity();
+        for (int i = this.free.size() - 1; i >= 0 && this.availableMemory < size; i--) {
+            Deque<ByteBuffer> buffers = this.free.get(i);
+            while (!buffers.isEmpty() && this.availableMemory < size) {
+                int capacity = buffers.pollLast().capacity();
+                this.freeListMemory -= capacity;
+                this.availableMemory += capacity;
+            }
+        }
     }
 
     /**
-     * Return buffers to the pool. If they are of the poolable size add them to the free list, otherwise just mark the
-     * memory as free.
+     * Return buffers to the pool. If they are of the poolable size or one of the size classes add them to the free
+     * list, otherwise just mark the memory as free.
      * 
      * @param buffer The buffer to return
      * @param size The size of the buffer to mark as deallocated, note that this maybe smaller than buffer.capacity
@@ -204,9 +299,11 @@ public final class BufferPool {
     public void deallocate(ByteBuffer buffer, int size) {
         lock.lock();
         try {
-            if (size == this.poolableSize && size == buffer.capacity()) {
+            int sizeClass = sizeClassFor(size);
+            if (sizeClass >= 0 && size == sizeOf(sizeClass) && size == buffer.capacity() && buffer.isDirect() == direct) {
                 buffer.clear();
-                this.free.add(buffer);
+                this.free.get(sizeClass).add(buffer);
+                this.freeListMemory += size;
             } else {
                 this.availableMemory += size;
             }
@@ -223,19 +320,19 @@ public final class BufferPool {
     }
 
     /**
-     * the total free memory both unallocated and in the free list
+     * the total free memory both unallocated and in the free lists
      */
     public long availableMemory() {
         lock.lock();
         try {
-            return this.availableMemory + this.free.size() * this.poolableSize;
+            return this.availableMemory + this.freeListMemory;
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * Get the unallocated memory (not in the free list or in use)
+     * Get the unallocated memory (not in the free lists or in use)
      */
     public long unallocatedMemory() {
         lock.lock();
@@ -259,7 +356,7 @@ public final class BufferPool {
     }
 
     /**
-     * The buffer size that will be retained in the free list after use
+     * The smallest buffer size that will be retained in a free list after use
      */
     public int poolableSize() {
         return this.poolableSize;
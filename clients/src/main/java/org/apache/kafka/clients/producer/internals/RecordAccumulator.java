@@ -25,10 +25,12 @@ import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.record.ChecksumType;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.record.ZstdDictionary;
 import org.apache.kafka.common.utils.CopyOnWriteMap;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
@@ -45,6 +47,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -64,11 +67,15 @@ public final class RecordAccumulator {
     private final AtomicInteger appendsInProgress;
     private final int batchSize;
     private final CompressionType compression;
+    private final ChecksumType checksumType;
+    private final Map<String, ZstdDictionary> dictionaries;
     private final long lingerMs;
     private final long retryBackoffMs;
     private final BufferPool free;
     private final Time time;
     private final ConcurrentMap<TopicPartition, Deque<RecordBatch>> batches;
+    // the last batch of each partition, if it accepts concurrent appends; appending to it does not need the deque lock
+    private final ConcurrentMap<TopicPartition, RecordBatch> openBatches;
     private final IncompleteRecordBatches incomplete;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Set<TopicPartition> muted;
@@ -95,17 +102,51 @@ public final class RecordAccumulator {
                              long retryBackoffMs,
                              Metrics metrics,
                              Time time) {
+        this(batchSize, totalSize, compression, ChecksumType.CRC32, Collections.<String, ZstdDictionary>emptyMap(), lingerMs,
+                retryBackoffMs, false, metrics, time);
+    }
+
+    /**
+     * Create a new record accumulator
+     *
+     * @param batchSize The size to use when allocating {@link org.apache.kafka.common.record.MemoryRecords} instances
+     * @param totalSize The maximum memory the record accumulator can use.
+     * @param compression The compression codec for the records
+     * @param checksumType The checksum algorithm for the records
+     * @param dictionaries The zstd dictionaries to compress the records of a topic with, by topic
+     * @param lingerMs An artificial delay time to add before declaring a records instance that isn't full ready for
+     *        sending. This allows time for more records to arrive. Setting a non-zero lingerMs will trade off some
+     *        latency for potentially better throughput due to more batching (and hence fewer, larger requests).
+     * @param retryBackoffMs An artificial delay time to retry the produce request upon receiving an error. This avoids
+     *        exhausting all retries in a short period of time.
+     * @param directMemory Whether the recycled batch buffers are allocated outside of the Java heap
+     * @param metrics The metrics
+     * @param time The time instance to use
+     */
+    public RecordAccumulator(int batchSize,
+                             long totalSize,
+                             CompressionType compression,
+                             ChecksumType checksumType,
+                             Map<String, ZstdDictionary> dictionaries,
+                             long lingerMs,
+                             long retryBackoffMs,
+                             boolean directMemory,
+                             Metrics metrics,
+                             Time time) {
         this.drainIndex = 0;
         this.closed = false;
         this.flushesInProgress = new AtomicInteger(0);
         this.appendsInProgress = new AtomicInteger(0);
         this.batchSize = batchSize;
         this.compression = compression;
+        this.checksumType = checksumType;
+        this.dictionaries = dictionaries;
         this.lingerMs = lingerMs;
         this.retryBackoffMs = retryBackoffMs;
         this.batches = new CopyOnWriteMap<>();
+        this.openBatches = new ConcurrentHashMap<>();
         String metricGrpName = "producer-metrics";
-        this.free = new BufferPool(totalSize, batchSize, metrics, time, metricGrpName);
+        this.free = new BufferPool(totalSize, batchSize, BufferPool.DEFAULT_SIZE_CLASSES, directMemory, metrics, time, metricGrpName);
         this.incomplete = new IncompleteRecordBatches();
         this.muted = new HashSet<>();
         this.time = time;
@@ -161,10 +202,42 @@ public final class RecordAccumulator {
                                      byte[] value,
                                      Callback callback,
                                      long maxTimeToBlock) throws InterruptedException {
+        return append(tp, timestamp, key, value, callback, maxTimeToBlock, false);
+    }
+
+    /**
+     * Add a record to the accumulator, return the append result
+     * <p>
+     * The append result will contain the future metadata, and flag for whether the appended batch is full or a new batch is created
+     * <p>
+     * If abortOnNewBatch is set and the record does not fit into the last batch of the partition, no new batch is
+     * allocated and the returned result has abortForNewBatch set instead, so that the caller can pick another
+     * partition (see {@link StickyPartitioner}) and append again.
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch Whether to return before allocating a new batch
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     byte[] value,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch) throws InterruptedException {
         // We keep track of the number of appending thread to make sure we do not miss batches in
         // abortIncompleteBatches().
         appendsInProgress.incrementAndGet();
         try {
+            // try the open batch first, which doesn't need the deque lock for uncompressed records
+            RecordAppendResult openBatchResult = tryAppendToOpenBatch(tp, timestamp, key, value, callback);
+            if (openBatchResult != null)
+                return openBatchResult;
+
             // check if we have an in-progress batch
             Deque<RecordBatch> dq = getOrCreateDeque(tp);
             synchronized (dq) {
@@ -175,6 +248,10 @@ public final class RecordAccumulator {
                     return appendResult;
             }
 
+            // we don't have an in-progress record batch, let the caller re-partition before allocating one
+            if (abortOnNewBatch)
+                return new RecordAppendResult(null, false, false, true);
+
             // we don't have an in-progress record batch try to allocate a new batch
             int size = Math.max(this.batchSize, Records.LOG_OVERHEAD + Record.recordSize(key, value));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {}", size, tp.topic(), tp.partition());
@@ -190,13 +267,16 @@ public final class RecordAccumulator {
                     free.deallocate(buffer);
                     return appendResult;
                 }
-                MemoryRecords records = MemoryRecords.emptyRecords(buffer, compression, this.batchSize);
+                ZstdDictionary dictionary = dictionaries.get(tp.topic());
+                MemoryRecords records = MemoryRecords.emptyRecords(buffer, compression, checksumType, dictionary, this.batchSize);
                 RecordBatch batch = new RecordBatch(tp, records, time.milliseconds());
                 FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, callback, time.milliseconds()));
 
                 dq.addLast(batch);
                 incomplete.add(batch);
-                return new RecordAppendResult(future, dq.size() > 1 || batch.records.isFull(), true);
+                if (records.isConcurrentlyWritable())
+                    openBatches.put(tp, batch);
+                return new RecordAppendResult(future, dq.size() > 1 || batch.records.isFull(), true, false);
             }
         } finally {
             appendsInProgress.decrementAndGet();
@@ -204,7 +284,24 @@ public final class RecordAccumulator {
     }
 
     /**
-     * If `RecordBatch.tryAppend` fails (i.e. the record batch is full), close its memory records to release temporary
+     * Append to the open batch of the partition without holding the deque lock. The open batch is always the last
+     * batch of the deque while it accepts appends: batches are closed before a new one is added behind them and before
+     * they are removed from the deque, and a closed batch rejects appends, in which case we fall back to the deque.
+     */
+    private RecordAppendResult tryAppendToOpenBatch(TopicPartition tp, long timestamp, byte[] key, byte[] value, Callback callback) {
+        RecordBatch batch = openBatches.get(tp);
+        if (batch == null)
+            return null;
+        if (closed)
+            throw new IllegalStateException("Cannot send after the producer is closed.");
+        FutureRecordMetadata future = batch.tryAppend(timestamp, key, value, callback, time.milliseconds());
+        if (future == null)
+            return null;
+        return new RecordAppendResult(future, batch.records.isFull(), false, false);
+    }
+
+    /**
+     * If `RecordBatch.tryAppend` fails (i.e. the record batch is full), close it to release temporary
      * resources (like compression streams buffers).
      */
     private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Callback callback, Deque<RecordBatch> deque) {
@@ -212,9 +309,9 @@ public final class RecordAccumulator {
         if (last != null) {
             FutureRecordMetadata future = last.tryAppend(timestamp, key, value, callback, time.milliseconds());
             if (future == null)
-                last.records.close();
+                closeBatch(last);
             else
-                return new RecordAppendResult(future, deque.size() > 1 || last.records.isFull(), false);
+                return new RecordAppendResult(future, deque.size() > 1 || last.records.isFull(), false, false);
         }
         return null;
     }
@@ -243,6 +340,7 @@ public final class RecordAccumulator {
                         boolean isFull = batch != lastBatch || batch.records.isFull();
                         // check if the batch is expired
                         if (batch.maybeExpire(requestTimeout, retryBackoffMs, now, this.lingerMs, isFull)) {
+                            openBatches.remove(tp, batch);
                             expiredBatches.add(batch);
                             count++;
                             batchIterator.remove();
@@ -396,7 +494,7 @@ public final class RecordAccumulator {
                                         break;
                                     } else {
                                         RecordBatch batch = deque.pollFirst();
-                                        batch.records.close();
+                                        closeBatch(batch);
                                         size += batch.records.sizeInBytes();
                                         ready.add(batch);
                                         batch.drainedMs = now;
@@ -413,6 +511,14 @@ public final class RecordAccumulator {
         return batches;
     }
 
+    /**
+     * Close the batch for further appends and stop offering it for appends without the deque lock
+     */
+    private void closeBatch(RecordBatch batch) {
+        batch.close();
+        openBatches.remove(batch.topicPartition, batch);
+    }
+
     private Deque<RecordBatch> getDeque(TopicPartition tp) {
         return batches.get(tp);
     }
@@ -497,6 +603,7 @@ public final class RecordAccumulator {
         // batch appended by the last appending thread.
         abortBatches();
         this.batches.clear();
+        this.openBatches.clear();
     }
 
     /**
@@ -507,7 +614,7 @@ public final class RecordAccumulator {
             Deque<RecordBatch> dq = getDeque(batch.topicPartition);
             // Close the batch before aborting
             synchronized (dq) {
-                batch.records.close();
+                closeBatch(batch);
                 dq.remove(batch);
             }
             batch.done(-1L, Record.NO_TIMESTAMP, new IllegalStateException("Producer is closed forcefully."));
@@ -537,11 +644,13 @@ public final class RecordAccumulator {
         public final FutureRecordMetadata future;
         public final boolean batchIsFull;
         public final boolean newBatchCreated;
+        public final boolean abortForNewBatch;
 
-        public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated) {
+        public RecordAppendResult(FutureRecordMetadata future, boolean batchIsFull, boolean newBatchCreated, boolean abortForNewBatch) {
             this.future = future;
             this.batchIsFull = batchIsFull;
             this.newBatchCreated = newBatchCreated;
+            this.abortForNewBatch = abortForNewBatch;
         }
     }
 
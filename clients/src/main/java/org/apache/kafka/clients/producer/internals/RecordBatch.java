@@ -13,12 +13,18 @@
 package org.apache.kafka.clients.producer.internals;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
 import org.slf4j.Logger;
@@ -27,7 +33,10 @@ import org.slf4j.LoggerFactory;
 /**
  * A batch of records that is or will be sent.
  * 
- * This class is not thread safe and external synchronization must be used when modifying it
+ * This class is not thread safe and external synchronization must be used when modifying it, with the exception of
+ * {@link #tryAppend(long, byte[], byte[], Callback, long)} on uncompressed batches: those reserve space for each
+ * record in the underlying {@link MemoryRecords} with a compare-and-set, so appends from several threads can proceed
+ * concurrently until the batch is closed with {@link #close()}.
  */
 public final class RecordBatch {
 
@@ -42,8 +51,10 @@ public final class RecordBatch {
     public final MemoryRecords records;
     public final TopicPartition topicPartition;
     public final ProduceRequestResult produceFuture;
-    public long lastAppendTime;
-    private final List<Thunk> thunks;
+    public volatile long lastAppendTime;
+    private final Queue<Thunk> thunks;
+    private final AtomicInteger appendsInProgress;
+    private final AtomicInteger maxConcurrentRecordSize;
     private long offsetCounter = 0L;
     private boolean retry;
 
@@ -53,7 +64,9 @@ public final class RecordBatch {
         this.records = records;
         this.topicPartition = tp;
         this.produceFuture = new ProduceRequestResult();
-        this.thunks = new ArrayList<Thunk>();
+        this.thunks = new ConcurrentLinkedQueue<Thunk>();
+        this.appendsInProgress = new AtomicInteger(0);
+        this.maxConcurrentRecordSize = new AtomicInteger(0);
         this.lastAppendTime = createdMs;
         this.retry = false;
     }
@@ -64,6 +77,9 @@ public final class RecordBatch {
      * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
      */
     public FutureRecordMetadata tryAppend(long timestamp, byte[] key, byte[] value, Callback callback, long now) {
+        if (this.records.isConcurrentlyWritable())
+            return tryAppendConcurrently(timestamp, key, value, callback, now);
+
         if (!this.records.hasRoomFor(key, value)) {
             return null;
         } else {
@@ -81,6 +97,50 @@ public final class RecordBatch {
         }
     }
 
+    /**
+     * Append the record to an uncompressed batch, possibly at the same time as other threads. The relative offset of
+     * the record is the position of its space reservation, which preserves the order of appends from any one thread.
+     */
+    private FutureRecordMetadata tryAppendConcurrently(long timestamp, byte[] key, byte[] value, Callback callback, long now) {
+        // the checksum only depends on the record, so compute it before reserving space to keep close() waits short
+        long checksum = Record.computeChecksum(this.records.checksumType(), timestamp, key, value, CompressionType.NONE, 0, -1);
+        this.appendsInProgress.incrementAndGet();
+        try {
+            int relativeOffset = this.records.tryAppendConcurrently(timestamp, key, value, checksum);
+            if (relativeOffset < 0)
+                return null;
+            int recordSize = Record.recordSize(key, value);
+            int maxSize = this.maxConcurrentRecordSize.get();
+            while (recordSize > maxSize && !this.maxConcurrentRecordSize.compareAndSet(maxSize, recordSize))
+                maxSize = this.maxConcurrentRecordSize.get();
+            this.lastAppendTime = now;
+            FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, relativeOffset,
+                                                                   timestamp, checksum,
+                                                                   key == null ? -1 : key.length,
+                                                                   value == null ? -1 : value.length);
+            if (callback != null)
+                thunks.add(new Thunk(callback, future));
+            return future;
+        } finally {
+            this.appendsInProgress.decrementAndGet();
+        }
+    }
+
+    /**
+     * Close the batch for further appends. Concurrent appends that have already reserved space in the batch are
+     * waited for, so that the records and the callbacks are complete once this returns.
+     */
+    public void close() {
+        this.records.seal();
+        while (this.appendsInProgress.get() > 0)
+            Thread.yield();
+        this.records.close();
+        if (this.records.isConcurrentlyWritable()) {
+            this.recordCount = this.records.numRecordsAppended();
+            this.maxRecordSize = this.maxConcurrentRecordSize.get();
+        }
+    }
+
     /**
      * Complete the request
      * 
@@ -93,10 +153,13 @@ public final class RecordBatch {
                   topicPartition,
                   baseOffset,
                   exception);
-        // execute callbacks
-        for (int i = 0; i < this.thunks.size(); i++) {
+        // execute callbacks in offset order, which may differ from the order they were added in by concurrent appends
+        List<Thunk> thunks = new ArrayList<Thunk>(this.thunks);
+        if (this.records.isConcurrentlyWritable())
+            Collections.sort(thunks, THUNK_ORDER);
+        for (int i = 0; i < thunks.size(); i++) {
             try {
-                Thunk thunk = this.thunks.get(i);
+                Thunk thunk = thunks.get(i);
                 if (exception == null) {
                     // If the timestamp returned by server is NoTimestamp, that means CreateTime is used. Otherwise LogAppendTime is used.
                     RecordMetadata metadata = new RecordMetadata(this.topicPartition,  baseOffset, thunk.future.relativeOffset(),
@@ -115,6 +178,13 @@ public final class RecordBatch {
         this.produceFuture.done(topicPartition, baseOffset, exception);
     }
 
+    private static final Comparator<Thunk> THUNK_ORDER = new Comparator<Thunk>() {
+        @Override
+        public int compare(Thunk t1, Thunk t2) {
+            return Long.compare(t1.future.relativeOffset(), t2.future.relativeOffset());
+        }
+    };
+
     /**
      * A callback and the associated FutureRecordMetadata argument to pass to it.
      */
@@ -156,7 +226,7 @@ public final class RecordBatch {
         }
 
         if (expire) {
-            this.records.close();
+            close();
             this.done(-1L, Record.NO_TIMESTAMP,
                       new TimeoutException("Expiring " + recordCount + " record(s) for " + topicPartition + " due to " + errorMessage));
         }
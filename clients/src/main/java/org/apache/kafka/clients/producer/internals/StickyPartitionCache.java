@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+
+/**
+ * An internal class that keeps track of the partition that keyless records of each topic are currently sent to.
+ * The partition only changes when {@link #nextPartition(String, Cluster, int)} is called for the current sticky
+ * partition, i.e. when the batch that was being filled for it is complete.
+ */
+public class StickyPartitionCache {
+
+    private final ConcurrentMap<String, Integer> indexCache;
+
+    public StickyPartitionCache() {
+        this.indexCache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the current sticky partition of the topic, choosing one if there is none yet.
+     */
+    public int partition(String topic, Cluster cluster) {
+        Integer part = indexCache.get(topic);
+        if (part == null)
+            return nextPartition(topic, cluster, -1);
+        return part;
+    }
+
+    /**
+     * Move the sticky partition of the topic away from the given previous partition. If another thread has already
+     * moved it, the partition it chose is kept so that concurrent appends do not switch partitions more than once.
+     *
+     * @param topic The topic name
+     * @param cluster The current cluster metadata
+     * @param prevPartition The partition whose batch was completed
+     * @return The sticky partition to use from now on
+     */
+    public int nextPartition(String topic, Cluster cluster, int prevPartition) {
+        List<PartitionInfo> partitions = cluster.partitionsForTopic(topic);
+        Integer oldPart = indexCache.get(topic);
+        Integer newPart = oldPart;
+        if (oldPart == null || oldPart == prevPartition) {
+            List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
+            if (availablePartitions.size() < 1) {
+                // no partitions are available, give a non-available partition
+                newPart = Utils.toPositive(ThreadLocalRandom.current().nextInt()) % partitions.size();
+            } else if (availablePartitions.size() == 1) {
+                newPart = availablePartitions.get(0).partition();
+            } else {
+                while (newPart == null || newPart.equals(oldPart)) {
+                    int random = Utils.toPositive(ThreadLocalRandom.current().nextInt());
+                    newPart = availablePartitions.get(random % availablePartitions.size()).partition();
+                }
+            }
+            if (oldPart == null)
+                indexCache.putIfAbsent(topic, newPart);
+            else
+                indexCache.replace(topic, prevPartition, newPart);
+        }
+        return indexCache.get(topic);
+    }
+
+}
@@ -191,8 +191,16 @@ public class Protocol {
                                                                           "Duration in milliseconds for which the request was throttled" +
                                                                               " due to quota violation. (Zero if the request did not violate any quota.)",
                                                                           0));
-    public static final Schema[] PRODUCE_REQUEST = new Schema[] {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2};
-    public static final Schema[] PRODUCE_RESPONSE = new Schema[] {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2};
+    /**
+     * The body of PRODUCE_REQUEST_V3 is the same as PRODUCE_REQUEST_V2.
+     * The version number is bumped up to indicate that the client may send messages compressed with zstd, which the
+     * broker rejects from earlier versions.
+     */
+    public static final Schema PRODUCE_REQUEST_V3 = PRODUCE_REQUEST_V2;
+    public static final Schema PRODUCE_RESPONSE_V3 = PRODUCE_RESPONSE_V2;
+
+    public static final Schema[] PRODUCE_REQUEST = new Schema[] {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3};
+    public static final Schema[] PRODUCE_RESPONSE = new Schema[] {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3};
 
     /* Offset commit api */
     public static final Schema OFFSET_COMMIT_REQUEST_PARTITION_V0 = new Schema(new Field("partition",
@@ -432,6 +440,37 @@ public class Protocol {
     // Only the version number is incremented to indicate the client support message format V1 which uses
     // relative offset and has timestamp.
     public static final Schema FETCH_REQUEST_V2 = FETCH_REQUEST_V1;
+
+    public static final Schema FETCH_REQUEST_FORGOTTEN_TOPIC_V3 = new Schema(new Field("topic", STRING, "Topic to remove from the fetch session."),
+                                                                             new Field("partitions",
+                                                                                       new ArrayOf(INT32),
+                                                                                       "Partitions to remove from the fetch session."));
+
+    // The V3 Fetch Request adds fetch sessions: the broker caches the partitions of a session, and the topics of a
+    // request in an existing session are only the partitions that were added or whose fetch offset or max bytes changed.
+    public static final Schema FETCH_REQUEST_V3 = new Schema(new Field("replica_id",
+                                                                       INT32,
+                                                                       "Broker id of the follower. For normal consumers, use -1."),
+                                                             new Field("max_wait_time",
+                                                                       INT32,
+                                                                       "Maximum time in ms to wait for the response."),
+                                                             new Field("min_bytes",
+                                                                       INT32,
+                                                                       "Minimum bytes to accumulate in the response."),
+                                                             new Field("session_id",
+                                                                       INT32,
+                                                                       "The fetch session id, 0 to create a new session or to fetch outside of any session."),
+                                                             new Field("session_epoch",
+                                                                       INT32,
+                                                                       "The epoch of the request in the fetch session. 0 creates a new session, closing the " +
+                                                                           "given session if any, and -1 fetches the given topics outside of any session, " +
+                                                                           "closing the given session if any."),
+                                                             new Field("topics",
+                                                                       new ArrayOf(FETCH_REQUEST_TOPIC_V0),
+                                                                       "Topics to fetch, or to add to or update in the fetch session."),
+                                                             new Field("forgotten_topics_data",
+                                                                       new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V3),
+                                                                       "Topics to remove from the fetch session."));
     public static final Schema FETCH_RESPONSE_PARTITION_V0 = new Schema(new Field("partition",
                                                                                   INT32,
                                                                                   "Topic partition id."),
@@ -458,9 +497,28 @@ public class Protocol {
     // record set only includes messages of v0 (magic byte 0). In v2, record set can include messages of v0 and v1
     // (magic byte 0 and 1). For details, see ByteBufferMessageSet.
     public static final Schema FETCH_RESPONSE_V2 = FETCH_RESPONSE_V1;
+    // The responses of a fetch session after its first fetch only include the partitions that have new data, errors
+    // or a high watermark that changed since it was last returned.
+    public static final Schema FETCH_RESPONSE_V3 = new Schema(new Field("throttle_time_ms",
+                                                                        INT32,
+                                                                        "Duration in milliseconds for which the request was throttled" +
+                                                                            " due to quota violation. (Zero if the request did not violate any quota.)",
+                                                                        0),
+                                                              new Field("error_code", INT16, "The fetch session error code, or 0 if there was no error."),
+                                                              new Field("session_id",
+                                                                        INT32,
+                                                                        "The fetch session id, or 0 if the fetch is not part of a session."),
+                                                              new Field("responses",
+                                                                      new ArrayOf(FETCH_RESPONSE_TOPIC_V0)));
+
+    // The V4 Fetch Request body is the same as V3.
+    // Only the version number is incremented to indicate that the client supports messages compressed with zstd. The
+    // broker returns an UNSUPPORTED_COMPRESSION_TYPE error instead of such messages to earlier versions.
+    public static final Schema FETCH_REQUEST_V4 = FETCH_REQUEST_V3;
+    public static final Schema FETCH_RESPONSE_V4 = FETCH_RESPONSE_V3;
 
-    public static final Schema[] FETCH_REQUEST = new Schema[] {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2};
-    public static final Schema[] FETCH_RESPONSE = new Schema[] {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2};
+    public static final Schema[] FETCH_REQUEST = new Schema[] {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4};
+    public static final Schema[] FETCH_RESPONSE = new Schema[] {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3, FETCH_RESPONSE_V4};
 
     /* List groups api */
     public static final Schema LIST_GROUPS_REQUEST_V0 = new Schema();
@@ -51,7 +51,13 @@ public class ByteBufferOutputStream extends OutputStream {
     private void expandBuffer(int size) {
         int expandSize = Math.max((int) (buffer.capacity() * REALLOCATION_FACTOR), size);
         ByteBuffer temp = ByteBuffer.allocate(expandSize);
-        temp.put(buffer.array(), buffer.arrayOffset(), buffer.position());
+        if (buffer.hasArray()) {
+            temp.put(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } else {
+            ByteBuffer written = buffer.duplicate();
+            written.flip();
+            temp.put(written);
+        }
         buffer = temp;
     }
 }
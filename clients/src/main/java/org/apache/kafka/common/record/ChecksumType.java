@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.utils.Checksums;
+
+import java.util.zip.Checksum;
+
+/**
+ * The checksum algorithm of a record. Records with magic value 0 are always checksummed with CRC32; from magic
+ * value 1 on a bit of the attributes says which algorithm is used.
+ */
+public enum ChecksumType {
+    CRC32(0, "crc32") {
+        @Override
+        public Checksum create() {
+            return Checksums.crc32();
+        }
+    },
+    CRC32C(1, "crc32c") {
+        @Override
+        public Checksum create() {
+            return Checksums.crc32c();
+        }
+    };
+
+    public final int id;
+    public final String name;
+
+    ChecksumType(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Create a new checksum for this algorithm
+     */
+    public abstract Checksum create();
+
+    public byte updateAttributes(byte attributes) {
+        return this == CRC32 ?
+            (byte) (attributes & ~Record.CHECKSUM_TYPE_MASK) : (byte) (attributes | Record.CHECKSUM_TYPE_MASK);
+    }
+
+    public static ChecksumType forAttributes(byte attributes) {
+        int checksumType = (attributes & Record.CHECKSUM_TYPE_MASK) >> Record.CHECKSUM_TYPE_ATTRIBUTE_OFFSET;
+        return checksumType == 0 ? CRC32 : CRC32C;
+    }
+
+    public static ChecksumType forName(String name) {
+        for (ChecksumType t : values())
+            if (t.name.equals(name))
+                return t;
+        throw new IllegalArgumentException("Unknown checksum type name: " + name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -47,7 +47,7 @@ public class Compressor {
         }
     }
 
-    // dynamically load the snappy and lz4 classes to avoid runtime dependency if we are not using compression
+    // dynamically load the snappy, lz4 and zstd classes to avoid runtime dependency if we are not using compression
     // caching constructors to avoid invoking of Class.forName method for each batch
     private static MemoizingConstructorSupplier snappyOutputStreamSupplier = new MemoizingConstructorSupplier(new ConstructorSupplier() {
         @Override
@@ -65,6 +65,14 @@ public class Compressor {
         }
     });
 
+    private static MemoizingConstructorSupplier zstdOutputStreamSupplier = new MemoizingConstructorSupplier(new ConstructorSupplier() {
+        @Override
+        public Constructor get() throws ClassNotFoundException, NoSuchMethodException {
+            return Class.forName("org.apache.kafka.common.record.KafkaZstdOutputStream")
+                .getConstructor(OutputStream.class, ZstdDictionary.class);
+        }
+    });
+
     private static MemoizingConstructorSupplier snappyInputStreamSupplier = new MemoizingConstructorSupplier(new ConstructorSupplier() {
         @Override
         public Constructor get() throws ClassNotFoundException, NoSuchMethodException {
@@ -81,7 +89,16 @@ public class Compressor {
         }
     });
 
+    private static MemoizingConstructorSupplier zstdInputStreamSupplier = new MemoizingConstructorSupplier(new ConstructorSupplier() {
+        @Override
+        public Constructor get() throws ClassNotFoundException, NoSuchMethodException {
+            return Class.forName("org.apache.kafka.common.record.KafkaZstdInputStream")
+                .getConstructor(InputStream.class);
+        }
+    });
+
     private final CompressionType type;
+    private final ChecksumType checksumType;
     private final DataOutputStream appendStream;
     private final ByteBufferOutputStream bufferStream;
     private final int initPos;
@@ -92,7 +109,22 @@ public class Compressor {
     public long maxTimestamp;
 
     public Compressor(ByteBuffer buffer, CompressionType type) {
+        this(buffer, type, ChecksumType.CRC32);
+    }
+
+    public Compressor(ByteBuffer buffer, CompressionType type, ChecksumType checksumType) {
+        this(buffer, type, checksumType, null);
+    }
+
+    /**
+     * @param buffer The buffer to write the records to
+     * @param type The compression type of the records
+     * @param checksumType The checksum algorithm of the records
+     * @param dictionary The dictionary to compress with if the compression type is zstd, or null to compress without one
+     */
+    public Compressor(ByteBuffer buffer, CompressionType type, ChecksumType checksumType, ZstdDictionary dictionary) {
         this.type = type;
+        this.checksumType = checksumType;
         this.initPos = buffer.position();
 
         this.numRecords = 0;
@@ -108,7 +140,7 @@ public class Compressor {
 
         // create the stream
         bufferStream = new ByteBufferOutputStream(buffer);
-        appendStream = wrapForOutput(bufferStream, type, COMPRESSION_DEFAULT_BUFFER_SIZE);
+        appendStream = wrapForOutput(bufferStream, type, COMPRESSION_DEFAULT_BUFFER_SIZE, dictionary);
     }
 
     public ByteBuffer buffer() {
@@ -119,6 +151,10 @@ public class Compressor {
         return compressionRate;
     }
 
+    public ChecksumType checksumType() {
+        return checksumType;
+    }
+
     public void close() {
         try {
             appendStream.close();
@@ -135,11 +171,13 @@ public class Compressor {
             buffer.putInt(pos - initPos - Records.LOG_OVERHEAD);
             // write the shallow message (the crc and value size are not correct yet)
             Record.write(buffer, maxTimestamp, null, null, type, 0, -1);
+            int attributesPosition = initPos + Records.LOG_OVERHEAD + Record.ATTRIBUTES_OFFSET;
+            buffer.put(attributesPosition, checksumType.updateAttributes(buffer.get(attributesPosition)));
             // compute the fill the value size
             int valueSize = pos - initPos - Records.LOG_OVERHEAD - Record.RECORD_OVERHEAD;
             buffer.putInt(initPos + Records.LOG_OVERHEAD + Record.KEY_OFFSET_V1, valueSize);
             // compute and fill the crc at the beginning of the message
-            long crc = Record.computeChecksum(buffer,
+            long crc = Record.computeChecksum(checksumType, buffer,
                 initPos + Records.LOG_OVERHEAD + Record.MAGIC_OFFSET,
                 pos - initPos - Records.LOG_OVERHEAD - Record.MAGIC_OFFSET);
             Utils.writeUnsignedInt(buffer, initPos + Records.LOG_OVERHEAD + Record.CRC_OFFSET, crc);
@@ -203,8 +241,8 @@ public class Compressor {
     public long putRecord(long timestamp, byte[] key, byte[] value, CompressionType type,
                           int valueOffset, int valueSize) {
         // put a record as un-compressed into the underlying stream
-        long crc = Record.computeChecksum(timestamp, key, value, type, valueOffset, valueSize);
-        byte attributes = Record.computeAttributes(type);
+        long crc = Record.computeChecksum(checksumType, timestamp, key, value, type, valueOffset, valueSize);
+        byte attributes = Record.computeAttributes(type, checksumType);
         putRecord(crc, attributes, timestamp, key, value, valueOffset, valueSize);
         return crc;
     }
@@ -243,6 +281,11 @@ public class Compressor {
     // the following two functions also need to be public since they are used in MemoryRecords.iteration
 
     public static DataOutputStream wrapForOutput(ByteBufferOutputStream buffer, CompressionType type, int bufferSize) {
+        return wrapForOutput(buffer, type, bufferSize, null);
+    }
+
+    public static DataOutputStream wrapForOutput(ByteBufferOutputStream buffer, CompressionType type, int bufferSize,
+                                                 ZstdDictionary dictionary) {
         try {
             switch (type) {
                 case NONE:
@@ -263,6 +306,13 @@ public class Compressor {
                     } catch (Exception e) {
                         throw new KafkaException(e);
                     }
+                case ZSTD:
+                    try {
+                        OutputStream stream = (OutputStream) zstdOutputStreamSupplier.get().newInstance(buffer, dictionary);
+                        return new DataOutputStream(stream);
+                    } catch (Exception e) {
+                        throw new KafkaException(e);
+                    }
                 default:
                     throw new IllegalArgumentException("Unknown compression type: " + type);
             }
@@ -293,6 +343,13 @@ public class Compressor {
                     } catch (Exception e) {
                         throw new KafkaException(e);
                     }
+                case ZSTD:
+                    try {
+                        InputStream stream = (InputStream) zstdInputStreamSupplier.get().newInstance(buffer);
+                        return new DataInputStream(stream);
+                    } catch (Exception e) {
+                        throw new KafkaException(e);
+                    }
                 default:
                     throw new IllegalArgumentException("Unknown compression type: " + type);
             }
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * An {@link InputStream} that decompresses a zstd frame. If the frame was compressed with a dictionary, the
+ * dictionary is looked up by the id in the frame header among the dictionaries registered with
+ * {@link ZstdDictionary#register(ZstdDictionary)}.
+ *
+ * @see <a href="https://github.com/facebook/zstd/blob/dev/doc/zstd_compression_format.md">Zstandard Compression Format</a>
+ */
+public final class KafkaZstdInputStream extends BufferedInputStream {
+
+    public static final String UNKNOWN_DICTIONARY = "Stream compressed with an unknown zstd dictionary";
+
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    // magic number, frame header descriptor, window descriptor and the largest dictionary id
+    private static final int MAX_HEADER_LENGTH = 4 + 1 + 1 + 4;
+    private static final int SINGLE_SEGMENT_MASK = 0x20;
+    private static final int[] DICTIONARY_ID_LENGTHS = {0, 1, 2, 4};
+
+    private static final ConcurrentMap<Integer, ZstdDictDecompress> DIGESTED_DICTIONARIES = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new {@link InputStream} that will decompress data using zstd.
+     *
+     * @param in The stream to decompress
+     * @throws IOException if the stream cannot be read or was compressed with an unknown dictionary
+     */
+    public KafkaZstdInputStream(InputStream in) throws IOException {
+        super(wrap(in), KafkaZstdOutputStream.BUFFER_SIZE);
+    }
+
+    private static InputStream wrap(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, MAX_HEADER_LENGTH);
+        byte[] header = new byte[MAX_HEADER_LENGTH];
+        int length = 0;
+        int read;
+        while (length < header.length && (read = pushback.read(header, length, header.length - length)) > 0)
+            length += read;
+        pushback.unread(header, 0, length);
+
+        ZstdInputStream stream = new ZstdInputStream(pushback);
+        int dictionaryId = dictionaryId(header, length);
+        if (dictionaryId != 0) {
+            ZstdDictionary dictionary = ZstdDictionary.forId(dictionaryId);
+            if (dictionary == null)
+                throw new IOException(UNKNOWN_DICTIONARY + " (id " + (dictionaryId & 0xFFFFFFFFL) + ")");
+            stream.setDict(digest(dictionary));
+        }
+        return stream;
+    }
+
+    /**
+     * The id of the dictionary in a zstd frame header, or 0 if the frame was compressed without a dictionary. A
+     * header that cannot be parsed is left for the decompressor to reject.
+     */
+    static int dictionaryId(byte[] header, int length) {
+        if (length < 5 || readIntLE(header, 0) != FRAME_MAGIC)
+            return 0;
+        int descriptor = header[4] & 0xFF;
+        int idOffset = (descriptor & SINGLE_SEGMENT_MASK) != 0 ? 5 : 6;
+        int idLength = DICTIONARY_ID_LENGTHS[descriptor & 0x3];
+        if (length < idOffset + idLength)
+            return 0;
+        int id = 0;
+        for (int i = 0; i < idLength; i++)
+            id |= (header[idOffset + i] & 0xFF) << (8 * i);
+        return id;
+    }
+
+    private static int readIntLE(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | ((buf[i + 1] & 0xFF) << 8) | ((buf[i + 2] & 0xFF) << 16) | ((buf[i + 3] & 0xFF) << 24);
+    }
+
+    private static ZstdDictDecompress digest(ZstdDictionary dictionary) {
+        ZstdDictDecompress digested = DIGESTED_DICTIONARIES.get(dictionary.id());
+        if (digested == null) {
+            digested = new ZstdDictDecompress(dictionary.bytes());
+            ZstdDictDecompress existing = DIGESTED_DICTIONARIES.putIfAbsent(dictionary.id(), digested);
+            if (existing != null)
+                digested = existing;
+        }
+        return digested;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * An {@link OutputStream} that compresses data into a single zstd frame, optionally with a {@link ZstdDictionary}.
+ * <p>
+ * Writes are buffered before they reach the native compressor, since records are written a few bytes at a time.
+ */
+public final class KafkaZstdOutputStream extends BufferedOutputStream {
+
+    public static final int BUFFER_SIZE = 16 * 1024;
+    public static final int COMPRESSION_LEVEL = 3;
+
+    // digesting a dictionary costs about as much as compressing a batch, so it is only done once per dictionary
+    private static final ConcurrentMap<Integer, ZstdDictCompress> DIGESTED_DICTIONARIES = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new {@link OutputStream} that will compress data using zstd.
+     *
+     * @param out The stream to write the compressed frame to
+     * @param dictionary The dictionary to compress with, or null to compress without one
+     * @throws IOException
+     */
+    public KafkaZstdOutputStream(OutputStream out, ZstdDictionary dictionary) throws IOException {
+        super(wrap(out, dictionary), BUFFER_SIZE);
+    }
+
+    private static OutputStream wrap(OutputStream out, ZstdDictionary dictionary) throws IOException {
+        ZstdOutputStream stream = new ZstdOutputStream(out, COMPRESSION_LEVEL);
+        if (dictionary != null)
+            stream.setDict(digest(dictionary));
+        return stream;
+    }
+
+    private static ZstdDictCompress digest(ZstdDictionary dictionary) {
+        ZstdDictCompress digested = DIGESTED_DICTIONARIES.get(dictionary.id());
+        if (digested == null) {
+            digested = new ZstdDictCompress(dictionary.bytes(), COMPRESSION_LEVEL);
+            ZstdDictCompress existing = DIGESTED_DICTIONARIES.putIfAbsent(dictionary.id(), digested);
+            if (existing != null)
+                digested = existing;
+        }
+        return digested;
+    }
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.utils.AbstractIterator;
@@ -30,6 +31,9 @@ public class MemoryRecords implements Records {
 
     private final static int WRITE_LIMIT_FOR_READABLE_ONLY = -1;
 
+    // the flag set in the concurrent append state once no more concurrent appends are accepted
+    private final static long SEALED = Long.MIN_VALUE;
+
     // the compressor used for appends-only
     private final Compressor compressor;
 
@@ -45,22 +49,49 @@ public class MemoryRecords implements Records {
     // indicate if the memory records is writable or not (i.e. used for appends or read-only)
     private boolean writable;
 
+    // indicate if records can be appended with tryAppendConcurrently, which is only the case for uncompressed writable records
+    private final boolean concurrentlyWritable;
+
+    // the position of the writable buffer before any append
+    private final int initialPosition;
+
+    // the state of concurrent appends: the number of records appended in the high 31 bits, the number of bytes
+    // reserved for them in the low 32 bits and the SEALED flag in the sign bit
+    private final AtomicLong concurrentAppends;
+
+    // the checksum algorithm used for appended records
+    private final ChecksumType checksumType;
+
     // Construct a writable memory records
-    private MemoryRecords(ByteBuffer buffer, CompressionType type, boolean writable, int writeLimit) {
+    private MemoryRecords(ByteBuffer buffer, CompressionType type, ChecksumType checksumType, ZstdDictionary dictionary,
+                          boolean writable, int writeLimit) {
         this.writable = writable;
         this.writeLimit = writeLimit;
         this.initialCapacity = buffer.capacity();
+        this.initialPosition = buffer.position();
+        this.concurrentlyWritable = writable && type == CompressionType.NONE;
+        this.concurrentAppends = new AtomicLong(0);
+        this.checksumType = checksumType;
         if (this.writable) {
             this.buffer = null;
-            this.compressor = new Compressor(buffer, type);
+            this.compressor = new Compressor(buffer, type, checksumType, dictionary);
         } else {
             this.buffer = buffer;
             this.compressor = null;
         }
     }
 
+    public static MemoryRecords emptyRecords(ByteBuffer buffer, CompressionType type, ChecksumType checksumType,
+                                             ZstdDictionary dictionary, int writeLimit) {
+        return new MemoryRecords(buffer, type, checksumType, dictionary, true, writeLimit);
+    }
+
+    public static MemoryRecords emptyRecords(ByteBuffer buffer, CompressionType type, ChecksumType checksumType, int writeLimit) {
+        return emptyRecords(buffer, type, checksumType, null, writeLimit);
+    }
+
     public static MemoryRecords emptyRecords(ByteBuffer buffer, CompressionType type, int writeLimit) {
-        return new MemoryRecords(buffer, type, true, writeLimit);
+        return emptyRecords(buffer, type, ChecksumType.CRC32, writeLimit);
     }
 
     public static MemoryRecords emptyRecords(ByteBuffer buffer, CompressionType type) {
@@ -69,7 +100,7 @@ public class MemoryRecords implements Records {
     }
 
     public static MemoryRecords readableRecords(ByteBuffer buffer) {
-        return new MemoryRecords(buffer, CompressionType.NONE, false, WRITE_LIMIT_FOR_READABLE_ONLY);
+        return new MemoryRecords(buffer, CompressionType.NONE, ChecksumType.CRC32, null, false, WRITE_LIMIT_FOR_READABLE_ONLY);
     }
 
     /**
@@ -103,6 +134,95 @@ public class MemoryRecords implements Records {
         return crc;
     }
 
+    /**
+     * Append a new uncompressed record whose crc has already been computed, assigning it the next relative offset.
+     *
+     * Unlike the other append methods this one may be called by several threads at the same time: the space for the
+     * record is reserved with a compare-and-set and the record is then copied into its own region of the buffer, so
+     * appends are ordered by the time they reserved their space. It must not be mixed with the other append methods
+     * on the same records, and {@link #close()} must only be called after {@link #seal()} once all appends that are
+     * still in progress have returned.
+     *
+     * @return the relative offset of the record, or -1 if there is no room for it or the records have been sealed
+     */
+    public int tryAppendConcurrently(long timestamp, byte[] key, byte[] value, long crc) {
+        if (!concurrentlyWritable)
+            throw new IllegalStateException("Memory records does not accept concurrent appends");
+
+        int size = Record.recordSize(key, value);
+        int entrySize = Records.LOG_OVERHEAD + size;
+        long state;
+        int count;
+        int reserved;
+        do {
+            state = concurrentAppends.get();
+            if (state < 0)
+                return -1;
+            count = concurrentRecords(state);
+            reserved = concurrentBytes(state);
+            // the same rule as hasRoomFor(): a single record larger than the write limit may use the whole buffer
+            boolean hasRoom = count == 0 ?
+                this.initialCapacity >= this.initialPosition + entrySize :
+                this.writeLimit >= this.initialPosition + reserved + entrySize;
+            if (!hasRoom)
+                return -1;
+        } while (!concurrentAppends.compareAndSet(state, ((long) (count + 1) << 32) | (reserved + entrySize)));
+
+        ByteBuffer target = compressor.buffer().duplicate();
+        target.position(this.initialPosition + reserved);
+        target.putLong(count);
+        target.putInt(size);
+        Record.write(target, crc, Record.computeAttributes(CompressionType.NONE, checksumType), timestamp, key, value, 0, -1);
+        return count;
+    }
+
+    /**
+     * Stop accepting concurrent appends. Appends that have already reserved their space may still be in progress.
+     */
+    public void seal() {
+        long state;
+        do {
+            state = concurrentAppends.get();
+            if (state < 0)
+                return;
+        } while (!concurrentAppends.compareAndSet(state, state | SEALED));
+    }
+
+    /**
+     * The checksum algorithm of the records appended to this record set
+     */
+    public ChecksumType checksumType() {
+        return checksumType;
+    }
+
+    /**
+     * Whether records can be appended with {@link #tryAppendConcurrently(long, byte[], byte[], long)}
+     */
+    public boolean isConcurrentlyWritable() {
+        return concurrentlyWritable;
+    }
+
+    /**
+     * The number of records appended to this record set while it was writable
+     */
+    public int numRecordsAppended() {
+        if (compressor == null)
+            return 0;
+        return (int) compressor.numRecordsWritten() + concurrentRecords(concurrentAppends.get());
+    }
+
+    private static int concurrentRecords(long state) {
+        return (int) ((state & ~SEALED) >>> 32);
+    }
+
+    private static int concurrentBytes(long state) {
+        return (int) state;
+    }
+
+    private long estimatedBytesWritten() {
+        return this.compressor.estimatedBytesWritten() + concurrentBytes(concurrentAppends.get());
+    }
+
     /**
      * Check if we have room for a new record containing the given key/value pair
      *
@@ -119,13 +239,13 @@ public class MemoryRecords implements Records {
         if (!this.writable)
             return false;
 
-        return this.compressor.numRecordsWritten() == 0 ?
+        return numRecordsAppended() == 0 ?
             this.initialCapacity >= Records.LOG_OVERHEAD + Record.recordSize(key, value) :
-            this.writeLimit >= this.compressor.estimatedBytesWritten() + Records.LOG_OVERHEAD + Record.recordSize(key, value);
+            this.writeLimit >= estimatedBytesWritten() + Records.LOG_OVERHEAD + Record.recordSize(key, value);
     }
 
     public boolean isFull() {
-        return !this.writable || this.writeLimit <= this.compressor.estimatedBytesWritten();
+        return !this.writable || this.concurrentAppends.get() < 0 || this.writeLimit <= estimatedBytesWritten();
     }
 
     /**
@@ -133,6 +253,12 @@ public class MemoryRecords implements Records {
      */
     public void close() {
         if (writable) {
+            seal();
+            // move past the records appended concurrently, which were written without going through the compressor
+            int reserved = concurrentBytes(concurrentAppends.get());
+            if (reserved > 0)
+                compressor.buffer().position(initialPosition + reserved);
+
             // close the compressor to fill-in wrapper message metadata if necessary
             compressor.close();
 
@@ -150,7 +276,7 @@ public class MemoryRecords implements Records {
      */
     public int sizeInBytes() {
         if (writable) {
-            return compressor.buffer().position();
+            return compressor.buffer().position() + concurrentBytes(concurrentAppends.get());
         } else {
             return buffer.limit();
         }
@@ -17,8 +17,9 @@
 package org.apache.kafka.common.record;
 
 import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
 
-import org.apache.kafka.common.utils.Crc32;
+import org.apache.kafka.common.utils.Checksums;
 import org.apache.kafka.common.utils.Utils;
 
 
@@ -79,6 +80,13 @@ public final class Record {
     public static final byte TIMESTAMP_TYPE_MASK = 0x08;
     public static final int TIMESTAMP_TYPE_ATTRIBUTE_OFFSET = 3;
 
+    /**
+     * Specify the mask of checksum type, only used when the magic value is greater than 0.
+     * 0 for CRC32, 1 for CRC32C.
+     */
+    public static final byte CHECKSUM_TYPE_MASK = 0x10;
+    public static final int CHECKSUM_TYPE_ATTRIBUTE_OFFSET = 4;
+
     /**
      * Compression code for uncompressed records
      */
@@ -154,6 +162,34 @@ public final class Record {
         }
     }
 
+    // Write a record whose crc has already been computed at the current position of the buffer, without going
+    // through a compressor; the buffer must have enough room for it
+    public static void write(ByteBuffer buffer, long crc, byte attributes, long timestamp, byte[] key, byte[] value, int valueOffset, int valueSize) {
+        // write crc
+        Utils.writeUnsignedInt(buffer, crc);
+        // write magic value
+        buffer.put(CURRENT_MAGIC_VALUE);
+        // write attributes
+        buffer.put(attributes);
+        // write timestamp
+        buffer.putLong(timestamp);
+        // write the key
+        if (key == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(key.length);
+            buffer.put(key, 0, key.length);
+        }
+        // write the value
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            int size = valueSize >= 0 ? valueSize : (value.length - valueOffset);
+            buffer.putInt(size);
+            buffer.put(value, valueOffset, size);
+        }
+    }
+
     public static void write(Compressor compressor, long crc, byte attributes, long timestamp, byte[] key, byte[] value, int valueOffset, int valueSize) {
         // write crc
         compressor.putInt((int) (crc & 0xffffffffL));
@@ -193,45 +229,61 @@ public final class Record {
     }
 
     public static byte computeAttributes(CompressionType type) {
+        return computeAttributes(type, ChecksumType.CRC32);
+    }
+
+    public static byte computeAttributes(CompressionType type, ChecksumType checksumType) {
         byte attributes = 0;
         if (type.id > 0)
             attributes = (byte) (attributes | (COMPRESSION_CODEC_MASK & type.id));
-        return attributes;
+        return checksumType.updateAttributes(attributes);
     }
 
     /**
-     * Compute the checksum of the record from the record contents
+     * Compute the CRC32 checksum of the record from the record contents
      */
     public static long computeChecksum(ByteBuffer buffer, int position, int size) {
-        Crc32 crc = new Crc32();
-        crc.update(buffer.array(), buffer.arrayOffset() + position, size);
+        return computeChecksum(ChecksumType.CRC32, buffer, position, size);
+    }
+
+    /**
+     * Compute the checksum of the record from the record contents
+     */
+    public static long computeChecksum(ChecksumType checksumType, ByteBuffer buffer, int position, int size) {
+        Checksum crc = checksumType.create();
+        Checksums.update(crc, buffer, position, size);
         return crc.getValue();
     }
 
     /**
-     * Compute the checksum of the record from the attributes, key and value payloads
+     * Compute the CRC32 checksum of the record from the attributes, key and value payloads
      */
     public static long computeChecksum(long timestamp, byte[] key, byte[] value, CompressionType type, int valueOffset, int valueSize) {
-        Crc32 crc = new Crc32();
+        return computeChecksum(ChecksumType.CRC32, timestamp, key, value, type, valueOffset, valueSize);
+    }
+
+    /**
+     * Compute the checksum of the record from the attributes, key and value payloads
+     */
+    public static long computeChecksum(ChecksumType checksumType, long timestamp, byte[] key, byte[] value,
+                                       CompressionType type, int valueOffset, int valueSize) {
+        Checksum crc = checksumType.create();
         crc.update(CURRENT_MAGIC_VALUE);
-        byte attributes = 0;
-        if (type.id > 0)
-            attributes = (byte) (attributes | (COMPRESSION_CODEC_MASK & type.id));
-        crc.update(attributes);
-        crc.updateLong(timestamp);
+        crc.update(computeAttributes(type, checksumType));
+        Checksums.updateLong(crc, timestamp);
         // update for the key
         if (key == null) {
-            crc.updateInt(-1);
+            Checksums.updateInt(crc, -1);
         } else {
-            crc.updateInt(key.length);
+            Checksums.updateInt(crc, key.length);
             crc.update(key, 0, key.length);
         }
         // update for the value
         if (value == null) {
-            crc.updateInt(-1);
+            Checksums.updateInt(crc, -1);
         } else {
             int size = valueSize >= 0 ? valueSize : (value.length - valueOffset);
-            crc.updateInt(size);
+            Checksums.updateInt(crc, size);
             crc.update(value, valueOffset, size);
         }
         return crc.getValue();
@@ -242,7 +294,9 @@ public final class Record {
      * Compute the checksum of the record from the record contents
      */
     public long computeChecksum() {
-        return computeChecksum(buffer, MAGIC_OFFSET, buffer.limit() - MAGIC_OFFSET);
+        // a record too small to have attributes is corrupt anyway, so any algorithm will do
+        ChecksumType checksumType = size() > ATTRIBUTES_OFFSET ? checksumType() : ChecksumType.CRC32;
+        return computeChecksum(checksumType, buffer, MAGIC_OFFSET, buffer.limit() - MAGIC_OFFSET);
     }
 
     /**
@@ -357,6 +411,16 @@ public final class Record {
             return wrapperRecordTimestampType == null ? TimestampType.forAttributes(attributes()) : wrapperRecordTimestampType;
     }
 
+    /**
+     * The checksum algorithm used for this record
+     */
+    public ChecksumType checksumType() {
+        if (magic() == MAGIC_VALUE_V0)
+            return ChecksumType.CRC32;
+        else
+            return ChecksumType.forAttributes(attributes());
+    }
+
     /**
      * The compression type used with this record
      */
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.KafkaException;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A dictionary trained for zstd compression, for instance with {@code zstd --train}. Small batches of similar records
+ * compress much better with a dictionary, since the compressor does not have to learn the common structure of the
+ * records from the batch itself.
+ * <p>
+ * Compressed data records the id of the dictionary it was compressed with, so that it can be decompressed by any
+ * process that has registered the same dictionary with {@link #register(ZstdDictionary)}. Dictionaries are kept in a
+ * directory with one {@code <topic>.dict} file for every topic that uses one, see {@link #loadDirectory(String)}.
+ */
+public final class ZstdDictionary {
+
+    public static final String FILE_SUFFIX = ".dict";
+
+    // the magic number of dictionaries in the zstd dictionary format, which is followed by the dictionary id
+    private static final int DICTIONARY_MAGIC = 0xEC30A437;
+
+    // the dictionaries registered in this process by id
+    private static final ConcurrentMap<Integer, ZstdDictionary> DICTIONARIES = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final byte[] bytes;
+
+    private ZstdDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    /**
+     * The id of this dictionary, which is written to the frame header of the data compressed with it
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * The content of this dictionary
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Parse a dictionary in the zstd dictionary format
+     *
+     * @throws IllegalArgumentException if the bytes are not a zstd dictionary or do not have an id
+     */
+    public static ZstdDictionary parse(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < 8 || buffer.getInt(0) != DICTIONARY_MAGIC)
+            throw new IllegalArgumentException("Not a zstd dictionary");
+        int id = buffer.getInt(4);
+        if (id == 0)
+            throw new IllegalArgumentException("Zstd dictionaries used by Kafka must have a non-zero id");
+        return new ZstdDictionary(id, bytes);
+    }
+
+    /**
+     * Make a dictionary available to decompress data in this process
+     *
+     * @throws IllegalArgumentException if a different dictionary with the same id is already registered
+     */
+    public static void register(ZstdDictionary dictionary) {
+        ZstdDictionary existing = DICTIONARIES.putIfAbsent(dictionary.id, dictionary);
+        if (existing != null && !existing.equals(dictionary))
+            throw new IllegalArgumentException("A different zstd dictionary is already registered with id " + dictionary.id);
+    }
+
+    /**
+     * The dictionary registered with the given id, or null if there is none
+     */
+    public static ZstdDictionary forId(int id) {
+        return DICTIONARIES.get(id);
+    }
+
+    /**
+     * Read and register the dictionaries in a directory
+     *
+     * @param path The directory, which contains one {@code <topic>.dict} file for every topic that has a dictionary
+     * @return The dictionaries by topic
+     * @throws KafkaException if the directory or any of the dictionaries cannot be read
+     */
+    public static Map<String, ZstdDictionary> loadDirectory(String path) {
+        File[] files = new File(path).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(FILE_SUFFIX);
+            }
+        });
+        if (files == null)
+            throw new KafkaException("Could not list the zstd dictionaries in " + path);
+
+        Map<String, ZstdDictionary> dictionaries = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            String topic = name.substring(0, name.length() - FILE_SUFFIX.length());
+            try {
+                ZstdDictionary dictionary = parse(Files.readAllBytes(file.toPath()));
+                register(dictionary);
+                dictionaries.put(topic, dictionary);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new KafkaException("Could not load the zstd dictionary " + file, e);
+            }
+        }
+        return dictionaries;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        ZstdDictionary that = (ZstdDictionary) o;
+        return id == that.id && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "ZstdDictionary(id=" + (id & 0xFFFFFFFFL) + ", size=" + bytes.length + ")";
+    }
+}
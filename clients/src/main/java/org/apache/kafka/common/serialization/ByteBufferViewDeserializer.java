@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package org.apache.kafka.common.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Deserializer} that can read the serialized bytes in place, without them being copied into a byte array
+ * first.
+ * <p>
+ * When a consumer is configured with such a deserializer it calls {@link #deserializeView(String, ByteBuffer)} instead
+ * of {@link #deserialize(String, byte[])}, passing a read-only view of the key or value within the fetched data. The
+ * view is only valid until the next call to <code>poll()</code> on the consumer: implementations must not keep a
+ * reference to it, or to anything sharing its content, in the returned object.
+ *
+ * @param <T> Type to be deserialized into.
+ */
+public interface ByteBufferViewDeserializer<T> extends Deserializer<T> {
+
+    /**
+     * Deserialize a record key or value from a view of its serialized bytes.
+     * @param topic topic associated with the data
+     * @param view read-only view of the serialized bytes, from its position to its limit; may be null
+     * @return deserialized typed data; may be null
+     */
+    public T deserializeView(String topic, ByteBuffer view);
+}
@@ -14,9 +14,10 @@ package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class DoubleDeserializer implements Deserializer<Double> {
+public class DoubleDeserializer implements ByteBufferViewDeserializer<Double> {
 
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
@@ -39,6 +40,17 @@ public class DoubleDeserializer implements Deserializer<Double> {
         return Double.longBitsToDouble(value);
     }
 
+    @Override
+    public Double deserializeView(String topic, ByteBuffer view) {
+        if (view == null)
+            return null;
+        if (view.remaining() != 8) {
+            throw new SerializationException("Size of data received by Deserializer is not 8");
+        }
+
+        return view.getDouble(view.position());
+    }
+
     @Override
     public void close() {
         // nothing to do
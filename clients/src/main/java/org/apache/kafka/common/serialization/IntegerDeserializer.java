@@ -14,9 +14,10 @@ package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class IntegerDeserializer implements Deserializer<Integer> {
+public class IntegerDeserializer implements ByteBufferViewDeserializer<Integer> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -38,6 +39,17 @@ public class IntegerDeserializer implements Deserializer<Integer> {
         return value;
     }
 
+    public Integer deserializeView(String topic, ByteBuffer view) {
+        if (view == null)
+            return null;
+        if (view.remaining() != 4) {
+            throw new SerializationException("Size of data received by IntegerDeserializer is " +
+                    "not 4");
+        }
+
+        return view.getInt(view.position());
+    }
+
     public void close() {
         // nothing to do
     }
@@ -14,9 +14,10 @@ package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class LongDeserializer implements Deserializer<Long> {
+public class LongDeserializer implements ByteBufferViewDeserializer<Long> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -38,6 +39,17 @@ public class LongDeserializer implements Deserializer<Long> {
         return value;
     }
 
+    public Long deserializeView(String topic, ByteBuffer view) {
+        if (view == null)
+            return null;
+        if (view.remaining() != 8) {
+            throw new SerializationException("Size of data received by LongDeserializer is " +
+                    "not 8");
+        }
+
+        return view.getLong(view.position());
+    }
+
     public void close() {
         // nothing to do
     }
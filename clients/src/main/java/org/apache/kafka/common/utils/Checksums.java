@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Factory and helper methods for the {@link Checksum} implementations used for record checksums. Where the JVM has
+ * an intrinsic implementation of an algorithm it is used, otherwise a pure-java implementation is used instead.
+ */
+public final class Checksums {
+
+    // java.util.zip.CRC32 is only an intrinsic since Java 8, which also added CRC32.update(ByteBuffer); before that
+    // every update is a JNI call and the pure-java implementation is faster for the small updates we make
+    private static final boolean CRC32_INTRINSIC = hasMethod(CRC32.class, "update", ByteBuffer.class);
+
+    // java.util.zip.CRC32C only exists since Java 9, so it is looked up dynamically
+    private static final MethodHandle CRC32C_CONSTRUCTOR = crc32cConstructor();
+
+    private Checksums() {
+    }
+
+    /**
+     * Create a new CRC32 checksum, using java.util.zip.CRC32 if the JVM has an intrinsic for it
+     */
+    public static Checksum crc32() {
+        return CRC32_INTRINSIC ? new CRC32() : new Crc32();
+    }
+
+    /**
+     * Create a new CRC32C checksum, using java.util.zip.CRC32C if the JVM provides it
+     */
+    public static Checksum crc32c() {
+        if (CRC32C_CONSTRUCTOR == null)
+            return new Crc32C();
+        try {
+            return (Checksum) CRC32C_CONSTRUCTOR.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to create java.util.zip.CRC32C", t);
+        }
+    }
+
+    /**
+     * Update the checksum with the given number of bytes of the buffer starting at the given position, without
+     * changing the position of the buffer
+     */
+    public static void update(Checksum checksum, ByteBuffer buffer, int position, int length) {
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + position, length);
+        } else {
+            // direct buffers have no accessible array, so copy the bytes out first
+            byte[] bytes = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(bytes);
+            checksum.update(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Update the checksum with the big-endian representation of the given integer
+     */
+    public static void updateInt(Checksum checksum, int input) {
+        checksum.update((byte) (input >> 24));
+        checksum.update((byte) (input >> 16));
+        checksum.update((byte) (input >> 8));
+        checksum.update((byte) input /* >> 0 */);
+    }
+
+    /**
+     * Update the checksum with the big-endian representation of the given long
+     */
+    public static void updateLong(Checksum checksum, long input) {
+        updateInt(checksum, (int) (input >> 32));
+        updateInt(checksum, (int) input);
+    }
+
+    private static boolean hasMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            clazz.getMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle crc32cConstructor() {
+        try {
+            Class<?> clazz = Class.forName("java.util.zip.CRC32C");
+            return MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.kafka.common.utils;
+
+import java.util.zip.Checksum;
+
+/**
+ * A pure-java implementation of the CRC32C checksum, which uses the Castagnoli polynomial 0x1EDC6F41 instead of the
+ * polynomial of {@link Crc32}. It is only used where the JVM does not provide java.util.zip.CRC32C, see
+ * {@link Checksums#crc32c()}.
+ *
+ * Like {@link Crc32} this processes eight bytes at a time, using lookup tables which are generated when the class is
+ * loaded.
+ */
+public class Crc32C implements Checksum {
+
+    /** the reversed representation of the Castagnoli polynomial */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /** eight tables of 256 entries, the k-th giving the CRC of a byte followed by k zero bytes */
+    private static final int[] T = new int[8 * 256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            T[i] = crc;
+        }
+        for (int table = 1; table < 8; table++) {
+            for (int i = 0; i < 256; i++) {
+                int previous = T[(table - 1) * 256 + i];
+                T[table * 256 + i] = (previous >>> 8) ^ T[previous & 0xff];
+            }
+        }
+    }
+
+    /**
+     * Compute the CRC32C of the segment of the byte array given by the specified size and offset
+     *
+     * @param bytes The bytes to checksum
+     * @param offset the offset at which to begin checksumming
+     * @param size the number of bytes to checksum
+     * @return The CRC32C
+     */
+    public static long crc32c(byte[] bytes, int offset, int size) {
+        Crc32C crc = new Crc32C();
+        crc.update(bytes, offset, size);
+        return crc.getValue();
+    }
+
+    /** the current CRC value, bit-flipped */
+    private int crc;
+
+    public Crc32C() {
+        reset();
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off > b.length - len)
+            throw new ArrayIndexOutOfBoundsException();
+
+        int localCrc = crc;
+
+        while (len > 7) {
+            localCrc ^= (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+            localCrc = (T[7 * 256 + (localCrc & 0xff)] ^ T[6 * 256 + ((localCrc >>> 8) & 0xff)])
+                    ^ (T[5 * 256 + ((localCrc >>> 16) & 0xff)] ^ T[4 * 256 + (localCrc >>> 24)])
+                    ^ (T[3 * 256 + (b[off + 4] & 0xff)] ^ T[2 * 256 + (b[off + 5] & 0xff)])
+                    ^ (T[256 + (b[off + 6] & 0xff)] ^ T[b[off + 7] & 0xff]);
+            off += 8;
+            len -= 8;
+        }
+
+        while (len > 0) {
+            localCrc = (localCrc >>> 8) ^ T[(localCrc ^ b[off++]) & 0xff];
+            len--;
+        }
+
+        // Publish crc out to object
+        crc = localCrc;
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ T[(crc ^ b) & 0xff];
+    }
+}
@@ -1077,6 +1077,8 @@ public class KafkaConsumerTest {
         int minBytes = 1;
         int maxWaitMs = 500;
         int fetchSize = 1024 * 1024;
+        int prefetchBytes = 0;
+        long fetchBufferMemory = 64 * 1024 * 1024L;
         int maxPollRecords = Integer.MAX_VALUE;
         boolean checkCrcs = true;
 
@@ -1115,6 +1117,8 @@ public class KafkaConsumerTest {
                 minBytes,
                 maxWaitMs,
                 fetchSize,
+                prefetchBytes,
+                fetchBufferMemory,
                 maxPollRecords,
                 checkCrcs,
                 keyDeserializer,
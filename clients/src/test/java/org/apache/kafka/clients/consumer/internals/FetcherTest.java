@@ -50,6 +50,7 @@ import org.apache.kafka.common.requests.ListOffsetResponse;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.requests.MetadataResponse;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteBufferViewDeserializer;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.test.TestUtils;
@@ -62,9 +63,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
@@ -210,6 +213,48 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testFetchWithByteBufferViewDeserializer() {
+        // the deserializer must only be handed read-only views of the fetched data
+        ByteBufferViewDeserializer<String> deserializer = new ByteBufferViewDeserializer<String>() {
+            @Override
+            public void configure(Map<String, ?> configs, boolean isKey) {}
+
+            @Override
+            public String deserialize(String topic, byte[] data) {
+                throw new AssertionError("The byte array should not be copied");
+            }
+
+            @Override
+            public String deserializeView(String topic, ByteBuffer view) {
+                assertTrue(view.isReadOnly());
+                byte[] bytes = new byte[view.remaining()];
+                view.get(bytes);
+                return new String(bytes);
+            }
+
+            @Override
+            public void close() {}
+        };
+        Fetcher<String, String> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer);
+
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+        client.prepareResponse(fetchResponse(this.records.buffer(), Errors.NONE.code(), 100L, 0));
+        fetcher.sendFetches();
+        consumerClient.poll(0);
+
+        List<ConsumerRecord<String, String>> records = fetcher.fetchedRecords().get(tp);
+        assertEquals(3, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, String> record = records.get(i);
+            assertEquals("key", record.key());
+            assertEquals("value-" + (i + 1), record.value());
+            assertEquals(3, record.serializedKeySize());
+            assertEquals(7, record.serializedValueSize());
+        }
+    }
+
     @Test
     public void testParseInvalidRecord() {
         ByteBuffer buffer = ByteBuffer.allocate(1024);
@@ -287,6 +332,145 @@ public class FetcherTest {
         assertEquals(5, records.get(1).offset());
     }
 
+    @Test
+    public void testNoPrefetchWhileRecordsAreBuffered() {
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        fetcher.sendFetches();
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records.buffer(), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+        assertTrue(fetcher.hasCompletedFetches());
+
+        // without prefetching, the partition is not fetched until its buffered records have been returned
+        fetcher.sendFetches();
+        assertFalse(fetcher.hasInFlightFetches());
+    }
+
+    @Test
+    public void testPrefetchWhileRecordsAreBuffered() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), 2, 2 * fetchSize);
+
+        List<ConsumerRecord<byte[], byte[]>> records;
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        fetcher.sendFetches();
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records.buffer(), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+        assertTrue(fetcher.hasCompletedFetches());
+
+        // the partition is fetched again from the offset following the completed fetch
+        fetcher.sendFetches();
+        assertTrue(fetcher.hasInFlightFetches());
+        client.prepareResponse(matchesOffset(tp, 4), fetchResponse(this.nextRecords.buffer(), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+        assertFalse(fetcher.hasInFlightFetches());
+
+        records = fetcher.fetchedRecords().get(tp);
+        assertEquals(2, records.size());
+        assertEquals(3L, subscriptions.position(tp).longValue());
+
+        // the next fetch follows the last chunk of buffered data, not the records which have not been returned yet
+        fetcher.sendFetches();
+        assertTrue(fetcher.hasInFlightFetches());
+        client.prepareResponse(matchesOffset(tp, 6), fetchResponse(ByteBuffer.allocate(0), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+
+        records = fetcher.fetchedRecords().get(tp);
+        assertEquals(2, records.size());
+        assertEquals(3, records.get(0).offset());
+        assertEquals(4, records.get(1).offset());
+        records = fetcher.fetchedRecords().get(tp);
+        assertEquals(1, records.size());
+        assertEquals(5, records.get(0).offset());
+        assertEquals(6L, subscriptions.position(tp).longValue());
+    }
+
+    @Test
+    public void testPrefetchIsBoundedByBytes() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), Integer.MAX_VALUE, fetchSize);
+
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        fetcher.sendFetches();
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records.buffer(), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+
+        // the buffered data plus another full fetch would exceed the prefetch bound
+        fetcher.sendFetches();
+        assertFalse(fetcher.hasInFlightFetches());
+
+        // once the buffered data has been returned, the partition is fetched as usual
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+        fetcher.sendFetches();
+        assertTrue(fetcher.hasInFlightFetches());
+    }
+
+    @Test
+    public void testNoPrefetchAfterSeek() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), Integer.MAX_VALUE, 2 * fetchSize);
+
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        fetcher.sendFetches();
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records.buffer(), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+
+        // the buffered data is stale after a seek, so nothing is chained onto it
+        subscriptions.seek(tp, 10);
+        fetcher.sendFetches();
+        assertFalse(fetcher.hasInFlightFetches());
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+
+        fetcher.sendFetches();
+        assertTrue(fetcher.hasInFlightFetches());
+    }
+
+    @Test
+    public void testFetchBufferMemoryIsSharedBetweenPartitions() {
+        Metrics metrics = new Metrics(time);
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, metrics, Integer.MAX_VALUE, 0, fetchSize);
+        KafkaMetric usedBytes = metrics.metrics().get(metrics.metricName("fetch-buffer-used-bytes", metricGroup, ""));
+        KafkaMetric waitTimeTotal = metrics.metrics().get(metrics.metricName("fetch-buffer-wait-time-total", metricGroup, ""));
+
+        TopicPartition tp1 = new TopicPartition(topicName, 1);
+        metadata.update(TestUtils.singletonCluster(topicName, 2), time.milliseconds());
+        subscriptions.assignFromUser(new HashSet<>(Arrays.asList(tp, tp1)));
+        subscriptions.seek(tp, 1);
+        subscriptions.seek(tp1, 1);
+
+        // only one partition fits into the fetch buffer
+        fetcher.sendFetches();
+        consumerClient.poll(0);
+        Set<TopicPartition> fetched = new FetchRequest(client.requests().peek().request().body()).fetchData().keySet();
+        assertEquals(1, fetched.size());
+        TopicPartition first = fetched.iterator().next();
+        TopicPartition second = first.equals(tp) ? tp1 : tp;
+        assertEquals(fetchSize, usedBytes.value(), EPSILON);
+
+        client.respond(fetchResponse(first, this.records.buffer(), Errors.NONE.code(), 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(this.records.sizeInBytes(), usedBytes.value(), EPSILON);
+
+        // the fetched data is still buffered, so the other partition has to wait
+        fetcher.sendFetches();
+        assertFalse(fetcher.hasInFlightFetches());
+        time.sleep(10);
+
+        assertEquals(3, fetcher.fetchedRecords().get(first).size());
+        assertEquals(0, usedBytes.value(), EPSILON);
+
+        // the partition which has waited is fetched before the one which was fetched last
+        fetcher.sendFetches();
+        consumerClient.poll(0);
+        fetched = new FetchRequest(client.requests().peek().request().body()).fetchData().keySet();
+        assertEquals(Collections.singleton(second), fetched);
+        assertTrue(waitTimeTotal.value() >= 10);
+    }
+
     @Test
     public void testFetchNonContinuousRecords() {
         // if we are fetching from a compacted topic, there may be gaps in the returned records
@@ -676,6 +860,10 @@ public class FetcherTest {
     }
 
     private Struct fetchResponse(ByteBuffer buffer, short error, long hw, int throttleTime) {
+        return fetchResponse(tp, buffer, error, hw, throttleTime);
+    }
+
+    private Struct fetchResponse(TopicPartition tp, ByteBuffer buffer, short error, long hw, int throttleTime) {
         FetchResponse response = new FetchResponse(Collections.singletonMap(tp, new FetchResponse.PartitionData(error, hw, buffer)), throttleTime);
         return response.toStruct();
     }
@@ -697,10 +885,26 @@ public class FetcherTest {
         return new MetadataResponse(cluster.nodes(), MetadataResponse.NO_CONTROLLER_ID, Arrays.asList(topicMetadata));
     }
 
+    private Fetcher<byte[], byte[]> createFetcher(SubscriptionState subscriptions,
+                                                  Metrics metrics,
+                                                  int maxPollRecords,
+                                                  int prefetchBytes,
+                                                  long fetchBufferMemory) {
+        return createFetcher(subscriptions, metrics, new ByteArrayDeserializer(), new ByteArrayDeserializer(),
+                maxPollRecords, prefetchBytes, fetchBufferMemory);
+    }
+
+    private Fetcher<byte[], byte[]> createFetcher(SubscriptionState subscriptions,
+                                                  Metrics metrics,
+                                                  int maxPollRecords,
+                                                  int prefetchBytes) {
+        return createFetcher(subscriptions, metrics, maxPollRecords, prefetchBytes, Long.MAX_VALUE);
+    }
+
     private Fetcher<byte[], byte[]> createFetcher(SubscriptionState subscriptions,
                                                   Metrics metrics,
                                                   int maxPollRecords) {
-        return createFetcher(subscriptions, metrics, new ByteArrayDeserializer(), new ByteArrayDeserializer(), maxPollRecords);
+        return createFetcher(subscriptions, metrics, maxPollRecords, 0);
     }
 
     private Fetcher<byte[], byte[]> createFetcher(SubscriptionState subscriptions, Metrics metrics) {
@@ -711,18 +915,23 @@ public class FetcherTest {
                                                Metrics metrics,
                                                Deserializer<K> keyDeserializer,
                                                Deserializer<V> valueDeserializer) {
-        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, Integer.MAX_VALUE);
+        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, Integer.MAX_VALUE, 0,
+                Long.MAX_VALUE);
     }
 
     private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
                                                Metrics metrics,
                                                Deserializer<K> keyDeserializer,
                                                Deserializer<V> valueDeserializer,
-                                               int maxPollRecords) {
+                                               int maxPollRecords,
+                                               int prefetchBytes,
+                                               long fetchBufferMemory) {
         return new Fetcher<>(consumerClient,
                 minBytes,
                 maxWaitMs,
                 fetchSize,
+                prefetchBytes,
+                fetchBufferMemory,
                 maxPollRecords,
                 true, // check crc
                 keyDeserializer,
@@ -17,6 +17,7 @@
 package org.apache.kafka.clients.producer.internals;
 
 import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.KafkaMetric;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.SystemTime;
@@ -33,6 +34,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -79,6 +81,71 @@ public class BufferPoolTest {
         assertEquals("Non-standard size didn't go to the free list.", totalMemory - size, pool.unallocatedMemory());
     }
 
+    /**
+     * Test that sizes above the poolable size are rounded up to a size class and recycled through its free list
+     */
+    @Test
+    public void testSizeClasses() throws Exception {
+        long totalMemory = 16 * 1024;
+        int size = 1024;
+        BufferPool pool = new BufferPool(totalMemory, size, 3, false, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(size + 1, maxBlockTimeMs);
+        assertEquals("Buffer should be rounded up to the next size class.", 2 * size, buffer.capacity());
+        assertEquals("Unallocated memory should have shrunk by the size class", totalMemory - 2 * size, pool.unallocatedMemory());
+        pool.deallocate(buffer);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+        assertEquals("The buffer should be on the free list", totalMemory - 2 * size, pool.unallocatedMemory());
+        assertTrue("The buffer should be recycled", buffer == pool.allocate(2 * size, maxBlockTimeMs));
+        pool.deallocate(buffer);
+
+        // larger than the largest size class, so it is neither rounded up nor recycled
+        buffer = pool.allocate(4 * size + 1, maxBlockTimeMs);
+        assertEquals(4 * size + 1, buffer.capacity());
+        pool.deallocate(buffer);
+        assertEquals("Unpooled size didn't go to the free list.", totalMemory - 2 * size, pool.unallocatedMemory());
+
+        // the free lists are given up when the memory is needed for another size
+        buffer = pool.allocate((int) totalMemory, maxBlockTimeMs);
+        assertEquals(0, pool.availableMemory());
+        pool.deallocate(buffer);
+        assertEquals(totalMemory, pool.unallocatedMemory());
+    }
+
+    /**
+     * Test that recycled buffers can be allocated off-heap while other sizes stay on the heap
+     */
+    @Test
+    public void testDirectBuffers() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(16 * 1024, size, 2, true, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(size, maxBlockTimeMs);
+        assertTrue(buffer.isDirect());
+        pool.deallocate(buffer);
+        assertTrue("The direct buffer should be recycled", buffer == pool.allocate(size, maxBlockTimeMs));
+        assertTrue(pool.allocate(2 * size, maxBlockTimeMs).isDirect());
+        assertFalse(pool.allocate(size - 1, maxBlockTimeMs).isDirect());
+        assertFalse(pool.allocate(2 * size + 1, maxBlockTimeMs).isDirect());
+    }
+
+    /**
+     * Test that allocations are counted as hits when served from a free list and as misses otherwise
+     */
+    @Test
+    public void testHitAndMissMetrics() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(16 * 1024, size, 2, false, metrics, time, metricGroup);
+        KafkaMetric hitRate = metrics.metrics().get(metrics.metricName("bufferpool-hit-rate", metricGroup));
+        KafkaMetric missRate = metrics.metrics().get(metrics.metricName("bufferpool-miss-rate", metricGroup));
+        ByteBuffer buffer = pool.allocate(size, maxBlockTimeMs);
+        pool.deallocate(buffer);
+        pool.allocate(size, maxBlockTimeMs);
+        pool.allocate(size, maxBlockTimeMs);
+        pool.allocate(size - 1, maxBlockTimeMs);
+        time.sleep(1000);
+        assertTrue(hitRate.value() > 0);
+        assertEquals("There should be three misses for every hit", 3 * hitRate.value(), missRate.value(), 0.0001);
+    }
+
     /**
      * Test that we cannot try to allocate more memory then we have in the whole pool
      */
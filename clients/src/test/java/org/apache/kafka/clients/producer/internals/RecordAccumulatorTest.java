@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.RecordMetadata;
@@ -110,6 +111,34 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAbortOnNewBatch() throws Exception {
+        int batchSize = 1024;
+        RecordAccumulator accum = new RecordAccumulator(batchSize, 10 * batchSize, CompressionType.NONE, 10L, 100L, metrics, time);
+        // with no batch for the partition yet, the append is aborted without allocating one
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, value, null, maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertEquals(null, result.future);
+        assertTrue(accum.batches().get(tp1).isEmpty());
+
+        result = accum.append(tp1, 0L, key, value, null, maxBlockTimeMs, false);
+        assertFalse(result.abortForNewBatch);
+        assertTrue(result.newBatchCreated);
+
+        // records that still fit into the last batch are appended as usual
+        int appends = batchSize / msgSize;
+        for (int i = 1; i < appends; i++) {
+            result = accum.append(tp1, 0L, key, value, null, maxBlockTimeMs, true);
+            assertFalse(result.abortForNewBatch);
+            assertFalse(result.newBatchCreated);
+        }
+
+        // once the batch is full the append is aborted again and the batch count is unchanged
+        result = accum.append(tp1, 0L, key, value, null, maxBlockTimeMs, true);
+        assertTrue(result.abortForNewBatch);
+        assertEquals(1, accum.batches().get(tp1).size());
+    }
+
     @Test
     public void testAppendLarge() throws Exception {
         int batchSize = 512;
@@ -194,6 +223,72 @@ public class RecordAccumulatorTest {
     }
 
 
+    @Test
+    public void testConcurrentAppendsPreserveOrder() throws Exception {
+        final int numThreads = 4;
+        final int msgs = 5000;
+        final RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 0L, 100L, metrics, time);
+        final List<Long> callbackOffsets = new ArrayList<Long>();
+        final Callback callback = new Callback() {
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                callbackOffsets.add(metadata.offset());
+            }
+        };
+        final AtomicReference<Exception> appendError = new AtomicReference<Exception>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < msgs; i++) {
+                        try {
+                            byte[] sequence = ByteBuffer.allocate(8).putInt(thread).putInt(i).array();
+                            accum.append(tp1, 0L, key, sequence, callback, maxBlockTimeMs);
+                        } catch (Exception e) {
+                            appendError.compareAndSet(null, e);
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+
+        int[] nextSequence = new int[numThreads];
+        long baseOffset = 0L;
+        long deadlineMs = System.currentTimeMillis() + 30000L;
+        while (baseOffset < numThreads * msgs && appendError.get() == null) {
+            if (System.currentTimeMillis() > deadlineMs)
+                fail("Only " + baseOffset + " of the appended records were drained in time");
+            Set<Node> nodes = accum.ready(cluster, time.milliseconds()).readyNodes;
+            List<RecordBatch> batches = accum.drain(cluster, nodes, Integer.MAX_VALUE, 0).get(node1.id());
+            if (batches == null)
+                continue;
+            for (RecordBatch batch : batches) {
+                long relativeOffset = 0L;
+                for (LogEntry entry : batch.records) {
+                    assertEquals("Relative offsets should be sequential", relativeOffset++, entry.offset());
+                    ByteBuffer sequence = entry.record().value();
+                    int thread = sequence.getInt();
+                    assertEquals("Records of each thread should be in order", nextSequence[thread]++, sequence.getInt());
+                }
+                assertEquals(relativeOffset, batch.recordCount);
+                batch.done(baseOffset, Record.NO_TIMESTAMP, null);
+                baseOffset += batch.recordCount;
+                accum.deallocate(batch);
+            }
+        }
+        for (Thread t : threads)
+            t.join();
+        if (appendError.get() != null)
+            throw appendError.get();
+
+        assertEquals(numThreads * msgs, callbackOffsets.size());
+        for (int i = 0; i < callbackOffsets.size(); i++)
+            assertEquals("Callbacks should be completed in offset order", (long) i, (long) callbackOffsets.get(i));
+    }
+
     @Test
     public void testNextReadyCheckDelay() throws Exception {
         // Next check time will use lingerMs since this test won't trigger any retries/backoff
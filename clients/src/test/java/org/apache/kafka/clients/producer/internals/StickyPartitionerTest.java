@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license agreements. See the NOTICE
+ * file distributed with this work for additional information regarding copyright ownership. The ASF licenses this file
+ * to You under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StickyPartitionerTest {
+    private byte[] keyBytes = "key".getBytes();
+    private Node node0 = new Node(0, "localhost", 99);
+    private Node node1 = new Node(1, "localhost", 100);
+    private Node node2 = new Node(2, "localhost", 101);
+    private Node[] nodes = new Node[] {node0, node1, node2};
+    private String topic = "test";
+    // Intentionally make the partition list not in partition order to test the edge cases.
+    private List<PartitionInfo> partitions = asList(new PartitionInfo(topic, 1, null, nodes, nodes),
+                                                    new PartitionInfo(topic, 2, node1, nodes, nodes),
+                                                    new PartitionInfo(topic, 0, node0, nodes, nodes));
+    private Cluster cluster = new Cluster(asList(node0, node1, node2), partitions, Collections.<String>emptySet(),
+            Collections.<String>emptySet());
+
+    @Test
+    public void testKeyPartitionIsStable() {
+        StickyPartitioner partitioner = new StickyPartitioner();
+        int partition = partitioner.partition(topic, null, keyBytes, null, null, cluster);
+        assertEquals("Same key should yield same partition", partition, partitioner.partition(topic, null, keyBytes, null, null, cluster));
+        partitioner.onNewBatch(topic, cluster, partition);
+        assertEquals("A new batch should not move keyed records", partition, partitioner.partition(topic, null, keyBytes, null, null, cluster));
+    }
+
+    @Test
+    public void testKeylessRecordsStickUntilNewBatch() {
+        StickyPartitioner partitioner = new StickyPartitioner();
+        int partition = partitioner.partition(topic, null, null, null, null, cluster);
+        assertTrue("We should never choose a leader-less node", partition == 0 || partition == 2);
+        for (int i = 0; i < 100; i++)
+            assertEquals(partition, partitioner.partition(topic, null, null, null, null, cluster));
+
+        partitioner.onNewBatch(topic, cluster, partition);
+        int nextPartition = partitioner.partition(topic, null, null, null, null, cluster);
+        assertNotEquals("A new batch should switch to another available partition", partition, nextPartition);
+        assertTrue("We should never choose a leader-less node", nextPartition == 0 || nextPartition == 2);
+    }
+
+    @Test
+    public void testNewBatchForStalePartitionIsIgnored() {
+        StickyPartitioner partitioner = new StickyPartitioner();
+        int partition = partitioner.partition(topic, null, null, null, null, cluster);
+        partitioner.onNewBatch(topic, cluster, partition);
+        int nextPartition = partitioner.partition(topic, null, null, null, null, cluster);
+
+        // a second thread that also saw the old partition fill up must not move the partition again
+        partitioner.onNewBatch(topic, cluster, partition);
+        assertEquals(nextPartition, partitioner.partition(topic, null, null, null, null, cluster));
+    }
+
+    @Test
+    public void testSingleAvailablePartition() {
+        List<PartitionInfo> onePartitionAvailable = asList(new PartitionInfo(topic, 0, null, nodes, nodes),
+                                                           new PartitionInfo(topic, 1, node1, nodes, nodes));
+        Cluster cluster = new Cluster(asList(node0, node1), onePartitionAvailable, Collections.<String>emptySet(),
+                Collections.<String>emptySet());
+        StickyPartitioner partitioner = new StickyPartitioner();
+        assertEquals(1, partitioner.partition(topic, null, null, null, null, cluster));
+        partitioner.onNewBatch(topic, cluster, 1);
+        assertEquals(1, partitioner.partition(topic, null, null, null, null, cluster));
+    }
+}
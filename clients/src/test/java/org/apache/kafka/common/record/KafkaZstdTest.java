@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+public class KafkaZstdTest {
+
+    private static byte[] value(int seed, int i) {
+        return ("{\"id\":" + i + ",\"user\":\"user-" + (i % 97) + "\",\"event\":\"page_view\",\"seed\":" + seed
+                + ",\"url\":\"/products/" + (i % 13) + "\"}").getBytes();
+    }
+
+    private static ZstdDictionary train(int seed) {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1024 * 1024, 4096);
+        for (int i = 0; i < 5000; i++)
+            trainer.addSample(value(seed, i));
+        return ZstdDictionary.parse(trainer.trainSamples());
+    }
+
+    private static MemoryRecords compress(ZstdDictionary dictionary) {
+        MemoryRecords records = MemoryRecords.emptyRecords(ByteBuffer.allocate(1024), CompressionType.ZSTD,
+                ChecksumType.CRC32, dictionary, 1024);
+        for (int i = 0; i < 3; i++)
+            records.append(i, 0L, null, value(0, i));
+        records.close();
+        return MemoryRecords.readableRecords(records.buffer());
+    }
+
+    private static byte[] frameHeader(ZstdDictionary dictionary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream stream = new KafkaZstdOutputStream(out, dictionary);
+        stream.write(value(0, 0));
+        stream.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTripWithDictionary() {
+        ZstdDictionary dictionary = train(1);
+        ZstdDictionary.register(dictionary);
+        int count = 0;
+        for (LogEntry entry : compress(dictionary)) {
+            assertEquals(count, entry.offset());
+            assertArrayEquals(value(0, count), Utils.toArray(entry.record().value()));
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void testDictionaryIdInFrameHeader() throws IOException {
+        ZstdDictionary dictionary = train(2);
+        byte[] withDictionary = frameHeader(dictionary);
+        assertEquals(dictionary.id(), KafkaZstdInputStream.dictionaryId(withDictionary, withDictionary.length));
+        byte[] withoutDictionary = frameHeader(null);
+        assertEquals(0, KafkaZstdInputStream.dictionaryId(withoutDictionary, withoutDictionary.length));
+        assertEquals(0, KafkaZstdInputStream.dictionaryId(new byte[] {1, 2, 3, 4, 5, 6}, 6));
+    }
+
+    @Test
+    public void testUnknownDictionary() {
+        MemoryRecords records = compress(train(3));
+        try {
+            records.iterator().next();
+            fail("Should not decompress records compressed with an unknown dictionary");
+        } catch (KafkaException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsOtherData() {
+        ZstdDictionary.parse("not a dictionary".getBytes());
+    }
+
+    @Test
+    public void testLoadDirectory() throws IOException {
+        ZstdDictionary dictionary = train(4);
+        File dir = TestUtils.tempDirectory();
+        Files.write(new File(dir, "events" + ZstdDictionary.FILE_SUFFIX).toPath(), dictionary.bytes());
+        Files.write(new File(dir, "README").toPath(), "ignored".getBytes());
+
+        Map<String, ZstdDictionary> dictionaries = ZstdDictionary.loadDirectory(dir.getPath());
+        assertEquals(1, dictionaries.size());
+        assertEquals(dictionary, dictionaries.get("events"));
+        assertSame(dictionaries.get("events"), ZstdDictionary.forId(dictionary.id()));
+        assertTrue(compress(dictionary).iterator().hasNext());
+    }
+}
@@ -71,6 +71,54 @@ public class MemoryRecordsTest {
         }
     }
 
+    @Test
+    public void testCrc32CRecords() {
+        MemoryRecords recs = MemoryRecords.emptyRecords(ByteBuffer.allocate(1024), compression, ChecksumType.CRC32C, 1024);
+        for (int i = 0; i < 3; i++)
+            recs.append(i, 0L, "key".getBytes(), ("value" + i).getBytes());
+        recs.close();
+
+        MemoryRecords readable = MemoryRecords.readableRecords(recs.buffer());
+        int count = 0;
+        for (LogEntry entry : readable) {
+            Record record = entry.record();
+            assertEquals(ChecksumType.CRC32C, record.checksumType());
+            assertEquals(Record.computeChecksum(ChecksumType.CRC32C, 0L, "key".getBytes(), ("value" + count).getBytes(),
+                    CompressionType.NONE, 0, -1), record.checksum());
+            record.ensureValid();
+            count++;
+        }
+        assertEquals(3, count);
+
+        // the shallow record of a compressed batch is checksummed with the same algorithm
+        ByteBuffer buffer = recs.buffer().duplicate();
+        buffer.position(Records.LOG_OVERHEAD);
+        buffer.limit(Records.LOG_OVERHEAD + buffer.getInt(Records.OFFSET_LENGTH));
+        Record shallow = new Record(buffer.slice());
+        assertEquals(ChecksumType.CRC32C, shallow.checksumType());
+        assertEquals(compression, shallow.compressionType());
+        assertTrue(shallow.isValid());
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        // the smaller buffer has to be expanded onto the heap while appending
+        for (int capacity : new int[] {64, 1024}) {
+            MemoryRecords recs = MemoryRecords.emptyRecords(ByteBuffer.allocateDirect(capacity), compression);
+            for (int i = 0; i < 10; i++)
+                recs.append(i, 0L, "key".getBytes(), ("value" + i).getBytes());
+            recs.close();
+
+            Iterator<LogEntry> iter = recs.iterator();
+            for (int i = 0; i < 10; i++) {
+                LogEntry entry = iter.next();
+                assertEquals((long) i, entry.offset());
+                entry.record().ensureValid();
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
     @Test
     public void testHasRoomForMethod() {
         MemoryRecords recs1 = MemoryRecords.emptyRecords(ByteBuffer.allocate(1024), compression);
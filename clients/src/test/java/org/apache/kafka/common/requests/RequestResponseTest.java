@@ -50,8 +50,9 @@ public class RequestResponseTest {
                 createControlledShutdownResponse(),
                 createControlledShutdownRequest().getErrorResponse(1, new UnknownServerException()),
                 createFetchRequest(),
-                createFetchRequest().getErrorResponse(1, new UnknownServerException()),
+                createFetchRequest().getErrorResponse(3, new UnknownServerException()),
                 createFetchResponse(),
+                createFetchSessionRequest(),
                 createHeartBeatRequest(),
                 createHeartBeatRequest().getErrorResponse(0, new UnknownServerException()),
                 createHeartBeatResponse(),
@@ -115,6 +116,7 @@ public class RequestResponseTest {
         createMetadataResponse(0);
         createMetadataRequest(Arrays.asList("topic1")).getErrorResponse(0, new UnknownServerException());
         checkSerialization(createFetchRequest().getErrorResponse(0, new UnknownServerException()), 0);
+        checkSerialization(createFetchRequest().getErrorResponse(1, new UnknownServerException()), 1);
         checkSerialization(createOffsetCommitRequest(0), 0);
         checkSerialization(createOffsetCommitRequest(0).getErrorResponse(0, new UnknownServerException()), 0);
         checkSerialization(createOffsetCommitRequest(1), 1);
@@ -169,12 +171,17 @@ public class RequestResponseTest {
 
         FetchResponse v0Response = new FetchResponse(responseData);
         FetchResponse v1Response = new FetchResponse(responseData, 10);
+        FetchResponse v3Response = new FetchResponse(Errors.NONE.code(), 123, responseData, 10);
         assertEquals("Throttle time must be zero", 0, v0Response.getThrottleTime());
         assertEquals("Throttle time must be 10", 10, v1Response.getThrottleTime());
+        assertEquals("Throttle time must be 10", 10, v3Response.getThrottleTime());
+        assertEquals("Session id must be 123", 123, v3Response.sessionId());
         assertEquals("Should use schema version 0", ProtoUtils.responseSchema(ApiKeys.FETCH.id, 0), v0Response.toStruct().schema());
         assertEquals("Should use schema version 1", ProtoUtils.responseSchema(ApiKeys.FETCH.id, 1), v1Response.toStruct().schema());
+        assertEquals("Should use schema version 3", ProtoUtils.responseSchema(ApiKeys.FETCH.id, 3), v3Response.toStruct().schema());
         assertEquals("Response data does not match", responseData, v0Response.responseData());
         assertEquals("Response data does not match", responseData, v1Response.responseData());
+        assertEquals("Response data does not match", responseData, v3Response.responseData());
     }
 
     @Test
@@ -224,10 +231,17 @@ public class RequestResponseTest {
         return new FetchRequest(-1, 100, 100000, fetchData);
     }
 
+    private AbstractRequest createFetchSessionRequest() {
+        Map<TopicPartition, FetchRequest.PartitionData> fetchData = new HashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 1000000));
+        List<TopicPartition> toForget = Arrays.asList(new TopicPartition("test2", 0), new TopicPartition("test2", 1));
+        return new FetchRequest(3, 1, 100, 100000, 123, 5, fetchData, toForget);
+    }
+
     private AbstractRequestResponse createFetchResponse() {
         Map<TopicPartition, FetchResponse.PartitionData> responseData = new HashMap<>();
         responseData.put(new TopicPartition("test", 0), new FetchResponse.PartitionData(Errors.NONE.code(), 1000000, ByteBuffer.allocate(10)));
-        return new FetchResponse(responseData, 0);
+        return new FetchResponse(Errors.NONE.code(), 123, responseData, 0);
     }
 
     private AbstractRequest createHeartBeatRequest() {
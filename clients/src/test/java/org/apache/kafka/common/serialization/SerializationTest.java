@@ -12,6 +12,7 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.errors.SerializationException;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
@@ -96,6 +97,34 @@ public class SerializationTest {
         deserializer.close();
     }
 
+    @Test
+    public void testByteBufferViewDeserializers() {
+        assertEquals(Integer.valueOf(-41243432),
+                new IntegerDeserializer().deserializeView(topic, view(new IntegerSerializer().serialize(topic, -41243432))));
+        assertEquals(Long.valueOf(922337203685477580L),
+                new LongDeserializer().deserializeView(topic, view(new LongSerializer().serialize(topic, 922337203685477580L))));
+        assertEquals(Double.valueOf(5.4),
+                new DoubleDeserializer().deserializeView(topic, view(new DoubleSerializer().serialize(topic, 5.4))));
+        assertEquals("Should support null views", null, new LongDeserializer().deserializeView(topic, null));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testByteBufferViewDeserializerRejectsWrongSize() {
+        new IntegerDeserializer().deserializeView(topic, view(new byte[] {1, 2, 3}));
+    }
+
+    /**
+     * A read-only view of the data that starts in the middle of a larger buffer, the way the consumer hands it out
+     */
+    private static ByteBuffer view(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 4);
+        buffer.position(2);
+        buffer.put(data);
+        buffer.position(2);
+        buffer.limit(2 + data.length);
+        return buffer.asReadOnlyBuffer();
+    }
+
     @Test
     public void testLongSerializer() {
         Long[] longs = new Long[]{
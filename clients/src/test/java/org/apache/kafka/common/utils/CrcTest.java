@@ -20,6 +20,8 @@ import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
 
 public class CrcTest {
 
@@ -56,4 +58,56 @@ public class CrcTest {
 
         assertEquals("Crc values should be the same", crc1.getValue(), crc2.getValue());
     }
+
+    @Test
+    public void testCrc32C() {
+        // the check value of CRC-32C, see RFC 3720 for more test vectors
+        assertEquals(0xE3069283L, Crc32C.crc32c("123456789".getBytes(), 0, 9));
+        assertEquals(0x8A9136AAL, Crc32C.crc32c(new byte[32], 0, 32));
+
+        final byte[] bytes = "Any String you want".getBytes();
+        final int len = bytes.length;
+        Crc32C crc1 = new Crc32C();
+        Crc32C crc2 = new Crc32C();
+        crc1.update(bytes, 0, len);
+        for (int i = 0; i < len; i++)
+            crc2.update(bytes[i]);
+        assertEquals("Crc values should be the same", crc1.getValue(), crc2.getValue());
+    }
+
+    @Test
+    public void testChecksumsMatchPureJavaImplementations() {
+        byte[] bytes = new byte[1000];
+        new Random(0).nextBytes(bytes);
+        for (int size : new int[] {0, 1, 7, 8, 9, 100, 1000}) {
+            Checksum crc32 = Checksums.crc32();
+            crc32.update(bytes, 0, size);
+            assertEquals(Crc32.crc32(bytes, 0, size), crc32.getValue());
+
+            Checksum crc32c = Checksums.crc32c();
+            crc32c.update(bytes, 0, size);
+            assertEquals(Crc32C.crc32c(bytes, 0, size), crc32c.getValue());
+        }
+    }
+
+    @Test
+    public void testChecksumsUpdate() {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putInt(1000);
+        buffer.putLong(Long.MIN_VALUE + 1000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(12);
+        direct.put(buffer.array());
+
+        Checksum crc1 = new Crc32C();
+        Checksums.updateInt(crc1, 1000);
+        Checksums.updateLong(crc1, Long.MIN_VALUE + 1000);
+        Checksum crc2 = new Crc32C();
+        Checksums.update(crc2, buffer, 0, 12);
+        Checksum crc3 = new Crc32C();
+        Checksums.update(crc3, direct, 0, 12);
+
+        assertEquals("Crc values should be the same", crc1.getValue(), crc2.getValue());
+        assertEquals("Crc values should be the same", crc1.getValue(), crc3.getValue());
+        assertEquals(12, direct.position());
+    }
 }
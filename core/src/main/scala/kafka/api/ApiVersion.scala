@@ -54,7 +54,11 @@ object ApiVersion {
     "0.10.0" -> KAFKA_0_10_0_IV1,
 
     // introduced for JoinGroup protocol change in KIP-62
-    "0.10.1-IV0" -> KAFKA_0_10_1_IV0
+    "0.10.1-IV0" -> KAFKA_0_10_1_IV0,
+    // introduced for fetch sessions in FetchRequest v3
+    "0.10.1-IV1" -> KAFKA_0_10_1_IV1,
+    // introduced for zstd compression in ProduceRequest v3 and FetchRequest v4
+    "0.10.1-IV2" -> KAFKA_0_10_1_IV2
   )
 
   private val versionPattern = "\\.".r
@@ -120,3 +124,15 @@ case object KAFKA_0_10_1_IV0 extends ApiVersion {
   val messageFormatVersion: Byte = Message.MagicValue_V1
   val id: Int = 6
 }
+
+case object KAFKA_0_10_1_IV1 extends ApiVersion {
+  val version: String = "0.10.1-IV1"
+  val messageFormatVersion: Byte = Message.MagicValue_V1
+  val id: Int = 7
+}
+
+case object KAFKA_0_10_1_IV2 extends ApiVersion {
+  val version: String = "0.10.1-IV2"
+  val messageFormatVersion: Byte = Message.MagicValue_V1
+  val id: Int = 8
+}
@@ -27,6 +27,7 @@ import kafka.message.MessageSet
 import java.util.concurrent.atomic.AtomicInteger
 import java.nio.ByteBuffer
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
+import org.apache.kafka.common.requests.{FetchRequest => JFetchRequest}
 
 import scala.collection.immutable.Map
 
@@ -37,6 +38,9 @@ object FetchRequest {
   val DefaultMaxWait = 0
   val DefaultMinBytes = 0
   val DefaultCorrelationId = 0
+  val InvalidSessionId = JFetchRequest.INVALID_SESSION_ID
+  val InitialEpoch = JFetchRequest.INITIAL_EPOCH
+  val FinalEpoch = JFetchRequest.FINAL_EPOCH
 
   def readFrom(buffer: ByteBuffer): FetchRequest = {
     val versionId = buffer.getShort
@@ -45,6 +49,9 @@ object FetchRequest {
     val replicaId = buffer.getInt
     val maxWait = buffer.getInt
     val minBytes = buffer.getInt
+    val (sessionId, sessionEpoch) =
+      if (versionId >= 3) (buffer.getInt, buffer.getInt)
+      else (InvalidSessionId, FinalEpoch)
     val topicCount = buffer.getInt
     val pairs = (1 to topicCount).flatMap(_ => {
       val topic = readShortString(buffer)
@@ -56,7 +63,15 @@ object FetchRequest {
         (TopicAndPartition(topic, partitionId), PartitionFetchInfo(offset, fetchSize))
       })
     })
-    FetchRequest(versionId, correlationId, clientId, replicaId, maxWait, minBytes, Map(pairs:_*))
+    val toForget =
+      if (versionId >= 3) {
+        (1 to buffer.getInt).flatMap { _ =>
+          val topic = readShortString(buffer)
+          (1 to buffer.getInt).map(_ => TopicAndPartition(topic, buffer.getInt))
+        }
+      } else Seq.empty
+    FetchRequest(versionId, correlationId, clientId, replicaId, maxWait, minBytes, Map(pairs:_*), sessionId, sessionEpoch,
+      toForget)
   }
 }
 
@@ -66,7 +81,10 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
                         replicaId: Int = Request.OrdinaryConsumerId,
                         maxWait: Int = FetchRequest.DefaultMaxWait,
                         minBytes: Int = FetchRequest.DefaultMinBytes,
-                        requestInfo: Map[TopicAndPartition, PartitionFetchInfo])
+                        requestInfo: Map[TopicAndPartition, PartitionFetchInfo],
+                        sessionId: Int = FetchRequest.InvalidSessionId,
+                        sessionEpoch: Int = FetchRequest.FinalEpoch,
+                        toForget: Seq[TopicAndPartition] = Seq.empty)
         extends RequestOrResponse(Some(ApiKeys.FETCH.id)) {
 
   /**
@@ -74,6 +92,12 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
    */
   lazy val requestInfoGroupedByTopic = requestInfo.groupBy(_._1.topic)
 
+  /* the forgotten partitions grouped by topic, in the order of their first partition */
+  private lazy val toForgetGroupedByTopic = {
+    val grouped = toForget.groupBy(_.topic)
+    toForget.map(_.topic).distinct.map(topic => topic -> grouped(topic))
+  }
+
   /**
    *  Public constructor for the clients
    */
@@ -98,6 +122,10 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
     buffer.putInt(replicaId)
     buffer.putInt(maxWait)
     buffer.putInt(minBytes)
+    if (versionId >= 3) {
+      buffer.putInt(sessionId)
+      buffer.putInt(sessionEpoch)
+    }
     buffer.putInt(requestInfoGroupedByTopic.size) // topic count
     requestInfoGroupedByTopic.foreach {
       case (topic, partitionFetchInfos) =>
@@ -110,6 +138,14 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
             buffer.putInt(fetchSize)
         }
     }
+    if (versionId >= 3) {
+      buffer.putInt(toForgetGroupedByTopic.size) // forgotten topic count
+      toForgetGroupedByTopic.foreach { case (topic, partitions) =>
+        writeShortString(buffer, topic)
+        buffer.putInt(partitions.size) // forgotten partition count
+        partitions.foreach(topicAndPartition => buffer.putInt(topicAndPartition.partition))
+      }
+    }
   }
 
   def sizeInBytes: Int = {
@@ -119,6 +155,7 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
     4 + /* replicaId */
     4 + /* maxWait */
     4 + /* minBytes */
+    (if (versionId >= 3) 4 /* sessionId */ + 4 /* sessionEpoch */ else 0) +
     4 + /* topic count */
     requestInfoGroupedByTopic.foldLeft(0)((foldedTopics, currTopic) => {
       val (topic, partitionFetchInfos) = currTopic
@@ -130,9 +167,25 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
         8 + /* offset */
         4 /* fetch size */
       )
-    })
+    }) +
+    (if (versionId >= 3) {
+      4 + /* forgotten topic count */
+      toForgetGroupedByTopic.foldLeft(0) { case (foldedTopics, (topic, partitions)) =>
+        foldedTopics +
+        shortStringLength(topic) +
+        4 + /* forgotten partition count */
+        partitions.size * 4 /* partition id */
+      }
+    } else 0)
   }
 
+  /**
+   * True if this request is part of an existing fetch session, so that its request info only holds the partitions
+   * that were added to the session or changed since the last request of the session
+   */
+  def isIncremental = versionId >= 3 && sessionId != FetchRequest.InvalidSessionId && sessionEpoch != FetchRequest.InitialEpoch &&
+    sessionEpoch != FetchRequest.FinalEpoch
+
   def isFromFollower = Request.isValidBrokerId(replicaId)
 
   def isFromOrdinaryConsumer = replicaId == Request.OrdinaryConsumerId
@@ -165,8 +218,13 @@ case class FetchRequest(versionId: Short = FetchRequest.CurrentVersion,
     fetchRequest.append("; ReplicaId: " + replicaId)
     fetchRequest.append("; MaxWait: " + maxWait + " ms")
     fetchRequest.append("; MinBytes: " + minBytes + " bytes")
-    if(details)
+    if (versionId >= 3)
+      fetchRequest.append("; SessionId: " + sessionId + "; SessionEpoch: " + sessionEpoch)
+    if(details) {
       fetchRequest.append("; RequestInfo: " + requestInfo.mkString(","))
+      if (toForget.nonEmpty)
+        fetchRequest.append("; ToForget: " + toForget.mkString(","))
+    }
     fetchRequest.toString()
   }
 }
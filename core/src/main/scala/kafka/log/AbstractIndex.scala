@@ -44,9 +44,10 @@ abstract class AbstractIndex[K, V](@volatile private[this] var _file: File, val
 
   protected val lock = new ReentrantLock
 
-  @volatile
-  protected var mmap: MappedByteBuffer = {
-    val newlyCreated = _file.createNewFile()
+  private[this] val newlyCreated = _file.createNewFile()
+
+  /* the length of the index file when it is opened, which is pre-allocated if the file is new */
+  private[this] val initialLength = {
     val raf = new RandomAccessFile(_file, "rw")
     try {
       /* pre-allocate the file if necessary */
@@ -55,32 +56,55 @@ abstract class AbstractIndex[K, V](@volatile private[this] var _file: File, val
           throw new IllegalArgumentException("Invalid max index size: " + maxIndexSize)
         raf.setLength(roundDownToExactMultiple(maxIndexSize, entrySize))
       }
-
-      /* memory-map the file */
-      val len = raf.length()
-      val idx = raf.getChannel.map(FileChannel.MapMode.READ_WRITE, 0, len)
-
-      /* set the position in the index for the next entry */
-      if(newlyCreated)
-        idx.position(0)
-      else
-        // if this is a pre-existing index, assume it is valid and set position to last entry
-        idx.position(roundDownToExactMultiple(idx.limit, entrySize))
-      idx
+      raf.length()
     } finally {
       CoreUtils.swallow(raf.close())
     }
   }
 
+  /**
+   * The memory map of the index file, which is only mapped when the index is first used so that opening the many
+   * segments of a log that are never read again is cheap, see mmap
+   */
+  @volatile
+  private[this] var _mmap: MappedByteBuffer = null
+
   /**
    * The maximum number of entries this index can hold
    */
   @volatile
-  private[this] var _maxEntries = mmap.limit / entrySize
+  private[this] var _maxEntries = (initialLength / entrySize).toInt
 
-  /** The number of entries in this index */
+  /** The number of entries in this index, a pre-existing index is assumed to be valid up to its last entry */
   @volatile
-  protected var _entries = mmap.position / entrySize
+  protected var _entries = if(newlyCreated) 0 else _maxEntries
+
+  /**
+   * The memory map of the index file, with its position at the end of the last entry. The file is memory-mapped on
+   * the first call.
+   */
+  protected def mmap: MappedByteBuffer = {
+    if(_mmap == null) {
+      inLock(lock) {
+        if(_mmap == null) {
+          val raf = new RandomAccessFile(_file, "rw")
+          try {
+            val idx = raf.getChannel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length())
+            idx.position(_entries * entrySize)
+            _mmap = idx
+          } finally {
+            CoreUtils.swallow(raf.close())
+          }
+        }
+      }
+    }
+    _mmap
+  }
+
+  /**
+   * True if the index file has been memory-mapped
+   */
+  private[log] def isMapped: Boolean = _mmap != null
 
   /**
    * True iff there are no more slots available in this index
@@ -106,16 +130,23 @@ abstract class AbstractIndex[K, V](@volatile private[this] var _file: File, val
     inLock(lock) {
       val raf = new RandomAccessFile(_file, "rw")
       val roundedNewSize = roundDownToExactMultiple(newSize, entrySize)
-      val position = mmap.position
 
-      /* Windows won't let us modify the file length while the file is mmapped :-( */
-      if(Os.isWindows)
-        forceUnmap(mmap)
       try {
-        raf.setLength(roundedNewSize)
-        mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, roundedNewSize)
-        _maxEntries = mmap.limit / entrySize
-        mmap.position(position)
+        if(_mmap == null) {
+          /* the index has not been used since it was opened, it is mapped with its new size when it is */
+          if(raf.length() != roundedNewSize)
+            raf.setLength(roundedNewSize)
+          _maxEntries = roundedNewSize / entrySize
+        } else {
+          val position = _mmap.position
+          /* Windows won't let us modify the file length while the file is mmapped :-( */
+          if(Os.isWindows)
+            forceUnmap(_mmap)
+          raf.setLength(roundedNewSize)
+          _mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, roundedNewSize)
+          _maxEntries = _mmap.limit / entrySize
+          _mmap.position(position)
+        }
       } finally {
         CoreUtils.swallow(raf.close())
       }
@@ -137,7 +168,8 @@ abstract class AbstractIndex[K, V](@volatile private[this] var _file: File, val
    */
   def flush() {
     inLock(lock) {
-      mmap.force()
+      if(_mmap != null)
+        _mmap.force()
     }
   }
 
@@ -146,8 +178,8 @@ abstract class AbstractIndex[K, V](@volatile private[this] var _file: File, val
    */
   def delete(): Boolean = {
     info(s"Deleting index ${_file.getAbsolutePath}")
-    if(Os.isWindows)
-      CoreUtils.swallow(forceUnmap(mmap))
+    if(Os.isWindows && _mmap != null)
+      CoreUtils.swallow(forceUnmap(_mmap))
     _file.delete()
   }
 
@@ -241,17 +273,44 @@ abstract class AbstractIndex[K, V](@volatile private[this] var _file: File, val
    * @return The slot found or -1 if the least entry in the index is larger than the target key or the index is empty
    */
   protected def indexSlotFor(idx: ByteBuffer, target: Long, searchEntity: IndexSearchEntity): Int = {
+    // read the number of entries once as appends may add entries concurrently
+    val entries = _entries
+
     // check if the index is empty
-    if(_entries == 0)
+    if(entries == 0)
       return -1
 
+    // check if the target is in the warm section of the index, where the lookups of caught up consumers and followers are
+    val firstWarmEntry = math.max(0, entries - 1 - warmEntries)
+    if(compareIndexEntry(parseEntry(idx, firstWarmEntry), target, searchEntity) < 0)
+      return binarySearch(idx, target, searchEntity, firstWarmEntry, entries - 1)
+
     // check if the target offset is smaller than the least offset
     if(compareIndexEntry(parseEntry(idx, 0), target, searchEntity) > 0)
       return -1
 
-    // binary search for the entry
-    var lo = 0
-    var hi = _entries - 1
+    binarySearch(idx, target, searchEntity, 0, firstWarmEntry)
+  }
+
+  /**
+   * The number of entries at the end of the index that are searched on their own when they may hold the target.
+   *
+   * A binary search of the whole index touches pages spread over the index for every lookup, and the pages in the
+   * middle of a large index are unlikely to be in the page cache as most lookups are near the end of the index, so a
+   * lookup could block on a page fault even though the entry it looks for was appended moments ago. The pages of the
+   * last 8KB of the index were appended to recently so they are in the page cache, and searching them on their own
+   * keeps the lookups near the end of the index off the cold pages. 8KB is small enough to be in the cache of an index
+   * that is rarely read and large enough to cover the lookups of consumers and followers that are a few seconds behind.
+   */
+  private def warmEntries: Int = 8192 / entrySize
+
+  /**
+   * Binary search for the slot of the largest entry less than or equal to the target between slots begin and end,
+   * assuming the entry at slot begin is less than or equal to the target
+   */
+  private def binarySearch(idx: ByteBuffer, target: Long, searchEntity: IndexSearchEntity, begin: Int, end: Int): Int = {
+    var lo = begin
+    var hi = end
     while(lo < hi) {
       val mid = ceil(hi/2.0 + lo/2.0).toInt
       val found = parseEntry(idx, mid)
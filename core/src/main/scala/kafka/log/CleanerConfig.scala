@@ -17,19 +17,27 @@
 
 package kafka.log
 
+import java.security.{MessageDigest, NoSuchAlgorithmException}
+
+import org.apache.kafka.common.config.ConfigDef.Validator
+import org.apache.kafka.common.config.ConfigException
+
 /**
  * Configuration parameters for the log cleaner
  * 
  * @param numThreads The number of cleaner threads to run
+ * @param numThreadsPerLog The number of threads each cleaner thread uses to rewrite the segments of the log it cleans
  * @param dedupeBufferSize The total memory used for log deduplication
  * @param dedupeBufferLoadFactor The maximum percent full for the deduplication buffer
  * @param maxMessageSize The maximum size of a message that can appear in the log
  * @param maxIoBytesPerSecond The maximum read and write I/O that all cleaner threads are allowed to do
  * @param backOffMs The amount of time to wait before rechecking if no logs are eligible for cleaning
  * @param enableCleaner Allows completely disabling the log cleaner
- * @param hashAlgorithm The hash algorithm to use in key comparison.
+ * @param hashAlgorithm The hash algorithm to use in key comparison. MURMUR64 uses a CompactOffsetMap, any other value is a
+ *                      MessageDigest algorithm used by a SkimpyOffsetMap.
  */
 case class CleanerConfig(numThreads: Int = 1,
+                         numThreadsPerLog: Int = 1,
                          dedupeBufferSize: Long = 4*1024*1024L,
                          dedupeBufferLoadFactor: Double = 0.9d,
                          ioBufferSize: Int = 1024*1024,
@@ -39,3 +47,26 @@ case class CleanerConfig(numThreads: Int = 1,
                          enableCleaner: Boolean = true,
                          hashAlgorithm: String = "MD5") {
 }
+
+/**
+ * Validates that a hash algorithm of the cleaner is either MURMUR64 or a MessageDigest algorithm of this JVM
+ */
+object CleanerHashAlgorithmValidator extends Validator {
+  override def ensureValid(name: String, value: scala.Any): Unit = {
+    value match {
+      case s: String => if (!isValid(s))
+        throw new ConfigException(name, value, s"$name must be ${CompactOffsetMap.HashAlgorithm} or a message digest algorithm such as MD5")
+      case _ => throw new ConfigException(name, value, s"$name must be a string")
+    }
+  }
+
+  private def isValid(algorithm: String): Boolean = {
+    algorithm.equalsIgnoreCase(CompactOffsetMap.HashAlgorithm) ||
+      (try {
+        MessageDigest.getInstance(algorithm)
+        true
+      } catch {
+        case _: NoSuchAlgorithmException => false
+      })
+  }
+}
@@ -0,0 +1,30 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+/**
+ * Configuration parameters for the compression converter
+ *
+ * @param ioBufferSize The initial size of the buffer used to read a segment
+ * @param maxIoBytesPerSecond The maximum read and write I/O that the converter is allowed to do
+ * @param backOffMs The amount of time to wait before rechecking if no segments need to be converted
+ */
+case class CompressionConverterConfig(ioBufferSize: Int = 512*1024,
+                                      maxIoBytesPerSecond: Double = Double.MaxValue,
+                                      backOffMs: Long = 15 * 1000) {
+}
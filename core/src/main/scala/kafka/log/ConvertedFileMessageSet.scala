@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
+
+import kafka.common.KafkaException
+import kafka.message._
+import kafka.utils.{Logging, nonthreadsafe}
+import org.apache.kafka.common.utils.Utils
+
+import scala.collection.mutable.ArrayBuffer
+
+object ConvertedFileMessageSet {
+  /* the number of bytes of uncompressed source messages that are converted at a time while writing */
+  val ConversionChunkSize = 64 * 1024
+
+  /* the bytes of each entry that are read to decide how it is converted: offset, size, crc, magic and attributes */
+  private val EntryHeaderSize = MessageSet.LogOverhead + Message.CrcLength + Message.MagicLength + Message.AttributesLength
+
+  /**
+   * A run of consecutive entries of the source message set that are converted the same way
+   */
+  private sealed trait Chunk {
+    def sourcePosition: Int
+    def sourceSize: Int
+    def size: Int
+  }
+
+  /* entries that already have the target magic value and are sent from the file as they are */
+  private case class CopiedChunk(sourcePosition: Int, sourceSize: Int) extends Chunk {
+    def size = sourceSize
+  }
+
+  /* uncompressed entries that are converted while they are written */
+  private case class ConvertedChunk(sourcePosition: Int, sourceSize: Int, size: Int) extends Chunk
+
+  /* a single compressed entry, converted up front since its size is not known until it is recompressed */
+  private case class CompressedChunk(sourcePosition: Int, sourceSize: Int, converted: ByteBuffer) extends Chunk {
+    def size = converted.remaining
+  }
+}
+
+/**
+ * A view of a file message set with every message converted to the given message format version.
+ *
+ * Unlike converting the whole set into a ByteBufferMessageSet, the conversion happens while the set is written to the
+ * socket: messages that already have the target magic value are still sent with zero-copy transfer, and uncompressed
+ * messages are converted a chunk at a time, so only ConversionChunkSize bytes of them are in memory for each send.
+ * Compressed messages must be decompressed and recompressed to learn their converted size, so they are converted when
+ * the set is created and kept in a DownConversionCache shared by all the fetches of the same data.
+ *
+ * Only complete messages of the source set are included, as when iterating over it.
+ *
+ * @param source The message set to convert
+ * @param toMagicValue The magic value of the converted messages
+ * @param cache The cache of converted compressed messages
+ */
+@nonthreadsafe
+class ConvertedFileMessageSet private[log](source: FileMessageSet,
+                                           toMagicValue: Byte,
+                                           cache: DownConversionCache) extends MessageSet with Logging {
+  import ConvertedFileMessageSet._
+
+  private val chunks: Array[Chunk] = layout()
+
+  /* the position of each chunk in the converted message set */
+  private val chunkPositions: Array[Int] = chunks.scanLeft(0)(_ + _.size).toArray
+
+  val sizeInBytes: Int = chunkPositions.last
+
+  /* the most recently converted chunk, which is written over several calls if the socket buffer fills up */
+  private var convertedIndex = -1
+  private var converted: ByteBuffer = null
+
+  /**
+   * Whether any complete message of the source message set was included
+   */
+  private[log] def hasMessages: Boolean = chunks.nonEmpty
+
+  private def layout(): Array[Chunk] = {
+    val chunks = new ArrayBuffer[Chunk]
+    val header = ByteBuffer.allocate(EntryHeaderSize)
+    val sourceSize = source.sizeInBytes
+    var runPosition = 0
+    var runSize = 0
+    var runConvertedSize = 0
+    var runIsConverted = false
+
+    def endRun() {
+      if (runSize > 0) {
+        if (runIsConverted)
+          chunks += ConvertedChunk(runPosition, runSize, runConvertedSize)
+        else
+          chunks += CopiedChunk(runPosition, runSize)
+      }
+      runSize = 0
+      runConvertedSize = 0
+    }
+
+    def addToRun(position: Int, entrySize: Int, convertedSize: Int, isConverted: Boolean) {
+      if (runSize > 0 && (isConverted != runIsConverted || (isConverted && runSize >= ConversionChunkSize)))
+        endRun()
+      if (runSize == 0) {
+        runPosition = position
+        runIsConverted = isConverted
+      }
+      runSize += entrySize
+      runConvertedSize += convertedSize
+    }
+
+    var location = 0
+    var done = false
+    while (!done && location + EntryHeaderSize <= sourceSize) {
+      header.clear()
+      source.readInto(header, location)
+      val size = if (header.remaining < EntryHeaderSize) -1 else header.getInt(MessageSet.OffsetLength)
+      val entrySize = MessageSet.LogOverhead + size
+      if (size < Message.MinMessageOverhead || location + entrySize > sourceSize) {
+        done = true
+      } else {
+        val offset = header.getLong(0)
+        val crc = Utils.readUnsignedInt(header, MessageSet.LogOverhead + Message.CrcOffset)
+        val magic = header.get(MessageSet.LogOverhead + Message.MagicOffset)
+        val codec = header.get(MessageSet.LogOverhead + Message.AttributesOffset) & Message.CompressionCodeMask
+        if (magic == toMagicValue) {
+          addToRun(location, entrySize, entrySize, isConverted = false)
+        } else if (codec == NoCompressionCodec.codec) {
+          addToRun(location, entrySize, entrySize + Message.headerSizeDiff(magic, toMagicValue), isConverted = true)
+        } else {
+          endRun()
+          chunks += CompressedChunk(location, entrySize, convertCompressed(location, entrySize, offset, crc))
+        }
+        location += entrySize
+      }
+    }
+    endRun()
+    chunks.toArray
+  }
+
+  /**
+   * Read the given range of the source message set, which must have been fully written
+   */
+  private def read(position: Int, size: Int): ByteBuffer = {
+    val buffer = ByteBuffer.allocate(size)
+    var filePosition = source.start + position
+    while (buffer.hasRemaining) {
+      val read = source.channel.read(buffer, filePosition)
+      if (read < 0)
+        throw new KafkaException("Size of FileMessageSet %s has been truncated during down-conversion"
+          .format(source.file.getAbsolutePath))
+      filePosition += read
+    }
+    buffer.flip()
+    buffer
+  }
+
+  private def convertCompressed(position: Int, entrySize: Int, offset: Long, crc: Long): ByteBuffer = {
+    val path = source.file.getAbsolutePath
+    val filePosition = source.start + position
+    cache.get(path, filePosition, toMagicValue, offset, crc).getOrElse {
+      val entry = read(position, entrySize)
+      entry.position(MessageSet.LogOverhead)
+      val wrapper = new Message(entry.slice())
+      val offsets = new ArrayBuffer[Long]
+      val messages = new ArrayBuffer[Message]
+      for (messageAndOffset <- ByteBufferMessageSet.deepIterator(new MessageAndOffset(wrapper, offset))) {
+        offsets += messageAndOffset.offset
+        messages += messageAndOffset.message.toFormatVersion(toMagicValue)
+      }
+      val converted = new ByteBufferMessageSet(wrapper.compressionCodec, offsets, messages: _*).buffer
+      cache.put(path, filePosition, toMagicValue, offset, crc, converted)
+      converted.duplicate()
+    }
+  }
+
+  private def convertUncompressed(chunk: ConvertedChunk): ByteBuffer = {
+    val entries = read(chunk.sourcePosition, chunk.sourceSize)
+    val converted = ByteBuffer.allocate(chunk.size)
+    while (entries.hasRemaining) {
+      val offset = entries.getLong()
+      val size = entries.getInt()
+      val message = entries.slice()
+      message.limit(size)
+      entries.position(entries.position + size)
+
+      val convertedSize = size + Message.headerSizeDiff(message.get(Message.MagicOffset), toMagicValue)
+      converted.putLong(offset)
+      converted.putInt(convertedSize)
+      val convertedMessage = converted.slice()
+      convertedMessage.limit(convertedSize)
+      new Message(message).convertToBuffer(toMagicValue, convertedMessage, Message.NoTimestamp)
+      converted.position(converted.position + convertedSize)
+    }
+    converted.flip()
+    converted
+  }
+
+  /**
+   * The converted bytes of the chunk with the given index
+   */
+  private def chunkBuffer(index: Int): ByteBuffer = chunks(index) match {
+    case chunk: CopiedChunk => read(chunk.sourcePosition, chunk.sourceSize)
+    case chunk: ConvertedChunk =>
+      if (convertedIndex != index) {
+        converted = convertUncompressed(chunk)
+        convertedIndex = index
+      }
+      converted.duplicate()
+    case chunk: CompressedChunk => chunk.converted.duplicate()
+  }
+
+  private def chunkIndex(position: Int): Int = {
+    val index = java.util.Arrays.binarySearch(chunkPositions, position)
+    if (index >= 0) index else -index - 2
+  }
+
+  def writeTo(channel: GatheringByteChannel, offset: Long, maxSize: Int): Int = {
+    if (offset > Int.MaxValue)
+      throw new IllegalArgumentException(s"offset should not be larger than Int.MaxValue: $offset")
+    var position = offset.toInt
+    var remaining = math.min(maxSize, sizeInBytes - position)
+    var written = 0
+    var index = chunkIndex(position)
+    var blocked = false
+    while (remaining > 0 && !blocked) {
+      val chunk = chunks(index)
+      val chunkOffset = position - chunkPositions(index)
+      val count = math.min(remaining, chunk.size - chunkOffset)
+      val bytesWritten = chunk match {
+        case copied: CopiedChunk => source.writeTo(channel, copied.sourcePosition + chunkOffset, count)
+        case _ =>
+          val buffer = chunkBuffer(index)
+          buffer.position(chunkOffset)
+          buffer.limit(chunkOffset + count)
+          channel.write(buffer)
+      }
+      written += bytesWritten
+      position += bytesWritten
+      remaining -= bytesWritten
+      if (bytesWritten < count)
+        blocked = true
+      else
+        index += 1
+    }
+    written
+  }
+
+  override def isMagicValueInAllWrapperMessages(expectedMagicValue: Byte): Boolean = expectedMagicValue == toMagicValue
+
+  /**
+   * Iterate over the converted messages, decompressing compressed messages
+   */
+  override def iterator: Iterator[MessageAndOffset] =
+    chunks.indices.iterator.flatMap(index => new ByteBufferMessageSet(chunkBuffer(index)).iterator)
+}
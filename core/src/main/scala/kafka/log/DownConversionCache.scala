@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.threadsafe
+
+object DownConversionCache {
+  /* a cache that never holds anything */
+  val Disabled = new DownConversionCache(0)
+
+  private case class Key(path: String, position: Int, toMagicValue: Byte)
+
+  private case class Entry(offset: Long, crc: Long, converted: ByteBuffer)
+}
+
+/**
+ * A bounded LRU cache of compressed messages converted to another message format, so that consumers fetching the same
+ * data with an older fetch request version do not all decompress and recompress it again.
+ *
+ * Entries are keyed by the segment file, the position of the compressed message in it and the target magic value.
+ * The offset and crc of the message are checked on every lookup, so an entry is never returned for a segment that
+ * has been replaced or truncated and rewritten since it was cached.
+ *
+ * @param maxBytes The maximum total size of the converted messages in the cache
+ */
+@threadsafe
+class DownConversionCache(val maxBytes: Long) extends KafkaMetricsGroup {
+  import DownConversionCache._
+
+  private val entries = new java.util.LinkedHashMap[Key, Entry](16, 0.75f, true)
+  private var bytes = 0L
+
+  private val hitRate = newMeter("DownConversionCacheHitsPerSec", "hits", TimeUnit.SECONDS)
+  private val missRate = newMeter("DownConversionCacheMissesPerSec", "misses", TimeUnit.SECONDS)
+
+  /**
+   * Get the converted form of the message with the given offset and crc at the given position of a segment file
+   *
+   * @return A read-only view of the converted message, or None if it is not cached
+   */
+  def get(path: String, position: Int, toMagicValue: Byte, offset: Long, crc: Long): Option[ByteBuffer] = {
+    if (maxBytes <= 0)
+      return None
+    val entry = synchronized { entries.get(Key(path, position, toMagicValue)) }
+    if (entry != null && entry.offset == offset && entry.crc == crc) {
+      hitRate.mark()
+      Some(entry.converted.asReadOnlyBuffer())
+    } else {
+      missRate.mark()
+      None
+    }
+  }
+
+  /**
+   * Cache the converted form of a message, evicting the least recently used messages to stay within the size bound
+   */
+  def put(path: String, position: Int, toMagicValue: Byte, offset: Long, crc: Long, converted: ByteBuffer) {
+    val size = converted.remaining
+    if (size > maxBytes)
+      return
+    synchronized {
+      val previous = entries.put(Key(path, position, toMagicValue), Entry(offset, crc, converted))
+      if (previous != null)
+        bytes -= previous.converted.remaining
+      bytes += size
+      val iter = entries.values.iterator
+      while (bytes > maxBytes && iter.hasNext) {
+        bytes -= iter.next().converted.remaining
+        iter.remove()
+      }
+    }
+  }
+
+  /**
+   * The total size of the converted messages in the cache
+   */
+  def sizeInBytes: Long = synchronized { bytes }
+}
@@ -31,8 +31,6 @@ import org.apache.kafka.common.errors.CorruptRecordException
 import org.apache.kafka.common.network.TransportLayer
 import org.apache.kafka.common.utils.Utils
 
-import scala.collection.mutable.ArrayBuffer
-
 /**
  * An on-disk message set. An optional start and end position can be applied to the message set
  * which will allow slicing a subset of the file.
@@ -276,36 +274,43 @@ class FileMessageSet private[kafka](@volatile var file: File,
   }
 
   /**
-   * Convert this message set to use the specified message format.
+   * Check if any of the wrapper messages in the message set is compressed with the given codec, reading only the
+   * headers of the messages.
    */
-  def toMessageFormat(toMagicValue: Byte): MessageSet = {
-    val offsets = new ArrayBuffer[Long]
-    val newMessages = new ArrayBuffer[Message]
-    this.foreach { messageAndOffset =>
-      val message = messageAndOffset.message
-      if (message.compressionCodec == NoCompressionCodec) {
-        newMessages += message.toFormatVersion(toMagicValue)
-        offsets += messageAndOffset.offset
-      } else {
-        // File message set only has shallow iterator. We need to do deep iteration here if needed.
-        val deepIter = ByteBufferMessageSet.deepIterator(messageAndOffset)
-        for (innerMessageAndOffset <- deepIter) {
-          newMessages += innerMessageAndOffset.message.toFormatVersion(toMagicValue)
-          offsets += innerMessageAndOffset.offset
-        }
-      }
+  def hasWrapperMessageWithCodec(codec: CompressionCodec): Boolean = {
+    var location = start
+    val offsetAndSizeBuffer = ByteBuffer.allocate(MessageSet.LogOverhead)
+    val headerBuffer = ByteBuffer.allocate(Message.CrcLength + Message.MagicLength + Message.AttributesLength)
+    while (location < end) {
+      offsetAndSizeBuffer.rewind()
+      channel.read(offsetAndSizeBuffer, location)
+      if (offsetAndSizeBuffer.hasRemaining)
+        return false
+      offsetAndSizeBuffer.rewind()
+      offsetAndSizeBuffer.getLong // skip offset field
+      val messageSize = offsetAndSizeBuffer.getInt
+      if (messageSize < Message.MinMessageOverhead)
+        throw new IllegalStateException("Invalid message size: " + messageSize)
+      headerBuffer.rewind()
+      channel.read(headerBuffer, location + MessageSet.LogOverhead)
+      if ((headerBuffer.get(Message.AttributesOffset) & Message.CompressionCodeMask) == codec.codec)
+        return true
+      location += (MessageSet.LogOverhead + messageSize)
     }
+    false
+  }
 
-    if (sizeInBytes > 0 && newMessages.isEmpty) {
+  /**
+   * Convert this message set to use the specified message format. The messages are converted lazily as the returned
+   * message set is written, except for compressed messages which are converted immediately and kept in the given cache.
+   */
+  def toMessageFormat(toMagicValue: Byte, cache: DownConversionCache = DownConversionCache.Disabled): MessageSet = {
+    val converted = new ConvertedFileMessageSet(this, toMagicValue, cache)
+    if (sizeInBytes > 0 && !converted.hasMessages) {
       // This indicates that the message is too large. We just return all the bytes in the file message set.
       this
-    } else {
-      // We use the offset seq to assign offsets so the offset of the messages does not change.
-      new ByteBufferMessageSet(
-        compressionCodec = this.headOption.map(_.message.compressionCodec).getOrElse(NoCompressionCodec),
-        offsetSeq = offsets,
-        newMessages: _*)
-    }
+    } else
+      converted
   }
 
   /**
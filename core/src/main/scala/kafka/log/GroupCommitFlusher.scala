@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.locks.ReentrantLock
+
+import kafka.metrics.{KafkaMetricsGroup, KafkaTimer}
+import kafka.utils.CoreUtils.inLock
+import kafka.utils._
+
+import scala.collection.mutable
+
+/**
+ * Flushes the logs of a data directory together on behalf of appends that need their messages flushed.
+ *
+ * An append that reaches the flush interval of its log hands the log to the flusher of its data directory and waits.
+ * The flusher waits windowMs for other logs of the directory to join, then flushes all of them and releases the waiting
+ * appends. Logs that need a flush while a flush is in progress are flushed together in the next one, so the number of
+ * flushes a disk does is bounded by how long a flush takes rather than by the number of partitions appended to.
+ *
+ * @param dir The data directory whose logs are flushed
+ * @param windowMs The time to wait for more logs to flush after the first one is handed over
+ * @param time The time instance
+ */
+@threadsafe
+class GroupCommitFlusher(val dir: File,
+                         val windowMs: Long,
+                         time: Time = SystemTime)
+  extends ShutdownableThread(name = "kafka-log-group-commit-" + dir.getName, isInterruptible = false) with KafkaMetricsGroup {
+
+  /**
+   * The logs to flush in one group commit, with the offset each has to be flushed up to
+   */
+  private class Batch {
+    val offsets = mutable.Map[Log, Long]()
+    val errors = mutable.Map[Log, Throwable]()
+    val done = new CountDownLatch(1)
+  }
+
+  private val lock = new ReentrantLock
+  private val pendingCondition = lock.newCondition()
+  private var pending = new Batch
+
+  private val logsPerFlushHist = newHistogram("GroupCommitLogsPerFlush", biased = true)
+  private val flushTimer = new KafkaTimer(newTimer("GroupCommitFlushRateAndTimeMs", TimeUnit.MILLISECONDS, TimeUnit.SECONDS))
+
+  /**
+   * Flush the given log up to the given offset (non-inclusive) together with the other logs of the directory,
+   * blocking until it has been flushed. The log is flushed directly if the flusher is not running.
+   *
+   * @throws Throwable The error encountered flushing the log, if any
+   */
+  def flush(log: Log, offset: Long) {
+    val batch = inLock(lock) {
+      if (getState == Thread.State.NEW || !isRunning.get) {
+        null
+      } else {
+        pending.offsets.put(log, math.max(offset, pending.offsets.getOrElse(log, 0L)))
+        pendingCondition.signal()
+        pending
+      }
+    }
+    if (batch == null) {
+      log.flush(offset)
+    } else {
+      batch.done.await()
+      batch.errors.get(log).foreach(e => throw e)
+    }
+  }
+
+  override def doWork() {
+    val hasPending = inLock(lock) {
+      if (pending.offsets.isEmpty)
+        pendingCondition.await(100, TimeUnit.MILLISECONDS)
+      pending.offsets.nonEmpty
+    }
+    if (hasPending) {
+      // give the appends to other logs of the directory a chance to join this flush
+      if (windowMs > 0)
+        time.sleep(windowMs)
+      flushBatch(takePending())
+    }
+  }
+
+  override def shutdown() {
+    initiateShutdown()
+    inLock(lock) {
+      pendingCondition.signal()
+    }
+    if (getState != Thread.State.NEW)
+      awaitShutdown()
+    // release the appends that joined a flush after the last one done by the thread
+    flushBatch(takePending())
+  }
+
+  private def takePending(): Batch = inLock(lock) {
+    val batch = pending
+    pending = new Batch
+    batch
+  }
+
+  private def flushBatch(batch: Batch) {
+    try {
+      if (batch.offsets.nonEmpty) {
+        debug("Flushing %d logs in %s".format(batch.offsets.size, dir.getAbsolutePath))
+        logsPerFlushHist.update(batch.offsets.size)
+        flushTimer.time {
+          for ((log, offset) <- batch.offsets) {
+            try log.flush(offset)
+            catch {
+              case e: Throwable => batch.errors.put(log, e)
+            }
+          }
+        }
+      }
+    } finally {
+      batch.done.countDown()
+    }
+  }
+}
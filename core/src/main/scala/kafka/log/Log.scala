@@ -24,14 +24,14 @@ import kafka.common._
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{BrokerTopicStats, FetchDataInfo, LogOffsetMetadata}
 import java.io.{File, IOException}
-import java.util.concurrent.{ConcurrentNavigableMap, ConcurrentSkipListMap}
+import java.util.concurrent.{Callable, ConcurrentNavigableMap, ConcurrentSkipListMap, ExecutionException, Executors, TimeUnit}
 import java.util.concurrent.atomic._
 import java.text.NumberFormat
 
 import org.apache.kafka.common.errors.{CorruptRecordException, OffsetOutOfRangeException, RecordBatchTooLargeException, RecordTooLargeException}
 import org.apache.kafka.common.record.TimestampType
 
-import scala.collection.{Seq, JavaConversions}
+import scala.collection.{Seq, JavaConversions, mutable}
 import com.yammer.metrics.core.Gauge
 import org.apache.kafka.common.utils.Utils
 
@@ -78,6 +78,10 @@ case class LogAppendInfo(var firstOffset: Long,
  * @param recoveryPoint The offset at which to begin recovery--i.e. the first offset which has not been flushed to disk
  * @param scheduler The thread pool scheduler used for background actions
  * @param time The time instance used for checking the clock
+ * @param groupCommitFlusher The flusher of the data directory that flushes the log on reaching the flush interval
+ *                           together with the other logs of the directory, if the log is not flushed on its own
+ * @param recoveryThreads The number of threads used to recover the unflushed segments of the log when it is opened
+ *                        after an unclean shutdown
  *
  */
 @threadsafe
@@ -85,7 +89,9 @@ class Log(val dir: File,
           @volatile var config: LogConfig,
           @volatile var recoveryPoint: Long = 0L,
           scheduler: Scheduler,
-          time: Time = SystemTime) extends Logging with KafkaMetricsGroup {
+          time: Time = SystemTime,
+          groupCommitFlusher: Option[GroupCommitFlusher] = None,
+          recoveryThreads: Int = 1) extends Logging with KafkaMetricsGroup {
 
   import kafka.log.Log._
 
@@ -104,6 +110,12 @@ class Log(val dir: File,
   val t = time.milliseconds
   /* the actual segments of the log */
   private val segments: ConcurrentNavigableMap[java.lang.Long, LogSegment] = new ConcurrentSkipListMap[java.lang.Long, LogSegment]
+
+  /* the time spent opening the segments of the log and recovering its unflushed segments when it was loaded, and the
+   * number of segments recovered */
+  private[log] var segmentsLoadTimeMs = 0L
+  private[log] var segmentsRecoveryTimeMs = 0L
+  private[log] val recoveredSegments = new AtomicInteger
   loadSegments()
 
   /* Calculate the offset of the next message */
@@ -140,14 +152,22 @@ class Log(val dir: File,
     },
     tags)
 
+  /* the reads far enough behind the log end to be served from disk rather than from the page cache, see isColdRead */
+  private val coldReadRate = newMeter("ColdReadsPerSec", "reads", TimeUnit.SECONDS, tags)
+  private val coldReadBytesRate = newMeter("ColdReadBytesPerSec", "bytes", TimeUnit.SECONDS, tags)
+
   /** The name of this log */
   def name  = dir.getName()
 
   /* Load the log segments from the log files on disk */
   private def loadSegments() {
+    val loadStartMs = time.milliseconds
     // create the log directory if it doesn't exist
     dir.mkdirs()
     var swapFiles = Set[File]()
+    // the indexes of a log that was shut down cleanly were closed properly, so they are not checked and are only
+    // memory-mapped when they are used
+    val cleanShutdown = hasCleanShutdownFile
 
     // first do a pass through the files in the log directory and remove any temporary files
     // and find any interrupted swap operations
@@ -177,11 +197,13 @@ class Log(val dir: File,
     // now do a second pass and load all the .log and all index files
     for(file <- dir.listFiles if file.isFile) {
       val filename = file.getName
-      if(filename.endsWith(IndexFileSuffix) || filename.endsWith(TimeIndexFileSuffix)) {
+      if(filename.endsWith(IndexFileSuffix) || filename.endsWith(TimeIndexFileSuffix) || filename.endsWith(KeyStatsFileSuffix)) {
         // if it is an index file, make sure it has a corresponding .log file
         val logFile =
           if (filename.endsWith(TimeIndexFileSuffix))
             new File(file.getAbsolutePath.replace(TimeIndexFileSuffix, LogFileSuffix))
+          else if (filename.endsWith(KeyStatsFileSuffix))
+            new File(CoreUtils.replaceSuffix(file.getAbsolutePath, KeyStatsFileSuffix, LogFileSuffix))
           else
             new File(file.getAbsolutePath.replace(IndexFileSuffix, LogFileSuffix))
 
@@ -205,20 +227,22 @@ class Log(val dir: File,
                                      fileAlreadyExists = true)
 
         if (indexFileExists) {
-          try {
-            segment.index.sanityCheck()
-            segment.timeIndex.sanityCheck()
-          } catch {
-            case e: java.lang.IllegalArgumentException =>
-              warn(s"Found a corrupted index file due to ${e.getMessage}}. deleting ${timeIndexFile.getAbsolutePath}, " +
-                s"${indexFile.getAbsolutePath} and rebuilding index...")
-              indexFile.delete()
-              timeIndexFile.delete()
-              segment.recover(config.maxMessageSize)
+          if (!cleanShutdown) {
+            try {
+              segment.index.sanityCheck()
+              segment.timeIndex.sanityCheck()
+            } catch {
+              case e: java.lang.IllegalArgumentException =>
+                warn(s"Found a corrupted index file due to ${e.getMessage}}. deleting ${timeIndexFile.getAbsolutePath}, " +
+                  s"${indexFile.getAbsolutePath} and rebuilding index...")
+                indexFile.delete()
+                timeIndexFile.delete()
+                recoverSegment(segment)
+            }
           }
         } else {
           error("Could not find index file corresponding to log file %s, rebuilding index...".format(segment.log.file.getAbsolutePath))
-          segment.recover(config.maxMessageSize)
+          recoverSegment(segment)
         }
 
         segments.put(start, segment)
@@ -244,7 +268,7 @@ class Log(val dir: File,
                                        rollJitterMs = config.randomSegmentJitter,
                                        time = time)
       info("Found log file %s from interrupted swap operation, repairing.".format(swapFile.getPath))
-      swapSegment.recover(config.maxMessageSize)
+      recoverSegment(swapSegment)
       val oldSegments = logSegments(swapSegment.baseOffset, swapSegment.nextOffset)
       replaceSegments(swapSegment, oldSegments.toSeq, isRecoveredSwapFile = true)
     }
@@ -260,13 +284,16 @@ class Log(val dir: File,
                                      fileAlreadyExists = false,
                                      initFileSize = this.initFileSize(),
                                      preallocate = config.preallocate))
+      segmentsLoadTimeMs = time.milliseconds - loadStartMs
     } else {
+      segmentsLoadTimeMs = time.milliseconds - loadStartMs
+      val recoveryStartMs = time.milliseconds
       recoverLog()
+      segmentsRecoveryTimeMs = time.milliseconds - recoveryStartMs
       // reset the index size of the currently active log segment to allow more entries
       activeSegment.index.resize(config.maxIndexSize)
       activeSegment.timeIndex.resize(config.maxIndexSize)
     }
-
   }
 
   private def updateLogEndOffset(messageOffset: Long) {
@@ -280,29 +307,82 @@ class Log(val dir: File,
       return
     }
 
-    // okay we need to actually recovery this log
-    val unflushed = logSegments(this.recoveryPoint, Long.MaxValue).iterator
-    while(unflushed.hasNext) {
-      val curr = unflushed.next
-      info("Recovering unflushed segment %d in log %s.".format(curr.baseOffset, name))
-      val truncatedBytes =
+    // okay we need to actually recovery this log, the segments are recovered independently of each other so they
+    // may be recovered concurrently, and the segments following the first one that had an invalid message are then
+    // deleted
+    val unflushed = logSegments(this.recoveryPoint, Long.MaxValue).toBuffer
+    val truncatedBytes = recoverSegments(unflushed)
+    val firstTruncated = truncatedBytes.indexWhere(_ > 0)
+    if(firstTruncated >= 0) {
+      val curr = unflushed(firstTruncated)
+      // we had an invalid message, delete all remaining log
+      warn("Corruption found in segment %d of log %s, truncating to offset %d.".format(curr.baseOffset, name, curr.nextOffset))
+      unflushed.drop(firstTruncated + 1).foreach(deleteSegment)
+    }
+  }
+
+  /**
+   * Recover the given segments, using up to recoveryThreads threads
+   *
+   * @return The number of bytes truncated from each of the segments, up to the first truncated segment if they were
+   *         recovered in order
+   */
+  private def recoverSegments(unflushed: Seq[LogSegment]): Seq[Int] = {
+    val numThreads = math.min(recoveryThreads, unflushed.size)
+    if(numThreads <= 1) {
+      // the segments following the first truncated one are deleted, so there is no need to recover them
+      val truncatedBytes = mutable.ArrayBuffer[Int]()
+      val iter = unflushed.iterator
+      while(iter.hasNext && !truncatedBytes.lastOption.exists(_ > 0))
+        truncatedBytes += recoverUnflushedSegment(iter.next)
+      truncatedBytes
+    } else {
+      val pool = Executors.newFixedThreadPool(numThreads)
+      try {
+        val jobs = unflushed.map { segment =>
+          pool.submit(new Callable[Int] {
+            def call() = recoverUnflushedSegment(segment)
+          })
+        }
         try {
-          curr.recover(config.maxMessageSize)
+          jobs.map(_.get)
         } catch {
-          case e: InvalidOffsetException =>
-            val startOffset = curr.baseOffset
-            warn("Found invalid offset during recovery for log " + dir.getName +". Deleting the corrupt segment and " +
-                 "creating an empty one with starting offset " + startOffset)
-            curr.truncateTo(startOffset)
+          case e: ExecutionException => throw e.getCause
         }
-      if(truncatedBytes > 0) {
-        // we had an invalid message, delete all remaining log
-        warn("Corruption found in segment %d of log %s, truncating to offset %d.".format(curr.baseOffset, name, curr.nextOffset))
-        unflushed.foreach(deleteSegment)
+      } finally {
+        pool.shutdown()
       }
     }
   }
 
+  /**
+   * Recover an unflushed segment, replacing it by an empty segment if it has an invalid offset
+   *
+   * @return The number of bytes truncated from the segment
+   */
+  private def recoverUnflushedSegment(segment: LogSegment): Int = {
+    info("Recovering unflushed segment %d in log %s.".format(segment.baseOffset, name))
+    try {
+      recoverSegment(segment)
+    } catch {
+      case e: InvalidOffsetException =>
+        val startOffset = segment.baseOffset
+        warn("Found invalid offset during recovery for log " + dir.getName +". Deleting the corrupt segment and " +
+             "creating an empty one with starting offset " + startOffset)
+        segment.truncateTo(startOffset)
+    }
+  }
+
+  /**
+   * Rebuild the indexes of the given segment, truncating any invalid bytes at its end
+   *
+   * @return The number of bytes truncated from the segment
+   */
+  private def recoverSegment(segment: LogSegment): Int = {
+    recoveredSegments.incrementAndGet()
+    segment.recover(config.maxMessageSize)
+  }
+
   /**
    * Check if we have the "clean shutdown" file
    */
@@ -335,15 +415,31 @@ class Log(val dir: File,
    * @throws KafkaStorageException If the append fails due to an I/O error.
    * @return Information about the appended messages including the first and last offset.
    */
-  def append(messages: ByteBufferMessageSet, assignOffsets: Boolean = true): LogAppendInfo = {
-    val appendInfo = analyzeAndValidateMessageSet(messages)
+  def append(messages: ByteBufferMessageSet, assignOffsets: Boolean = true): LogAppendInfo =
+    append(messages, analyzeAndValidateMessageSet(messages), assignOffsets)
 
+  /**
+   * Append a message set fetched from the leader to the active segment of the log, with the offsets it was given.
+   *
+   * The leader validated the messages when it appended them, so only the CRC of each shallow message and the offsets
+   * are checked, in a single pass that does not look at the size or codec of the messages.
+   *
+   * @param messages The message set to append
+   * @throws KafkaStorageException If the append fails due to an I/O error.
+   * @return Information about the appended messages including the first and last offset.
+   */
+  def appendAsFollower(messages: ByteBufferMessageSet): LogAppendInfo =
+    append(messages, analyzeFollowerMessageSet(messages), assignOffsets = false)
+
+  private def append(messages: ByteBufferMessageSet, appendInfo: LogAppendInfo, assignOffsets: Boolean): LogAppendInfo = {
     // if we have any valid messages, append them to the log
     if (appendInfo.shallowCount == 0)
       return appendInfo
 
     // trim any invalid bytes or partial messages before appending it to the on-disk log
     var validMessages = trimInvalidBytes(messages, appendInfo)
+    // the inner messages of the compressed messages, if validation decompressed them
+    var innerMessages: Option[Seq[Message]] = None
 
     try {
       // they are valid, insert them in the log
@@ -367,6 +463,7 @@ class Log(val dir: File,
             case e: IOException => throw new KafkaException("Error in validating messages while appending to log '%s'".format(name), e)
           }
           validMessages = validateAndOffsetAssignResult.validatedMessages
+          innerMessages = validateAndOffsetAssignResult.innerMessages
           appendInfo.maxTimestamp = validateAndOffsetAssignResult.maxTimestamp
           appendInfo.offsetOfMaxTimestamp = validateAndOffsetAssignResult.offsetOfMaxTimestamp
           appendInfo.lastOffset = offset.value - 1
@@ -406,19 +503,25 @@ class Log(val dir: File,
 
         // now append to the log
         segment.append(firstOffset = appendInfo.firstOffset, largestTimestamp = appendInfo.maxTimestamp,
-          offsetOfLargestTimestamp = appendInfo.offsetOfMaxTimestamp, messages = validMessages)
+          offsetOfLargestTimestamp = appendInfo.offsetOfMaxTimestamp, messages = validMessages,
+          keyedMessages = if (config.compact) keyedMessages(validMessages, innerMessages) else None)
 
         // increment the log end offset
         updateLogEndOffset(appendInfo.lastOffset + 1)
 
         trace("Appended message set to log %s with first offset: %d, next offset: %d, and messages: %s"
           .format(this.name, appendInfo.firstOffset, nextOffsetMetadata.messageOffset, validMessages))
+      }
 
-        if (unflushedMessages >= config.flushInterval)
-          flush()
-
-        appendInfo
+      // flush outside the lock so that appends to the log do not wait for the flush to complete
+      if (unflushedMessages >= config.flushInterval) {
+        groupCommitFlusher match {
+          case Some(flusher) => flusher.flush(this, appendInfo.lastOffset + 1)
+          case None => flush(appendInfo.lastOffset + 1)
+        }
       }
+
+      appendInfo
     } catch {
       case e: IOException => throw new KafkaStorageException("I/O exception in append to log '%s'".format(name), e)
     }
@@ -484,12 +587,58 @@ class Log(val dir: File,
         sourceCodec = messageCodec
     }
 
-    // Apply broker-side compression if any
-    val targetCodec = BrokerCompressionCodec.getTargetCompressionCodec(config.compressionType, sourceCodec)
+    // Apply broker-side compression if any, unless it is deferred to the compression converter
+    val targetCodec =
+      if (config.compressionConversionDeferred && !config.compact) sourceCodec
+      else BrokerCompressionCodec.getTargetCompressionCodec(config.compressionType, sourceCodec)
 
     LogAppendInfo(firstOffset, lastOffset, maxTimestamp, offsetOfMaxTimestamp, Message.NoTimestamp, sourceCodec, targetCodec, shallowMessageCount, validBytesCount, monotonic)
   }
 
+  /**
+   * Validate that each message of a message set fetched from the leader matches its CRC and compute the quantities
+   * of analyzeAndValidateMessageSet that an append with the given offsets needs
+   */
+  private def analyzeFollowerMessageSet(messages: ByteBufferMessageSet): LogAppendInfo = {
+    var shallowMessageCount = 0
+    var validBytesCount = 0
+    var firstOffset, lastOffset = -1L
+    var monotonic = true
+    var maxTimestamp = Message.NoTimestamp
+    var offsetOfMaxTimestamp = -1L
+    for (messageAndOffset <- messages.shallowIterator) {
+      if (firstOffset < 0)
+        firstOffset = messageAndOffset.offset
+      if (lastOffset >= messageAndOffset.offset)
+        monotonic = false
+      lastOffset = messageAndOffset.offset
+
+      val m = messageAndOffset.message
+      m.ensureValid()
+      if (m.timestamp > maxTimestamp) {
+        maxTimestamp = m.timestamp
+        offsetOfMaxTimestamp = lastOffset
+      }
+      shallowMessageCount += 1
+      validBytesCount += MessageSet.entrySize(m)
+    }
+    // the codecs are only used to assign offsets
+    LogAppendInfo(firstOffset, lastOffset, maxTimestamp, offsetOfMaxTimestamp, Message.NoTimestamp, NoCompressionCodec,
+      NoCompressionCodec, shallowMessageCount, validBytesCount, monotonic)
+  }
+
+  /**
+   * The messages whose keys to record in the key statistics of a compacted log, without decompressing any message:
+   * the keys of compressed messages are only recorded when validation decompressed them already, and otherwise the
+   * statistics of the segment are left unusable until the cleaner rewrites it
+   */
+  private def keyedMessages(messages: ByteBufferMessageSet, innerMessages: Option[Seq[Message]]): Option[Iterable[Message]] =
+    innerMessages.orElse {
+      val shallowMessages = messages.shallowIterator.map(_.message).toIndexedSeq
+      if (shallowMessages.exists(_.compressionCodec != NoCompressionCodec)) None
+      else Some(shallowMessages)
+    }
+
   /**
    * Trim any invalid bytes from the end of this message set (if there are any)
    *
@@ -572,6 +721,39 @@ class Log(val dir: File,
     FetchDataInfo(nextOffsetMetadata, MessageSet.Empty)
   }
 
+  /**
+   * Check if a read at the given position is more than lagBytes behind the log end. The page cache holds the data most
+   * recently appended to the log, so a read that far behind is likely to be served from disk.
+   *
+   * @param fetchOffsetMetadata The position of the read, as returned by read()
+   * @param lagBytes The number of bytes behind the log end from which a read is cold
+   */
+  def isColdRead(fetchOffsetMetadata: LogOffsetMetadata, lagBytes: Long): Boolean = {
+    if (fetchOffsetMetadata.messageOffsetOnly)
+      return false
+    // add up the sizes of the segments from the log end back to the position, at most until the lag is exceeded
+    var bytesBehind = 0L
+    val iter = segments.tailMap(fetchOffsetMetadata.segmentBaseOffset, true).descendingMap.values.iterator
+    while (iter.hasNext) {
+      val segment = iter.next
+      if (segment.baseOffset == fetchOffsetMetadata.segmentBaseOffset)
+        bytesBehind += segment.size - fetchOffsetMetadata.relativePositionInSegment
+      else
+        bytesBehind += segment.size
+      if (bytesBehind > lagBytes)
+        return true
+    }
+    false
+  }
+
+  /**
+   * Record a read that isColdRead() found to be cold in the metrics of this log
+   */
+  def recordColdRead(bytes: Int) {
+    coldReadRate.mark()
+    coldReadBytesRate.mark(bytes)
+  }
+
   /**
    * Get an offset based on the given timestamp
    * The offset returned is the offset of the first message whose timestamp is greater than or equals to the
@@ -1022,6 +1204,25 @@ class Log(val dir: File,
     }
   }
 
+  /**
+   * Swap in a new segment for the given inactive segment, unless the segment has been deleted, truncated or has
+   * become the active segment since it was read.
+   *
+   * @param newSegment The new log segment to add to the log
+   * @param oldSegment The old log segment to delete from the log
+   * @param oldSize The size of the old segment when it was read
+   * @return true if the new segment was swapped in
+   */
+  private[log] def replaceSegmentIfUnchanged(newSegment: LogSegment, oldSegment: LogSegment, oldSize: Long): Boolean = {
+    lock synchronized {
+      val unchanged = (segments.get(oldSegment.baseOffset) eq oldSegment) && (activeSegment ne oldSegment) &&
+        oldSegment.size == oldSize
+      if (unchanged)
+        replaceSegments(newSegment, Seq(oldSegment))
+      unchanged
+    }
+  }
+
   /**
    * remove deleted log metrics
    */
@@ -1030,6 +1231,8 @@ class Log(val dir: File,
     removeMetric("LogStartOffset", tags)
     removeMetric("LogEndOffset", tags)
     removeMetric("Size", tags)
+    removeMetric("ColdReadsPerSec", tags)
+    removeMetric("ColdReadBytesPerSec", tags)
   }
   /**
    * Add the given segment to the segments in this log. If this segment replaces an existing segment, delete it.
@@ -1054,6 +1257,9 @@ object Log {
   /** a time index file */
   val TimeIndexFileSuffix = ".timeindex"
 
+  /** a file with statistics of the keys of a segment */
+  val KeyStatsFileSuffix = ".keystats"
+
   /** a file that is scheduled to be deleted */
   val DeletedFileSuffix = ".deleted"
 
@@ -20,16 +20,19 @@ package kafka.log
 import java.io.{DataOutputStream, File}
 import java.nio._
 import java.util.Date
-import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, ExecutionException, ExecutorService, Executors, ThreadFactory, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
 
 import com.yammer.metrics.core.Gauge
 import kafka.common._
 import kafka.message._
 import kafka.metrics.KafkaMetricsGroup
 import kafka.utils._
+import org.apache.kafka.common.utils.Utils
 
 import scala.Iterable
 import scala.collection._
+import scala.collection.JavaConverters._
 
 /**
  * The cleaner is responsible for removing obsolete records from logs which have the dedupe retention strategy.
@@ -52,7 +55,8 @@ import scala.collection._
  * To avoid segments shrinking to very small sizes with repeated cleanings we implement a rule by which if we will merge successive segments when
  * doing a cleaning if their log and index size are less than the maximum log and index size prior to the clean beginning.
  * 
- * Cleaned segments are swapped into the log as they become available.
+ * Cleaned segments are swapped into the log as they become available. The groups of segments of a log can be recopied by several threads
+ * at once, which share the offset map, the I/O buffer space and the I/O throttle of the cleaner thread cleaning the log.
  * 
  * One nuance that the cleaner must handle is log truncation. If a log is truncated while it is being cleaned the cleaning of that log is aborted.
  * 
@@ -82,6 +86,16 @@ class LogCleaner(val config: CleanerConfig,
                                         "bytes",
                                         time = time)
   
+  /* the threads the cleaner threads use to clean groups of segments of a log concurrently, if more than one per log */
+  private val recopyPool =
+    if (config.numThreadsPerLog > 1) {
+      val recopyThreadId = new AtomicInteger()
+      Some(Executors.newFixedThreadPool(config.numThreads * (config.numThreadsPerLog - 1), new ThreadFactory {
+        def newThread(runnable: Runnable): Thread =
+          Utils.newThread("kafka-log-cleaner-recopy-" + recopyThreadId.getAndIncrement(), runnable, true)
+      }))
+    } else None
+
   /* the threads */
   private val cleaners = (0 until config.numThreads).map(new CleanerThread(_))
   
@@ -119,6 +133,10 @@ class LogCleaner(val config: CleanerConfig,
   def shutdown() {
     info("Shutting down the log cleaner.")
     cleaners.foreach(_.shutdown())
+    recopyPool.foreach { pool =>
+      pool.shutdown()
+      pool.awaitTermination(Long.MaxValue, TimeUnit.MILLISECONDS)
+    }
   }
   
   /**
@@ -189,18 +207,27 @@ class LogCleaner(val config: CleanerConfig,
     
     override val loggerName = classOf[LogCleaner].getName
     
-    if(config.dedupeBufferSize / config.numThreads > Int.MaxValue)
-      warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
+    private val offsetMap: OffsetMap = {
+      val memory = config.dedupeBufferSize / config.numThreads
+      if(config.hashAlgorithm.equalsIgnoreCase(CompactOffsetMap.HashAlgorithm)) {
+        new CompactOffsetMap(memory)
+      } else {
+        if(memory > Int.MaxValue)
+          warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
+        new SkimpyOffsetMap(memory = math.min(memory, Int.MaxValue).toInt, hashAlgorithm = config.hashAlgorithm)
+      }
+    }
 
     val cleaner = new Cleaner(id = threadId,
-                              offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt, 
-                                                              hashAlgorithm = config.hashAlgorithm),
-                              ioBufferSize = config.ioBufferSize / config.numThreads / 2,
+                              offsetMap = offsetMap,
+                              ioBufferSize = config.ioBufferSize / config.numThreads / config.numThreadsPerLog / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
                               throttler = throttler,
                               time = time,
-                              checkDone = checkDone)
+                              checkDone = checkDone,
+                              numSegmentCleaners = config.numThreadsPerLog,
+                              recopyPool = recopyPool)
     
     @volatile var lastStats: CleanerStats = new CleanerStats()
     private val backOffWaitLatch = new CountDownLatch(1)
@@ -301,6 +328,8 @@ class LogCleaner(val config: CleanerConfig,
  * @param throttler The throttler instance to use for limiting I/O rate.
  * @param time The time instance
  * @param checkDone Check if the cleaning for a partition is finished or aborted.
+ * @param numSegmentCleaners The number of groups of segments of a log to clean concurrently, each with its own I/O buffers
+ * @param recopyPool The threads that clean groups of segments for this cleaner, required if there is more than one segment cleaner
  */
 private[log] class Cleaner(val id: Int,
                            val offsetMap: OffsetMap,
@@ -309,7 +338,9 @@ private[log] class Cleaner(val id: Int,
                            dupBufferLoadFactor: Double,
                            throttler: Throttler,
                            time: Time,
-                           checkDone: (TopicAndPartition) => Unit) extends Logging {
+                           checkDone: (TopicAndPartition) => Unit,
+                           numSegmentCleaners: Int = 1,
+                           recopyPool: Option[ExecutorService] = None) extends Logging {
   
   override val loggerName = classOf[LogCleaner].getName
 
@@ -325,6 +356,13 @@ private[log] class Cleaner(val id: Int,
   /* buffer used for write i/o */
   private var writeBuffer = ByteBuffer.allocate(ioBufferSize)
 
+  /* the cleaners that clean groups of segments concurrently with this one using the same offset map */
+  private val peers = (1 until numSegmentCleaners).map { _ =>
+    new Cleaner(id, offsetMap, ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time, checkDone)
+  }
+
+  require(peers.isEmpty || recopyPool.isDefined, "concurrent segment cleaners need a pool of threads to run on")
+
   require(offsetMap.slots * dupBufferLoadFactor > 1, "offset map is too small to fit in even a single message, so log cleaning will never make progress. You can increase log.cleaner.dedupe.buffer.size or decrease log.cleaner.threads")
 
   /**
@@ -360,8 +398,11 @@ private[log] class Cleaner(val id: Int,
 
     // group the segments and clean the groups
     info("Cleaning log %s (cleaning prior to %s, discarding tombstones prior to %s)...".format(log.name, new Date(cleanableHorizionMs), new Date(deleteHorizonMs)))
-    for (group <- groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize, log.config.maxIndexSize))
-      cleanSegments(log, group, offsetMap, deleteHorizonMs)
+    val groups = groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize, log.config.maxIndexSize)
+    if (peers.isEmpty)
+      groups.foreach(cleanSegments(log, _, offsetMap, deleteHorizonMs))
+    else
+      cleanSegmentsConcurrently(log, groups, deleteHorizonMs)
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
@@ -371,6 +412,50 @@ private[log] class Cleaner(val id: Int,
     endOffset
   }
 
+  /**
+   * Clean the groups of segments using this cleaner and its peers, each of which repeatedly takes the next group that
+   * has not been cleaned yet. The groups are disjoint, so each is swapped into the log as soon as it is cleaned.
+   *
+   * @param log The log being cleaned
+   * @param groups The groups of segments to clean
+   * @param deleteHorizonMs The time to retain delete tombstones
+   */
+  private def cleanSegmentsConcurrently(log: Log, groups: Seq[Seq[LogSegment]], deleteHorizonMs: Long) {
+    val remaining = new ConcurrentLinkedQueue[Seq[LogSegment]](groups.asJava)
+    def cleanRemaining(cleaner: Cleaner) {
+      var group = remaining.poll()
+      while (group != null) {
+        cleaner.cleanSegments(log, group, offsetMap, deleteHorizonMs)
+        group = remaining.poll()
+      }
+    }
+
+    peers.foreach(_.stats.clear())
+    val jobs = peers.map { peer =>
+      recopyPool.get.submit(new Runnable {
+        def run() = cleanRemaining(peer)
+      })
+    }
+    try {
+      cleanRemaining(this)
+    } finally {
+      // if this cleaner failed the peers stop after their current group, either way they are done before we return
+      remaining.clear()
+      jobs.foreach { job =>
+        try job.get
+        catch {
+          case _: ExecutionException => // rethrown below once all the peers are done
+        }
+      }
+      peers.foreach(peer => stats.addCleaningStats(peer.stats))
+    }
+    try {
+      jobs.foreach(_.get)
+    } catch {
+      case e: ExecutionException => throw e.getCause
+    }
+  }
+
   /**
    * Clean a group of segments into a single replacement segment
    *
@@ -502,7 +587,7 @@ private[log] class Cleaner(val id: Int,
         writeBuffer.flip()
         val retained = new ByteBufferMessageSet(writeBuffer)
         dest.append(firstOffset = retained.head.offset, largestTimestamp = maxTimestamp,
-          offsetOfLargestTimestamp = offsetOfMaxTimestamp, messages = retained)
+          offsetOfLargestTimestamp = offsetOfMaxTimestamp, messages = retained, keyedMessages = Some(retained.map(_.message)))
         throttler.maybeThrottle(writeBuffer.limit)
       }
       
@@ -719,6 +804,14 @@ private case class CleanerStats(time: Time = SystemTime) {
     bytesWritten += size
   }
 
+  def addCleaningStats(other: CleanerStats) {
+    bytesRead += other.bytesRead
+    messagesRead += other.messagesRead
+    invalidMessagesRead += other.invalidMessagesRead
+    bytesWritten += other.bytesWritten
+    messagesWritten += other.messagesWritten
+  }
+
   def indexMessagesRead(size: Int) {
     mapMessagesRead += size
   }
@@ -764,5 +857,38 @@ private case class LogToClean(topicPartition: TopicAndPartition, log: Log, first
   val cleanableBytes = log.logSegments(firstDirtyOffset, math.max(firstDirtyOffset, firstUncleanableOffset)).map(_.size).sum
   val totalBytes = cleanBytes + cleanableBytes
   val cleanableRatio = cleanableBytes / totalBytes.toDouble
+
+  /**
+   * The number of bytes cleaning is expected to reclaim, estimated from the key statistics of the segments up to the
+   * first uncleanable offset if all of them are known: the duplicate keys and the tombstones that are past the delete
+   * horizon are removed, as a share of the messages with a key.
+   */
+  lazy val estimatedReclaimableBytes: Option[Long] = {
+    val segments = log.logSegments(0, firstUncleanableOffset).toSeq
+    val keyStats = segments.flatMap(_.validKeyStats)
+    if (keyStats.size < segments.size) {
+      None
+    } else {
+      val keyedMessages = keyStats.map(_.keyedMessages).sum
+      if (keyedMessages == 0) {
+        Some(0L)
+      } else {
+        val duplicates = math.max(0L, keyedMessages - SegmentKeyStats.estimateDistinctKeys(keyStats))
+        val deleteHorizonMs = log.logSegments(0, firstDirtyOffset).lastOption match {
+          case None => 0L
+          case Some(seg) => seg.largestTimestamp - log.config.deleteRetentionMs
+        }
+        val expiredTombstones = segments.filter(_.largestTimestamp <= deleteHorizonMs).flatMap(_.validKeyStats).map(_.tombstones).sum
+        val reclaimable = math.min(keyedMessages, duplicates + expiredTombstones)
+        Some((segments.map(_.size).sum * (reclaimable.toDouble / keyedMessages)).toLong)
+      }
+    }
+  }
+
+  /**
+   * The number of bytes cleaning is expected to reclaim, or the cleanable bytes if there is no estimate
+   */
+  def expectedReclaimableBytes: Long = estimatedReclaimableBytes.getOrElse(cleanableBytes)
+
   override def compare(that: LogToClean): Int = math.signum(this.cleanableRatio - that.cleanableRatio).toInt
 }
@@ -100,7 +100,8 @@ private[log] class LogCleanerManager(val logDirs: Array[File], val logs: Pool[To
       if(cleanableLogs.isEmpty) {
         None
       } else {
-        val filthiest = cleanableLogs.max
+        // clean the log that is expected to reclaim the most bytes, the estimate is only precise enough to rank logs
+        val filthiest = cleanableLogs.maxBy(_.expectedReclaimableBytes)
         inProgress.put(filthiest.topicPartition, LogCleaningInProgress)
         Some(filthiest)
       }
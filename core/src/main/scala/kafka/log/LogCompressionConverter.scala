@@ -0,0 +1,402 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import kafka.common._
+import kafka.message._
+import kafka.server.OffsetCheckpoint
+import kafka.utils._
+import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.utils.Utils
+
+import scala.collection._
+
+/**
+ * Converts the messages of logs that defer compression conversion to the compression type of their topic.
+ *
+ * When a topic sets compression.conversion.deferred, a message set sent with a different codec than the topic's
+ * compression.type is appended as it was sent, so that the request handler only assigns offsets to it instead of
+ * decompressing and recompressing it. The converter later rewrites every inactive segment that still holds such
+ * messages into a new segment with the same offsets and timestamps, and swaps it into the log the same way the log
+ * cleaner does. Messages already in the target codec are copied without being decompressed.
+ *
+ * The converter runs in a single background thread whose I/O is throttled to a configured rate. The offset up to
+ * which each log has been converted is saved in a checkpoint file in each log directory so that segments are only
+ * examined once.
+ *
+ * @param config Configuration parameters for the converter
+ * @param logDirs The directories where offset checkpoints reside
+ * @param logs The pool of logs
+ * @param time A way to control the passage of time
+ */
+class LogCompressionConverter(val config: CompressionConverterConfig,
+                              val logDirs: Array[File],
+                              val logs: Pool[TopicAndPartition, Log],
+                              time: Time = SystemTime) extends Logging {
+
+  val CheckpointFile = "compression-converter-offset-checkpoint"
+
+  private val checkpoints = logDirs.map(dir => (dir, new OffsetCheckpoint(new File(dir, CheckpointFile)))).toMap
+
+  /* the first offset of each log that has not been examined yet */
+  private val convertedOffsets = mutable.Map[TopicAndPartition, Long]() ++ checkpoints.values.flatMap(_.read())
+
+  private val lock = new Object
+
+  /* a throttle used to limit the I/O of the converter to a user-specified maximum rate */
+  private val throttler = new Throttler(desiredRatePerSec = config.maxIoBytesPerSecond,
+                                        checkIntervalMs = 300,
+                                        throttleDown = true,
+                                        "compression-converter-io",
+                                        "bytes",
+                                        time = time)
+
+  private val thread = new ConverterThread
+
+  /* buffer used for read i/o, only accessed by the converter thread */
+  private var readBuffer = ByteBuffer.allocate(config.ioBufferSize)
+
+  /**
+   * Start the background conversion
+   */
+  def startup() {
+    info("Starting the log compression converter")
+    thread.start()
+  }
+
+  /**
+   * Stop the background conversion
+   */
+  def shutdown() {
+    info("Shutting down the log compression converter.")
+    // the thread would never signal its shutdown if it was not started
+    if (thread.getState != Thread.State.NEW)
+      thread.shutdown()
+  }
+
+  /**
+   * Move the converted offset of the given partition back to the given offset if it is larger, so that segments
+   * appended after a truncation are examined again
+   */
+  def maybeTruncateCheckpoint(dataDir: File, topicAndPartition: TopicAndPartition, offset: Long) {
+    lock synchronized {
+      if (convertedOffsets.getOrElse(topicAndPartition, 0L) > offset) {
+        convertedOffsets.put(topicAndPartition, offset)
+        writeCheckpoint(dataDir)
+      }
+    }
+  }
+
+  /**
+   * The offsets up to which the segments of each log have been converted
+   */
+  def allConvertedOffsets: Map[TopicAndPartition, Long] = lock synchronized { convertedOffsets.toMap }
+
+  /**
+   * Convert the next inactive segment that has not been examined yet, if there is one
+   *
+   * @return true if a segment was examined
+   */
+  private[log] def convertNextSegment(): Boolean = {
+    val candidate = logs.iterator.filter { case (_, log) =>
+      log.config.compressionConversionDeferred && !log.config.compact &&
+        log.config.compressionType != ProducerCompressionCodec.name
+    }.map { case (topicAndPartition, log) =>
+      val from = lock synchronized { convertedOffsets.getOrElse(topicAndPartition, 0L) }
+      (topicAndPartition, log, log.logSegments.find(segment => segment.baseOffset >= from && (segment ne log.activeSegment)))
+    }.collectFirst { case (topicAndPartition, log, Some(segment)) => (topicAndPartition, log, segment) }
+
+    candidate match {
+      case None => false
+      case Some((topicAndPartition, log, segment)) =>
+        val targetCodec = BrokerCompressionCodec.getCompressionCodec(log.config.compressionType)
+        val maxMessageSize = log.config.maxMessageSize + MessageSet.LogOverhead
+        try {
+          if (needsConversion(segment, targetCodec, maxMessageSize))
+            convertSegment(log, segment, targetCodec, maxMessageSize)
+        } catch {
+          case e: ThreadShutdownException => throw e
+          case e: Exception =>
+            warn("Failed to convert segment %d of log %s to %s, leaving it as it is."
+              .format(segment.baseOffset, log.name, targetCodec.name), e)
+        }
+        lock synchronized {
+          convertedOffsets.put(topicAndPartition, math.max(segment.nextOffset(), segment.baseOffset + 1))
+          writeCheckpoint(log.dir.getParentFile)
+        }
+        true
+    }
+  }
+
+  /* must be called while holding the lock */
+  private def writeCheckpoint(dataDir: File) {
+    convertedOffsets.retain((topicAndPartition, _) => logs.contains(topicAndPartition))
+    val offsets = convertedOffsets.filterKeys { topicAndPartition =>
+      val log = logs.get(topicAndPartition)
+      log != null && log.dir.getParentFile == dataDir
+    }
+    checkpoints(dataDir).write(offsets)
+  }
+
+  /**
+   * Read the messages at the given position of a segment, growing the read buffer until it holds at least one
+   * complete message
+   */
+  private def readMessages(segment: LogSegment, position: Int, maxMessageSize: Int): ByteBufferMessageSet = {
+    var messages: ByteBufferMessageSet = null
+    while (messages == null) {
+      checkRunning()
+      readBuffer.clear()
+      val read = new ByteBufferMessageSet(segment.log.readInto(readBuffer, position))
+      throttler.maybeThrottle(read.sizeInBytes)
+      if (read.sizeInBytes == 0 || read.validBytes > 0)
+        messages = read
+      else if (readBuffer.capacity >= maxMessageSize)
+        throw new IllegalStateException("Segment %d contains a message larger than maximum allowable size of %d."
+          .format(segment.baseOffset, maxMessageSize))
+      else
+        readBuffer = ByteBuffer.allocate(math.min(readBuffer.capacity * 2, maxMessageSize))
+    }
+    messages
+  }
+
+  private def needsConversion(segment: LogSegment, targetCodec: CompressionCodec, maxMessageSize: Int): Boolean = {
+    var position = 0
+    while (position < segment.log.sizeInBytes) {
+      val messages = readMessages(segment, position, maxMessageSize)
+      if (messages.validBytes == 0)
+        return false
+      if (messages.shallowIterator.exists(_.message.compressionCodec != targetCodec))
+        return true
+      position += messages.validBytes
+    }
+    false
+  }
+
+  /**
+   * Copy the given segment into a new segment with all messages in the target codec and swap it into the log
+   */
+  private def convertSegment(log: Log, segment: LogSegment, targetCodec: CompressionCodec, maxMessageSize: Int) {
+    val sourceSize = segment.size
+
+    // create a new segment with the suffix .cleaned appended to both the log and index name
+    val logFile = new File(segment.log.file.getPath + Log.CleanedFileSuffix)
+    logFile.delete()
+    val indexFile = new File(segment.index.file.getPath + Log.CleanedFileSuffix)
+    val timeIndexFile = new File(segment.timeIndex.file.getPath + Log.CleanedFileSuffix)
+    indexFile.delete()
+    timeIndexFile.delete()
+    val messages = new FileMessageSet(logFile, fileAlreadyExists = false, initFileSize = log.initFileSize(), preallocate = log.config.preallocate)
+    val index = new OffsetIndex(indexFile, segment.baseOffset, segment.index.maxIndexSize)
+    val timeIndex = new TimeIndex(timeIndexFile, segment.baseOffset, segment.timeIndex.maxIndexSize)
+    val converted = new LogSegment(messages, index, timeIndex, segment.baseOffset, segment.indexIntervalBytes, log.config.randomSegmentJitter, time)
+
+    var swapped = false
+    try {
+      var position = 0
+      var complete = true
+      while (complete && position < sourceSize) {
+        val source = readMessages(segment, position, maxMessageSize)
+        if (source.validBytes == 0) {
+          position = sourceSize.toInt
+        } else {
+          val output = convertMessages(source, targetCodec, log.config.maxMessageSize)
+          // stop if the converted messages would not fit the segment or its indexes
+          if (converted.size + output.sizeInBytes > Int.MaxValue || index.isFull || timeIndex.isFull) {
+            complete = false
+          } else {
+            var maxTimestamp = Message.NoTimestamp
+            var offsetOfMaxTimestamp = -1L
+            for (entry <- output.shallowIterator) {
+              if (entry.message.timestamp > maxTimestamp) {
+                maxTimestamp = entry.message.timestamp
+                offsetOfMaxTimestamp = entry.offset
+              }
+            }
+            converted.append(firstOffset = output.shallowIterator.next().offset, largestTimestamp = maxTimestamp,
+              offsetOfLargestTimestamp = offsetOfMaxTimestamp, messages = output, keyedMessages = None)
+            throttler.maybeThrottle(output.sizeInBytes)
+            position += source.validBytes
+          }
+        }
+      }
+
+      if (!complete) {
+        warn("Segment %d of log %s does not fit a single segment after conversion to %s, leaving it as it is."
+          .format(segment.baseOffset, log.name, targetCodec.name))
+      } else {
+        index.trimToValidSize()
+        converted.onBecomeInactiveSegment()
+        timeIndex.trimToValidSize()
+        converted.flush()
+        converted.lastModified = segment.lastModified
+        swapped = log.replaceSegmentIfUnchanged(converted, segment, sourceSize)
+        if (swapped)
+          info("Swapped in segment %d of log %s converted to %s (%d bytes before, %d bytes after)."
+            .format(segment.baseOffset, log.name, targetCodec.name, sourceSize, converted.size))
+        else
+          info("Segment %d of log %s changed while it was being converted, discarding the converted segment."
+            .format(segment.baseOffset, log.name))
+      }
+    } finally {
+      if (!swapped)
+        CoreUtils.swallow(converted.delete())
+    }
+  }
+
+  /**
+   * Convert the complete messages of the given message set to the target codec. Uncompressed messages are grouped
+   * into compressed messages of at most maxMessageSize bytes before compression, as long as they share their magic
+   * value and timestamp type, and their timestamp when it is the log append time.
+   */
+  private def convertMessages(messages: ByteBufferMessageSet, targetCodec: CompressionCodec, maxMessageSize: Int): ByteBufferMessageSet = {
+    val converted = mutable.ArrayBuffer[ByteBuffer]()
+    val group = mutable.ArrayBuffer[MessageAndOffset]()
+    var groupSize = 0
+
+    def flushGroup() {
+      if (group.nonEmpty) {
+        val first = group.head.message
+        val (wrapperTimestamp, timestampType) =
+          if (first.magic == Message.MagicValue_V0)
+            (None, TimestampType.CREATE_TIME)
+          else if (first.timestampType == TimestampType.LOG_APPEND_TIME)
+            (Some(first.timestamp), TimestampType.LOG_APPEND_TIME)
+          else
+            (None, TimestampType.CREATE_TIME)
+        // inner messages always have the create time as their timestamp type
+        val innerMessages = group.map { entry =>
+          if (timestampType == TimestampType.LOG_APPEND_TIME)
+            withTimestamp(entry.message, entry.message.timestamp, TimestampType.CREATE_TIME)
+          else
+            entry.message
+        }
+        converted += new ByteBufferMessageSet(targetCodec, group.map(_.offset), wrapperTimestamp, timestampType,
+          innerMessages: _*).buffer
+        group.clear()
+        groupSize = 0
+      }
+    }
+
+    def sameGroup(message: Message): Boolean = {
+      val first = group.head.message
+      message.magic == first.magic && message.timestampType == first.timestampType &&
+        (message.timestampType != TimestampType.LOG_APPEND_TIME || message.timestamp == first.timestamp)
+    }
+
+    for (entry <- messages.shallowIterator) {
+      val message = entry.message
+      if (message.compressionCodec == NoCompressionCodec && targetCodec != NoCompressionCodec) {
+        val size = MessageSet.entrySize(message)
+        if (group.nonEmpty && (!sameGroup(message) || groupSize + size > maxMessageSize))
+          flushGroup()
+        group += entry
+        groupSize += size
+      } else {
+        flushGroup()
+        if (message.compressionCodec == targetCodec)
+          converted += copy(entry)
+        else
+          converted += recompress(entry, targetCodec)
+      }
+    }
+    flushGroup()
+
+    val buffer = ByteBuffer.allocate(converted.map(_.remaining).sum)
+    converted.foreach(buffer.put)
+    buffer.flip()
+    new ByteBufferMessageSet(buffer)
+  }
+
+  private def copy(entry: MessageAndOffset): ByteBuffer = {
+    val buffer = ByteBuffer.allocate(MessageSet.entrySize(entry.message))
+    ByteBufferMessageSet.writeMessage(buffer, entry.message, entry.offset)
+    buffer.flip()
+    buffer
+  }
+
+  /**
+   * Decompress a compressed message and write its inner messages with the target codec, keeping their offsets and
+   * timestamps
+   */
+  private def recompress(entry: MessageAndOffset, targetCodec: CompressionCodec): ByteBuffer = {
+    val wrapper = entry.message
+    val inner = ByteBufferMessageSet.deepIterator(entry).toBuffer
+    val logAppendTime = wrapper.magic > Message.MagicValue_V0 && wrapper.timestampType == TimestampType.LOG_APPEND_TIME
+    if (targetCodec == NoCompressionCodec) {
+      // the log append time of the wrapper message moves to each message
+      val messages = inner.map { innerEntry =>
+        if (logAppendTime)
+          withTimestamp(innerEntry.message, wrapper.timestamp, TimestampType.LOG_APPEND_TIME)
+        else
+          innerEntry.message
+      }
+      new ByteBufferMessageSet(NoCompressionCodec, inner.map(_.offset), None, TimestampType.CREATE_TIME, messages: _*).buffer
+    } else {
+      val (wrapperTimestamp, timestampType) =
+        if (logAppendTime) (Some(wrapper.timestamp), TimestampType.LOG_APPEND_TIME)
+        else (None, TimestampType.CREATE_TIME)
+      new ByteBufferMessageSet(targetCodec, inner.map(_.offset), wrapperTimestamp, timestampType,
+        inner.map(_.message): _*).buffer
+    }
+  }
+
+  /**
+   * A copy of a message with format version 1 with the given timestamp and timestamp type
+   */
+  private def withTimestamp(message: Message, timestamp: Long, timestampType: TimestampType): Message = {
+    val buffer = ByteBuffer.allocate(message.size)
+    buffer.put(message.buffer.duplicate())
+    buffer.putLong(Message.TimestampOffset, timestamp)
+    buffer.put(Message.AttributesOffset, timestampType.updateAttributes(buffer.get(Message.AttributesOffset)))
+    Utils.writeUnsignedInt(buffer, Message.CrcOffset, new Message(buffer).computeChecksum)
+    buffer.rewind()
+    new Message(buffer)
+  }
+
+  private def checkRunning() {
+    if (!thread.isRunning.get())
+      throw new ThreadShutdownException
+  }
+
+  /**
+   * The converter thread converts one segment at a time and sleeps when there is nothing left to convert
+   */
+  private class ConverterThread
+    extends ShutdownableThread(name = "kafka-log-compression-converter-thread", isInterruptible = false) {
+
+    override val loggerName = classOf[LogCompressionConverter].getName
+
+    private val backOffWaitLatch = new CountDownLatch(1)
+
+    override def doWork() {
+      if (!convertNextSegment())
+        backOffWaitLatch.await(config.backOffMs, TimeUnit.MILLISECONDS)
+    }
+
+    override def shutdown() = {
+      initiateShutdown()
+      backOffWaitLatch.countDown()
+      awaitShutdown()
+    }
+  }
+}
@@ -19,7 +19,10 @@ package kafka.log
 
 import java.io._
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
+import com.yammer.metrics.core.Gauge
+import kafka.metrics.KafkaMetricsGroup
 import kafka.utils._
 
 import scala.collection._
@@ -36,6 +39,10 @@ import java.util.concurrent.{ExecutionException, ExecutorService, Executors, Fut
  * size or I/O rate.
  * 
  * A background thread handles log retention by periodically truncating excess log segments.
+ *
+ * The time spent loading the logs at startup is broken down by the LogsLoadTimeMs, SegmentsLoadTimeMs,
+ * SegmentsRecoveryTimeMs and RecoveredSegments metrics. The logs are loaded concurrently, so the segment times are
+ * the total over all logs and may add up to more than the time taken to load the logs.
  */
 @threadsafe
 class LogManager(val logDirs: Array[File],
@@ -48,7 +55,10 @@ class LogManager(val logDirs: Array[File],
                  val retentionCheckMs: Long,
                  scheduler: Scheduler,
                  val brokerState: BrokerState,
-                 private val time: Time) extends Logging {
+                 private val time: Time,
+                 val compressionConverterConfig: CompressionConverterConfig = CompressionConverterConfig(),
+                 val groupCommitWindowMs: Option[Long] = None,
+                 recoveryThreadsPerLog: Int = 1) extends Logging with KafkaMetricsGroup {
   val RecoveryPointCheckpointFile = "recovery-point-offset-checkpoint"
   val LockFile = ".lock"
   val InitialTaskDelayMs = 30*1000
@@ -58,14 +68,47 @@ class LogManager(val logDirs: Array[File],
   createAndValidateLogDirs(logDirs)
   private val dirLocks = lockLogDirs(logDirs)
   private val recoveryPointCheckpoints = logDirs.map(dir => (dir, new OffsetCheckpoint(new File(dir, RecoveryPointCheckpointFile)))).toMap
+  /* the flushers that flush the logs of each directory together, if group commit is enabled */
+  private val groupCommitFlushers: Map[File, GroupCommitFlusher] = groupCommitWindowMs match {
+    case Some(windowMs) => logDirs.map(dir => (dir, new GroupCommitFlusher(dir, windowMs, time))).toMap
+    case None => Map.empty
+  }
+
+  /* the time taken to load the logs at startup, and the breakdown of the time spent in each log */
+  private val logsLoadTimeMs = new AtomicLong
+  private val segmentsLoadTimeMs = new AtomicLong
+  private val segmentsRecoveryTimeMs = new AtomicLong
+  private val recoveredSegments = new AtomicLong
   loadLogs()
 
+  newGauge("LogsLoadTimeMs",
+    new Gauge[Long] {
+      def value = logsLoadTimeMs.get
+    })
+
+  newGauge("SegmentsLoadTimeMs",
+    new Gauge[Long] {
+      def value = segmentsLoadTimeMs.get
+    })
+
+  newGauge("SegmentsRecoveryTimeMs",
+    new Gauge[Long] {
+      def value = segmentsRecoveryTimeMs.get
+    })
+
+  newGauge("RecoveredSegments",
+    new Gauge[Long] {
+      def value = recoveredSegments.get
+    })
+
   // public, so we can access this from kafka.admin.DeleteTopicTest
   val cleaner: LogCleaner =
     if(cleanerConfig.enableCleaner)
       new LogCleaner(cleanerConfig, logDirs, logs, time = time)
     else
       null
+
+  val compressionConverter = new LogCompressionConverter(compressionConverterConfig, logDirs, logs, time = time)
   
   /**
    * Create and check validity of the given directories, specifically:
@@ -148,7 +191,11 @@ class LogManager(val logDirs: Array[File],
           val config = topicConfigs.getOrElse(topicPartition.topic, defaultConfig)
           val logRecoveryPoint = recoveryPoints.getOrElse(topicPartition, 0L)
 
-          val current = new Log(logDir, config, logRecoveryPoint, scheduler, time)
+          val current = new Log(logDir, config, logRecoveryPoint, scheduler, time, groupCommitFlushers.get(dir),
+                                recoveryThreadsPerLog)
+          segmentsLoadTimeMs.addAndGet(current.segmentsLoadTimeMs)
+          segmentsRecoveryTimeMs.addAndGet(current.segmentsRecoveryTimeMs)
+          recoveredSegments.addAndGet(current.recoveredSegments.get)
           val previous = this.logs.put(topicPartition, current)
 
           if (previous != null) {
@@ -177,7 +224,9 @@ class LogManager(val logDirs: Array[File],
       threadPools.foreach(_.shutdown())
     }
 
-    info(s"Logs loading complete in ${time.milliseconds - startMs} ms.")
+    logsLoadTimeMs.set(time.milliseconds - startMs)
+    info(s"Logs loading complete in ${logsLoadTimeMs.get} ms, spent ${segmentsLoadTimeMs.get} ms loading and " +
+      s"${segmentsRecoveryTimeMs.get} ms recovering segments, ${recoveredSegments.get} segments recovered.")
   }
 
   /**
@@ -206,6 +255,8 @@ class LogManager(val logDirs: Array[File],
     }
     if(cleanerConfig.enableCleaner)
       cleaner.startup()
+    compressionConverter.startup()
+    groupCommitFlushers.values.foreach(_.start())
   }
 
   /**
@@ -214,6 +265,11 @@ class LogManager(val logDirs: Array[File],
   def shutdown() {
     info("Shutting down.")
 
+    removeMetric("LogsLoadTimeMs")
+    removeMetric("SegmentsLoadTimeMs")
+    removeMetric("SegmentsRecoveryTimeMs")
+    removeMetric("RecoveredSegments")
+
     val threadPools = mutable.ArrayBuffer.empty[ExecutorService]
     val jobs = mutable.Map.empty[File, Seq[Future[_]]]
 
@@ -221,6 +277,8 @@ class LogManager(val logDirs: Array[File],
     if (cleaner != null) {
       CoreUtils.swallow(cleaner.shutdown())
     }
+    CoreUtils.swallow(compressionConverter.shutdown())
+    groupCommitFlushers.values.foreach(flusher => CoreUtils.swallow(flusher.shutdown()))
 
     // close logs in each dir
     for (dir <- this.logDirs) {
@@ -289,6 +347,7 @@ class LogManager(val logDirs: Array[File],
           cleaner.maybeTruncateCheckpoint(log.dir.getParentFile, topicAndPartition, log.activeSegment.baseOffset)
           cleaner.resumeCleaning(topicAndPartition)
         }
+        compressionConverter.maybeTruncateCheckpoint(log.dir.getParentFile, topicAndPartition, log.activeSegment.baseOffset)
       }
     }
     checkpointRecoveryPointOffsets()
@@ -310,6 +369,7 @@ class LogManager(val logDirs: Array[File],
         cleaner.maybeTruncateCheckpoint(log.dir.getParentFile, topicAndPartition, log.activeSegment.baseOffset)
         cleaner.resumeCleaning(topicAndPartition)
       }
+      compressionConverter.maybeTruncateCheckpoint(log.dir.getParentFile, topicAndPartition, log.activeSegment.baseOffset)
     }
     checkpointRecoveryPointOffsets()
   }
@@ -363,7 +423,8 @@ class LogManager(val logDirs: Array[File],
                     config,
                     recoveryPoint = 0L,
                     scheduler,
-                    time)
+                    time,
+                    groupCommitFlushers.get(dataDir))
       logs.put(topicAndPartition, log)
       info("Created log for partition [%s,%d] in %s with properties {%s}."
            .format(topicAndPartition.topic, 
@@ -21,6 +21,7 @@ import kafka.common._
 import kafka.utils._
 import kafka.server.{LogOffsetMetadata, FetchDataInfo}
 import org.apache.kafka.common.errors.CorruptRecordException
+import org.apache.kafka.common.utils.Utils
 
 import scala.math._
 import java.io.{IOException, File}
@@ -33,6 +34,7 @@ import java.io.{IOException, File}
  * any previous segment.
  *
  * A segment with a base offset of [base_offset] would be stored in two files, a [base_offset].index and a [base_offset].log file.
+ * Segments of compacted logs also have a [base_offset].keystats file with statistics of their keys, see SegmentKeyStats.
  *
  * @param log The message set containing log entries
  * @param index The offset index
@@ -58,9 +60,38 @@ class LogSegment(val log: FileMessageSet,
   /* The timestamp we used for time based log rolling */
   private var rollingBasedTimestamp: Option[Long] = None
 
-  /* The maximum timestamp we see so far */
-  @volatile private var maxTimestampSoFar = timeIndex.lastEntry.timestamp
-  @volatile private var offsetOfMaxTimestamp = timeIndex.lastEntry.offset
+  /* The maximum timestamp we see so far and the offset of its message, read from the time index when first needed so
+   * that opening a segment does not touch its time index */
+  @volatile private var _maxTimestampSoFar: Option[Long] = None
+  @volatile private var _offsetOfMaxTimestamp: Option[Long] = None
+
+  private def maxTimestampSoFar_=(timestamp: Long): Unit = _maxTimestampSoFar = Some(timestamp)
+  private def maxTimestampSoFar: Long = {
+    if (_maxTimestampSoFar.isEmpty)
+      _maxTimestampSoFar = Some(timeIndex.lastEntry.timestamp)
+    _maxTimestampSoFar.get
+  }
+
+  private def offsetOfMaxTimestamp_=(offset: Long): Unit = _offsetOfMaxTimestamp = Some(offset)
+  private def offsetOfMaxTimestamp: Long = {
+    if (_offsetOfMaxTimestamp.isEmpty)
+      _offsetOfMaxTimestamp = Some(timeIndex.lastEntry.offset)
+    _offsetOfMaxTimestamp.get
+  }
+
+  /* The statistics of the keys in this segment, read from their file when an append or the cleaner first needs them so
+   * that opening a segment does not touch the file */
+  @volatile private var _keyStats: SegmentKeyStats = null
+
+  private def keyStats: SegmentKeyStats = {
+    if (_keyStats == null) {
+      synchronized {
+        if (_keyStats == null)
+          _keyStats = SegmentKeyStats.readFrom(keyStatsFile)
+      }
+    }
+    _keyStats
+  }
 
   def this(dir: File, startOffset: Long, indexIntervalBytes: Int, maxIndexSize: Int, rollJitterMs: Long, time: Time, fileAlreadyExists: Boolean = false, initFileSize: Int = 0, preallocate: Boolean = false) =
     this(new FileMessageSet(file = Log.logFilename(dir, startOffset), fileAlreadyExists = fileAlreadyExists, initFileSize = initFileSize, preallocate = preallocate),
@@ -74,6 +105,26 @@ class LogSegment(val log: FileMessageSet,
   /* Return the size in bytes of this log segment */
   def size: Long = log.sizeInBytes()
 
+  /**
+   * The file the key statistics of this segment are saved in, which has the name of the log file with the .log suffix
+   * replaced, so that it follows the log file through the suffix changes of the cleaner
+   */
+  private def keyStatsFile: File = {
+    val name = log.file.getName
+    val suffixStart = name.indexOf(Log.LogFileSuffix)
+    val keyStatsName =
+      if (suffixStart < 0) name + Log.KeyStatsFileSuffix
+      else name.substring(0, suffixStart) + Log.KeyStatsFileSuffix + name.substring(suffixStart + Log.LogFileSuffix.length)
+    new File(log.file.getParentFile, keyStatsName)
+  }
+
+  /**
+   * The statistics of the keys in this segment, if all of its messages were recorded
+   */
+  @threadsafe
+  private[log] def validKeyStats: Option[SegmentKeyStats] =
+    if (keyStats.coveredBytes == log.sizeInBytes) Some(keyStats) else None
+
   /**
    * Append the given messages starting with the given offset. Add
    * an entry to the index if needed.
@@ -84,9 +135,12 @@ class LogSegment(val log: FileMessageSet,
    * @param largestTimestamp The largest timestamp in the message set.
    * @param offsetOfLargestTimestamp The offset of the message that has the largest timestamp in the messages to append.
    * @param messages The messages to append.
+   * @param keyedMessages The messages whose keys to record in the key statistics of this segment, which are the inner
+   *                      messages of compressed messages, or None if the keys are not recorded
    */
   @nonthreadsafe
-  def append(firstOffset: Long, largestTimestamp: Long, offsetOfLargestTimestamp: Long, messages: ByteBufferMessageSet) {
+  def append(firstOffset: Long, largestTimestamp: Long, offsetOfLargestTimestamp: Long, messages: ByteBufferMessageSet,
+             keyedMessages: Option[Iterable[Message]] = None) {
     if (messages.sizeInBytes > 0) {
       trace("Inserting %d bytes at offset %d at position %d with largest timestamp %d at offset %d"
           .format(messages.sizeInBytes, firstOffset, log.sizeInBytes(), largestTimestamp, offsetOfLargestTimestamp))
@@ -95,6 +149,14 @@ class LogSegment(val log: FileMessageSet,
         rollingBasedTimestamp = Some(largestTimestamp)
       // append the messages
       log.append(messages)
+      // record their keys if the statistics have recorded all the messages before them, otherwise the statistics are
+      // no longer usable as they do not cover the new size of the segment
+      keyedMessages.foreach { keyed =>
+        if (keyStats.coveredBytes == physicalPosition) {
+          keyed.foreach(keyStats.record)
+          keyStats.coveredBytes = log.sizeInBytes
+        }
+      }
       // Update the in memory max timestamp and corresponding offset.
       if (largestTimestamp > maxTimestampSoFar) {
         maxTimestampSoFar = largestTimestamp
@@ -224,6 +286,8 @@ class LogSegment(val log: FileMessageSet,
     }
     val truncated = log.sizeInBytes - validBytes
     log.truncateTo(validBytes)
+    if (truncated > 0)
+      invalidateKeyStats()
     index.trimToValidSize()
     // A normally closed segment always appends the biggest timestamp ever seen into log segment, we do this as well.
     timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true)
@@ -272,6 +336,7 @@ class LogSegment(val log: FileMessageSet,
       created = time.milliseconds
       rollingBasedTimestamp = None
     }
+    invalidateKeyStats()
     bytesSinceLastIndexEntry = 0
     // We may need to reload the max timestamp after truncation.
     if (maxTimestampSoFar >= 0)
@@ -296,6 +361,20 @@ class LogSegment(val log: FileMessageSet,
     }
   }
 
+  /**
+   * Make the key statistics unusable, or empty if the segment is empty, and delete their file so that they are not used
+   * if the segment reaches the size they describe again
+   */
+  private def invalidateKeyStats() {
+    // there is no need to read the statistics to replace them
+    val stats = SegmentKeyStats()
+    stats.reset()
+    if (log.sizeInBytes != 0)
+      stats.invalidate()
+    stats.maybeWriteTo(keyStatsFile)
+    _keyStats = stats
+  }
+
   /**
    * Flush this log segment to disk
    */
@@ -316,6 +395,9 @@ class LogSegment(val log: FileMessageSet,
     def kafkaStorageException(fileType: String, e: IOException) =
       new KafkaStorageException(s"Failed to change the $fileType file suffix from $oldSuffix to $newSuffix for log segment $baseOffset", e)
 
+    // the name of the key statistics file follows the name of the log file
+    val keyStatsFile = this.keyStatsFile
+
     try log.renameTo(new File(CoreUtils.replaceSuffix(log.file.getPath, oldSuffix, newSuffix)))
     catch {
       case e: IOException => throw kafkaStorageException("log", e)
@@ -328,6 +410,12 @@ class LogSegment(val log: FileMessageSet,
     catch {
       case e: IOException => throw kafkaStorageException("timeindex", e)
     }
+    if (keyStatsFile.exists) {
+      try Utils.atomicMoveWithFallback(keyStatsFile.toPath, new File(CoreUtils.replaceSuffix(keyStatsFile.getPath, oldSuffix, newSuffix)).toPath)
+      catch {
+        case e: IOException => throw kafkaStorageException("keystats", e)
+      }
+    }
   }
 
   /**
@@ -336,6 +424,20 @@ class LogSegment(val log: FileMessageSet,
    */
   def onBecomeInactiveSegment() {
     timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true)
+    saveKeyStats()
+  }
+
+  /**
+   * Save the key statistics of this segment if they changed, or delete their file if they are unusable
+   */
+  private def saveKeyStats() {
+    // the statistics have not changed if they were never read
+    val stats = _keyStats
+    if (stats != null) {
+      if (stats.coveredBytes != log.sizeInBytes)
+        stats.invalidate()
+      stats.maybeWriteTo(keyStatsFile)
+    }
   }
 
   /**
@@ -398,7 +500,10 @@ class LogSegment(val log: FileMessageSet,
    * Close this log segment
    */
   def close() {
-    CoreUtils.swallow(timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true))
+    // the largest timestamp is only known if it was read or changed since the segment was opened
+    if (_maxTimestampSoFar.nonEmpty)
+      CoreUtils.swallow(timeIndex.maybeAppend(maxTimestampSoFar, offsetOfMaxTimestamp, skipFullCheck = true))
+    CoreUtils.swallow(saveKeyStats())
     CoreUtils.swallow(index.close)
     CoreUtils.swallow(timeIndex.close())
     CoreUtils.swallow(log.close)
@@ -413,6 +518,9 @@ class LogSegment(val log: FileMessageSet,
     val deletedLog = log.delete()
     val deletedIndex = index.delete()
     val deletedTimeIndex = timeIndex.delete()
+    val keyStatsFile = this.keyStatsFile
+    if(!keyStatsFile.delete() && keyStatsFile.exists)
+      throw new KafkaStorageException("Delete of key statistics " + keyStatsFile.getName + " failed.")
     if(!deletedLog && log.file.exists)
       throw new KafkaStorageException("Delete of log " + log.file.getName + " failed.")
     if(!deletedIndex && index.file.exists)
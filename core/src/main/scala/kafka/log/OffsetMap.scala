@@ -23,6 +23,10 @@ import java.nio.ByteBuffer
 import kafka.utils._
 import org.apache.kafka.common.utils.Utils
 
+/**
+ * A map of key => offset used to deduplicate a log. The map is filled by a single thread, after which get may be called
+ * by several threads concurrently as long as the map is not modified.
+ */
 trait OffsetMap {
   def slots: Int
   def put(key: ByteBuffer, offset: Long)
@@ -43,23 +47,26 @@ trait OffsetMap {
 class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extends OffsetMap {
   private val bytes = ByteBuffer.allocate(memory)
   
-  /* the hash algorithm instance to use, default is MD5 */
-  private val digest = MessageDigest.getInstance(hashAlgorithm)
-  
   /* the number of bytes for this hash algorithm */
-  private val hashSize = digest.getDigestLength
-  
-  /* create some hash buffers to avoid reallocating each time */
-  private val hash1 = new Array[Byte](hashSize)
-  private val hash2 = new Array[Byte](hashSize)
+  private val hashSize = MessageDigest.getInstance(hashAlgorithm).getDigestLength
+
+  /* the hash algorithm instance and hash buffer of each thread using the map, as lookups may be concurrent */
+  private class Hasher {
+    val digest = MessageDigest.getInstance(hashAlgorithm)
+    val hash = new Array[Byte](hashSize)
+  }
+
+  private val hashers = new ThreadLocal[Hasher] {
+    override def initialValue() = new Hasher
+  }
   
   /* number of entries put into the map */
   private var entries = 0
   
-  /* number of lookups on the map */
+  /* number of puts into the map */
   private var lookups = 0L
   
-  /* the number of probes for all lookups */
+  /* the number of probes for all puts */
   private var probes = 0L
 
   /* the latest offset written into the map */
@@ -83,26 +90,29 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   override def put(key: ByteBuffer, offset: Long) {
     require(entries < slots, "Attempt to add a new entry to a full offset map.")
     lookups += 1
-    hashInto(key, hash1)
+    val hash = hashOf(key)
     // probe until we find the first empty slot
     var attempt = 0
-    var pos = positionOf(hash1, attempt)  
+    var pos = positionOf(hash, attempt)
+    probes += 1
     while(!isEmpty(pos)) {
-      bytes.position(pos)
-      bytes.get(hash2)
-      if(Arrays.equals(hash1, hash2)) {
+      if(hashEquals(hash, pos)) {
         // we found an existing entry, overwrite it and return (size does not change)
-        bytes.putLong(offset)
+        bytes.putLong(pos + hashSize, offset)
         lastOffset = offset
         return
       }
       attempt += 1
-      pos = positionOf(hash1, attempt)
+      pos = positionOf(hash, attempt)
+      probes += 1
     }
     // found an empty slot, update it--size grows by 1
-    bytes.position(pos)
-    bytes.put(hash1)
-    bytes.putLong(offset)
+    var i = 0
+    while(i < hashSize) {
+      bytes.put(pos + i, hash(i))
+      i += 1
+    }
+    bytes.putLong(pos + hashSize, offset)
     lastOffset = offset
     entries += 1
   }
@@ -113,14 +123,26 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   private def isEmpty(position: Int): Boolean = 
     bytes.getLong(position) == 0 && bytes.getLong(position + 8) == 0 && bytes.getLong(position + 16) == 0
 
+  /**
+   * Check if the hash stored at the given position is the given hash
+   */
+  private def hashEquals(hash: Array[Byte], position: Int): Boolean = {
+    var i = 0
+    while(i < hashSize) {
+      if(bytes.get(position + i) != hash(i))
+        return false
+      i += 1
+    }
+    true
+  }
+
   /**
    * Get the offset associated with this key.
    * @param key The key
    * @return The offset associated with this key or -1 if the key is not found
    */
   override def get(key: ByteBuffer): Long = {
-    lookups += 1
-    hashInto(key, hash1)
+    val hash = hashOf(key)
     // search for the hash of this key by repeated probing until we find the hash we are looking for or we find an empty slot
     var attempt = 0
     var pos = 0
@@ -130,14 +152,12 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
     do {
      if(attempt >= maxAttempts)
         return -1L
-      pos = positionOf(hash1, attempt)
-      bytes.position(pos)
+      pos = positionOf(hash, attempt)
       if(isEmpty(pos))
         return -1L
-      bytes.get(hash2)
       attempt += 1
-    } while(!Arrays.equals(hash1, hash2))
-    bytes.getLong()
+    } while(!hashEquals(hash, pos))
+    bytes.getLong(pos + hashSize)
   }
   
   /**
@@ -157,7 +177,7 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   override def size: Int = entries
   
   /**
-   * The rate of collisions in the lookups
+   * The rate of collisions in the puts
    */
   def collisionRate: Double = 
     (this.probes - this.lookups) / this.lookups.toDouble
@@ -177,20 +197,178 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   private def positionOf(hash: Array[Byte], attempt: Int): Int = {
     val probe = CoreUtils.readInt(hash, math.min(attempt, hashSize - 4)) + math.max(0, attempt - hashSize + 4)
     val slot = Utils.abs(probe) % slots
-    this.probes += 1
     slot * bytesPerEntry
   }
   
   /**
-   * The offset at which we have stored the given key
+   * The hash of the given key, in the hash buffer of the calling thread
    * @param key The key to hash
-   * @param buffer The buffer to store the hash into
    */
-  private def hashInto(key: ByteBuffer, buffer: Array[Byte]) {
+  private def hashOf(key: ByteBuffer): Array[Byte] = {
+    val hasher = hashers.get
     key.mark()
-    digest.update(key)
+    hasher.digest.update(key)
     key.reset()
-    digest.digest(buffer, 0, hashSize)
+    hasher.digest.digest(hasher.hash, 0, hashSize)
+    hasher.hash
   }
   
 }
+
+object CompactOffsetMap {
+  /* the name of the hash algorithm used by this map, as given by CleanerConfig.hashAlgorithm */
+  val HashAlgorithm = "MURMUR64"
+
+  /* each slot holds an 8 byte fingerprint of the key followed by an 8 byte offset */
+  val BytesPerEntry = 16
+
+  /* the largest buffer used for the slots, the slots are spread over as many buffers as needed */
+  private val MaxBufferSlotsShift = 26
+}
+
+/**
+ * A hash table used for deduplicating the log that keeps a 64 bit fingerprint of each key instead of a cryptographic
+ * hash. The fingerprint is a MurmurHash64A of the key, which is much cheaper to compute than a message digest, and each
+ * slot is only 16 bytes so the same memory holds 50% more keys than a SkimpyOffsetMap using MD5. The slots are kept in
+ * direct memory, which is allocated once per cleaner thread and is not limited to 2GB, and collisions are resolved by
+ * linear probing. Two keys that have the same fingerprint are considered the same key, so on a collision the cleaner
+ * keeps only the record with the larger offset of the two keys and silently deletes the live record of the other. The
+ * odds of any collision in a map grow with the square of its entries: about 3% for a billion keys and about 12% for
+ * 2^31 keys. This hash table does not support deletes.
+ * @param memory The amount of memory this map can use
+ */
+@nonthreadsafe
+class CompactOffsetMap(val memory: Long) extends OffsetMap {
+  import CompactOffsetMap._
+
+  /**
+   * The maximum number of entries this map can contain
+   */
+  val slots: Int = math.min(memory / BytesPerEntry, Int.MaxValue).toInt
+
+  require(slots > 0, "The offset map needs memory for at least one entry.")
+
+  private val buffers = {
+    val slotsPerBuffer = 1 << MaxBufferSlotsShift
+    Array.tabulate((slots - 1) / slotsPerBuffer + 1) { i =>
+      ByteBuffer.allocateDirect(math.min(slotsPerBuffer, slots - i * slotsPerBuffer) * BytesPerEntry)
+    }
+  }
+
+  /* number of entries put into the map */
+  private var entries = 0
+
+  /* number of puts into the map */
+  private var lookups = 0L
+
+  /* the number of probes for all puts */
+  private var probes = 0L
+
+  /* the latest offset written into the map */
+  private var lastOffset = -1L
+
+  /**
+   * Associate this offset to the given key.
+   * @param key The key
+   * @param offset The offset
+   */
+  override def put(key: ByteBuffer, offset: Long) {
+    require(entries < slots, "Attempt to add a new entry to a full offset map.")
+    lookups += 1
+    val fingerprint = fingerprintOf(key)
+    // probe until we find the key or the first empty slot
+    var slot = firstSlotOf(fingerprint)
+    var current = fingerprintAt(slot)
+    probes += 1
+    while(current != 0 && current != fingerprint) {
+      slot = nextSlot(slot)
+      current = fingerprintAt(slot)
+      probes += 1
+    }
+    val buffer = bufferOf(slot)
+    val pos = positionOf(slot)
+    if(current == 0) {
+      // found an empty slot, update it--size grows by 1
+      buffer.putLong(pos, fingerprint)
+      entries += 1
+    }
+    buffer.putLong(pos + 8, offset)
+    lastOffset = offset
+  }
+
+  /**
+   * Get the offset associated with this key.
+   * @param key The key
+   * @return The offset associated with this key or -1 if the key is not found
+   */
+  override def get(key: ByteBuffer): Long = {
+    val fingerprint = fingerprintOf(key)
+    // search for the fingerprint of this key by probing until we find it or we find an empty slot, checking every
+    // slot at most once in case the map is full
+    var slot = firstSlotOf(fingerprint)
+    var attempt = 0
+    while(attempt < slots) {
+      val current = fingerprintAt(slot)
+      if(current == fingerprint)
+        return bufferOf(slot).getLong(positionOf(slot) + 8)
+      if(current == 0)
+        return -1L
+      slot = nextSlot(slot)
+      attempt += 1
+    }
+    -1L
+  }
+
+  /**
+   * Remove all entries from the map.
+   */
+  override def clear() {
+    this.entries = 0
+    this.lookups = 0L
+    this.probes = 0L
+    this.lastOffset = -1L
+    for(buffer <- buffers) {
+      var pos = 0
+      while(pos < buffer.limit) {
+        buffer.putLong(pos, 0L)
+        pos += 8
+      }
+    }
+  }
+
+  /**
+   * The number of entries put into the map (note that not all may remain)
+   */
+  override def size: Int = entries
+
+  /**
+   * The rate of collisions in the puts
+   */
+  def collisionRate: Double =
+    (this.probes - this.lookups) / this.lookups.toDouble
+
+  /**
+   * The latest offset put into the map
+   */
+  override def latestOffset: Long = lastOffset
+
+  private def bufferOf(slot: Int): ByteBuffer = buffers(slot >>> MaxBufferSlotsShift)
+
+  private def positionOf(slot: Int): Int = (slot & ((1 << MaxBufferSlotsShift) - 1)) * BytesPerEntry
+
+  private def fingerprintAt(slot: Int): Long = bufferOf(slot).getLong(positionOf(slot))
+
+  private def firstSlotOf(fingerprint: Long): Int = ((fingerprint & Long.MaxValue) % slots).toInt
+
+  private def nextSlot(slot: Int): Int = if(slot == slots - 1) 0 else slot + 1
+
+  /**
+   * The MurmurHash64A of the remaining bytes of the key, with 0 (which marks an empty slot) mapped to 1
+   * @param key The key to hash, its position is left unchanged
+   */
+  private def fingerprintOf(key: ByteBuffer): Long = {
+    val hash = CoreUtils.murmurHash64(key)
+    if(hash == 0) 1L else hash
+  }
+
+}
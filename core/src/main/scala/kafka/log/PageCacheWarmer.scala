@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+
+import kafka.message.MessageSet
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils._
+
+/**
+ * Reads the data following cold reads into the page cache in the background.
+ *
+ * A consumer that is far behind the log end reads data that is no longer in the page cache, and the network thread
+ * that sends it blocks on the disk until it is read. As such a consumer reads the log sequentially, its next fetch is
+ * likely to start where the last one ended, so reading the readAheadBytes that follow a cold read ahead of time lets
+ * the next fetch be served from the page cache. At most MaxPendingReads read-aheads are queued, the others are dropped.
+ *
+ * The thread is not interruptible, as interrupting a read would close the file channel of the segment it reads.
+ *
+ * @param readAheadBytes The number of bytes to read after each cold read
+ */
+@threadsafe
+class PageCacheWarmer(val readAheadBytes: Int)
+  extends ShutdownableThread(name = "kafka-page-cache-warmer", isInterruptible = false) with KafkaMetricsGroup {
+  import PageCacheWarmer._
+
+  private case class ReadAhead(channel: FileChannel, position: Long)
+
+  private val pending = new LinkedBlockingQueue[ReadAhead](MaxPendingReads)
+  private lazy val buffer = ByteBuffer.allocateDirect(ReadBufferSize)
+
+  private[log] val readAheadBytesRate = newMeter("ReadAheadBytesPerSec", "bytes", TimeUnit.SECONDS)
+  private val droppedReadAheadRate = newMeter("DroppedReadAheadsPerSec", "reads", TimeUnit.SECONDS)
+
+  /**
+   * Read the data following the given message set into the page cache, if it is part of a file and the warmer is
+   * running
+   */
+  def readAfter(messageSet: MessageSet) {
+    messageSet match {
+      case fileMessageSet: FileMessageSet if getState != Thread.State.NEW && isRunning.get =>
+        if (!pending.offer(ReadAhead(fileMessageSet.channel, fileMessageSet.end)))
+          droppedReadAheadRate.mark()
+      case _ =>
+    }
+  }
+
+  override def doWork() {
+    val readAhead = pending.poll(100, TimeUnit.MILLISECONDS)
+    if (readAhead != null)
+      read(readAhead)
+  }
+
+  override def shutdown() {
+    initiateShutdown()
+    if (getState != Thread.State.NEW)
+      awaitShutdown()
+    pending.clear()
+  }
+
+  private def read(readAhead: ReadAhead) {
+    try {
+      val end = math.min(readAhead.position + readAheadBytes, readAhead.channel.size)
+      var position = readAhead.position
+      while (position < end) {
+        buffer.clear()
+        buffer.limit(math.min(buffer.capacity.toLong, end - position).toInt)
+        val read = readAhead.channel.read(buffer, position)
+        if (read <= 0)
+          position = end
+        else {
+          position += read
+          readAheadBytesRate.mark(read)
+        }
+      }
+    } catch {
+      // the segment may have been deleted or closed since it was read
+      case e: IOException => debug("Could not read ahead at position %d: %s".format(readAhead.position, e.getMessage))
+    }
+  }
+}
+
+object PageCacheWarmer {
+  val MaxPendingReads = 1024
+  val ReadBufferSize = 64 * 1024
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.{File, FileOutputStream, IOException}
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+import kafka.message.Message
+import kafka.utils._
+
+/**
+ * Statistics of the keys of the messages in a log segment: the number of messages with a key, the number of delete
+ * tombstones among them and a HyperLogLog sketch of the number of distinct keys. The sketches of the segments of a log
+ * can be merged to estimate the number of distinct keys in the log, from which the log cleaner estimates how much
+ * cleaning the log would reclaim.
+ *
+ * The statistics describe the first coveredBytes bytes of the segment, they are only usable while this is the size of
+ * the segment. Appends that are not recorded, truncation and recovery all make them unusable until the segment is
+ * rewritten by the cleaner.
+ *
+ * The statistics are saved in a [base_offset].keystats file next to the segment, see LogSegment.
+ */
+@nonthreadsafe
+private[log] class SegmentKeyStats private(private[log] val registers: Array[Byte]) {
+  import SegmentKeyStats._
+
+  /* the number of bytes of the segment these statistics describe, or -1 if they are unusable */
+  @volatile var coveredBytes = 0
+
+  /* the number of messages with a key */
+  @volatile var keyedMessages = 0L
+
+  /* the number of messages with a key and a null value */
+  @volatile var tombstones = 0L
+
+  /* true if the statistics have changed since they were last read or written */
+  private var dirty = false
+
+  /**
+   * Record the key of the given message, messages without a key are ignored
+   */
+  def record(message: Message) {
+    if (message.hasKey) {
+      val hash = CoreUtils.murmurHash64(message.key)
+      val register = (hash >>> (64 - Precision)).toInt
+      val rank = (java.lang.Long.numberOfLeadingZeros(hash << Precision) + 1).min(64 - Precision + 1).toByte
+      if (rank > registers(register))
+        registers(register) = rank
+      keyedMessages += 1
+      if (message.isNull)
+        tombstones += 1
+      dirty = true
+    }
+  }
+
+  /**
+   * Clear the statistics, they then describe an empty segment
+   */
+  def reset() {
+    java.util.Arrays.fill(registers, 0.toByte)
+    keyedMessages = 0L
+    tombstones = 0L
+    coveredBytes = 0
+    dirty = true
+  }
+
+  /**
+   * Mark the statistics as unusable
+   */
+  def invalidate() {
+    coveredBytes = -1
+    dirty = true
+  }
+
+  /**
+   * Save the statistics to the given file if they changed since they were last saved, or delete the file if they are
+   * unusable
+   */
+  def maybeWriteTo(file: File) {
+    if (dirty) {
+      if (coveredBytes <= 0) {
+        Files.deleteIfExists(file.toPath)
+      } else {
+        val buffer = ByteBuffer.allocate(SizeInBytes)
+        buffer.putShort(CurrentVersion)
+        buffer.putInt(coveredBytes)
+        buffer.putLong(keyedMessages)
+        buffer.putLong(tombstones)
+        buffer.put(registers)
+        buffer.putInt(CoreUtils.crc32(buffer.array, 0, buffer.position).toInt)
+        val out = new FileOutputStream(file)
+        try out.write(buffer.array)
+        finally out.close()
+      }
+      dirty = false
+    }
+  }
+}
+
+private[log] object SegmentKeyStats extends Logging {
+
+  /* the number of bits of the key hash used to choose a register of the sketch */
+  val Precision = 10
+
+  val CurrentVersion: Short = 0
+
+  /* version, covered bytes, keyed messages, tombstones, registers and crc */
+  private val SizeInBytes = 2 + 4 + 8 + 8 + (1 << Precision) + 4
+
+  /**
+   * Empty statistics, describing an empty segment
+   */
+  def apply(): SegmentKeyStats = new SegmentKeyStats(new Array[Byte](1 << Precision))
+
+  /**
+   * Read the statistics saved in the given file. If the file does not exist or is not valid the statistics are
+   * empty, and so unusable for a segment that is not empty.
+   */
+  def readFrom(file: File): SegmentKeyStats = {
+    val stats = SegmentKeyStats()
+    if (file.exists) {
+      try {
+        val buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath))
+        if (buffer.limit == SizeInBytes && buffer.getShort(0) == CurrentVersion &&
+            buffer.getInt(SizeInBytes - 4) == CoreUtils.crc32(buffer.array, 0, SizeInBytes - 4).toInt) {
+          buffer.position(2)
+          stats.coveredBytes = buffer.getInt()
+          stats.keyedMessages = buffer.getLong()
+          stats.tombstones = buffer.getLong()
+          buffer.get(stats.registers)
+        } else {
+          warn("Ignoring invalid key statistics file %s.".format(file.getAbsolutePath))
+        }
+      } catch {
+        case e: IOException => warn("Could not read key statistics file %s.".format(file.getAbsolutePath), e)
+      }
+    }
+    stats
+  }
+
+  /**
+   * Estimate the number of distinct keys recorded in all of the given statistics
+   */
+  def estimateDistinctKeys(stats: Iterable[SegmentKeyStats]): Long = {
+    val numRegisters = 1 << Precision
+    val merged = new Array[Byte](numRegisters)
+    for (s <- stats; i <- 0 until numRegisters)
+      if (s.registers(i) > merged(i))
+        merged(i) = s.registers(i)
+    var sum = 0.0
+    var zeros = 0
+    for (register <- merged) {
+      sum += math.pow(2, -register)
+      if (register == 0)
+        zeros += 1
+    }
+    val alpha = 0.7213 / (1 + 1.079 / numRegisters)
+    val estimate = alpha * numRegisters * numRegisters / sum
+    // use linear counting for small cardinalities, for which the sketch is biased
+    if (estimate <= 2.5 * numRegisters && zeros > 0)
+      math.round(numRegisters * math.log(numRegisters.toDouble / zeros))
+    else
+      math.round(estimate)
+  }
+}
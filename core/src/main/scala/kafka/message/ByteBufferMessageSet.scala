@@ -269,9 +269,17 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
     this(compressionCodec, offsetCounter, None, TimestampType.CREATE_TIME, messages:_*)
   }
 
-  def this(compressionCodec: CompressionCodec, offsetSeq: Seq[Long], messages: Message*) {
+  private[kafka] def this(compressionCodec: CompressionCodec,
+                          offsetSeq: Seq[Long],
+                          wrapperMessageTimestamp: Option[Long],
+                          timestampType: TimestampType,
+                          messages: Message*) {
     this(ByteBufferMessageSet.create(new OffsetAssigner(offsetSeq), compressionCodec,
-      None, TimestampType.CREATE_TIME, messages:_*))
+      wrapperMessageTimestamp, timestampType, messages:_*))
+  }
+
+  def this(compressionCodec: CompressionCodec, offsetSeq: Seq[Long], messages: Message*) {
+    this(compressionCodec, offsetSeq, None, TimestampType.CREATE_TIME, messages:_*)
   }
 
   def this(compressionCodec: CompressionCodec, messages: Message*) {
@@ -324,6 +332,12 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
     true
   }
 
+  /**
+   * Check if any of the wrapper messages in the message set is compressed with the given codec
+   */
+  def hasWrapperMessageWithCodec(codec: CompressionCodec): Boolean =
+    shallowIterator.exists(_.message.compressionCodec == codec)
+
   /** default iterator that iterates over decompressed messages */
   override def iterator: Iterator[MessageAndOffset] = internalIterator()
 
@@ -433,7 +447,6 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
 
       var maxTimestamp = Message.NoTimestamp
       var offsetOfMaxTimestamp = -1L
-      val expectedInnerOffset = new LongRef(0)
       val validatedMessages = new mutable.ArrayBuffer[Message]
       this.internalIterator(isShallow = false).foreach { messageAndOffset =>
         val message = messageAndOffset.message
@@ -444,11 +457,11 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
           // Validate the timestamp
           validateTimestamp(message, now, messageTimestampType, messageTimestampDiffMaxMs)
           // Check if we need to overwrite offset
-          if (messageAndOffset.offset != expectedInnerOffset.getAndIncrement())
+          if (messageAndOffset.offset != validatedMessages.size)
             inPlaceAssignment = false
           if (message.timestamp > maxTimestamp) {
             maxTimestamp = message.timestamp
-            offsetOfMaxTimestamp = offsetCounter.value + expectedInnerOffset.value - 1
+            offsetOfMaxTimestamp = offsetCounter.value + validatedMessages.size
           }
         }
 
@@ -481,7 +494,8 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
                                                                                      messages = validatedMessages: _*),
                                         maxTimestamp = largestTimestampOfMessageSet.get,
                                         offsetOfMaxTimestamp = offsetOfMaxTimestampInMessageSet,
-                                        messageSizeMaybeChanged = true)
+                                        messageSizeMaybeChanged = true,
+                                        innerMessages = Some(validatedMessages))
       } else {
         // Do not do re-compression but simply update the offset, timestamp and attributes field of the wrapper message.
         buffer.putLong(0, offsetCounter.addAndGet(validatedMessages.size) - 1)
@@ -514,7 +528,8 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
         ValidationAndOffsetAssignResult(validatedMessages = this,
                                         maxTimestamp = buffer.getLong(timestampOffset),
                                         offsetOfMaxTimestamp = buffer.getLong(0),
-                                        messageSizeMaybeChanged = false)
+                                        messageSizeMaybeChanged = false,
+                                        innerMessages = Some(validatedMessages))
       }
     }
   }
@@ -647,7 +662,11 @@ class ByteBufferMessageSet(val buffer: ByteBuffer) extends MessageSet with Loggi
 
 }
 
+/**
+ * @param innerMessages The inner messages of the validated compressed messages, if validation decompressed them
+ */
 case class ValidationAndOffsetAssignResult(validatedMessages: ByteBufferMessageSet,
                                            maxTimestamp: Long,
                                            offsetOfMaxTimestamp: Long,
-                                           messageSizeMaybeChanged: Boolean)
+                                           messageSizeMaybeChanged: Boolean,
+                                           innerMessages: Option[Seq[Message]] = None)
@@ -22,7 +22,7 @@ import java.util.zip.GZIPOutputStream
 import java.util.zip.GZIPInputStream
 import java.io.InputStream
 
-import org.apache.kafka.common.record.{KafkaLZ4BlockInputStream, KafkaLZ4BlockOutputStream}
+import org.apache.kafka.common.record.{KafkaLZ4BlockInputStream, KafkaLZ4BlockOutputStream, KafkaZstdInputStream, KafkaZstdOutputStream}
 
 object CompressionFactory {
   
@@ -35,6 +35,8 @@ object CompressionFactory {
         new SnappyOutputStream(stream)
       case LZ4CompressionCodec =>
         new KafkaLZ4BlockOutputStream(stream, messageVersion == Message.MagicValue_V0)
+      case ZStdCompressionCodec =>
+        new KafkaZstdOutputStream(stream, null)
       case _ =>
         throw new kafka.common.UnknownCodecException("Unknown Codec: " + compressionCodec)
     }
@@ -49,6 +51,8 @@ object CompressionFactory {
         new SnappyInputStream(stream)
       case LZ4CompressionCodec =>
         new KafkaLZ4BlockInputStream(stream, messageVersion == Message.MagicValue_V0)
+      case ZStdCompressionCodec =>
+        new KafkaZstdInputStream(stream)
       case _ =>
         throw new kafka.common.UnknownCodecException("Unknown Codec: " + compressionCodec)
     }
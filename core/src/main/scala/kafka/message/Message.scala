@@ -19,7 +19,7 @@ package kafka.message
 
 import java.nio._
 
-import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.record.{ChecksumType, Record, TimestampType}
 
 import scala.math._
 import kafka.utils._
@@ -103,7 +103,7 @@ object Message {
 /**
  * A message. The format of an N byte message is the following:
  *
- * 1. 4 byte CRC32 of the message
+ * 1. 4 byte CRC32 or CRC32C of the message
  * 2. 1 byte "magic" identifier to allow format changes, value is 0 or 1
  * 3. 1 byte "attributes" identifier to allow annotations on the message independent of the version
  *    bit 0 ~ 2 : Compression codec.
@@ -111,10 +111,14 @@ object Message {
  *      1 : gzip
  *      2 : snappy
  *      3 : lz4
+ *      4 : zstd
  *    bit 3 : Timestamp type
  *      0 : create time
  *      1 : log append time
- *    bit 4 ~ 7 : reserved
+ *    bit 4 : Checksum type (only if "magic" identifier is greater than 0)
+ *      0 : CRC32
+ *      1 : CRC32C
+ *    bit 5 ~ 7 : reserved
  * 4. (Optional) 8 byte timestamp only if "magic" identifier is greater than 0
  * 5. 4 byte key length, containing length K
  * 6. K byte key
@@ -212,8 +216,11 @@ class Message(val buffer: ByteBuffer,
   /**
    * Compute the checksum of the message from the message contents
    */
-  def computeChecksum: Long =
-    CoreUtils.crc32(buffer.array, buffer.arrayOffset + MagicOffset,  buffer.limit - MagicOffset)
+  def computeChecksum: Long = {
+    // a message too small to have attributes is corrupt anyway, so any algorithm will do
+    val algorithm = if (size > AttributesOffset) checksumType else ChecksumType.CRC32
+    Record.computeChecksum(algorithm, buffer, MagicOffset, buffer.limit - MagicOffset)
+  }
   
   /**
    * Retrieve the previously computed CRC for this message
@@ -311,6 +318,16 @@ class Message(val buffer: ByteBuffer,
       wrapperMessageTimestampType.getOrElse(TimestampType.forAttributes(attributes))
   }
   
+  /**
+   * The checksum algorithm used for this message
+   */
+  def checksumType: ChecksumType = {
+    if (magic == MagicValue_V0)
+      ChecksumType.CRC32
+    else
+      ChecksumType.forAttributes(attributes)
+  }
+
   /**
    * The compression codec used with this message
    */
@@ -363,7 +380,8 @@ class Message(val buffer: ByteBuffer,
       // Down-conversion, reserve CRC and update magic byte
       byteBuffer.position(Message.MagicOffset)
       byteBuffer.put(Message.MagicValue_V0)
-      byteBuffer.put(TimestampType.CREATE_TIME.updateAttributes(attributes))
+      // the checksum type is not part of message format version 0, which is always checksummed with CRC32
+      byteBuffer.put(ChecksumType.CRC32.updateAttributes(TimestampType.CREATE_TIME.updateAttributes(attributes)))
       // Down-conversion, skip the timestamp field
       byteBuffer.put(buffer.array(), buffer.arrayOffset() + Message.KeySizeOffset_V1, size - Message.KeySizeOffset_V1)
     }
@@ -21,6 +21,7 @@ import java.net.InetAddress
 import java.nio.ByteBuffer
 import java.util.HashMap
 import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
 
 import com.yammer.metrics.core.Gauge
 import kafka.api._
@@ -46,6 +47,35 @@ object RequestChannel extends Logging {
 
   case class Session(principal: KafkaPrincipal, clientAddress: InetAddress)
 
+  /**
+   * The classes of requests that are queued separately, so that a flood of requests of one class does not delay
+   * the requests of the others
+   */
+  sealed abstract class RequestQueueType(val name: String)
+  /* requests from the controller and controlled shutdown, which must not wait behind client requests */
+  case object ControlPlaneQueue extends RequestQueueType("ControlPlane")
+  /* group membership and offset requests, whose delay makes consumer groups rebalance */
+  case object GroupCoordinationQueue extends RequestQueueType("GroupCoordination")
+  /* produce, fetch and all other requests */
+  case object DataPlaneQueue extends RequestQueueType("DataPlane")
+
+  val RequestQueueTypes: Seq[RequestQueueType] = Seq(ControlPlaneQueue, GroupCoordinationQueue, DataPlaneQueue)
+
+  private val controlPlaneRequestIds = Set(ApiKeys.LEADER_AND_ISR, ApiKeys.STOP_REPLICA, ApiKeys.UPDATE_METADATA_KEY,
+    ApiKeys.CONTROLLED_SHUTDOWN_KEY).map(_.id)
+  private val groupCoordinationRequestIds = Set(ApiKeys.GROUP_COORDINATOR, ApiKeys.JOIN_GROUP, ApiKeys.SYNC_GROUP,
+    ApiKeys.HEARTBEAT, ApiKeys.LEAVE_GROUP, ApiKeys.OFFSET_COMMIT, ApiKeys.OFFSET_FETCH, ApiKeys.DESCRIBE_GROUPS,
+    ApiKeys.LIST_GROUPS).map(_.id)
+
+  def requestQueueType(requestId: Short): RequestQueueType = {
+    if (controlPlaneRequestIds.contains(requestId))
+      ControlPlaneQueue
+    else if (groupCoordinationRequestIds.contains(requestId))
+      GroupCoordinationQueue
+    else
+      DataPlaneQueue
+  }
+
   case class Request(processor: Int, connectionId: String, session: Session, private var buffer: ByteBuffer, startTimeMs: Long, securityProtocol: SecurityProtocol) {
     // These need to be volatile because the readers are in the network thread and the writers are in the request
     // handler threads or the purgatory threads
@@ -151,6 +181,7 @@ object RequestChannel extends Logging {
         m.responseSendTimeHist.update(responseSendTime)
         m.totalTimeHist.update(totalTime)
       }
+      RequestMetrics.queueMetricsMap(requestQueueType(requestId)).requestQueueTimeHist.update(requestQueueTime)
 
       if (requestLogger.isTraceEnabled)
         requestLogger.trace("Completed request:%s from connection %s;totalTime:%d,requestQueueTime:%d,localTime:%d,remoteTime:%d,responseQueueTime:%d,sendTime:%d,securityProtocol:%s,principal:%s"
@@ -177,20 +208,59 @@ object RequestChannel extends Logging {
   case object CloseConnectionAction extends ResponseAction
 }
 
-class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMetricsGroup {
+/**
+ * The channel between the network threads and the request handler threads.
+ *
+ * Requests are queued by class: control plane requests are always handed to the request handlers first, and group
+ * coordination requests ahead of data plane requests, except that a data plane request is taken after every
+ * groupCoordinationWeight group coordination requests so that data plane requests are never starved.
+ *
+ * @param numProcessors The number of network threads
+ * @param queueSize The number of data plane requests that can be queued before the network threads block
+ * @param controlPlaneQueueSize The number of control plane requests that can be queued
+ * @param groupCoordinationQueueSize The number of group coordination requests that can be queued
+ * @param groupCoordinationWeight The number of group coordination requests taken ahead of a waiting data plane request
+ * @param maxPipelinedRequestsPerConnection The number of requests read from a connection before its responses are sent
+ */
+class RequestChannel(val numProcessors: Int,
+                     val queueSize: Int,
+                     val controlPlaneQueueSize: Int,
+                     val groupCoordinationQueueSize: Int,
+                     val groupCoordinationWeight: Int,
+                     val maxPipelinedRequestsPerConnection: Int = 1) extends KafkaMetricsGroup {
+  import RequestChannel._
+
   private var responseListeners: List[(Int) => Unit] = Nil
-  private val requestQueue = new ArrayBlockingQueue[RequestChannel.Request](queueSize)
+  private val requestQueues = Map[RequestQueueType, BlockingQueue[RequestChannel.Request]](
+    ControlPlaneQueue -> new ArrayBlockingQueue[RequestChannel.Request](controlPlaneQueueSize),
+    GroupCoordinationQueue -> new ArrayBlockingQueue[RequestChannel.Request](groupCoordinationQueueSize),
+    DataPlaneQueue -> new ArrayBlockingQueue[RequestChannel.Request](queueSize))
+  /* a permit for every queued request, so that the request handlers can wait for a request in any of the queues */
+  private val queuedRequests = new Semaphore(0)
+  /* the number of group coordination requests taken since the last data plane request */
+  private val groupCoordinationRequestsTaken = new AtomicInteger(0)
   private val responseQueues = new Array[BlockingQueue[RequestChannel.Response]](numProcessors)
   for(i <- 0 until numProcessors)
     responseQueues(i) = new LinkedBlockingQueue[RequestChannel.Response]()
+  /* the requests the request handlers are done with, for the processors to pass on pipelined requests */
+  private val handledRequestQueues = Array.fill(numProcessors)(new ConcurrentLinkedQueue[RequestChannel.Request]())
 
   newGauge(
     "RequestQueueSize",
     new Gauge[Int] {
-      def value = requestQueue.size
+      def value = requestQueues.values.foldLeft(0) {(total, q) => total + q.size()}
     }
   )
 
+  for (queueType <- RequestQueueTypes) {
+    newGauge("RequestQueueSize",
+      new Gauge[Int] {
+        def value = requestQueues(queueType).size()
+      },
+      Map("queue" -> queueType.name)
+    )
+  }
+
   newGauge("ResponseQueueSize", new Gauge[Int]{
     def value = responseQueues.foldLeft(0) {(total, q) => total + q.size()}
   })
@@ -206,7 +276,8 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
 
   /** Send a request to be handled, potentially blocking until there is room in the queue for the request */
   def sendRequest(request: RequestChannel.Request) {
-    requestQueue.put(request)
+    requestQueues(requestQueueType(request.requestId)).put(request)
+    queuedRequests.release()
   }
 
   /** Send a response back to the socket server to be sent over the network */
@@ -230,13 +301,53 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
       onResponse(processor)
   }
 
+  /**
+   * Tell the processor of a request that the request handlers are done with it, so that it can pass on the next request
+   * read from the connection. Requests from a connection are handled one at a time to keep them in order, but their
+   * responses may be waiting on other brokers or the purgatories while the next request is handled.
+   */
+  def requestHandled(request: RequestChannel.Request) {
+    if (maxPipelinedRequestsPerConnection > 1) {
+      handledRequestQueues(request.processor).add(request)
+      for(onResponse <- responseListeners)
+        onResponse(request.processor)
+    }
+  }
+
+  /** Get a request the request handlers are done with for the given processor if there is one */
+  def receiveHandledRequest(processor: Int): RequestChannel.Request =
+    handledRequestQueues(processor).poll()
+
   /** Get the next request or block until specified time has elapsed */
   def receiveRequest(timeout: Long): RequestChannel.Request =
-    requestQueue.poll(timeout, TimeUnit.MILLISECONDS)
+    if (queuedRequests.tryAcquire(timeout, TimeUnit.MILLISECONDS)) nextRequest() else null
 
   /** Get the next request or block until there is one */
-  def receiveRequest(): RequestChannel.Request =
-    requestQueue.take()
+  def receiveRequest(): RequestChannel.Request = {
+    queuedRequests.acquire()
+    nextRequest()
+  }
+
+  /**
+   * Take the next request to handle after acquiring a permit. As another handler may take a request from a queue
+   * after we checked it, the queues are checked again until the request the permit stands for is found.
+   */
+  private def nextRequest(): RequestChannel.Request = {
+    var request: RequestChannel.Request = null
+    while (request == null) {
+      request = requestQueues(ControlPlaneQueue).poll()
+      if (request == null && groupCoordinationRequestsTaken.get < groupCoordinationWeight) {
+        request = requestQueues(GroupCoordinationQueue).poll()
+        if (request != null)
+          groupCoordinationRequestsTaken.incrementAndGet()
+      }
+      if (request == null) {
+        request = requestQueues(DataPlaneQueue).poll()
+        groupCoordinationRequestsTaken.set(0)
+      }
+    }
+    request
+  }
 
   /** Get a response for the given processor if there is one */
   def receiveResponse(processor: Int): RequestChannel.Response = {
@@ -251,7 +362,8 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   }
 
   def shutdown() {
-    requestQueue.clear
+    requestQueues.values.foreach(_.clear())
+    queuedRequests.drainPermits()
   }
 }
 
@@ -261,6 +373,7 @@ object RequestMetrics {
   val followFetchMetricName = ApiKeys.FETCH.name + "Follower"
   (ApiKeys.values().toList.map(e => e.name)
     ++ List(consumerFetchMetricName, followFetchMetricName)).foreach(name => metricsMap.put(name, new RequestMetrics(name)))
+  val queueMetricsMap = RequestChannel.RequestQueueTypes.map(queueType => queueType -> new RequestQueueMetrics(queueType.name)).toMap
 }
 
 class RequestMetrics(name: String) extends KafkaMetricsGroup {
@@ -281,3 +394,8 @@ class RequestMetrics(name: String) extends KafkaMetricsGroup {
   val totalTimeHist = newHistogram("TotalTimeMs", biased = true, tags)
 }
 
+class RequestQueueMetrics(name: String) extends KafkaMetricsGroup {
+  val tags = Map("queue" -> name)
+  // time a request spent in this request queue
+  val requestQueueTimeHist = newHistogram("RequestQueueTimeMs", biased = true, tags)
+}
@@ -61,7 +61,8 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
 
   this.logIdent = "[Socket Server on Broker " + config.brokerId + "], "
 
-  val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests)
+  val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests, config.queuedMaxControlPlaneRequests,
+    config.queuedMaxGroupCoordinationRequests, config.queuedGroupCoordinationRequestsWeight, config.maxPipelinedRequestsPerConnection)
   private val processors = new Array[Processor](totalProcessorThreads)
 
   private[network] val acceptors = mutable.Map[EndPoint, Acceptor]()
@@ -382,8 +383,26 @@ private[kafka] class Processor(val id: Int,
     override def toString: String = s"$localHost:$localPort-$remoteHost:$remotePort"
   }
 
+  /**
+   * The requests read from a connection whose responses have not been sent yet. Up to maxPipelinedRequests requests
+   * are read from a connection before it is muted. They are passed to the request handlers one at a time, in the order
+   * they were read, and their responses are sent in the same order.
+   */
+  private class ConnectionRequests {
+    /* the requests whose responses have not been sent, in the order they were read */
+    val outstanding = new java.util.ArrayDeque[RequestChannel.Request]()
+    /* the requests not yet passed to the request handlers */
+    val undispatched = new java.util.ArrayDeque[RequestChannel.Request]()
+    /* the responses that are waiting for the responses of earlier requests to be sent */
+    val responses = new java.util.IdentityHashMap[RequestChannel.Request, RequestChannel.Response]()
+    /* the request the request handlers are working on */
+    var handling: RequestChannel.Request = null
+  }
+
   private val newConnections = new ConcurrentLinkedQueue[SocketChannel]()
   private val inflightResponses = mutable.Map[String, RequestChannel.Response]()
+  private val connectionRequests = mutable.Map[String, ConnectionRequests]()
+  private val maxPipelinedRequests = requestChannel.maxPipelinedRequestsPerConnection
   private val metricTags = Map("networkProcessor" -> id.toString).asJava
 
   newGauge("IdlePercent",
@@ -413,6 +432,7 @@ private[kafka] class Processor(val id: Int,
         configureNewConnections()
         // register any new responses for writing
         processNewResponses()
+        processHandledRequests()
         poll()
         processCompletedReceives()
         processCompletedSends()
@@ -437,19 +457,16 @@ private[kafka] class Processor(val id: Int,
     var curr = requestChannel.receiveResponse(id)
     while (curr != null) {
       try {
-        curr.responseAction match {
-          case RequestChannel.NoOpAction =>
-            // There is no response to send to the client, we need to read more pipelined requests
-            // that are sitting in the server's socket buffer
-            curr.request.updateRequestMetrics
-            trace("Socket server received empty response to send, registering for read: " + curr)
-            selector.unmute(curr.request.connectionId)
-          case RequestChannel.SendAction =>
-            sendResponse(curr)
-          case RequestChannel.CloseConnectionAction =>
-            curr.request.updateRequestMetrics
-            trace("Closing socket connection actively according to the response code.")
-            close(selector, curr.request.connectionId)
+        val connectionId = curr.request.connectionId
+        connectionRequests.get(connectionId) match {
+          case Some(connection) =>
+            connection.responses.put(curr.request, curr)
+            requestHandled(connection, curr.request)
+            processReadyResponses(connectionId, connection)
+          case None =>
+            // the connection was closed while the request was being handled
+            trace(s"Socket server received response for closed connection $connectionId: $curr")
+            curr.request.updateRequestMetrics()
         }
       } finally {
         curr = requestChannel.receiveResponse(id)
@@ -457,6 +474,63 @@ private[kafka] class Processor(val id: Int,
     }
   }
 
+  /**
+   * Act on the responses of the oldest requests of the connection, stopping at a request whose response is not ready
+   * or while a response is being sent.
+   */
+  private def processReadyResponses(connectionId: String, connection: ConnectionRequests) {
+    var done = false
+    while (!done && !inflightResponses.contains(connectionId) && connection.responses.containsKey(connection.outstanding.peek)) {
+      val curr = connection.responses.remove(connection.outstanding.peek)
+      curr.responseAction match {
+        case RequestChannel.NoOpAction =>
+          // There is no response to send to the client, we need to read more pipelined requests
+          // that are sitting in the server's socket buffer
+          connection.outstanding.poll()
+          curr.request.updateRequestMetrics
+          trace("Socket server received empty response to send, registering for read: " + curr)
+          selector.unmute(connectionId)
+        case RequestChannel.SendAction =>
+          sendResponse(curr)
+          if (!inflightResponses.contains(connectionId)) {
+            connectionRequests.remove(connectionId)
+            done = true
+          }
+        case RequestChannel.CloseConnectionAction =>
+          curr.request.updateRequestMetrics
+          trace("Closing socket connection actively according to the response code.")
+          close(selector, connectionId)
+          connectionRequests.remove(connectionId)
+          done = true
+      }
+    }
+  }
+
+  private def processHandledRequests() {
+    var request = requestChannel.receiveHandledRequest(id)
+    while (request != null) {
+      connectionRequests.get(request.connectionId).foreach(requestHandled(_, request))
+      request = requestChannel.receiveHandledRequest(id)
+    }
+  }
+
+  /**
+   * Pass the next request read from the connection to the request handlers if they are not working on another one
+   */
+  private def maybeDispatch(connection: ConnectionRequests) {
+    if (connection.handling == null && !connection.undispatched.isEmpty) {
+      connection.handling = connection.undispatched.poll()
+      requestChannel.sendRequest(connection.handling)
+    }
+  }
+
+  private def requestHandled(connection: ConnectionRequests, request: RequestChannel.Request) {
+    if (connection.handling eq request) {
+      connection.handling = null
+      maybeDispatch(connection)
+    }
+  }
+
   /* `protected` for test usage */
   protected[network] def sendResponse(response: RequestChannel.Response) {
     trace(s"Socket server received response to send, registering for write and sending data: $response")
@@ -490,13 +564,18 @@ private[kafka] class Processor(val id: Int,
         val session = RequestChannel.Session(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, channel.principal.getName),
           channel.socketAddress)
         val req = RequestChannel.Request(processor = id, connectionId = receive.source, session = session, buffer = receive.payload, startTimeMs = time.milliseconds, securityProtocol = protocol)
-        requestChannel.sendRequest(req)
-        selector.mute(receive.source)
+        val connection = connectionRequests.getOrElseUpdate(receive.source, new ConnectionRequests)
+        connection.outstanding.add(req)
+        connection.undispatched.add(req)
+        if (connection.outstanding.size >= maxPipelinedRequests)
+          selector.mute(receive.source)
+        maybeDispatch(connection)
       } catch {
         case e @ (_: InvalidRequestException | _: SchemaException) =>
           // note that even though we got an exception, we can assume that receive.source is valid. Issues with constructing a valid receive object were handled earlier
           error(s"Closing socket for ${receive.source} because of error", e)
           close(selector, receive.source)
+          connectionRequests.remove(receive.source)
       }
     }
   }
@@ -508,6 +587,10 @@ private[kafka] class Processor(val id: Int,
       }
       resp.request.updateRequestMetrics()
       selector.unmute(send.destination)
+      connectionRequests.get(send.destination).foreach { connection =>
+        connection.outstanding.poll()
+        processReadyResponses(send.destination, connection)
+      }
     }
   }
 
@@ -517,6 +600,7 @@ private[kafka] class Processor(val id: Int,
         throw new IllegalStateException(s"connectionId has unexpected format: $connectionId")
       }.remoteHost
       inflightResponses.remove(connectionId).foreach(_.request.updateRequestMetrics())
+      connectionRequests.remove(connectionId)
       // the channel has been closed by the selector but the quotas still need to be updated
       connectionQuotas.dec(InetAddress.getByName(remoteHost))
     }
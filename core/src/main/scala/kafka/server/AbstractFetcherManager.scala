@@ -17,6 +17,8 @@
 
 package kafka.server
 
+import java.util.concurrent.TimeUnit
+
 import scala.collection.mutable
 import scala.collection.Set
 import scala.collection.Map
@@ -31,6 +33,8 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
   extends Logging with KafkaMetricsGroup {
   // map of (source broker_id, fetcher_id per source broker) => fetcher
   private val fetcherThreadMap = new mutable.HashMap[BrokerAndFetcherId, AbstractFetcherThread]
+  // fetcher id of the partitions moved away from the fetcher they hash to, see rebalancePartitions
+  private val movedPartitions = new mutable.HashMap[TopicAndPartition, Int]
   private val mapLock = new Object
   this.logIdent = "[" + name + "] "
 
@@ -64,8 +68,20 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
   Map("clientId" -> clientId)
   )
 
+  newGauge(
+    "MaxFetcherUtilization",
+    new Gauge[Double] {
+      // current max fraction of time spent processing fetch responses across all fetchers
+      def value = fetcherThreadMap.values.foldLeft(0.0)((curMax, fetcher) =>
+        curMax.max(fetcher.fetcherStats.utilizationRate.oneMinuteRate))
+    },
+    Map("clientId" -> clientId)
+  )
+
+  private val partitionMoveRate = newMeter("PartitionMovesPerSec", "moves", TimeUnit.SECONDS, Map("clientId" -> clientId))
+
   private def getFetcherId(topic: String, partitionId: Int) : Int = {
-    Utils.abs(31 * topic.hashCode() + partitionId) % numFetchers
+    movedPartitions.getOrElse(TopicAndPartition(topic, partitionId), Utils.abs(31 * topic.hashCode() + partitionId) % numFetchers)
   }
 
   // to be defined in subclass to create a specific fetcher
@@ -76,16 +92,7 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
       val partitionsPerFetcher = partitionAndOffsets.groupBy{ case(topicAndPartition, brokerAndInitialOffset) =>
         BrokerAndFetcherId(brokerAndInitialOffset.broker, getFetcherId(topicAndPartition.topic, topicAndPartition.partition))}
       for ((brokerAndFetcherId, partitionAndOffsets) <- partitionsPerFetcher) {
-        var fetcherThread: AbstractFetcherThread = null
-        fetcherThreadMap.get(brokerAndFetcherId) match {
-          case Some(f) => fetcherThread = f
-          case None =>
-            fetcherThread = createFetcherThread(brokerAndFetcherId.fetcherId, brokerAndFetcherId.broker)
-            fetcherThreadMap.put(brokerAndFetcherId, fetcherThread)
-            fetcherThread.start
-        }
-
-        fetcherThreadMap(brokerAndFetcherId).addPartitions(partitionAndOffsets.map { case (topicAndPartition, brokerAndInitOffset) =>
+        getOrCreateFetcherThread(brokerAndFetcherId).addPartitions(partitionAndOffsets.map { case (topicAndPartition, brokerAndInitOffset) =>
           topicAndPartition -> brokerAndInitOffset.initOffset
         })
       }
@@ -100,10 +107,53 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
       for ((key, fetcher) <- fetcherThreadMap) {
         fetcher.removePartitions(partitions)
       }
+      movedPartitions --= partitions
     }
     info("Removed fetcher for partitions %s".format(partitions.mkString(",")))
   }
 
+  /**
+   * Move partitions between the fetchers of each source broker so that they fetch about the same number of bytes.
+   * The partitions are hashed to the fetchers regardless of their throughput, so a few busy partitions can leave one
+   * fetcher behind while the others are idle. The bytes fetched for each partition since the last call are used as
+   * its load, which is measured over the same interval for every fetcher.
+   */
+  def rebalancePartitions() {
+    mapLock synchronized {
+      val fetchedBytes = fetcherThreadMap.map { case (key, fetcher) => key -> fetcher.drainFetchedBytes() }
+      for ((broker, brokerFetchedBytes) <- fetchedBytes.groupBy { case (key, _) => key.broker }) {
+        val loads = (0 until numFetchers).map { fetcherId =>
+          fetcherId -> brokerFetchedBytes.getOrElse(BrokerAndFetcherId(broker, fetcherId), Map.empty[TopicAndPartition, Long])
+        }.toMap
+        val moves = AbstractFetcherManager.planMoves(loads)
+        for ((fetcherId, partitionLoads) <- loads) {
+          val toMove = partitionLoads.keySet.filter(moves.contains)
+          if (toMove.nonEmpty) {
+            val offsets = fetcherThreadMap(BrokerAndFetcherId(broker, fetcherId)).takePartitions(toMove)
+            for ((toFetcherId, partitionAndOffsets) <- offsets.groupBy { case (topicAndPartition, _) => moves(topicAndPartition) }) {
+              getOrCreateFetcherThread(BrokerAndFetcherId(broker, toFetcherId)).addPartitions(partitionAndOffsets)
+              partitionAndOffsets.keys.foreach(movedPartitions.put(_, toFetcherId))
+              partitionMoveRate.mark(partitionAndOffsets.size)
+              info("Moved partitions %s from fetcher %d to fetcher %d of broker %d".format(partitionAndOffsets.keys.mkString(","),
+                fetcherId, toFetcherId, broker.id))
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private def getOrCreateFetcherThread(brokerAndFetcherId: BrokerAndFetcherId): AbstractFetcherThread = {
+    fetcherThreadMap.get(brokerAndFetcherId) match {
+      case Some(fetcherThread) => fetcherThread
+      case None =>
+        val fetcherThread = createFetcherThread(brokerAndFetcherId.fetcherId, brokerAndFetcherId.broker)
+        fetcherThreadMap.put(brokerAndFetcherId, fetcherThread)
+        fetcherThread.start
+        fetcherThread
+    }
+  }
+
   def shutdownIdleFetcherThreads() {
     mapLock synchronized {
       val keysToBeRemoved = new mutable.HashSet[BrokerAndFetcherId]
@@ -127,6 +177,49 @@ abstract class AbstractFetcherManager(protected val name: String, clientId: Stri
   }
 }
 
+object AbstractFetcherManager {
+  /* the load of the busiest fetcher of a broker, relative to the average, above which its partitions are moved */
+  val MaxLoadImbalanceRatio = 1.2
+
+  /**
+   * Plan the moves of partitions between the fetchers of a source broker that even out their load. Each move takes the
+   * partition of the busiest fetcher whose load is closest to half of its difference with the least busy one, which
+   * lowers the sum of the squared loads of the fetchers until no partition can be moved without making it worse.
+   *
+   * @param loads The load of each partition of each fetcher, by fetcher id
+   * @return The fetcher id to move each partition to, for the partitions to move
+   */
+  def planMoves(loads: Map[Int, Map[TopicAndPartition, Long]]): Map[TopicAndPartition, Int] = {
+    val fetchers = loads.map { case (fetcherId, partitionLoads) => fetcherId -> mutable.HashMap(partitionLoads.toSeq: _*) }
+    def load(fetcherId: Int): Long = fetchers(fetcherId).values.sum
+    val moves = mutable.HashMap[TopicAndPartition, Int]()
+    val totalLoad = fetchers.keys.map(load).sum
+    if (fetchers.size > 1 && totalLoad > 0 &&
+        fetchers.keys.map(load).max > MaxLoadImbalanceRatio * totalLoad / fetchers.size) {
+      // every move lowers the sum of squares, bound them anyway to the number of partitions
+      var remainingMoves = fetchers.values.map(_.size).sum
+      var done = false
+      while (!done && remainingMoves > 0) {
+        val busiest = fetchers.keys.maxBy(load)
+        val leastBusy = fetchers.keys.minBy(load)
+        val difference = load(busiest) - load(leastBusy)
+        val candidates = fetchers(busiest).filter { case (_, partitionLoad) => partitionLoad > 0 && partitionLoad < difference }
+        if (candidates.isEmpty) {
+          done = true
+        } else {
+          val (topicAndPartition, partitionLoad) = candidates.minBy { case (_, partitionLoad) => math.abs(difference - 2 * partitionLoad) }
+          fetchers(busiest).remove(topicAndPartition)
+          fetchers(leastBusy).put(topicAndPartition, partitionLoad)
+          moves.put(topicAndPartition, leastBusy)
+          remainingMoves -= 1
+        }
+      }
+    }
+    // a partition moved back to the fetcher it was on does not move
+    moves.filter { case (topicAndPartition, fetcherId) => !loads(fetcherId).contains(topicAndPartition) }
+  }
+}
+
 case class BrokerAndFetcherId(broker: BrokerEndPoint, fetcherId: Int)
 
 case class BrokerAndInitialOffset(broker: BrokerEndPoint, initOffset: Long)
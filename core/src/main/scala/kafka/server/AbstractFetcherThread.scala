@@ -21,8 +21,8 @@ import java.util.concurrent.locks.ReentrantLock
 
 import kafka.cluster.BrokerEndPoint
 import kafka.consumer.PartitionTopicInfo
-import kafka.message.{MessageAndOffset, ByteBufferMessageSet}
-import kafka.utils.{Pool, ShutdownableThread, DelayedItem}
+import kafka.message.ByteBufferMessageSet
+import kafka.utils.{Pool, ShutdownableThread, DelayedItem, SystemTime}
 import kafka.common.{KafkaException, ClientIdAndBroker, TopicAndPartition}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.utils.CoreUtils.inLock
@@ -51,6 +51,8 @@ abstract class AbstractFetcherThread(name: String,
   private val partitionMap = new mutable.HashMap[TopicAndPartition, PartitionFetchState] // a (topic, partition) -> partitionFetchState map
   private val partitionMapLock = new ReentrantLock
   private val partitionMapCond = partitionMapLock.newCondition()
+  /* the bytes fetched for each partition since they were last drained, see drainFetchedBytes */
+  private val fetchedBytes = new mutable.HashMap[TopicAndPartition, Long]
 
   private val metricId = new ClientIdAndBroker(clientId, sourceBroker.host, sourceBroker.port)
   val fetcherStats = new FetcherStats(metricId)
@@ -118,6 +120,8 @@ abstract class AbstractFetcherThread(name: String,
     fetcherStats.requestRate.mark()
 
     if (responseData.nonEmpty) {
+      // only the processing of the response counts as busy time, as the fetch itself mostly waits at the source broker
+      val processingStartNs = SystemTime.nanoseconds
       // process fetched data
       inLock(partitionMapLock) {
 
@@ -131,13 +135,13 @@ abstract class AbstractFetcherThread(name: String,
                   try {
                     val messages = partitionData.toByteBufferMessageSet
                     val validBytes = messages.validBytes
-                    val newOffset = messages.shallowIterator.toSeq.lastOption match {
-                      case Some(m: MessageAndOffset) => m.nextOffset
-                      case None => currentPartitionFetchState.offset
-                    }
+                    val newOffset =
+                      if (validBytes == 0) currentPartitionFetchState.offset
+                      else messages.shallowIterator.foldLeft(currentPartitionFetchState.offset)((_, m) => m.nextOffset)
                     partitionMap.put(topicAndPartition, new PartitionFetchState(newOffset))
                     fetcherLagStats.getAndMaybePut(topic, partitionId).lag = Math.max(0L, partitionData.highWatermark - newOffset)
                     fetcherStats.byteRate.mark(validBytes)
+                    fetchedBytes.put(topicAndPartition, fetchedBytes.getOrElse(topicAndPartition, 0L) + validBytes)
                     // Once we hand off the partition data to the subclass, we can't mess with it any more in this thread
                     processPartitionData(topicAndPartition, currentPartitionFetchState.offset, partitionData)
                   } catch {
@@ -172,6 +176,7 @@ abstract class AbstractFetcherThread(name: String,
             })
         }
       }
+      fetcherStats.utilizationRate.mark(SystemTime.nanoseconds - processingStartNs)
     }
 
     if (partitionsWithError.nonEmpty) {
@@ -213,11 +218,41 @@ abstract class AbstractFetcherThread(name: String,
     try {
       topicAndPartitions.foreach { topicAndPartition =>
         partitionMap.remove(topicAndPartition)
+        fetchedBytes.remove(topicAndPartition)
         fetcherLagStats.unregister(topicAndPartition.topic, topicAndPartition.partition)
       }
     } finally partitionMapLock.unlock()
   }
 
+  /**
+   * Remove the given partitions to move them to another fetcher
+   *
+   * @return The offset to fetch each removed partition from
+   */
+  def takePartitions(topicAndPartitions: Set[TopicAndPartition]): Map[TopicAndPartition, Long] = {
+    partitionMapLock.lockInterruptibly()
+    try {
+      val offsets = topicAndPartitions.flatMap { topicAndPartition =>
+        partitionMap.get(topicAndPartition).map(topicAndPartition -> _.offset)
+      }.toMap
+      removePartitions(offsets.keySet)
+      offsets
+    } finally partitionMapLock.unlock()
+  }
+
+  /**
+   * Get the bytes fetched for each partition of the fetcher since the last call, including the partitions for which
+   * nothing was fetched
+   */
+  def drainFetchedBytes(): Map[TopicAndPartition, Long] = {
+    partitionMapLock.lockInterruptibly()
+    try {
+      val bytes = partitionMap.keys.map(topicAndPartition => topicAndPartition -> fetchedBytes.getOrElse(topicAndPartition, 0L)).toMap
+      fetchedBytes.clear()
+      bytes
+    } finally partitionMapLock.unlock()
+  }
+
   def partitionCount() = {
     partitionMapLock.lockInterruptibly()
     try partitionMap.size
@@ -246,6 +281,7 @@ object FetcherMetrics {
   val ConsumerLag = "ConsumerLag"
   val RequestsPerSec = "RequestsPerSec"
   val BytesPerSec = "BytesPerSec"
+  val UtilizationPercent = "UtilizationPercent"
 }
 
 class FetcherLagMetrics(metricId: ClientIdTopicPartition) extends KafkaMetricsGroup {
@@ -303,9 +339,13 @@ class FetcherStats(metricId: ClientIdAndBroker) extends KafkaMetricsGroup {
 
   val byteRate = newMeter(FetcherMetrics.BytesPerSec, "bytes", TimeUnit.SECONDS, tags)
 
+  // the rate of the time spent processing fetch responses, as a fraction of the time of the fetcher
+  val utilizationRate = newMeter(FetcherMetrics.UtilizationPercent, "percent", TimeUnit.NANOSECONDS, tags)
+
   def unregister() {
     removeMetric(FetcherMetrics.RequestsPerSec, tags)
     removeMetric(FetcherMetrics.BytesPerSec, tags)
+    removeMetric(FetcherMetrics.UtilizationPercent, tags)
   }
 
 }
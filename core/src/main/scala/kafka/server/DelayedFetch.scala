@@ -58,6 +58,21 @@ class DelayedFetch(delayMs: Long,
                    responseCallback: Map[TopicAndPartition, FetchResponsePartitionData] => Unit)
   extends DelayedOperation(delayMs) {
 
+  /* the partitions whose end offset may have changed since they were last checked, all of them at first */
+  private val changedPartitions = mutable.LinkedHashSet[TopicAndPartition](fetchMetadata.fetchPartitionStatus.keys.toSeq: _*)
+
+  /* the bytes available since the fetch offset of each partition as of its last check, and whether it was throttled */
+  private val bytesAvailable = mutable.HashMap[TopicAndPartition, (Int, Boolean)]()
+  private var accumulatedSize = 0
+  private var accumulatedThrottledSize = 0
+
+  override def onKeyChanged(key: Any) {
+    key match {
+      case TopicPartitionOperationKey(topic, partition) => changedPartitions += TopicAndPartition(topic, partition)
+      case _ =>
+    }
+  }
+
   /**
    * The operation can be completed if:
    *
@@ -66,15 +81,19 @@ class DelayedFetch(delayMs: Long,
    * Case C: The fetch offset locates not on the last segment of the log
    * Case D: The accumulated bytes from all the fetching partitions exceeds the minimum bytes
    *
+   * Only the partitions whose key changed since the last check are checked again, the bytes available for the others
+   * are those of their last check.
+   *
    * Upon completion, should return whatever data is available for each valid partition
    */
   override def tryComplete() : Boolean = {
-    var accumulatedSize = 0
-    var accumulatedThrottledSize = 0
-    fetchMetadata.fetchPartitionStatus.foreach {
-      case (topicAndPartition, fetchStatus) =>
+    val toCheck = changedPartitions.toList
+    changedPartitions.clear()
+    toCheck.foreach { topicAndPartition =>
+      fetchMetadata.fetchPartitionStatus.get(topicAndPartition).foreach { fetchStatus =>
         val fetchOffset = fetchStatus.startOffsetMetadata
         try {
+          var partitionBytes = 0
           if (fetchOffset != LogOffsetMetadata.UnknownOffsetMetadata) {
             val replica = replicaManager.getLeaderReplicaIfLocal(topicAndPartition.topic, topicAndPartition.partition)
             val endOffset =
@@ -97,16 +116,15 @@ class DelayedFetch(delayMs: Long,
                 debug("Satisfying fetch %s immediately since it is fetching older segments.".format(fetchMetadata))
                 if (!(quota.isThrottled(topicAndPartition) && quota.isQuotaExceeded()))
                   return forceComplete()
+                // check the partition again next time, as the quota may no longer be exceeded
+                changedPartitions += topicAndPartition
               } else if (fetchOffset.messageOffset < endOffset.messageOffset) {
-                // we take the partition fetch size as upper bound when accumulating the bytes (skip if a throttled partition)
-                val bytesAvailable = math.min(endOffset.positionDiff(fetchOffset), fetchStatus.fetchInfo.fetchSize)
-                if (quota.isThrottled(topicAndPartition))
-                  accumulatedThrottledSize += bytesAvailable
-                else
-                  accumulatedSize += bytesAvailable
+                // we take the partition fetch size as upper bound when accumulating the bytes
+                partitionBytes = math.min(endOffset.positionDiff(fetchOffset), fetchStatus.fetchInfo.fetchSize)
               }
             }
           }
+          updateBytesAvailable(topicAndPartition, partitionBytes)
         } catch {
           case utpe: UnknownTopicOrPartitionException => // Case B
             debug("Broker no longer know of %s, satisfy %s immediately".format(topicAndPartition, fetchMetadata))
@@ -115,6 +133,7 @@ class DelayedFetch(delayMs: Long,
             debug("Broker is no longer the leader of %s, satisfy %s immediately".format(topicAndPartition, fetchMetadata))
             return forceComplete()
         }
+      }
     }
 
     // Case D
@@ -125,6 +144,16 @@ class DelayedFetch(delayMs: Long,
       false
   }
 
+  // replace the bytes available for the partition in the accumulated sizes (the bytes of throttled partitions are counted apart)
+  private def updateBytesAvailable(topicAndPartition: TopicAndPartition, bytes: Int) {
+    bytesAvailable.get(topicAndPartition).foreach { case (previousBytes, wasThrottled) =>
+      if (wasThrottled) accumulatedThrottledSize -= previousBytes else accumulatedSize -= previousBytes
+    }
+    val throttled = quota.isThrottled(topicAndPartition)
+    if (throttled) accumulatedThrottledSize += bytes else accumulatedSize += bytes
+    bytesAvailable.put(topicAndPartition, (bytes, throttled))
+  }
+
   override def onExpiration() {
     if (fetchMetadata.isFromFollower)
       DelayedFetchMetrics.followerExpiredRequestMeter.mark()
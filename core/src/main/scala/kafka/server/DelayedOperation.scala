@@ -20,9 +20,8 @@ package kafka.server
 import kafka.utils._
 import kafka.utils.timer._
 import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
-import kafka.metrics.KafkaMetricsGroup
+import kafka.metrics.{KafkaMetricsGroup, KafkaTimer}
 
-import java.util.LinkedList
 import java.util.concurrent._
 import java.util.concurrent.atomic._
 import java.util.concurrent.locks.ReentrantReadWriteLock
@@ -51,6 +50,9 @@ abstract class DelayedOperation(override val delayMs: Long) extends TimerTask wi
 
   private val completed = new AtomicBoolean(false)
 
+  /* the entries of the operation in the watcher lists of its purgatory, set before it is first watched */
+  @volatile private[server] var watch: DelayedOperationWatch = null
+
   /*
    * Force completing the delayed operation, if not already completed.
    * This function can be triggered when
@@ -67,6 +69,10 @@ abstract class DelayedOperation(override val delayMs: Long) extends TimerTask wi
     if (completed.compareAndSet(false, true)) {
       // cancel the timeout timer
       cancel()
+      // let the watcher lists drop the operation
+      val currentWatch = watch
+      if (currentWatch != null)
+        currentWatch.onOperationCompleted()
       onComplete()
       true
     } else {
@@ -99,6 +105,13 @@ abstract class DelayedOperation(override val delayMs: Long) extends TimerTask wi
    */
   def tryComplete(): Boolean
 
+  /**
+   * Called with a watched key that changed before the operation is checked for that change, while holding the lock
+   * of the operation. An operation whose check covers several keys can use it to only check again what depends on the
+   * keys that changed, see DelayedFetch.
+   */
+  def onKeyChanged(key: Any): Unit = {}
+
   /*
    * run() method defines a task that is executed on timeout
    */
@@ -108,6 +121,18 @@ abstract class DelayedOperation(override val delayMs: Long) extends TimerTask wi
   }
 }
 
+/**
+ * The entries of a delayed operation in the watcher lists of a purgatory
+ */
+private[server] trait DelayedOperationWatch {
+
+  /**
+   * Called once when the operation completes, it must not block as it may be called while holding the lock of any
+   * watcher list
+   */
+  def onOperationCompleted(): Unit
+}
+
 object DelayedOperationPurgatory {
 
   def apply[T <: DelayedOperation](purgatoryName: String,
@@ -134,8 +159,8 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
 
   private val removeWatchersLock = new ReentrantReadWriteLock()
 
-  // the number of estimated total operations in the purgatory
-  private[this] val estimatedTotalOperations = new AtomicInteger(0)
+  // the number of entries of completed operations still in the watcher lists, which the next purge removes
+  private[this] val completedWatchedEntries = new AtomicInteger(0)
 
   /* background thread expiring operations that have timed out */
   private val expirationReaper = new ExpiredOperationReaper()
@@ -158,6 +183,19 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
     metricsTags
   )
 
+  newGauge(
+    "NumCompletedWatched",
+    new Gauge[Int] {
+      def value = completedWatched()
+    },
+    metricsTags
+  )
+
+  // the time operations are watched for until they complete, either when they are satisfied or when they expire
+  private val completionTimeHist = newHistogram("CompletionTimeMs", biased = true, metricsTags)
+  private val checkAndCompleteTimer =
+    new KafkaTimer(newTimer("CheckAndCompleteRateAndTimeUs", TimeUnit.MICROSECONDS, TimeUnit.SECONDS, metricsTags))
+
   if (reaperEnabled)
     expirationReaper.start()
 
@@ -191,20 +229,20 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
     if (isCompletedByMe)
       return true
 
-    var watchCreated = false
+    val watch = new OperationWatch(SystemTime.milliseconds)
+    operation.watch = watch
     for(key <- watchKeys) {
       // If the operation is already completed, stop adding it to the rest of the watcher list.
       if (operation.isCompleted())
         return false
-      watchForOperation(key, operation)
-
-      if (!watchCreated) {
-        watchCreated = true
-        estimatedTotalOperations.incrementAndGet()
-      }
+      watchForOperation(key, operation, watch)
     }
 
-    isCompletedByMe = operation synchronized operation.tryComplete()
+    // any of the keys may have changed since the first check
+    isCompletedByMe = operation synchronized {
+      watchKeys.foreach(operation.onKeyChanged)
+      operation.tryComplete()
+    }
     if (isCompletedByMe)
       return true
 
@@ -231,7 +269,28 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
     if(watchers == null)
       0
     else
-      watchers.tryCompleteWatched()
+      checkAndCompleteTimer.time { watchers.tryCompleteWatched() }
+  }
+
+  /**
+   * Check if some delayed operations can be completed with any of the given watch keys, and if yes complete them.
+   * Unlike calling checkAndComplete() for each key, an operation watched on several of the keys is checked only once.
+   *
+   * @return the number of completed operations during this process
+   */
+  def checkAndCompleteAll(keys: Iterable[Any]): Int = {
+    val watchersToCheck = inReadLock(removeWatchersLock) { keys.flatMap(key => Option(watchersForKey.get(key))) }
+    checkAndCompleteTimer.time {
+      val operations = new mutable.LinkedHashSet[T]
+      watchersToCheck.foreach(_.markChanged(operations))
+      var completed = 0
+      operations.foreach { operation =>
+        if (operation synchronized operation.tryComplete())
+          completed += 1
+      }
+      watchersToCheck.foreach(_.purgeCompleted())
+      completed
+    }
   }
 
   /**
@@ -241,6 +300,11 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
    */
   def watched() = allWatchers.map(_.watched).sum
 
+  /**
+   * Return the number of entries of completed operations still in the watch lists, which the next purge removes
+   */
+  def completedWatched() = completedWatchedEntries.get
+
   /**
    * Return the number of delayed operations in the expiry queue
    */
@@ -256,10 +320,10 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
    * Return the watch list of the given key, note that we need to
    * grab the removeWatchersLock to avoid the operation being added to a removed watcher list
    */
-  private def watchForOperation(key: Any, operation: T) {
+  private def watchForOperation(key: Any, operation: T, watch: OperationWatch) {
     inReadLock(removeWatchersLock) {
       val watcher = watchersForKey.getAndMaybePut(key)
-      watcher.watch(operation)
+      watch.add(watcher.watch(operation))
     }
   }
 
@@ -288,77 +352,211 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
   }
 
   /**
-   * A linked list of watched delayed operations based on some key
+   * The entry of an operation in the watcher list of a key. Its links are guarded by the lock of the list.
+   *
+   * An entry is counted as completed from the time its operation completes until it is unlinked, whichever of the
+   * two happens first. Its state is only updated atomically, as an operation completes while holding the lock of
+   * the list of another key.
+   */
+  private class WatchEntry(val operation: T, val watchers: Watchers) {
+    var prev: WatchEntry = null
+    var next: WatchEntry = null
+    var linked = false
+
+    private[this] val state = new AtomicInteger(0)
+
+    // queue the entry for removal from its list, once, unless it was unlinked already
+    def markCompleted() {
+      while (true) {
+        val current = state.get
+        if ((current & WatchEntry.Completed) != 0)
+          return
+        if (state.compareAndSet(current, current | WatchEntry.Completed)) {
+          if ((current & WatchEntry.Unlinked) == 0)
+            watchers.entryCompleted(this)
+          return
+        }
+      }
+    }
+
+    // record that the entry was unlinked, returning true if it was counted as completed
+    def markUnlinked(): Boolean = {
+      while (true) {
+        val current = state.get
+        if (state.compareAndSet(current, current | WatchEntry.Unlinked))
+          return current == WatchEntry.Completed
+      }
+      false
+    }
+  }
+
+  private object WatchEntry {
+    val Completed = 1
+    val Unlinked = 2
+  }
+
+  /**
+   * The entries of an operation in the watcher lists, which it marks as completed when it completes
+   */
+  private class OperationWatch(startMs: Long) extends DelayedOperationWatch {
+    private[this] val entries = new mutable.ArrayBuffer[WatchEntry](1)
+    private[this] var completed = false
+
+    def add(entry: WatchEntry) {
+      // an entry added after the operation completed is marked right away
+      val isCompleted = synchronized {
+        entries += entry
+        completed
+      }
+      if (isCompleted)
+        entry.markCompleted()
+    }
+
+    override def onOperationCompleted() {
+      completionTimeHist.update(SystemTime.milliseconds - startMs)
+      val toMark = synchronized {
+        completed = true
+        entries.toList
+      }
+      toMark.foreach(_.markCompleted())
+    }
+  }
+
+  /**
+   * A doubly linked list of watched delayed operations based on some key.
+   *
+   * The entries of completed operations are queued when they complete, so that the purge removes each of them in
+   * constant time from the lists that have any instead of scanning every list.
    */
   private class Watchers(val key: Any) {
 
-    private[this] val operations = new LinkedList[T]()
+    private[this] var head: WatchEntry = null
+    private[this] var tail: WatchEntry = null
+    private[this] var size = 0
 
-    def watched: Int = operations synchronized operations.size
+    // the entries of completed operations, some may have been unlinked by tryCompleteWatched already
+    private[this] val completedEntries = new ConcurrentLinkedQueue[WatchEntry]()
+    private[this] val completedCount = new AtomicInteger(0)
+
+    def watched: Int = synchronized { size }
+
+    def completed: Int = completedCount.get
 
     // add the element to watch
-    def watch(t: T) {
-      operations synchronized operations.add(t)
+    def watch(t: T): WatchEntry = synchronized {
+      val entry = new WatchEntry(t, this)
+      entry.prev = tail
+      if (tail == null) head = entry else tail.next = entry
+      tail = entry
+      entry.linked = true
+      size += 1
+      entry
+    }
+
+    // count the entry before queueing it, so that the entries in the queue are never fewer than counted
+    def entryCompleted(entry: WatchEntry) {
+      completedCount.incrementAndGet()
+      completedWatchedEntries.incrementAndGet()
+      completedEntries.add(entry)
     }
 
     // traverse the list and try to complete some watched elements
     def tryCompleteWatched(): Int = {
 
       var completed = 0
-      operations synchronized {
-        val iter = operations.iterator()
-        while (iter.hasNext) {
-          val curr = iter.next()
+      synchronized {
+        var entry = head
+        while (entry != null) {
+          val next = entry.next
+          val curr = entry.operation
           if (curr.isCompleted) {
             // another thread has completed this operation, just remove it
-            iter.remove()
-          } else if (curr synchronized curr.tryComplete()) {
+            unlink(entry)
+          } else if (curr synchronized { curr.onKeyChanged(key); curr.tryComplete() }) {
             completed += 1
-            iter.remove()
+            unlink(entry)
           }
+          entry = next
         }
+        removeUnlinkedCompleted()
       }
 
-      if (operations.size == 0)
+      if (watched == 0)
         removeKeyIfEmpty(key, this)
 
       completed
     }
 
-    // traverse the list and purge elements that are already completed by others
+    // tell the operations that are not completed that the key changed and add them to the given operations to check
+    def markChanged(operations: mutable.Set[T]) {
+      synchronized {
+        var entry = head
+        while (entry != null) {
+          val curr = entry.operation
+          if (!curr.isCompleted) {
+            curr synchronized curr.onKeyChanged(key)
+            operations += curr
+          }
+          entry = entry.next
+        }
+      }
+    }
+
+    // remove the entries of the operations that were completed by others
     def purgeCompleted(): Int = {
       var purged = 0
-      operations synchronized {
-        val iter = operations.iterator()
-        while (iter.hasNext) {
-          val curr = iter.next()
-          if (curr.isCompleted) {
-            iter.remove()
+      synchronized {
+        var entry = completedEntries.poll()
+        while (entry != null) {
+          if (entry.linked) {
+            unlink(entry)
             purged += 1
           }
+          entry = completedEntries.poll()
         }
       }
 
-      if (operations.size == 0)
+      if (watched == 0)
         removeKeyIfEmpty(key, this)
 
       purged
     }
+
+    private def unlink(entry: WatchEntry) {
+      if (entry.linked) {
+        if (entry.prev == null) head = entry.next else entry.prev.next = entry.next
+        if (entry.next == null) tail = entry.prev else entry.next.prev = entry.prev
+        entry.prev = null
+        entry.next = null
+        entry.linked = false
+        size -= 1
+        if (entry.markUnlinked()) {
+          completedCount.decrementAndGet()
+          completedWatchedEntries.decrementAndGet()
+        }
+      }
+    }
+
+    // drop the queued entries that were unlinked already, so that they do not pile up in a list that is not purged
+    private def removeUnlinkedCompleted() {
+      if (!completedEntries.isEmpty) {
+        val iter = completedEntries.iterator
+        while (iter.hasNext) {
+          if (!iter.next().linked)
+            iter.remove()
+        }
+      }
+    }
   }
 
   def advanceClock(timeoutMs: Long) {
     timeoutTimer.advanceClock(timeoutMs)
 
-    // Trigger a purge if the number of completed but still being watched operations is larger than
-    // the purge threshold. That number is computed by the difference btw the estimated total number of
-    // operations and the number of pending delayed operations.
-    if (estimatedTotalOperations.get - delayed > purgeInterval) {
-      // now set estimatedTotalOperations to delayed (the number of pending operations) since we are going to
-      // clean up watchers. Note that, if more operations are completed during the clean up, we may end up with
-      // a little overestimated total number of operations.
-      estimatedTotalOperations.getAndSet(delayed)
+    // Trigger a purge if the number of entries of completed operations queued for removal is larger than the purge
+    // threshold. Only the watch lists of keys with such entries are purged.
+    if (completedWatchedEntries.get > purgeInterval) {
       debug("Begin purging watch lists")
-      val purged = allWatchers.map(_.purgeCompleted()).sum
+      val purged = allWatchers.filter(_.completed > 0).map(_.purgeCompleted()).sum
       debug("Purged %d elements from watch lists.".format(purged))
     }
   }
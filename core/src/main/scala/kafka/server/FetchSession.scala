@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.TimeUnit
+
+import com.yammer.metrics.core.Gauge
+import kafka.api.{FetchRequest, FetchResponsePartitionData, PartitionFetchInfo}
+import kafka.common.TopicAndPartition
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.{Logging, Time, threadsafe}
+import org.apache.kafka.common.protocol.Errors
+
+import scala.collection.{Map, immutable, mutable}
+import scala.collection.JavaConverters._
+
+object FetchSession {
+  /**
+   * The epoch of the request that follows a request of the given epoch in a fetch session
+   */
+  def nextEpoch(epoch: Int): Int = if (epoch == Int.MaxValue) 1 else epoch + 1
+}
+
+/**
+ * A fetch session: the partitions a client fetches from this broker, with the fetch offset and max bytes it last sent
+ * for each of them and the high watermark last returned to it.
+ *
+ * The first request of a session holds all of its partitions, the following ones only hold the partitions that were
+ * added or whose fetch offset or max bytes changed, and the partitions that were removed. The responses after the
+ * first one only hold the partitions with new data, an error or a high watermark that changed since it was last
+ * returned. Every request of the session has the epoch following that of the previous request, so that a request
+ * that was lost or applied twice is detected.
+ *
+ * @param id The session id
+ * @param replicaId The replica id of the client of the session
+ * @param lastUsedMs The last time the session was used
+ */
+@threadsafe
+class FetchSession(val id: Int, val replicaId: Int, @volatile var lastUsedMs: Long) {
+
+  private class CachedPartition(var fetchInfo: PartitionFetchInfo, var highWatermark: Long = -1L)
+
+  private val partitions = new mutable.LinkedHashMap[TopicAndPartition, CachedPartition]
+
+  /* the epoch of the next request of the session, the request that creates it has the initial epoch */
+  private var epoch = FetchRequest.InitialEpoch
+
+  def size: Int = synchronized { partitions.size }
+
+  /**
+   * Add or update the given partitions and remove the forgotten ones if the given epoch is that of the next request
+   * of the session
+   *
+   * @return The partitions to fetch, or None if the epoch is not that of the next request
+   */
+  def update(requestEpoch: Int,
+             requestInfo: immutable.Map[TopicAndPartition, PartitionFetchInfo],
+             toForget: Seq[TopicAndPartition]): Option[immutable.Map[TopicAndPartition, PartitionFetchInfo]] = synchronized {
+    if (requestEpoch != epoch) {
+      None
+    } else {
+      epoch = FetchSession.nextEpoch(epoch)
+      toForget.foreach(partitions.remove)
+      requestInfo.foreach { case (topicAndPartition, fetchInfo) =>
+        partitions.get(topicAndPartition) match {
+          case Some(cached) => cached.fetchInfo = fetchInfo
+          case None => partitions.put(topicAndPartition, new CachedPartition(fetchInfo))
+        }
+      }
+      Some(partitions.map { case (topicAndPartition, cached) => topicAndPartition -> cached.fetchInfo }.toMap)
+    }
+  }
+
+  /**
+   * Record the high watermarks of the given response data and return the part of it to send: all of it for the first
+   * request of the session, only the partitions with new data, an error or a changed high watermark for the others
+   */
+  def responseData(data: Map[TopicAndPartition, FetchResponsePartitionData],
+                   incremental: Boolean): Map[TopicAndPartition, FetchResponsePartitionData] = synchronized {
+    data.filter { case (topicAndPartition, partitionData) =>
+      partitions.get(topicAndPartition) match {
+        case Some(cached) =>
+          val highWatermarkChanged = cached.highWatermark != partitionData.hw
+          cached.highWatermark = partitionData.hw
+          !incremental || highWatermarkChanged || partitionData.error != Errors.NONE.code ||
+            partitionData.messages.sizeInBytes > 0
+        case None => true
+      }
+    }
+  }
+
+  override def toString: String = "FetchSession(id=%d, replicaId=%d, partitions=%d)".format(id, replicaId, size)
+}
+
+/**
+ * The partitions to fetch for a fetch request and the response data to send for them
+ */
+sealed trait FetchContext {
+
+  /* the partitions to fetch */
+  def fetchInfo: immutable.Map[TopicAndPartition, PartitionFetchInfo]
+
+  /* the fetch session id of the response */
+  def sessionId: Int = FetchRequest.InvalidSessionId
+
+  /* the fetch session error code of the response */
+  def errorCode: Short = Errors.NONE.code
+
+  /**
+   * The part of the data fetched for the partitions to fetch to send in the response
+   */
+  def responseData(data: Map[TopicAndPartition, FetchResponsePartitionData]): Map[TopicAndPartition, FetchResponsePartitionData] = data
+}
+
+/* a fetch outside of any fetch session */
+case class SessionlessFetchContext(fetchInfo: immutable.Map[TopicAndPartition, PartitionFetchInfo]) extends FetchContext
+
+/* the first fetch of a new fetch session */
+case class FullFetchContext(session: FetchSession, fetchInfo: immutable.Map[TopicAndPartition, PartitionFetchInfo]) extends FetchContext {
+  override def sessionId: Int = session.id
+
+  override def responseData(data: Map[TopicAndPartition, FetchResponsePartitionData]) =
+    session.responseData(data, incremental = false)
+}
+
+/* a fetch of an existing fetch session */
+case class IncrementalFetchContext(session: FetchSession, fetchInfo: immutable.Map[TopicAndPartition, PartitionFetchInfo]) extends FetchContext {
+  override def sessionId: Int = session.id
+
+  override def responseData(data: Map[TopicAndPartition, FetchResponsePartitionData]) =
+    session.responseData(data, incremental = true)
+}
+
+/* a fetch of a fetch session that is not cached or with an unexpected epoch, which fetches nothing */
+case class SessionErrorFetchContext(error: Errors) extends FetchContext {
+  override def fetchInfo = immutable.Map.empty[TopicAndPartition, PartitionFetchInfo]
+
+  override def errorCode: Short = error.code
+}
+
+/**
+ * A bounded cache of fetch sessions, see FetchSession.
+ *
+ * When the cache is full a new session only evicts the least recently used one if it has not been used for at least
+ * evictionIdleMs, otherwise the request that would have created it fetches outside of any session. This keeps active
+ * sessions, which are mostly followers fetching continuously, from being evicted by clients creating many sessions.
+ *
+ * @param maxSessions The maximum number of sessions in the cache, 0 disables fetch sessions
+ * @param evictionIdleMs The time a session must not have been used for before it can be evicted by a new session
+ */
+@threadsafe
+class FetchSessionCache(val maxSessions: Int,
+                        val evictionIdleMs: Long = FetchSessionCache.DefaultEvictionIdleMs,
+                        time: Time) extends KafkaMetricsGroup with Logging {
+
+  /* the sessions in least recently used order */
+  private val sessions = new java.util.LinkedHashMap[Int, FetchSession](16, 0.75f, true)
+  private val random = new java.util.Random
+
+  newGauge(FetchSessionCache.NumSessions,
+    new Gauge[Int] {
+      def value = size
+    })
+
+  newGauge(FetchSessionCache.NumPartitionsCached,
+    new Gauge[Int] {
+      def value = FetchSessionCache.this.synchronized { sessions.values.asScala.map(_.size).sum }
+    })
+
+  private val evictionRate = newMeter(FetchSessionCache.EvictionsPerSec, "evictions", TimeUnit.SECONDS)
+
+  def size: Int = synchronized { sessions.size }
+
+  /**
+   * Get the fetch context of the given request: create, update or remove its fetch session, and return the partitions
+   * it fetches and how to send their data
+   */
+  def newContext(request: FetchRequest): FetchContext = {
+    if (request.versionId < 3)
+      SessionlessFetchContext(request.requestInfo)
+    else if (request.sessionEpoch == FetchRequest.FinalEpoch) {
+      if (request.sessionId != FetchRequest.InvalidSessionId)
+        remove(request.sessionId)
+      SessionlessFetchContext(request.requestInfo)
+    } else if (request.sessionEpoch == FetchRequest.InitialEpoch) {
+      if (request.sessionId != FetchRequest.InvalidSessionId)
+        remove(request.sessionId)
+      maybeCreate(request.replicaId) match {
+        case Some(session) =>
+          session.update(FetchRequest.InitialEpoch, request.requestInfo, Seq.empty)
+          FullFetchContext(session, request.requestInfo)
+        case None => SessionlessFetchContext(request.requestInfo)
+      }
+    } else {
+      get(request.sessionId).filter(_.replicaId == request.replicaId) match {
+        case Some(session) =>
+          session.update(request.sessionEpoch, request.requestInfo, request.toForget) match {
+            case Some(fetchInfo) => IncrementalFetchContext(session, fetchInfo)
+            case None =>
+              debug("Fetch session %d of replica %d received a request with epoch %d that is not the expected one"
+                .format(session.id, session.replicaId, request.sessionEpoch))
+              SessionErrorFetchContext(Errors.INVALID_FETCH_SESSION_EPOCH)
+          }
+        case None =>
+          debug("Fetch session %d of replica %d is not in the cache".format(request.sessionId, request.replicaId))
+          SessionErrorFetchContext(Errors.FETCH_SESSION_ID_NOT_FOUND)
+      }
+    }
+  }
+
+  /**
+   * Get the session with the given id and mark it as used
+   */
+  def get(sessionId: Int): Option[FetchSession] = synchronized {
+    val session = Option(sessions.get(sessionId))
+    session.foreach(_.lastUsedMs = time.milliseconds)
+    session
+  }
+
+  def remove(sessionId: Int): Option[FetchSession] = synchronized {
+    Option(sessions.remove(sessionId))
+  }
+
+  /**
+   * Create a new empty session if there is room in the cache or the least recently used session can be evicted
+   */
+  private def maybeCreate(replicaId: Int): Option[FetchSession] = synchronized {
+    val now = time.milliseconds
+    if (maxSessions > 0 && sessions.size >= maxSessions) {
+      val eldest = sessions.values.iterator.next()
+      if (now - eldest.lastUsedMs >= evictionIdleMs) {
+        debug("Evicting %s, which has not been used for %d ms".format(eldest, now - eldest.lastUsedMs))
+        sessions.remove(eldest.id)
+        evictionRate.mark()
+      }
+    }
+    if (sessions.size >= maxSessions) {
+      None
+    } else {
+      var id = FetchRequest.InvalidSessionId
+      while (id == FetchRequest.InvalidSessionId || sessions.containsKey(id))
+        id = random.nextInt(Int.MaxValue)
+      val session = new FetchSession(id, replicaId, now)
+      sessions.put(id, session)
+      Some(session)
+    }
+  }
+
+  def close() {
+    removeMetric(FetchSessionCache.NumSessions)
+    removeMetric(FetchSessionCache.NumPartitionsCached)
+    removeMetric(FetchSessionCache.EvictionsPerSec)
+  }
+}
+
+object FetchSessionCache {
+  val DefaultEvictionIdleMs = 2 * 60 * 1000L
+
+  private val NumSessions = "NumIncrementalFetchSessions"
+  private val NumPartitionsCached = "NumIncrementalFetchPartitionsCached"
+  private val EvictionsPerSec = "IncrementalFetchSessionEvictionsPerSec"
+}
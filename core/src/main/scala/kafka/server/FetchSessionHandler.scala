@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import kafka.utils.{Logging, nonthreadsafe}
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.requests.{FetchResponse, FetchRequest => JFetchRequest}
+
+import scala.collection.Map
+
+/**
+ * The data of the next fetch request of a fetch session
+ *
+ * @param toSend The partitions to send in the request
+ * @param toForget The partitions to remove from the session
+ * @param sessionId The session id of the request
+ * @param sessionEpoch The session epoch of the request
+ */
+case class FetchSessionRequestData(toSend: Map[TopicPartition, JFetchRequest.PartitionData],
+                                   toForget: Seq[TopicPartition],
+                                   sessionId: Int,
+                                   sessionEpoch: Int)
+
+/**
+ * The client side of a fetch session with a broker, see FetchSession. It turns the partitions to fetch into the next
+ * request of the session, and follows the session from the responses.
+ *
+ * A request that fails or is answered with a session error closes the session, and the next request creates a new one
+ * with all of the partitions to fetch. A broker that does not create a session, because its cache is full, is sent
+ * every request in full until it does.
+ */
+@nonthreadsafe
+class FetchSessionHandler(clientId: String, brokerId: Int) extends Logging {
+
+  this.logIdent = "[FetchSessionHandler clientId=%s, brokerId=%d] ".format(clientId, brokerId)
+
+  private var sessionId = JFetchRequest.INVALID_SESSION_ID
+
+  /* the epoch of the next request, the initial epoch if it must create a new session */
+  private var nextEpoch = JFetchRequest.INITIAL_EPOCH
+
+  /* the partitions of the session, with their fetch data as last sent */
+  private var sessionPartitions: Map[TopicPartition, JFetchRequest.PartitionData] = Map.empty
+
+  /**
+   * Build the next request of the session for the given partitions to fetch
+   */
+  def build(fetchData: Map[TopicPartition, JFetchRequest.PartitionData]): FetchSessionRequestData = {
+    val requestData =
+      if (nextEpoch == JFetchRequest.INITIAL_EPOCH) {
+        FetchSessionRequestData(fetchData, Seq.empty, sessionId, nextEpoch)
+      } else {
+        val toSend = fetchData.filter { case (partition, data) =>
+          sessionPartitions.get(partition) match {
+            case Some(sent) => sent.offset != data.offset || sent.maxBytes != data.maxBytes
+            case None => true
+          }
+        }
+        val toForget = sessionPartitions.keys.filterNot(fetchData.contains).toSeq
+        FetchSessionRequestData(toSend, toForget, sessionId, nextEpoch)
+      }
+    sessionPartitions = fetchData
+    requestData
+  }
+
+  /**
+   * Follow the session from the response to the last request built
+   *
+   * @return false if the response has a session error, so that its partition data is empty and must be ignored
+   */
+  def handleResponse(response: FetchResponse): Boolean = {
+    Errors.forCode(response.errorCode) match {
+      case Errors.NONE =>
+        if (nextEpoch == JFetchRequest.INITIAL_EPOCH) {
+          sessionId = response.sessionId
+          if (sessionId != JFetchRequest.INVALID_SESSION_ID) {
+            debug("Created fetch session %d with %d partitions".format(sessionId, sessionPartitions.size))
+            nextEpoch = FetchSession.nextEpoch(nextEpoch)
+          }
+        } else {
+          nextEpoch = FetchSession.nextEpoch(nextEpoch)
+        }
+        true
+      case error =>
+        info("Closing fetch session %d after error %s".format(sessionId, error.exceptionName))
+        // the broker has already dropped a session it does not know, there is nothing to close
+        if (error == Errors.FETCH_SESSION_ID_NOT_FOUND)
+          sessionId = JFetchRequest.INVALID_SESSION_ID
+        nextEpoch = JFetchRequest.INITIAL_EPOCH
+        false
+    }
+  }
+
+  /**
+   * Close the session after the last request built failed, as it is not known whether the broker received it
+   */
+  def handleError() {
+    nextEpoch = JFetchRequest.INITIAL_EPOCH
+  }
+}
@@ -30,7 +30,7 @@ import kafka.common._
 import kafka.controller.KafkaController
 import kafka.coordinator.{GroupCoordinator, JoinGroupResult}
 import kafka.log._
-import kafka.message.{ByteBufferMessageSet, Message, MessageSet}
+import kafka.message.{ByteBufferMessageSet, Message, MessageSet, ZStdCompressionCodec}
 import kafka.network._
 import kafka.network.RequestChannel.{Response, Session}
 import kafka.security.auth
@@ -67,6 +67,12 @@ class KafkaApis(val requestChannel: RequestChannel,
 
   this.logIdent = "[KafkaApi-%d] ".format(brokerId)
 
+  /* compressed messages converted for fetch requests that only take older message formats */
+  private val downConversionCache = new DownConversionCache(config.logDownConversionCacheBytes)
+
+  /* the partitions of the fetch sessions of followers, so that their fetches only need to send what changed */
+  private val fetchSessionCache = new FetchSessionCache(config.maxIncrementalFetchSessionCacheSlots, time = SystemTime)
+
   /**
    * Top-level method that handles all requests and multiplexes to the right api
    */
@@ -340,11 +346,17 @@ class KafkaApis(val requestChannel: RequestChannel,
       case (topicPartition, _) => authorize(request.session, Write, new Resource(auth.Topic, topicPartition.topic))
     }
 
+    val (unsupportedCompressionRequestInfo, supportedRequestInfo) = authorizedRequestInfo.partition {
+      case (topicPartition, buffer) => !isZStdAllowed(request.header.apiVersion, topicPartition, buffer)
+    }
+
     // the callback for sending a produce response
     def sendResponseCallback(responseStatus: Map[TopicPartition, PartitionResponse]) {
 
       val mergedResponseStatus = responseStatus ++ unauthorizedRequestInfo.mapValues(_ =>
-        new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED.code, -1, Message.NoTimestamp))
+        new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED.code, -1, Message.NoTimestamp)) ++
+        unsupportedCompressionRequestInfo.mapValues(_ =>
+          new PartitionResponse(Errors.UNSUPPORTED_COMPRESSION_TYPE.code, -1, Message.NoTimestamp))
 
       var errorInResponse = false
 
@@ -381,7 +393,7 @@ class KafkaApis(val requestChannel: RequestChannel,
           val respHeader = new ResponseHeader(request.header.correlationId)
           val respBody = request.header.apiVersion match {
             case 0 => new ProduceResponse(mergedResponseStatus.asJava)
-            case version@(1 | 2) => new ProduceResponse(mergedResponseStatus.asJava, delayTimeMs, version)
+            case version@(1 | 2 | 3) => new ProduceResponse(mergedResponseStatus.asJava, delayTimeMs, version)
             // This case shouldn't happen unless a new version of ProducerRequest is added without
             // updating this part of the code to handle it properly.
             case version => throw new IllegalArgumentException(s"Version `$version` of ProduceRequest is not handled. Code must be updated.")
@@ -400,13 +412,13 @@ class KafkaApis(val requestChannel: RequestChannel,
         produceResponseCallback)
     }
 
-    if (authorizedRequestInfo.isEmpty)
+    if (supportedRequestInfo.isEmpty)
       sendResponseCallback(Map.empty)
     else {
       val internalTopicsAllowed = request.header.clientId == AdminUtils.AdminClientId
 
       // Convert ByteBuffer to ByteBufferMessageSet
-      val authorizedMessagesPerPartition = authorizedRequestInfo.map {
+      val authorizedMessagesPerPartition = supportedRequestInfo.map {
         case (topicPartition, buffer) => (topicPartition, new ByteBufferMessageSet(buffer))
       }
 
@@ -425,13 +437,52 @@ class KafkaApis(val requestChannel: RequestChannel,
     }
   }
 
+  /**
+   * Messages compressed with zstd can only be produced by clients sending ProduceRequest v3 or later, and only once
+   * all of the brokers know of zstd, as followers fetching with earlier versions cannot read them. For the same
+   * reason, a topic configured with the zstd compression type can only be produced to once all of the brokers do.
+   * The messages are only scanned for zstd if the log keeps them in their codec, as they are recompressed otherwise.
+   */
+  private def isZStdAllowed(produceVersion: Short, topicPartition: TopicPartition, buffer: ByteBuffer): Boolean = {
+    val interBrokerZStdAllowed = config.interBrokerProtocolVersion >= KAFKA_0_10_1_IV2
+    val topicAndPartition = TopicAndPartition(topicPartition.topic, topicPartition.partition)
+    if (interBrokerZStdAllowed && produceVersion >= 3)
+      true
+    else if (!replicaManager.mayHoldZStdMessages(topicAndPartition))
+      true
+    else if (new ByteBufferMessageSet(buffer).hasWrapperMessageWithCodec(ZStdCompressionCodec))
+      false
+    else
+      interBrokerZStdAllowed || !replicaManager.getCompressionType(topicAndPartition).exists(ZStdCompressionCodec.name.equalsIgnoreCase)
+  }
+
+  /**
+   * Replace the zstd compressed data returned to a fetch request older than v4 with an UNSUPPORTED_COMPRESSION_TYPE
+   * error, as its client cannot read it. There is no such data before all of the brokers know of zstd, nor in a log
+   * that recompresses the messages it appends to another compression type, so those are not scanned.
+   */
+  private def withoutZStdData(fetchVersion: Short, topicAndPartition: TopicAndPartition,
+                              data: FetchResponsePartitionData): FetchResponsePartitionData = {
+    val hasZStdData = fetchVersion < 4 && config.interBrokerProtocolVersion >= KAFKA_0_10_1_IV2 &&
+      replicaManager.mayHoldZStdMessages(topicAndPartition) && (data.messages match {
+      case fileMessageSet: FileMessageSet => fileMessageSet.hasWrapperMessageWithCodec(ZStdCompressionCodec)
+      case byteBufferMessageSet: ByteBufferMessageSet => byteBufferMessageSet.hasWrapperMessageWithCodec(ZStdCompressionCodec)
+      case _ => false
+    })
+    if (hasZStdData)
+      FetchResponsePartitionData(Errors.UNSUPPORTED_COMPRESSION_TYPE.code, data.hw, MessageSet.Empty)
+    else
+      data
+  }
+
   /**
    * Handle a fetch request
    */
   def handleFetchRequest(request: RequestChannel.Request) {
     val fetchRequest = request.requestObj.asInstanceOf[FetchRequest]
+    val fetchContext = fetchSessionCache.newContext(fetchRequest)
 
-    val (authorizedRequestInfo, unauthorizedRequestInfo) = fetchRequest.requestInfo.partition {
+    val (authorizedRequestInfo, unauthorizedRequestInfo) = fetchContext.fetchInfo.partition {
       case (topicAndPartition, _) => authorize(request.session, Read, new Resource(auth.Topic, topicAndPartition.topic))
     }
 
@@ -440,7 +491,12 @@ class KafkaApis(val requestChannel: RequestChannel,
     }
 
     // the callback for sending a fetch response
-    def sendResponseCallback(responsePartitionData: Map[TopicAndPartition, FetchResponsePartitionData]) {
+    def sendResponseCallback(fetchedPartitionData: Map[TopicAndPartition, FetchResponsePartitionData]) {
+
+      val responsePartitionData =
+        if (fetchRequest.versionId < 4)
+          fetchedPartitionData.map { case (tp, data) => tp -> withoutZStdData(fetchRequest.versionId, tp, data) }
+        else fetchedPartitionData
 
       val convertedPartitionData =
         // Need to down-convert message when consumer only takes magic value 0.
@@ -458,14 +514,15 @@ class KafkaApis(val requestChannel: RequestChannel,
             val convertedData = if (replicaManager.getMessageFormatVersion(tp).exists(_ > Message.MagicValue_V0) &&
               !data.messages.isMagicValueInAllWrapperMessages(Message.MagicValue_V0)) {
               trace(s"Down converting message to V0 for fetch request from ${fetchRequest.clientId}")
-              new FetchResponsePartitionData(data.error, data.hw, data.messages.asInstanceOf[FileMessageSet].toMessageFormat(Message.MagicValue_V0))
+              new FetchResponsePartitionData(data.error, data.hw, data.messages.asInstanceOf[FileMessageSet].toMessageFormat(Message.MagicValue_V0, downConversionCache))
             } else data
 
             tp -> convertedData
           }
         } else responsePartitionData
 
-      val mergedPartitionData = convertedPartitionData ++ unauthorizedPartitionData
+      // partitions of a fetch session with nothing new are left out of the response
+      val mergedPartitionData = fetchContext.responseData(convertedPartitionData ++ unauthorizedPartitionData)
 
       mergedPartitionData.foreach { case (topicAndPartition, data) =>
         if (data.error != Errors.NONE.code)
@@ -479,7 +536,8 @@ class KafkaApis(val requestChannel: RequestChannel,
       def fetchResponseCallback(delayTimeMs: Int) {
         trace(s"Sending fetch response to client ${fetchRequest.clientId} of " +
           s"${convertedPartitionData.values.map(_.messages.sizeInBytes).sum} bytes")
-        val response = FetchResponse(fetchRequest.correlationId, mergedPartitionData, fetchRequest.versionId, delayTimeMs)
+        val response = FetchResponse(fetchRequest.correlationId, mergedPartitionData, fetchRequest.versionId, delayTimeMs,
+          fetchContext.errorCode, fetchContext.sessionId)
         requestChannel.sendResponse(new RequestChannel.Response(request, new FetchResponseSend(request.connectionId, response)))
       }
 
@@ -1032,6 +1090,7 @@ class KafkaApis(val requestChannel: RequestChannel,
 
   def close() {
     quotas.shutdown()
+    fetchSessionCache.close()
     info("Shutdown complete.")
   }
 
@@ -22,7 +22,7 @@ import kafka.api.{ApiVersion, KAFKA_0_10_0_IV1}
 import kafka.cluster.EndPoint
 import kafka.consumer.ConsumerConfig
 import kafka.coordinator.OffsetConfig
-import kafka.log.LogConfig
+import kafka.log.{CleanerHashAlgorithmValidator, LogConfig}
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, Message, MessageSet}
 import kafka.utils.CoreUtils
 import org.apache.kafka.clients.CommonClientConfigs
@@ -51,6 +51,9 @@ object Defaults {
   val NumIoThreads = 8
   val BackgroundThreads = 10
   val QueuedMaxRequests = 500
+  val QueuedMaxControlPlaneRequests = 100
+  val QueuedMaxGroupCoordinationRequests = 500
+  val QueuedGroupCoordinationRequestsWeight = 4
 
   /************* Authorizer Configuration ***********/
   val AuthorizerClassName = ""
@@ -64,6 +67,7 @@ object Defaults {
   val MaxConnectionsPerIp: Int = Int.MaxValue
   val MaxConnectionsPerIpOverrides: String = ""
   val ConnectionsMaxIdleMs = 10 * 60 * 1000L
+  val MaxPipelinedRequestsPerConnection = 1
   val RequestTimeoutMs = 30000
 
   /** ********* Log Configuration ***********/
@@ -80,6 +84,7 @@ object Defaults {
   val Compact = "compact"
   val LogCleanupPolicy = Delete
   val LogCleanerThreads = 1
+  val LogCleanerThreadsPerLog = 1
   val LogCleanerIoMaxBytesPerSecond = Double.MaxValue
   val LogCleanerDedupeBufferSize = 128 * 1024 * 1024L
   val LogCleanerIoBufferSize = 512 * 1024
@@ -89,6 +94,7 @@ object Defaults {
   val LogCleanerEnable = true
   val LogCleanerDeleteRetentionMs = 24 * 60 * 60 * 1000L
   val LogCleanerMinCompactionLagMs = 0L
+  val LogCleanerHashAlgorithm = "MD5"
   val LogIndexSizeMaxBytes = 10 * 1024 * 1024
   val LogIndexIntervalBytes = 4096
   val LogFlushIntervalMessages = Long.MaxValue
@@ -100,7 +106,11 @@ object Defaults {
   lazy val LogMessageFormatVersion = InterBrokerProtocolVersion
   val LogMessageTimestampType = "CreateTime"
   val LogMessageTimestampDifferenceMaxMs = Long.MaxValue
+  val LogDownConversionCacheBytes = 32 * 1024 * 1024L
+  val LogColdReadLagBytes = 1024 * 1024 * 1024L
+  val LogColdReadAheadBytes = 0
   val NumRecoveryThreadsPerDataDir = 1
+  val NumRecoveryThreadsPerLog = 1
   val AutoCreateTopicsEnable = true
   val MinInSyncReplicas = 1
   val ThrottledReplicationRateLimit = Long.MaxValue
@@ -117,8 +127,10 @@ object Defaults {
   val ReplicaFetchMinBytes = 1
   val NumReplicaFetchers = 1
   val ReplicaFetchBackoffMs = 1000
+  val ReplicaFetcherRebalanceIntervalMs = 60000L
   val ReplicaHighWatermarkCheckpointIntervalMs = 5000L
   val FetchPurgatoryPurgeIntervalRequests = 1000
+  val MaxIncrementalFetchSessionCacheSlots = 1000
   val ProducerPurgatoryPurgeIntervalRequests = 1000
   val AutoLeaderRebalanceEnable = true
   val LeaderImbalancePerBrokerPercentage = 10
@@ -159,6 +171,9 @@ object Defaults {
   val DeleteTopicEnable = false
 
   val CompressionType = "producer"
+  val CompressionConversionDeferred = false
+  val LogCompressionConverterIoMaxBytesPerSecond = Double.MaxValue
+  val LogCompressionConverterBackoffMs = 15 * 1000
 
   /** ********* Kafka Metrics Configuration ***********/
   val MetricNumSamples = 2
@@ -212,6 +227,9 @@ object KafkaConfig {
   val NumIoThreadsProp = "num.io.threads"
   val BackgroundThreadsProp = "background.threads"
   val QueuedMaxRequestsProp = "queued.max.requests"
+  val QueuedMaxControlPlaneRequestsProp = "queued.max.control.plane.requests"
+  val QueuedMaxGroupCoordinationRequestsProp = "queued.max.group.coordination.requests"
+  val QueuedGroupCoordinationRequestsWeightProp = "queued.group.coordination.requests.weight"
   val RequestTimeoutMsProp = CommonClientConfigs.REQUEST_TIMEOUT_MS_CONFIG
   /************* Authorizer Configuration ***********/
   val AuthorizerClassNameProp = "authorizer.class.name"
@@ -228,6 +246,7 @@ object KafkaConfig {
   val MaxConnectionsPerIpProp = "max.connections.per.ip"
   val MaxConnectionsPerIpOverridesProp = "max.connections.per.ip.overrides"
   val ConnectionsMaxIdleMsProp = "connections.max.idle.ms"
+  val MaxPipelinedRequestsPerConnectionProp = "max.pipelined.requests.per.connection"
   /***************** rack configuration *************/
   val RackProp = "broker.rack"
   /** ********* Log Configuration ***********/
@@ -250,6 +269,7 @@ object KafkaConfig {
   val LogCleanupIntervalMsProp = "log.retention.check.interval.ms"
   val LogCleanupPolicyProp = "log.cleanup.policy"
   val LogCleanerThreadsProp = "log.cleaner.threads"
+  val LogCleanerThreadsPerLogProp = "log.cleaner.threads.per.log"
   val LogCleanerIoMaxBytesPerSecondProp = "log.cleaner.io.max.bytes.per.second"
   val LogCleanerDedupeBufferSizeProp = "log.cleaner.dedupe.buffer.size"
   val LogCleanerIoBufferSizeProp = "log.cleaner.io.buffer.size"
@@ -259,6 +279,7 @@ object KafkaConfig {
   val LogCleanerEnableProp = "log.cleaner.enable"
   val LogCleanerDeleteRetentionMsProp = "log.cleaner.delete.retention.ms"
   val LogCleanerMinCompactionLagMsProp = "log.cleaner.min.compaction.lag.ms"
+  val LogCleanerHashAlgorithmProp = "log.cleaner.hash.algorithm"
   val LogIndexSizeMaxBytesProp = "log.index.size.max.bytes"
   val LogIndexIntervalBytesProp = "log.index.interval.bytes"
   val LogFlushIntervalMessagesProp = "log.flush.interval.messages"
@@ -266,11 +287,16 @@ object KafkaConfig {
   val LogFlushSchedulerIntervalMsProp = "log.flush.scheduler.interval.ms"
   val LogFlushIntervalMsProp = "log.flush.interval.ms"
   val LogFlushOffsetCheckpointIntervalMsProp = "log.flush.offset.checkpoint.interval.ms"
+  val LogFlushGroupCommitWindowMsProp = "log.flush.group.commit.window.ms"
   val LogPreAllocateProp = "log.preallocate"
   val LogMessageFormatVersionProp = LogConfigPrefix + LogConfig.MessageFormatVersionProp
   val LogMessageTimestampTypeProp = LogConfigPrefix + LogConfig.MessageTimestampTypeProp
   val LogMessageTimestampDifferenceMaxMsProp = LogConfigPrefix + LogConfig.MessageTimestampDifferenceMaxMsProp
+  val LogDownConversionCacheBytesProp = "log.down.conversion.cache.bytes"
+  val LogColdReadLagBytesProp = "log.cold.read.lag.bytes"
+  val LogColdReadAheadBytesProp = "log.cold.read.ahead.bytes"
   val NumRecoveryThreadsPerDataDirProp = "num.recovery.threads.per.data.dir"
+  val NumRecoveryThreadsPerLogProp = "num.recovery.threads.per.log"
   val AutoCreateTopicsEnableProp = "auto.create.topics.enable"
   val MinInSyncReplicasProp = "min.insync.replicas"
   /** ********* Replication configuration ***********/
@@ -284,8 +310,10 @@ object KafkaConfig {
   val ReplicaFetchMinBytesProp = "replica.fetch.min.bytes"
   val ReplicaFetchBackoffMsProp = "replica.fetch.backoff.ms"
   val NumReplicaFetchersProp = "num.replica.fetchers"
+  val ReplicaFetcherRebalanceIntervalMsProp = "replica.fetcher.rebalance.interval.ms"
   val ReplicaHighWatermarkCheckpointIntervalMsProp = "replica.high.watermark.checkpoint.interval.ms"
   val FetchPurgatoryPurgeIntervalRequestsProp = "fetch.purgatory.purge.interval.requests"
+  val MaxIncrementalFetchSessionCacheSlotsProp = "max.incremental.fetch.session.cache.slots"
   val ProducerPurgatoryPurgeIntervalRequestsProp = "producer.purgatory.purge.interval.requests"
   val AutoLeaderRebalanceEnableProp = "auto.leader.rebalance.enable"
   val LeaderImbalancePerBrokerPercentageProp = "leader.imbalance.per.broker.percentage"
@@ -322,6 +350,10 @@ object KafkaConfig {
 
   val DeleteTopicEnableProp = "delete.topic.enable"
   val CompressionTypeProp = "compression.type"
+  val CompressionZstdDictionaryDirProp = CommonClientConfigs.COMPRESSION_ZSTD_DICTIONARY_DIR_CONFIG
+  val CompressionConversionDeferredProp = "compression.conversion.deferred"
+  val LogCompressionConverterIoMaxBytesPerSecondProp = "log.compression.converter.io.max.bytes.per.second"
+  val LogCompressionConverterBackoffMsProp = "log.compression.converter.backoff.ms"
 
   /** ********* Kafka Metrics Configuration ***********/
   val MetricSampleWindowMsProp = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_CONFIG
@@ -375,6 +407,12 @@ object KafkaConfig {
   val NumIoThreadsDoc = "The number of io threads that the server uses for carrying out network requests"
   val BackgroundThreadsDoc = "The number of threads to use for various background processing tasks"
   val QueuedMaxRequestsDoc = "The number of queued requests allowed before blocking the network threads"
+  val QueuedMaxControlPlaneRequestsDoc = "The number of queued requests from the controller allowed before blocking the network threads. " +
+    "These requests are queued separately and are always handled ahead of other requests"
+  val QueuedMaxGroupCoordinationRequestsDoc = "The number of queued group membership and offset requests allowed before blocking the network threads. " +
+    "These requests are queued separately and are handled ahead of produce, fetch and other requests"
+  val QueuedGroupCoordinationRequestsWeightDoc = "The number of group membership and offset requests that are handled ahead of a waiting " +
+    "produce, fetch or other request"
   val RequestTimeoutMsDoc = CommonClientConfigs.REQUEST_TIMEOUT_MS_DOC
   /************* Authorizer Configuration ***********/
   val AuthorizerClassNameDoc = "The authorizer class that should be used for authorization"
@@ -411,6 +449,11 @@ object KafkaConfig {
   val MaxConnectionsPerIpDoc = "The maximum number of connections we allow from each ip address"
   val MaxConnectionsPerIpOverridesDoc = "Per-ip or hostname overrides to the default maximum number of connections"
   val ConnectionsMaxIdleMsDoc = "Idle connections timeout: the server socket processor threads close the connections that idle more than this"
+  val MaxPipelinedRequestsPerConnectionDoc = "The maximum number of requests the server socket processor threads read from a connection " +
+    "before the responses to them have been sent. Requests from a connection are handled one at a time in the order they were sent, " +
+    "but a request is handled while the response to an earlier request waits on other brokers, so that clients sending several " +
+    "requests without waiting for responses, such as producers with max.in.flight.requests.per.connection greater than 1, are not " +
+    "limited to one request per round trip. Responses are always sent in the order of the requests"
   /************* Rack Configuration **************/
   val RackDoc = "Rack of the broker. This will be used in rack aware replication assignment for fault tolerance. Examples: `RACK1`, `us-east-1d`"
   /** ********* Log Configuration ***********/
@@ -432,6 +475,8 @@ object KafkaConfig {
   val LogCleanupIntervalMsDoc = "The frequency in milliseconds that the log cleaner checks whether any log is eligible for deletion"
   val LogCleanupPolicyDoc = "The default cleanup policy for segments beyond the retention window. A comma separated list of valid policies. Valid policies are: \"delete\" and \"compact\""
   val LogCleanerThreadsDoc = "The number of background threads to use for log cleaning"
+  val LogCleanerThreadsPerLogDoc = "The number of threads each log cleaner thread uses to recopy the segments of the log it cleans. " +
+  "The threads share the dedupe buffer, the I/O buffer space and the I/O throttle of the cleaner thread."
   val LogCleanerIoMaxBytesPerSecondDoc = "The log cleaner will be throttled so that the sum of its read and write i/o will be less than this value on average"
   val LogCleanerDedupeBufferSizeDoc = "The total memory used for log deduplication across all cleaner threads"
   val LogCleanerIoBufferSizeDoc = "The total memory used for log cleaner I/O buffers across all cleaner threads"
@@ -442,6 +487,11 @@ object KafkaConfig {
   val LogCleanerEnableDoc = "Enable the log cleaner process to run on the server? Should be enabled if using any topics with a cleanup.policy=compact including the internal offsets topic. If disabled those topics will not be compacted and continually grow in size."
   val LogCleanerDeleteRetentionMsDoc = "How long are delete records retained?"
   val LogCleanerMinCompactionLagMsDoc = "The minimum time a message will remain uncompacted in the log. Only applicable for logs that are being compacted."
+  val LogCleanerHashAlgorithmDoc = "The hash used by the log cleaner to compare keys when deduplicating the log. MURMUR64 keeps a 64 bit " +
+  "non-cryptographic fingerprint of each key in direct memory, which fits more keys in the dedupe buffer and is cheaper to compute, " +
+  "the JVM must allow log.cleaner.dedupe.buffer.size of direct memory for it. Two keys with the same fingerprint are taken as the same key, so a " +
+  "collision makes the cleaner delete the live records of one of them. The odds of any collision in a cleaning are about 3% for a billion keys and " +
+  "about 12% for 2^31 keys. Any other value is a message digest algorithm such as MD5 or SHA-1."
   val LogIndexSizeMaxBytesDoc = "The maximum size in bytes of the offset index"
   val LogIndexIntervalBytesDoc = "The interval with which we add an entry to the offset index"
   val LogFlushIntervalMessagesDoc = "The number of messages accumulated on a log partition before messages are flushed to disk "
@@ -449,6 +499,9 @@ object KafkaConfig {
   val LogFlushSchedulerIntervalMsDoc = "The frequency in ms that the log flusher checks whether any log needs to be flushed to disk"
   val LogFlushIntervalMsDoc = "The maximum time in ms that a message in any topic is kept in memory before flushed to disk. If not set, the value in " + LogFlushSchedulerIntervalMsProp + " is used"
   val LogFlushOffsetCheckpointIntervalMsDoc = "The frequency with which we update the persistent record of the last flush which acts as the log recovery point"
+  val LogFlushGroupCommitWindowMsDoc = "If set, logs that reach " + LogFlushIntervalMessagesProp + " are flushed together with the other logs " +
+    "of their data directory that need a flush within this many ms, by one thread per data directory, instead of each append flushing " +
+    "its own log. This bounds the number of flushes by the number of disks rather than the number of partitions"
   val LogPreAllocateEnableDoc = "Should pre allocate file when create new segment? If you are using Kafka on Windows, you probably need to set it to true."
   val LogMessageFormatVersionDoc = "Specify the message format version the broker will use to append messages to the logs. The value should be a valid ApiVersion. " +
     "Some examples are: 0.8.2, 0.9.0.0, 0.10.0, check ApiVersion for more details. By setting a particular message format version, the " +
@@ -461,7 +514,16 @@ object KafkaConfig {
   val LogMessageTimestampDifferenceMaxMsDoc = "The maximum difference allowed between the timestamp when a broker receives " +
     "a message and the timestamp specified in the message. If log.message.timestamp.type=CreateTime, a message will be rejected " +
     "if the difference in timestamp exceeds this threshold. This configuration is ignored if log.message.timestamp.type=LogAppendTime."
+  val LogColdReadLagBytesDoc = "A fetch that reads from more than this many bytes behind the end of a log is a cold read, which is likely " +
+    "to be served from disk rather than from the page cache. Cold reads are counted by the ColdReadsPerSec and ColdReadBytesPerSec metrics of the log"
+  val LogColdReadAheadBytesDoc = "The number of bytes following a cold read, see " + LogColdReadLagBytesProp + ", to read into the page cache in " +
+    "the background so that the next fetch of a lagging consumer or follower does not block on the disk. 0 disables the read-ahead"
+  val LogDownConversionCacheBytesDoc = "The maximum total size of compressed messages converted to an older message format " +
+    "that are kept in memory for fetch requests of older versions, so that consumers fetching the same data do not each convert it again. " +
+    "Set it to 0 to disable the cache."
   val NumRecoveryThreadsPerDataDirDoc = "The number of threads per data directory to be used for log recovery at startup and flushing at shutdown"
+  val NumRecoveryThreadsPerLogDoc = "The number of threads used to recover the unflushed segments of each log at startup after an unclean shutdown. " +
+    "Up to " + NumRecoveryThreadsPerDataDirProp + " logs of each data directory are recovered at once, so a data directory may use up to the product of the two"
   val AutoCreateTopicsEnableDoc = "Enable auto creation of topic on the server"
   val MinInSyncReplicasDoc = "When a producer sets acks to \"all\" (or \"-1\"), " +
     "min.insync.replicas specifies the minimum number of replicas that must acknowledge " +
@@ -487,8 +549,13 @@ object KafkaConfig {
   val NumReplicaFetchersDoc = "Number of fetcher threads used to replicate messages from a source broker. " +
   "Increasing this value can increase the degree of I/O parallelism in the follower broker."
   val ReplicaFetchBackoffMsDoc = "The amount of time to sleep when fetch partition error occurs."
+  val ReplicaFetcherRebalanceIntervalMsDoc = "The frequency with which the partitions fetched from a source broker are " +
+  "moved between its fetcher threads to even out the bytes they fetch, when there is more than one. 0 disables it."
   val ReplicaHighWatermarkCheckpointIntervalMsDoc = "The frequency with which the high watermark is saved out to disk"
   val FetchPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the fetch request purgatory"
+  val MaxIncrementalFetchSessionCacheSlotsDoc = "The maximum number of fetch sessions the broker caches. A fetch session lets a follower " +
+  "send only the partitions whose fetch offset changed in its fetch requests, and receive only the partitions with new data in the " +
+  "responses. 0 disables fetch sessions."
   val ProducerPurgatoryPurgeIntervalRequestsDoc = "The purge interval (in number of requests) of the producer request purgatory"
   val AutoLeaderRebalanceEnableDoc = "Enables auto leader balancing. A background thread checks and triggers leader balance if required at regular intervals"
   val LeaderImbalancePerBrokerPercentageDoc = "The ratio of leader imbalance allowed per broker. The controller would trigger a leader balance if it goes above this value per broker. The value is specified in percentage."
@@ -534,8 +601,16 @@ object KafkaConfig {
 
   val DeleteTopicEnableDoc = "Enables delete topic. Delete topic through the admin tool will have no effect if this config is turned off"
   val CompressionTypeDoc = "Specify the final compression type for a given topic. This configuration accepts the standard compression codecs " +
-  "('gzip', 'snappy', 'lz4'). It additionally accepts 'uncompressed' which is equivalent to no compression; and " +
+  "('gzip', 'snappy', 'lz4', 'zstd'). It additionally accepts 'uncompressed' which is equivalent to no compression; and " +
   "'producer' which means retain the original compression codec set by the producer."
+  val CompressionZstdDictionaryDirDoc = CommonClientConfigs.COMPRESSION_ZSTD_DICTIONARY_DIR_DOC + " Brokers only use the " +
+  "dictionaries to decompress, and compress without a dictionary when the topic's compression type is 'zstd'."
+  val CompressionConversionDeferredDoc = "Append messages whose codec differs from the topic's compression type as they " +
+  "were sent, and convert them to the compression type in the background once their segment is no longer active. This " +
+  "saves the request handler threads from decompressing and recompressing the messages, at the cost of fetches seeing " +
+  "the producer's codec until the conversion. It has no effect on compacted topics."
+  val LogCompressionConverterIoMaxBytesPerSecondDoc = "The compression converter will be throttled so that the sum of its read and write i/o will be less than this value on average"
+  val LogCompressionConverterBackoffMsDoc = "The amount of time to sleep when there are no segments to convert to their topic's compression type"
 
   /** ********* Kafka Metrics Configuration ***********/
   val MetricSampleWindowMsDoc = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_DOC
@@ -597,6 +672,9 @@ object KafkaConfig {
       .define(NumIoThreadsProp, INT, Defaults.NumIoThreads, atLeast(1), HIGH, NumIoThreadsDoc)
       .define(BackgroundThreadsProp, INT, Defaults.BackgroundThreads, atLeast(1), HIGH, BackgroundThreadsDoc)
       .define(QueuedMaxRequestsProp, INT, Defaults.QueuedMaxRequests, atLeast(1), HIGH, QueuedMaxRequestsDoc)
+      .define(QueuedMaxControlPlaneRequestsProp, INT, Defaults.QueuedMaxControlPlaneRequests, atLeast(1), LOW, QueuedMaxControlPlaneRequestsDoc)
+      .define(QueuedMaxGroupCoordinationRequestsProp, INT, Defaults.QueuedMaxGroupCoordinationRequests, atLeast(1), LOW, QueuedMaxGroupCoordinationRequestsDoc)
+      .define(QueuedGroupCoordinationRequestsWeightProp, INT, Defaults.QueuedGroupCoordinationRequestsWeight, atLeast(1), LOW, QueuedGroupCoordinationRequestsWeightDoc)
       .define(RequestTimeoutMsProp, INT, Defaults.RequestTimeoutMs, HIGH, RequestTimeoutMsDoc)
 
       /************* Authorizer Configuration ***********/
@@ -615,6 +693,7 @@ object KafkaConfig {
       .define(MaxConnectionsPerIpProp, INT, Defaults.MaxConnectionsPerIp, atLeast(1), MEDIUM, MaxConnectionsPerIpDoc)
       .define(MaxConnectionsPerIpOverridesProp, STRING, Defaults.MaxConnectionsPerIpOverrides, MEDIUM, MaxConnectionsPerIpOverridesDoc)
       .define(ConnectionsMaxIdleMsProp, LONG, Defaults.ConnectionsMaxIdleMs, MEDIUM, ConnectionsMaxIdleMsDoc)
+      .define(MaxPipelinedRequestsPerConnectionProp, INT, Defaults.MaxPipelinedRequestsPerConnection, atLeast(1), MEDIUM, MaxPipelinedRequestsPerConnectionDoc)
 
       /************ Rack Configuration ******************/
       .define(RackProp, STRING, null, MEDIUM, RackDoc)
@@ -639,6 +718,7 @@ object KafkaConfig {
       .define(LogCleanupIntervalMsProp, LONG, Defaults.LogCleanupIntervalMs, atLeast(1), MEDIUM, LogCleanupIntervalMsDoc)
       .define(LogCleanupPolicyProp, LIST, Defaults.LogCleanupPolicy, ValidList.in(Defaults.Compact, Defaults.Delete), MEDIUM, LogCleanupPolicyDoc)
       .define(LogCleanerThreadsProp, INT, Defaults.LogCleanerThreads, atLeast(0), MEDIUM, LogCleanerThreadsDoc)
+      .define(LogCleanerThreadsPerLogProp, INT, Defaults.LogCleanerThreadsPerLog, atLeast(1), MEDIUM, LogCleanerThreadsPerLogDoc)
       .define(LogCleanerIoMaxBytesPerSecondProp, DOUBLE, Defaults.LogCleanerIoMaxBytesPerSecond, MEDIUM, LogCleanerIoMaxBytesPerSecondDoc)
       .define(LogCleanerDedupeBufferSizeProp, LONG, Defaults.LogCleanerDedupeBufferSize, MEDIUM, LogCleanerDedupeBufferSizeDoc)
       .define(LogCleanerIoBufferSizeProp, INT, Defaults.LogCleanerIoBufferSize, atLeast(0), MEDIUM, LogCleanerIoBufferSizeDoc)
@@ -648,6 +728,7 @@ object KafkaConfig {
       .define(LogCleanerEnableProp, BOOLEAN, Defaults.LogCleanerEnable, MEDIUM, LogCleanerEnableDoc)
       .define(LogCleanerDeleteRetentionMsProp, LONG, Defaults.LogCleanerDeleteRetentionMs, MEDIUM, LogCleanerDeleteRetentionMsDoc)
       .define(LogCleanerMinCompactionLagMsProp, LONG, Defaults.LogCleanerMinCompactionLagMs, MEDIUM, LogCleanerMinCompactionLagMsDoc)
+      .define(LogCleanerHashAlgorithmProp, STRING, Defaults.LogCleanerHashAlgorithm, CleanerHashAlgorithmValidator, LOW, LogCleanerHashAlgorithmDoc)
       .define(LogIndexSizeMaxBytesProp, INT, Defaults.LogIndexSizeMaxBytes, atLeast(4), MEDIUM, LogIndexSizeMaxBytesDoc)
       .define(LogIndexIntervalBytesProp, INT, Defaults.LogIndexIntervalBytes, atLeast(0), MEDIUM, LogIndexIntervalBytesDoc)
       .define(LogFlushIntervalMessagesProp, LONG, Defaults.LogFlushIntervalMessages, atLeast(1), HIGH, LogFlushIntervalMessagesDoc)
@@ -655,13 +736,18 @@ object KafkaConfig {
       .define(LogFlushSchedulerIntervalMsProp, LONG, Defaults.LogFlushSchedulerIntervalMs, HIGH, LogFlushSchedulerIntervalMsDoc)
       .define(LogFlushIntervalMsProp, LONG, null, HIGH, LogFlushIntervalMsDoc)
       .define(LogFlushOffsetCheckpointIntervalMsProp, INT, Defaults.LogFlushOffsetCheckpointIntervalMs, atLeast(0), HIGH, LogFlushOffsetCheckpointIntervalMsDoc)
+      .define(LogFlushGroupCommitWindowMsProp, LONG, null, MEDIUM, LogFlushGroupCommitWindowMsDoc)
       .define(LogPreAllocateProp, BOOLEAN, Defaults.LogPreAllocateEnable, MEDIUM, LogPreAllocateEnableDoc)
       .define(NumRecoveryThreadsPerDataDirProp, INT, Defaults.NumRecoveryThreadsPerDataDir, atLeast(1), HIGH, NumRecoveryThreadsPerDataDirDoc)
+      .define(NumRecoveryThreadsPerLogProp, INT, Defaults.NumRecoveryThreadsPerLog, atLeast(1), MEDIUM, NumRecoveryThreadsPerLogDoc)
       .define(AutoCreateTopicsEnableProp, BOOLEAN, Defaults.AutoCreateTopicsEnable, HIGH, AutoCreateTopicsEnableDoc)
       .define(MinInSyncReplicasProp, INT, Defaults.MinInSyncReplicas, atLeast(1), HIGH, MinInSyncReplicasDoc)
       .define(LogMessageFormatVersionProp, STRING, Defaults.LogMessageFormatVersion, MEDIUM, LogMessageFormatVersionDoc)
       .define(LogMessageTimestampTypeProp, STRING, Defaults.LogMessageTimestampType, in("CreateTime", "LogAppendTime"), MEDIUM, LogMessageTimestampTypeDoc)
       .define(LogMessageTimestampDifferenceMaxMsProp, LONG, Defaults.LogMessageTimestampDifferenceMaxMs, atLeast(0), MEDIUM, LogMessageTimestampDifferenceMaxMsDoc)
+      .define(LogDownConversionCacheBytesProp, LONG, Defaults.LogDownConversionCacheBytes, atLeast(0), LOW, LogDownConversionCacheBytesDoc)
+      .define(LogColdReadLagBytesProp, LONG, Defaults.LogColdReadLagBytes, atLeast(0), LOW, LogColdReadLagBytesDoc)
+      .define(LogColdReadAheadBytesProp, INT, Defaults.LogColdReadAheadBytes, atLeast(0), LOW, LogColdReadAheadBytesDoc)
 
       /** ********* Replication configuration ***********/
       .define(ControllerSocketTimeoutMsProp, INT, Defaults.ControllerSocketTimeoutMs, MEDIUM, ControllerSocketTimeoutMsDoc)
@@ -674,8 +760,10 @@ object KafkaConfig {
       .define(ReplicaFetchBackoffMsProp, INT, Defaults.ReplicaFetchBackoffMs, atLeast(0), MEDIUM, ReplicaFetchBackoffMsDoc)
       .define(ReplicaFetchMinBytesProp, INT, Defaults.ReplicaFetchMinBytes, HIGH, ReplicaFetchMinBytesDoc)
       .define(NumReplicaFetchersProp, INT, Defaults.NumReplicaFetchers, HIGH, NumReplicaFetchersDoc)
+      .define(ReplicaFetcherRebalanceIntervalMsProp, LONG, Defaults.ReplicaFetcherRebalanceIntervalMs, atLeast(0), LOW, ReplicaFetcherRebalanceIntervalMsDoc)
       .define(ReplicaHighWatermarkCheckpointIntervalMsProp, LONG, Defaults.ReplicaHighWatermarkCheckpointIntervalMs, HIGH, ReplicaHighWatermarkCheckpointIntervalMsDoc)
       .define(FetchPurgatoryPurgeIntervalRequestsProp, INT, Defaults.FetchPurgatoryPurgeIntervalRequests, MEDIUM, FetchPurgatoryPurgeIntervalRequestsDoc)
+      .define(MaxIncrementalFetchSessionCacheSlotsProp, INT, Defaults.MaxIncrementalFetchSessionCacheSlots, atLeast(0), MEDIUM, MaxIncrementalFetchSessionCacheSlotsDoc)
       .define(ProducerPurgatoryPurgeIntervalRequestsProp, INT, Defaults.ProducerPurgatoryPurgeIntervalRequests, MEDIUM, ProducerPurgatoryPurgeIntervalRequestsDoc)
       .define(AutoLeaderRebalanceEnableProp, BOOLEAN, Defaults.AutoLeaderRebalanceEnable, HIGH, AutoLeaderRebalanceEnableDoc)
       .define(LeaderImbalancePerBrokerPercentageProp, INT, Defaults.LeaderImbalancePerBrokerPercentage, HIGH, LeaderImbalancePerBrokerPercentageDoc)
@@ -706,6 +794,10 @@ object KafkaConfig {
       .define(OffsetCommitRequiredAcksProp, SHORT, Defaults.OffsetCommitRequiredAcks, HIGH, OffsetCommitRequiredAcksDoc)
       .define(DeleteTopicEnableProp, BOOLEAN, Defaults.DeleteTopicEnable, HIGH, DeleteTopicEnableDoc)
       .define(CompressionTypeProp, STRING, Defaults.CompressionType, HIGH, CompressionTypeDoc)
+      .define(CompressionZstdDictionaryDirProp, STRING, null, LOW, CompressionZstdDictionaryDirDoc)
+      .define(CompressionConversionDeferredProp, BOOLEAN, Defaults.CompressionConversionDeferred, MEDIUM, CompressionConversionDeferredDoc)
+      .define(LogCompressionConverterIoMaxBytesPerSecondProp, DOUBLE, Defaults.LogCompressionConverterIoMaxBytesPerSecond, MEDIUM, LogCompressionConverterIoMaxBytesPerSecondDoc)
+      .define(LogCompressionConverterBackoffMsProp, LONG, Defaults.LogCompressionConverterBackoffMs, atLeast(0), MEDIUM, LogCompressionConverterBackoffMsDoc)
 
       /** ********* Kafka Metrics Configuration ***********/
       .define(MetricNumSamplesProp, INT, Defaults.MetricNumSamples, atLeast(1), LOW, MetricNumSamplesDoc)
@@ -806,6 +898,9 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val numNetworkThreads = getInt(KafkaConfig.NumNetworkThreadsProp)
   val backgroundThreads = getInt(KafkaConfig.BackgroundThreadsProp)
   val queuedMaxRequests = getInt(KafkaConfig.QueuedMaxRequestsProp)
+  val queuedMaxControlPlaneRequests = getInt(KafkaConfig.QueuedMaxControlPlaneRequestsProp)
+  val queuedMaxGroupCoordinationRequests = getInt(KafkaConfig.QueuedMaxGroupCoordinationRequestsProp)
+  val queuedGroupCoordinationRequestsWeight = getInt(KafkaConfig.QueuedGroupCoordinationRequestsWeightProp)
   val numIoThreads = getInt(KafkaConfig.NumIoThreadsProp)
   val messageMaxBytes = getInt(KafkaConfig.MessageMaxBytesProp)
   val requestTimeoutMs = getInt(KafkaConfig.RequestTimeoutMsProp)
@@ -826,6 +921,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val maxConnectionsPerIpOverrides: Map[String, Int] =
     getMap(KafkaConfig.MaxConnectionsPerIpOverridesProp, getString(KafkaConfig.MaxConnectionsPerIpOverridesProp)).map { case (k, v) => (k, v.toInt)}
   val connectionsMaxIdleMs = getLong(KafkaConfig.ConnectionsMaxIdleMsProp)
+  val maxPipelinedRequestsPerConnection = getInt(KafkaConfig.MaxPipelinedRequestsPerConnectionProp)
 
   /***************** rack configuration **************/
   val rack = Option(getString(KafkaConfig.RackProp))
@@ -837,7 +933,9 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logSegmentBytes = getInt(KafkaConfig.LogSegmentBytesProp)
   val logFlushIntervalMessages = getLong(KafkaConfig.LogFlushIntervalMessagesProp)
   val logCleanerThreads = getInt(KafkaConfig.LogCleanerThreadsProp)
+  val logCleanerThreadsPerLog = getInt(KafkaConfig.LogCleanerThreadsPerLogProp)
   val numRecoveryThreadsPerDataDir = getInt(KafkaConfig.NumRecoveryThreadsPerDataDirProp)
+  val numRecoveryThreadsPerLog = getInt(KafkaConfig.NumRecoveryThreadsPerLogProp)
   val logFlushSchedulerIntervalMs = getLong(KafkaConfig.LogFlushSchedulerIntervalMsProp)
   val logFlushOffsetCheckpointIntervalMs = getInt(KafkaConfig.LogFlushOffsetCheckpointIntervalMsProp).toLong
   val logCleanupIntervalMs = getLong(KafkaConfig.LogCleanupIntervalMsProp)
@@ -851,6 +949,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logCleanerIoMaxBytesPerSecond = getDouble(KafkaConfig.LogCleanerIoMaxBytesPerSecondProp)
   val logCleanerDeleteRetentionMs = getLong(KafkaConfig.LogCleanerDeleteRetentionMsProp)
   val logCleanerMinCompactionLagMs = getLong(KafkaConfig.LogCleanerMinCompactionLagMsProp)
+  val logCleanerHashAlgorithm = getString(KafkaConfig.LogCleanerHashAlgorithmProp)
   val logCleanerBackoffMs = getLong(KafkaConfig.LogCleanerBackoffMsProp)
   val logCleanerMinCleanRatio = getDouble(KafkaConfig.LogCleanerMinCleanRatioProp)
   val logCleanerEnable = getBoolean(KafkaConfig.LogCleanerEnableProp)
@@ -860,6 +959,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logRollTimeMillis: java.lang.Long = Option(getLong(KafkaConfig.LogRollTimeMillisProp)).getOrElse(60 * 60 * 1000L * getInt(KafkaConfig.LogRollTimeHoursProp))
   val logRollTimeJitterMillis: java.lang.Long = Option(getLong(KafkaConfig.LogRollTimeJitterMillisProp)).getOrElse(60 * 60 * 1000L * getInt(KafkaConfig.LogRollTimeJitterHoursProp))
   val logFlushIntervalMs: java.lang.Long = Option(getLong(KafkaConfig.LogFlushIntervalMsProp)).getOrElse(getLong(KafkaConfig.LogFlushSchedulerIntervalMsProp))
+  val logFlushGroupCommitWindowMs: Option[Long] = Option(getLong(KafkaConfig.LogFlushGroupCommitWindowMsProp)).map(_.longValue)
   val logRetentionTimeMillis = getLogRetentionTimeMillis
   val minInSyncReplicas = getInt(KafkaConfig.MinInSyncReplicasProp)
   val logPreAllocateEnable: java.lang.Boolean = getBoolean(KafkaConfig.LogPreAllocateProp)
@@ -869,6 +969,9 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val logMessageFormatVersion = ApiVersion(logMessageFormatVersionString)
   val logMessageTimestampType = TimestampType.forName(getString(KafkaConfig.LogMessageTimestampTypeProp))
   val logMessageTimestampDifferenceMaxMs = getLong(KafkaConfig.LogMessageTimestampDifferenceMaxMsProp)
+  val logDownConversionCacheBytes = getLong(KafkaConfig.LogDownConversionCacheBytesProp)
+  val logColdReadLagBytes = getLong(KafkaConfig.LogColdReadLagBytesProp)
+  val logColdReadAheadBytes = getInt(KafkaConfig.LogColdReadAheadBytesProp)
 
   /** ********* Replication configuration ***********/
   val controllerSocketTimeoutMs: Int = getInt(KafkaConfig.ControllerSocketTimeoutMsProp)
@@ -881,8 +984,10 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
   val replicaFetchMinBytes = getInt(KafkaConfig.ReplicaFetchMinBytesProp)
   val replicaFetchBackoffMs = getInt(KafkaConfig.ReplicaFetchBackoffMsProp)
   val numReplicaFetchers = getInt(KafkaConfig.NumReplicaFetchersProp)
+  val replicaFetcherRebalanceIntervalMs = getLong(KafkaConfig.ReplicaFetcherRebalanceIntervalMsProp)
   val replicaHighWatermarkCheckpointIntervalMs = getLong(KafkaConfig.ReplicaHighWatermarkCheckpointIntervalMsProp)
   val fetchPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.FetchPurgatoryPurgeIntervalRequestsProp)
+  val maxIncrementalFetchSessionCacheSlots = getInt(KafkaConfig.MaxIncrementalFetchSessionCacheSlotsProp)
   val producerPurgatoryPurgeIntervalRequests = getInt(KafkaConfig.ProducerPurgatoryPurgeIntervalRequestsProp)
   val autoLeaderRebalanceEnable = getBoolean(KafkaConfig.AutoLeaderRebalanceEnableProp)
   val leaderImbalancePerBrokerPercentage = getInt(KafkaConfig.LeaderImbalancePerBrokerPercentageProp)
@@ -956,6 +1061,10 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean) extends Abstra
 
   val deleteTopicEnable = getBoolean(KafkaConfig.DeleteTopicEnableProp)
   val compressionType = getString(KafkaConfig.CompressionTypeProp)
+  val compressionZstdDictionaryDir = Option(getString(KafkaConfig.CompressionZstdDictionaryDirProp))
+  val compressionConversionDeferred: java.lang.Boolean = getBoolean(KafkaConfig.CompressionConversionDeferredProp)
+  val logCompressionConverterIoMaxBytesPerSecond = getDouble(KafkaConfig.LogCompressionConverterIoMaxBytesPerSecondProp)
+  val logCompressionConverterBackoffMs = getLong(KafkaConfig.LogCompressionConverterBackoffMsProp)
 
   val listeners = getListeners
   val advertisedListeners = getAdvertisedListeners
@@ -57,7 +57,8 @@ class KafkaRequestHandler(id: Int,
         }
         req.requestDequeueTimeMs = SystemTime.milliseconds
         trace("Kafka request handler %d on broker %d handling request %s".format(id, brokerId, req))
-        apis.handle(req)
+        try apis.handle(req)
+        finally requestChannel.requestHandled(req)
       } catch {
         case e: Throwable => error("Exception when handling request", e)
       }
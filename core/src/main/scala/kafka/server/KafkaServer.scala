@@ -24,6 +24,7 @@ import kafka.admin._
 import kafka.api.KAFKA_0_9_0
 import kafka.log.LogConfig
 import kafka.log.CleanerConfig
+import kafka.log.CompressionConverterConfig
 import kafka.log.LogManager
 import java.util.concurrent._
 import atomic.{AtomicInteger, AtomicBoolean}
@@ -36,6 +37,7 @@ import org.apache.kafka.common.Node
 import org.apache.kafka.common.metrics._
 import org.apache.kafka.common.network.{LoginType, Selectable, ChannelBuilders, NetworkReceive, Selector, Mode}
 import org.apache.kafka.common.protocol.{Errors, ApiKeys, SecurityProtocol}
+import org.apache.kafka.common.record.ZstdDictionary
 import org.apache.kafka.common.metrics.{JmxReporter, Metrics}
 import org.apache.kafka.common.requests.{ControlledShutdownResponse, ControlledShutdownRequest, RequestSend}
 import org.apache.kafka.common.security.JaasUtils
@@ -74,6 +76,7 @@ object KafkaServer {
     logProps.put(LogConfig.CleanupPolicyProp, kafkaConfig.logCleanupPolicy)
     logProps.put(LogConfig.MinInSyncReplicasProp, kafkaConfig.minInSyncReplicas)
     logProps.put(LogConfig.CompressionTypeProp, kafkaConfig.compressionType)
+    logProps.put(LogConfig.CompressionConversionDeferredProp, kafkaConfig.compressionConversionDeferred)
     logProps.put(LogConfig.UncleanLeaderElectionEnableProp, kafkaConfig.uncleanLeaderElectionEnable)
     logProps.put(LogConfig.PreAllocateEnableProp, kafkaConfig.logPreAllocateEnable)
     logProps.put(LogConfig.MessageFormatVersionProp, kafkaConfig.logMessageFormatVersion.version)
@@ -180,6 +183,9 @@ class KafkaServer(val config: KafkaConfig, time: Time = SystemTime, threadNamePr
         /* start scheduler */
         kafkaScheduler.startup()
 
+        /* register the zstd dictionaries, so that messages compressed with them can be validated */
+        config.compressionZstdDictionaryDir.foreach(ZstdDictionary.loadDirectory)
+
         /* setup zookeeper */
         zkUtils = initZk()
 
@@ -608,13 +614,17 @@ class KafkaServer(val config: KafkaConfig, time: Time = SystemTime, threadNamePr
     }
     // read the log configurations from zookeeper
     val cleanerConfig = CleanerConfig(numThreads = config.logCleanerThreads,
+                                      numThreadsPerLog = config.logCleanerThreadsPerLog,
                                       dedupeBufferSize = config.logCleanerDedupeBufferSize,
                                       dedupeBufferLoadFactor = config.logCleanerDedupeBufferLoadFactor,
                                       ioBufferSize = config.logCleanerIoBufferSize,
                                       maxMessageSize = config.messageMaxBytes,
                                       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
                                       backOffMs = config.logCleanerBackoffMs,
-                                      enableCleaner = config.logCleanerEnable)
+                                      enableCleaner = config.logCleanerEnable,
+                                      hashAlgorithm = config.logCleanerHashAlgorithm)
+    val compressionConverterConfig = CompressionConverterConfig(maxIoBytesPerSecond = config.logCompressionConverterIoMaxBytesPerSecond,
+                                                                backOffMs = config.logCompressionConverterBackoffMs)
     new LogManager(logDirs = config.logDirs.map(new File(_)).toArray,
                    topicConfigs = configs,
                    defaultConfig = defaultLogConfig,
@@ -625,7 +635,10 @@ class KafkaServer(val config: KafkaConfig, time: Time = SystemTime, threadNamePr
                    retentionCheckMs = config.logCleanupIntervalMs,
                    scheduler = kafkaScheduler,
                    brokerState = brokerState,
-                   time = time)
+                   time = time,
+                   compressionConverterConfig = compressionConverterConfig,
+                   groupCommitWindowMs = config.logFlushGroupCommitWindowMs,
+                   recoveryThreadsPerLog = config.numRecoveryThreadsPerLog)
   }
 
   /**
@@ -23,7 +23,7 @@ import kafka.admin.AdminUtils
 import kafka.cluster.BrokerEndPoint
 import kafka.log.LogConfig
 import kafka.message.ByteBufferMessageSet
-import kafka.api.{KAFKA_0_10_0_IV0, KAFKA_0_9_0}
+import kafka.api.{KAFKA_0_10_0_IV0, KAFKA_0_10_1_IV1, KAFKA_0_10_1_IV2, KAFKA_0_9_0}
 import kafka.common.{KafkaStorageException, TopicAndPartition}
 import ReplicaFetcherThread._
 
@@ -57,7 +57,9 @@ class ReplicaFetcherThread(name: String,
   type PD = PartitionData
 
   private val fetchRequestVersion: Short =
-    if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_0_IV0) 2
+    if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_1_IV2) 4
+    else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_1_IV1) 3
+    else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_0_IV0) 2
     else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_9_0) 1
     else 0
   private val socketTimeout: Int = brokerConfig.replicaSocketTimeoutMs
@@ -70,6 +72,11 @@ class ReplicaFetcherThread(name: String,
 
   private val sourceNode = new Node(sourceBroker.id, sourceBroker.host, sourceBroker.port)
 
+  // fetch requests in a fetch session only send the partitions whose fetch offset changed
+  private val fetchSessionHandler =
+    if (fetchRequestVersion >= 3) Some(new FetchSessionHandler(clientId, sourceBroker.id))
+    else None
+
   // we need to include both the broker id and the fetcher id
   // as the metrics tag to avoid metric name conflicts with
   // more than one fetcher thread to the same broker
@@ -123,7 +130,7 @@ class ReplicaFetcherThread(name: String,
       if (logger.isTraceEnabled)
         trace("Follower %d has replica log end offset %d for partition %s. Received %d messages and leader hw %d"
           .format(replica.brokerId, replica.logEndOffset.messageOffset, topicAndPartition, messageSet.sizeInBytes, partitionData.highWatermark))
-      replica.log.get.append(messageSet, assignOffsets = false)
+      replica.log.get.appendAsFollower(messageSet)
       if (logger.isTraceEnabled)
         trace("Follower %d has replica log end offset %d after appending %d bytes of messages for partition %s"
           .format(replica.brokerId, replica.logEndOffset.messageOffset, messageSet.sizeInBytes, topicAndPartition))
@@ -229,10 +236,20 @@ class ReplicaFetcherThread(name: String,
   }
 
   protected def fetch(fetchRequest: FetchRequest): Map[TopicAndPartition, PartitionData] = {
-    val clientResponse = sendRequest(ApiKeys.FETCH, Some(fetchRequestVersion), fetchRequest.underlying)
-    new FetchResponse(clientResponse.responseBody).responseData.asScala.map { case (key, value) =>
-      TopicAndPartition(key.topic, key.partition) -> new PartitionData(value)
-    }
+    val clientResponse =
+      try sendRequest(ApiKeys.FETCH, Some(fetchRequestVersion), fetchRequest.underlying)
+      catch {
+        case e: Throwable =>
+          fetchSessionHandler.foreach(_.handleError())
+          throw e
+      }
+    val fetchResponse = new FetchResponse(clientResponse.responseBody)
+    if (!fetchSessionHandler.forall(_.handleResponse(fetchResponse)))
+      Map.empty
+    else
+      fetchResponse.responseData.asScala.map { case (key, value) =>
+        TopicAndPartition(key.topic, key.partition) -> new PartitionData(value)
+      }
   }
 
   private def sendRequest(apiKey: ApiKeys, apiVersion: Option[Short], request: AbstractRequest): ClientResponse = {
@@ -276,23 +293,40 @@ class ReplicaFetcherThread(name: String,
       if (partitionFetchState.isActive && !(quota.isThrottled(partition) && quotaExceeded))
         requestMap(new TopicPartition(partition.topic, partition.partition)) = new JFetchRequest.PartitionData(partitionFetchState.offset, fetchSize)
     }
-    new FetchRequest(new JFetchRequest(replicaId, maxWait, minBytes, requestMap.asJava))
+    // an empty request is not sent, so it must not change the session
+    val underlying = fetchSessionHandler match {
+      case Some(handler) if requestMap.nonEmpty =>
+        val sessionData = handler.build(requestMap.toMap)
+        new JFetchRequest(fetchRequestVersion, replicaId, maxWait, minBytes, sessionData.sessionId, sessionData.sessionEpoch,
+          sessionData.toSend.asJava, sessionData.toForget.asJava)
+      case _ =>
+        new JFetchRequest(fetchRequestVersion, replicaId, maxWait, minBytes, JFetchRequest.INVALID_SESSION_ID,
+          JFetchRequest.FINAL_EPOCH, requestMap.asJava, java.util.Collections.emptyList[TopicPartition])
+    }
+    new FetchRequest(underlying, requestMap)
   }
 }
 
 object ReplicaFetcherThread {
 
-  private[server] class FetchRequest(val underlying: JFetchRequest) extends AbstractFetcherThread.FetchRequest {
-    def isEmpty: Boolean = underlying.fetchData.isEmpty
+  /**
+   * A fetch request, with all of the partitions it fetches even if it is part of a fetch session and only sends some
+   */
+  private[server] class FetchRequest(val underlying: JFetchRequest,
+                                     fetchData: Map[TopicPartition, JFetchRequest.PartitionData]) extends AbstractFetcherThread.FetchRequest {
+    def isEmpty: Boolean = fetchData.isEmpty
     def offset(topicAndPartition: TopicAndPartition): Long =
-      underlying.fetchData.asScala(new TopicPartition(topicAndPartition.topic, topicAndPartition.partition)).offset
+      fetchData(new TopicPartition(topicAndPartition.topic, topicAndPartition.partition)).offset
   }
 
   private[server] class PartitionData(val underlying: FetchResponse.PartitionData) extends AbstractFetcherThread.PartitionData {
 
     def errorCode: Short = underlying.errorCode
 
-    def toByteBufferMessageSet: ByteBufferMessageSet = new ByteBufferMessageSet(underlying.recordSet)
+    // a single instance, so that the valid bytes it caches are computed once for the fetcher and the append
+    private lazy val messageSet = new ByteBufferMessageSet(underlying.recordSet)
+
+    def toByteBufferMessageSet: ByteBufferMessageSet = messageSet
 
     def highWatermark: Long = underlying.highWatermark
 
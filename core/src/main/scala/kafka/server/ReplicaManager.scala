@@ -25,8 +25,8 @@ import kafka.api._
 import kafka.cluster.{Partition, Replica}
 import kafka.common._
 import kafka.controller.KafkaController
-import kafka.log.{LogAppendInfo, LogManager}
-import kafka.message.{ByteBufferMessageSet, InvalidMessageException, Message, MessageSet}
+import kafka.log.{LogAppendInfo, LogManager, PageCacheWarmer}
+import kafka.message.{ByteBufferMessageSet, InvalidMessageException, Message, MessageSet, ProducerCompressionCodec, ZStdCompressionCodec}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.QuotaFactory.UnboundedQuota
 import kafka.utils._
@@ -101,6 +101,12 @@ object ReplicaManager {
   val IsrChangePropagationInterval = 60000L
 }
 
+/* the keys of the delayed fetch and produce operations to check, in the order they changed */
+private class PendingDelayedOperationKeys {
+  val fetchKeys = new mutable.LinkedHashSet[DelayedOperationKey]
+  val produceKeys = new mutable.LinkedHashSet[DelayedOperationKey]
+}
+
 class ReplicaManager(val config: KafkaConfig,
                      metrics: Metrics,
                      time: Time,
@@ -134,6 +140,12 @@ class ReplicaManager(val config: KafkaConfig,
   val delayedFetchPurgatory = DelayedOperationPurgatory[DelayedFetch](
     purgatoryName = "Fetch", config.brokerId, config.fetchPurgatoryPurgeIntervalRequests)
 
+  /* the keys of the delayed operations to check at the end of the batch of changes the current thread is making, if any */
+  private val pendingDelayedOperationKeys = new ThreadLocal[PendingDelayedOperationKeys]
+
+  /* reads the data following cold reads into the page cache, it only runs if the read-ahead is enabled */
+  private val pageCacheWarmer = new PageCacheWarmer(config.logColdReadAheadBytes)
+
   val leaderCount = newGauge(
     "LeaderCount",
     new Gauge[Int] {
@@ -200,8 +212,13 @@ class ReplicaManager(val config: KafkaConfig,
    * 2. A follower replica's fetch operation is received (for acks > 1)
    */
   def tryCompleteDelayedProduce(key: DelayedOperationKey) {
-    val completed = delayedProducePurgatory.checkAndComplete(key)
-    debug("Request key %s unblocked %d producer requests.".format(key.keyLabel, completed))
+    val pendingKeys = pendingDelayedOperationKeys.get
+    if (pendingKeys != null) {
+      pendingKeys.produceKeys += key
+    } else {
+      val completed = delayedProducePurgatory.checkAndComplete(key)
+      debug("Request key %s unblocked %d producer requests.".format(key.keyLabel, completed))
+    }
   }
 
   /**
@@ -212,14 +229,51 @@ class ReplicaManager(val config: KafkaConfig,
    * 2. A new message set is appended to the local log (for follower fetch)
    */
   def tryCompleteDelayedFetch(key: DelayedOperationKey) {
-    val completed = delayedFetchPurgatory.checkAndComplete(key)
-    debug("Request key %s unblocked %d fetch requests.".format(key.keyLabel, completed))
+    val pendingKeys = pendingDelayedOperationKeys.get
+    if (pendingKeys != null) {
+      pendingKeys.fetchKeys += key
+    } else {
+      val completed = delayedFetchPurgatory.checkAndComplete(key)
+      debug("Request key %s unblocked %d fetch requests.".format(key.keyLabel, completed))
+    }
+  }
+
+  /**
+   * Make the changes to the log end offsets and high watermarks of the given function, and only try to complete the
+   * delayed requests they may unblock once it returns. A request that changes many partitions then checks each delayed
+   * request watching them once instead of once per partition, and each partition key once instead of once per change.
+   */
+  private def inDelayedOperationBatch[T](fun: => T): T = {
+    if (pendingDelayedOperationKeys.get != null) {
+      fun
+    } else {
+      val pendingKeys = new PendingDelayedOperationKeys
+      pendingDelayedOperationKeys.set(pendingKeys)
+      try {
+        fun
+      } finally {
+        pendingDelayedOperationKeys.remove()
+        if (pendingKeys.fetchKeys.nonEmpty) {
+          val completed = delayedFetchPurgatory.checkAndCompleteAll(pendingKeys.fetchKeys)
+          debug("Request keys %s unblocked %d fetch requests.".format(pendingKeys.fetchKeys.map(_.keyLabel).mkString(","), completed))
+        }
+        if (pendingKeys.produceKeys.nonEmpty) {
+          val completed = delayedProducePurgatory.checkAndCompleteAll(pendingKeys.produceKeys)
+          debug("Request keys %s unblocked %d producer requests.".format(pendingKeys.produceKeys.map(_.keyLabel).mkString(","), completed))
+        }
+      }
+    }
   }
 
   def startup() {
     // start ISR expiration thread
     scheduler.schedule("isr-expiration", maybeShrinkIsr, period = config.replicaLagTimeMaxMs, unit = TimeUnit.MILLISECONDS)
     scheduler.schedule("isr-change-propagation", maybePropagateIsrChanges, period = 2500L, unit = TimeUnit.MILLISECONDS)
+    if (config.numReplicaFetchers > 1 && config.replicaFetcherRebalanceIntervalMs > 0)
+      scheduler.schedule("replica-fetcher-rebalance", replicaFetcherManager.rebalancePartitions,
+        period = config.replicaFetcherRebalanceIntervalMs, unit = TimeUnit.MILLISECONDS)
+    if (config.logColdReadAheadBytes > 0)
+      pageCacheWarmer.start()
   }
 
   def stopReplica(topic: String, partitionId: Int, deletePartition: Boolean): Short  = {
@@ -331,7 +385,9 @@ class ReplicaManager(val config: KafkaConfig,
 
     if (isValidRequiredAcks(requiredAcks)) {
       val sTime = SystemTime.milliseconds
-      val localProduceResults = appendToLocalLog(internalTopicsAllowed, messagesPerPartition, requiredAcks)
+      val localProduceResults = inDelayedOperationBatch {
+        appendToLocalLog(internalTopicsAllowed, messagesPerPartition, requiredAcks)
+      }
       debug("Produce to local log in %d ms".format(SystemTime.milliseconds - sTime))
 
       val produceStatus = localProduceResults.map { case (topicPartition, result) =>
@@ -473,7 +529,9 @@ class ReplicaManager(val config: KafkaConfig,
     // if the fetch comes from the follower,
     // update its corresponding log end offset
     if(Request.isValidBrokerId(replicaId))
-      updateFollowerLogReadResults(replicaId, logReadResults)
+      inDelayedOperationBatch {
+        updateFollowerLogReadResults(replicaId, logReadResults)
+      }
 
     // check if this fetch request can be satisfied right away
     val bytesReadable = logReadResults.values.map(_.info.messageSet.sizeInBytes).sum
@@ -552,6 +610,12 @@ class ReplicaManager(val config: KafkaConfig,
               //If the partition is marked as throttled, and we are over-quota then exclude it
               if (quota.isThrottled(TopicAndPartition(topic, partition)) && quota.isQuotaExceeded)
                 fetch = FetchDataInfo(fetch.fetchOffsetMetadata, MessageSet.Empty)
+
+              // a lagging reader is likely to continue where this read ends, warm up its next read if this one is cold
+              if (fetch.messageSet.sizeInBytes > 0 && log.isColdRead(fetch.fetchOffsetMetadata, config.logColdReadLagBytes)) {
+                log.recordColdRead(fetch.messageSet.sizeInBytes)
+                pageCacheWarmer.readAfter(fetch.messageSet)
+              }
               fetch
             case None =>
               error("Leader for partition [%s,%d] does not have a local log".format(topic, partition))
@@ -587,6 +651,24 @@ class ReplicaManager(val config: KafkaConfig,
       replica.log.map(_.config.messageFormatVersion.messageFormatVersion)
     }
 
+  def getCompressionType(topicAndPartition: TopicAndPartition): Option[String] =
+    getReplica(topicAndPartition.topic, topicAndPartition.partition).flatMap { replica =>
+      replica.log.map(_.config.compressionType)
+    }
+
+  /**
+   * Whether the local log of the partition may hold messages compressed with zstd, that is if its compression type is
+   * zstd or keeps the codec of the producer, or if its conversion to the compression type is deferred. Messages of a
+   * log whose compression type was changed from one of those are not accounted for.
+   */
+  def mayHoldZStdMessages(topicAndPartition: TopicAndPartition): Boolean =
+    getReplica(topicAndPartition.topic, topicAndPartition.partition).flatMap(_.log).exists { log =>
+      val compressionType = log.config.compressionType
+      log.config.compressionConversionDeferred ||
+        compressionType.equalsIgnoreCase(ZStdCompressionCodec.name) ||
+        compressionType.equalsIgnoreCase(ProducerCompressionCodec.name)
+    }
+
   def maybeUpdateMetadataCache(correlationId: Int, updateMetadataRequest: UpdateMetadataRequest, metadataCache: MetadataCache) {
     replicaStateChangeLock synchronized {
       if(updateMetadataRequest.controllerEpoch < controllerEpoch) {
@@ -914,6 +996,7 @@ class ReplicaManager(val config: KafkaConfig,
     replicaFetcherManager.shutdown()
     delayedFetchPurgatory.shutdown()
     delayedProducePurgatory.shutdown()
+    pageCacheWarmer.shutdown()
     if (checkpointHW)
       checkpointHighWatermarks()
     info("Shut down completely")
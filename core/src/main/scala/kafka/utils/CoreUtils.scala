@@ -147,6 +147,42 @@ object CoreUtils extends Logging {
     crc.getValue()
   }
 
+  /**
+   * Compute the 64 bit MurmurHash64A of the remaining bytes of the buffer, leaving its position unchanged
+   * @param buffer The bytes to hash
+   * @return The hash
+   */
+  def murmurHash64(buffer: ByteBuffer): Long = {
+    val m = 0xc6a4a7935bd1e995L
+    val r = 47
+    val length = buffer.remaining
+    var h = 0x9747b28cL ^ (length * m)
+    var pos = buffer.position
+    val end = pos + (length & ~7)
+    while (pos < end) {
+      var k = buffer.getLong(pos)
+      k *= m
+      k ^= k >>> r
+      k *= m
+      h ^= k
+      h *= m
+      pos += 8
+    }
+    if (pos < buffer.limit) {
+      var shift = 0
+      while (pos < buffer.limit) {
+        h ^= (buffer.get(pos) & 0xffL) << shift
+        shift += 8
+        pos += 1
+      }
+      h *= m
+    }
+    h ^= h >>> r
+    h *= m
+    h ^= h >>> r
+    h
+  }
+
   /**
    * Read some bytes into the provided buffer, and return the number of bytes read. If the
    * channel has been closed or we get -1 on the read for any reason, throw an EOFException
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka
+
+import java.io.File
+import java.nio.file.{Files, Paths}
+import java.util.Random
+
+import joptsimple._
+import kafka.log.OffsetIndex
+
+/**
+ * This test measures the page faults per lookup of a large offset index, for lookups near the end of the index, as
+ * made by caught up consumers and followers, and for lookups anywhere in the index.
+ *
+ * Every lookup is made on a new memory mapping of the index, so that every page it touches faults. The faults are
+ * mostly minor as the index is in the page cache, but they are the pages that the lookup would have to read from disk
+ * if the index had been evicted from the page cache. The fault counts are read from /proc/self/stat, so the test only
+ * runs on Linux.
+ */
+object TestIndexLookupPageFaults {
+
+  def main(args: Array[String]): Unit = {
+    val parser = new OptionParser
+    val dirOpt = parser.accepts("dir", "The directory to create the index in.")
+                           .withRequiredArg
+                           .describedAs("path")
+                           .ofType(classOf[java.lang.String])
+                           .defaultsTo(System.getProperty("java.io.tmpdir"))
+    val entriesOpt = parser.accepts("entries", "The number of entries of the index.")
+                           .withRequiredArg
+                           .describedAs("num_entries")
+                           .ofType(classOf[java.lang.Integer])
+                           .defaultsTo(10 * 1024 * 1024 / 8)
+    val lookupsOpt = parser.accepts("lookups", "The number of lookups of each kind.")
+                           .withRequiredArg
+                           .describedAs("num_lookups")
+                           .ofType(classOf[java.lang.Integer])
+                           .defaultsTo(2000)
+    val lagOpt = parser.accepts("lag", "The maximum number of entries from the end of the index of the tail lookups.")
+                           .withRequiredArg
+                           .describedAs("num_entries")
+                           .ofType(classOf[java.lang.Integer])
+                           .defaultsTo(100)
+
+    val options = parser.parse(args: _*)
+    val numEntries = options.valueOf(entriesOpt).intValue
+    val numLookups = options.valueOf(lookupsOpt).intValue
+    val lag = options.valueOf(lagOpt).intValue
+
+    val file = new File(options.valueOf(dirOpt), "kafka-index-test-" + System.nanoTime + ".index")
+    file.deleteOnExit()
+    val index = new OffsetIndex(file, baseOffset = 0L, maxIndexSize = numEntries * 8)
+    for (i <- 0 until numEntries)
+      index.append(i, i)
+    index.close()
+
+    val random = new Random
+    // the faults of opening the index and sampling the counters, without any lookup
+    val baseline = measure(file, numLookups, target = -1L)
+    val tail = measure(file, numLookups, target = numEntries - 1 - random.nextInt(lag + 1))
+    val uniform = measure(file, numLookups, target = random.nextInt(numEntries))
+    println("%d entries, %d lookups of each kind".format(numEntries, numLookups))
+    println("%-10s %15s %15s".format("lookup", "minor faults", "major faults"))
+    println("%-10s %15.2f %15.2f".format("tail", tail._1 - baseline._1, tail._2 - baseline._2))
+    println("%-10s %15.2f %15.2f".format("random", uniform._1 - baseline._1, uniform._2 - baseline._2))
+    file.delete()
+  }
+
+  /**
+   * Measure the average minor and major faults of opening the index and looking up the target offset, which is
+   * evaluated for every lookup. No lookup is made for a negative target.
+   */
+  private def measure(file: File, numLookups: Int, target: => Long): (Double, Double) = {
+    var minorFaults = 0L
+    var majorFaults = 0L
+    for (i <- 0 until numLookups) {
+      // let the mappings of the previous indexes be released
+      if (i % 500 == 0)
+        System.gc()
+      val offset = target
+      val before = pageFaults()
+      val index = new OffsetIndex(file, baseOffset = 0L)
+      if (offset >= 0)
+        index.lookup(offset)
+      val after = pageFaults()
+      minorFaults += after._1 - before._1
+      majorFaults += after._2 - before._2
+    }
+    (minorFaults.toDouble / numLookups, majorFaults.toDouble / numLookups)
+  }
+
+  /**
+   * The minor and major page faults of this process so far, the 10th and 12th fields of /proc/self/stat
+   */
+  private def pageFaults(): (Long, Long) = {
+    val stat = new String(Files.readAllBytes(Paths.get("/proc/self/stat")))
+    // the fields start after the command name, which is in parentheses and may contain spaces
+    val fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ")
+    (fields(7).toLong, fields(9).toLong)
+  }
+}
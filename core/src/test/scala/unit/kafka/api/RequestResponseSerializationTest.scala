@@ -130,6 +130,11 @@ object SerializationTestUtils {
     new FetchRequest(requestInfo = requestInfos)
   }
 
+  def createTestFetchSessionRequest: FetchRequest = {
+    new FetchRequest(versionId = 3, requestInfo = requestInfos, sessionId = 7, sessionEpoch = 2,
+      toForget = Seq(TopicAndPartition(topic1, 3), TopicAndPartition(topic2, 3)))
+  }
+
   def createTestFetchResponse: FetchResponse = {
     FetchResponse(1, topicDataFetchResponse)
   }
@@ -207,6 +212,7 @@ class RequestResponseSerializationTest extends JUnitSuite {
   private val producerRequest = SerializationTestUtils.createTestProducerRequest
   private val producerResponse = SerializationTestUtils.createTestProducerResponse
   private val fetchRequest = SerializationTestUtils.createTestFetchRequest
+  private val fetchSessionRequest = SerializationTestUtils.createTestFetchSessionRequest
   private val offsetRequest = SerializationTestUtils.createTestOffsetRequest
   private val offsetResponse = SerializationTestUtils.createTestOffsetResponse
   private val offsetCommitRequestV0 = SerializationTestUtils.createTestOffsetCommitRequestV0
@@ -224,7 +230,7 @@ class RequestResponseSerializationTest extends JUnitSuite {
 
     val requestsAndResponses =
       collection.immutable.Seq(producerRequest, producerResponse,
-                               fetchRequest, offsetRequest, offsetResponse,
+                               fetchRequest, fetchSessionRequest, offsetRequest, offsetResponse,
                                offsetCommitRequestV0, offsetCommitRequestV1, offsetCommitRequestV2,
                                offsetCommitResponse, offsetFetchRequest, offsetFetchResponse,
                                consumerMetadataRequest, consumerMetadataResponse,
@@ -275,6 +281,13 @@ class RequestResponseSerializationTest extends JUnitSuite {
 
     // new response should have 4 bytes more than the old response since delayTime is an INT32
     assertEquals(oldClientResponse.sizeInBytes + 4, newClientResponse.sizeInBytes)
+
+    val sessionResponse = FetchResponse(1, Map(
+      TopicAndPartition("t1", 0) -> new FetchResponsePartitionData(messages = new ByteBufferMessageSet(new Message("first message".getBytes)))
+    ), 3, 100, Errors.NONE.code, 7)
+
+    // session response should have 6 more bytes than the v1 response for the error code and session id
+    assertEquals(newClientResponse.sizeInBytes + 6, sessionResponse.sizeInBytes)
   }
 
 }
@@ -21,6 +21,7 @@ import java.io.File
 import java.nio._
 import java.nio.file.Paths
 import java.util.Properties
+import java.util.concurrent.{ExecutorService, Executors}
 
 import kafka.common._
 import kafka.message._
@@ -107,6 +108,28 @@ class CleanerTest extends JUnitSuite {
                (0 until leo.toInt by 2).forall(!keys.contains(_)))
   }
 
+  @Test
+  def testCleaningWithSegmentCleaners(): Unit = {
+    val recopyPool = Executors.newFixedThreadPool(2)
+    try {
+      val cleaner = makeCleaner(Int.MaxValue, numSegmentCleaners = 3, recopyPool = Some(recopyPool))
+      val log = makeLog()
+
+      // append messages with 20 distinct keys until there are enough segments for every segment cleaner
+      while(log.numberOfSegments < 10)
+        log.append(message(log.logEndOffset.toInt % 20, log.logEndOffset.toInt))
+      val cleanableOffset = log.activeSegment.baseOffset
+      val lastOffsets = (0L until cleanableOffset).groupBy(_ % 20).values.map(_.max)
+
+      cleaner.clean(LogToClean(TopicAndPartition("test", 0), log, 0, cleanableOffset))
+      assertEquals(lastOffsets.toList.sorted ++ (cleanableOffset until log.logEndOffset), offsetsInLog(log).toList)
+      assertEquals(cleanableOffset, cleaner.stats.messagesRead)
+      assertEquals(lastOffsets.size.toLong, cleaner.stats.messagesWritten)
+    } finally {
+      recopyPool.shutdown()
+    }
+  }
+
   @Test
   def testPartialSegmentClean(): Unit = {
     // because loadFactor is 0.75, this means we can fit 2 messages in the map
@@ -598,7 +621,8 @@ class CleanerTest extends JUnitSuite {
 
   def noOpCheckDone(topicAndPartition: TopicAndPartition) { /* do nothing */  }
 
-  def makeCleaner(capacity: Int, checkDone: (TopicAndPartition) => Unit = noOpCheckDone) =
+  def makeCleaner(capacity: Int, checkDone: (TopicAndPartition) => Unit = noOpCheckDone, numSegmentCleaners: Int = 1,
+                  recopyPool: Option[ExecutorService] = None) =
     new Cleaner(id = 0, 
                 offsetMap = new FakeOffsetMap(capacity), 
                 ioBufferSize = 64*1024, 
@@ -606,7 +630,9 @@ class CleanerTest extends JUnitSuite {
                 dupBufferLoadFactor = 0.75,
                 throttler = throttler, 
                 time = time,
-                checkDone = checkDone )
+                checkDone = checkDone,
+                numSegmentCleaners = numSegmentCleaners,
+                recopyPool = recopyPool)
   
   def writeToLog(log: Log, seq: Iterable[(Int, Int)]): Iterable[Long] = {
     for((key, value) <- seq)
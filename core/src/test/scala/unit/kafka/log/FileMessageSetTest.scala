@@ -348,4 +348,67 @@ class FileMessageSetTest extends BaseMessageSetTestCases {
       }
     }
   }
+
+  @Test
+  def testLazyDownConversionOfMixedMessageFormats() {
+    val messagesV0 = Seq(new Message("hello".getBytes, "k1".getBytes, Message.NoTimestamp, Message.MagicValue_V0))
+    val messagesV1 = (0 until 100).map(i => new Message(s"value $i".getBytes, s"key $i".getBytes, i.toLong, Message.MagicValue_V1))
+    val fileMessageSet = new FileMessageSet(tempFile())
+    fileMessageSet.append(new ByteBufferMessageSet(NoCompressionCodec, new LongRef(0), messagesV1.take(50): _*))
+    fileMessageSet.append(new ByteBufferMessageSet(NoCompressionCodec, new LongRef(50), messagesV0: _*))
+    fileMessageSet.append(new ByteBufferMessageSet(GZIPCompressionCodec, new LongRef(51), messagesV1.drop(50): _*))
+    fileMessageSet.flush()
+
+    val converted = fileMessageSet.toMessageFormat(Message.MagicValue_V0)
+    assertTrue(converted.isMagicValueInAllWrapperMessages(Message.MagicValue_V0))
+
+    // write the converted messages a few bytes at a time, as to a socket that is not always writable
+    val file = tempFile()
+    val channel = new RandomAccessFile(file, "rw").getChannel
+    var written = 0
+    while (written < converted.sizeInBytes)
+      written += converted.writeTo(channel, written, 97)
+    assertEquals(converted.sizeInBytes, written)
+    val buffer = ByteBuffer.allocate(written)
+    channel.read(buffer, 0)
+    buffer.flip()
+    channel.close()
+
+    val expected = (messagesV1.take(50) ++ messagesV0 ++ messagesV1.drop(50)).map(_.toFormatVersion(Message.MagicValue_V0))
+    for (messages <- Seq(new ByteBufferMessageSet(buffer), converted)) {
+      val entries = messages.toList
+      assertEquals((0L until 101L).toList, entries.map(_.offset))
+      entries.foreach(entry => assertEquals(Message.MagicValue_V0, entry.message.magic))
+      assertEquals(expected.map(_.key), entries.map(_.message.key))
+      assertEquals(expected.map(_.payload), entries.map(_.message.payload))
+    }
+    assertEquals(Seq(NoCompressionCodec, GZIPCompressionCodec),
+      new ByteBufferMessageSet(buffer).shallowIterator.map(_.message.compressionCodec).toList.distinct)
+  }
+
+  @Test
+  def testDownConversionCache() {
+    val messages = Seq(new Message("hello".getBytes, "k1".getBytes, 1L, Message.MagicValue_V1),
+                       new Message("goodbye".getBytes, "k2".getBytes, 2L, Message.MagicValue_V1))
+    val cache = new DownConversionCache(1024 * 1024)
+    val fileMessageSet = new FileMessageSet(tempFile())
+    fileMessageSet.append(new ByteBufferMessageSet(DefaultCompressionCodec, new LongRef(0), messages: _*))
+    fileMessageSet.flush()
+
+    val converted = fileMessageSet.toMessageFormat(Message.MagicValue_V0, cache)
+    assertEquals(converted.sizeInBytes, cache.sizeInBytes)
+    assertEquals(converted.toList, fileMessageSet.toMessageFormat(Message.MagicValue_V0, cache).toList)
+    assertEquals(converted.sizeInBytes, cache.sizeInBytes)
+
+    // a cached message is not returned once the segment has been rewritten with other messages
+    fileMessageSet.truncateTo(0)
+    fileMessageSet.append(new ByteBufferMessageSet(DefaultCompressionCodec, new LongRef(5), messages: _*))
+    fileMessageSet.flush()
+    assertEquals(Seq(5L, 6L), fileMessageSet.toMessageFormat(Message.MagicValue_V0, cache).map(_.offset).toList)
+
+    // nothing is cached beyond the size bound
+    val smallCache = new DownConversionCache(1)
+    fileMessageSet.toMessageFormat(Message.MagicValue_V0, smallCache)
+    assertEquals(0, smallCache.sizeInBytes)
+  }
 }
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.File
+import java.util.Properties
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import kafka.message._
+import kafka.utils._
+import org.apache.kafka.common.utils.Utils
+import org.junit.Assert._
+import org.junit.{After, Test}
+import org.scalatest.junit.JUnitSuite
+
+class GroupCommitFlusherTest extends JUnitSuite {
+
+  val tmpDir = TestUtils.tempDir()
+  val time = new MockTime()
+  val flusher = new GroupCommitFlusher(tmpDir, windowMs = 10, time)
+
+  @After
+  def tearDown() {
+    flusher.shutdown()
+    Utils.delete(tmpDir)
+  }
+
+  private def createLog(name: String): Log = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.FlushMessagesProp, 1: java.lang.Integer)
+    new Log(new File(tmpDir, name), LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time, Some(flusher))
+  }
+
+  private def messages(value: String) = new ByteBufferMessageSet(NoCompressionCodec, new Message(value.getBytes))
+
+  @Test
+  def testFlushWithoutRunningFlusher() {
+    val log = createLog("test-0")
+    log.append(messages("hello"))
+    assertEquals(1L, log.recoveryPoint)
+  }
+
+  @Test
+  def testAppendsWaitForGroupCommit() {
+    flusher.start()
+    val logs = (0 until 4).map(i => createLog("test-" + i))
+    val executor = Executors.newFixedThreadPool(logs.size)
+    try {
+      val appends = logs.map { log =>
+        executor.submit(new Callable[LogAppendInfo] {
+          def call() = log.append(messages("hello"))
+        })
+      }
+      appends.foreach(_.get(30, TimeUnit.SECONDS))
+    } finally {
+      executor.shutdown()
+    }
+    // every append returns only once its messages are flushed
+    logs.foreach(log => assertEquals(log.logEndOffset, log.recoveryPoint))
+  }
+
+  @Test
+  def testFlushAfterShutdown() {
+    flusher.start()
+    flusher.shutdown()
+    val log = createLog("test-0")
+    log.append(messages("hello"))
+    assertEquals(1L, log.recoveryPoint)
+  }
+}
@@ -89,6 +89,35 @@ class LogCleanerManagerTest extends JUnitSuite with Logging {
     assertEquals("should have 1 logs ready to be deleted", 0, readyToDelete)
   }
 
+  /**
+    * Logs are cleaned in the order of the bytes their key statistics expect cleaning to reclaim, and a dirty log whose
+    * messages all have distinct keys is cleaned last rather than skipped
+    */
+  @Test
+  def testGrabFilthiestLogByExpectedReclaimableBytes(): Unit = {
+    def makeDirtyLog(name: String, numKeys: Int): Log = {
+      val log = makeLog(dir = new File(tmpDir, name))
+      while(log.numberOfSegments < 8)
+        log.append(message(log.logEndOffset.toInt % numKeys, log.logEndOffset.toInt, timestamp = time.milliseconds))
+      log
+    }
+    val logs = new Pool[TopicAndPartition, Log]()
+    logs.put(TopicAndPartition("unique", 0), makeDirtyLog("unique-0", Int.MaxValue))
+    logs.put(TopicAndPartition("few", 0), makeDirtyLog("few-0", 10))
+    logs.put(TopicAndPartition("many", 0), makeDirtyLog("many-0", 50))
+    val cleanerManager = new LogCleanerManager(Array(tmpDir), logs)
+
+    val few = cleanerManager.grabFilthiestCompactedLog(time).get
+    assertEquals(TopicAndPartition("few", 0), few.topicPartition)
+    assertTrue(few.estimatedReclaimableBytes.get > 0.9 * few.totalBytes)
+    val many = cleanerManager.grabFilthiestCompactedLog(time).get
+    assertEquals(TopicAndPartition("many", 0), many.topicPartition)
+    val unique = cleanerManager.grabFilthiestCompactedLog(time).get
+    assertEquals(TopicAndPartition("unique", 0), unique.topicPartition)
+    assertTrue(unique.estimatedReclaimableBytes.get < 0.1 * unique.totalBytes)
+    assertEquals(None, cleanerManager.grabFilthiestCompactedLog(time))
+  }
+
   /**
     * Test computation of cleanable range with no minimum compaction lag settings active
     */
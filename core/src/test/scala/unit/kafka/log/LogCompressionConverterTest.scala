@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.util.Properties
+
+import kafka.common._
+import kafka.message._
+import kafka.utils._
+import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.utils.Utils
+import org.junit.Assert._
+import org.junit.{After, Test}
+import org.scalatest.junit.JUnitSuite
+
+/**
+ * Unit tests for the deferred conversion of messages to the compression type of their topic
+ */
+class LogCompressionConverterTest extends JUnitSuite {
+
+  val tmpDir = TestUtils.tempDir()
+  val logDir = TestUtils.randomPartitionLogDir(tmpDir)
+  val time = new MockTime(1400000000000L)
+
+  @After
+  def tearDown() {
+    Utils.delete(tmpDir)
+  }
+
+  private def createLog(compressionType: String, timestampType: TimestampType = TimestampType.CREATE_TIME): Log = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.CompressionTypeProp, compressionType)
+    logProps.put(LogConfig.CompressionConversionDeferredProp, "true")
+    logProps.put(LogConfig.MessageTimestampTypeProp, timestampType.name)
+    new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time = time)
+  }
+
+  private def createConverter(log: Log): LogCompressionConverter = {
+    val logs = new Pool[TopicAndPartition, Log]()
+    logs.put(log.topicAndPartition, log)
+    new LogCompressionConverter(CompressionConverterConfig(ioBufferSize = 64), Array(tmpDir), logs, time)
+  }
+
+  private def message(value: String, timestamp: Long) =
+    new Message(value.getBytes, timestamp = timestamp, magicValue = Message.MagicValue_V1)
+
+  private def shallowEntries(log: Log): Seq[MessageAndOffset] =
+    log.logSegments.flatMap(_.log.iterator).toList
+
+  private def deepEntries(log: Log): Seq[MessageAndOffset] =
+    shallowEntries(log).flatMap { entry =>
+      if (entry.message.compressionCodec == NoCompressionCodec) Iterator(entry)
+      else ByteBufferMessageSet.deepIterator(entry)
+    }
+
+  @Test
+  def testDeferredConversion() {
+    val log = createLog(GZIPCompressionCodec.name)
+    val converter = createConverter(log)
+    log.append(new ByteBufferMessageSet(SnappyCompressionCodec, message("hello", 10L), message("there", 11L)))
+    log.append(new ByteBufferMessageSet(GZIPCompressionCodec, message("beautiful", 12L)))
+
+    // the messages are appended with the producer's codec
+    assertEquals(Seq(SnappyCompressionCodec, GZIPCompressionCodec), shallowEntries(log).map(_.message.compressionCodec))
+
+    // the active segment is never converted
+    assertFalse(converter.convertNextSegment())
+
+    log.roll()
+    assertTrue(converter.convertNextSegment())
+    assertEquals(Seq(GZIPCompressionCodec, GZIPCompressionCodec), shallowEntries(log).map(_.message.compressionCodec))
+    assertEquals(Seq(1L, 2L), shallowEntries(log).map(_.offset))
+    assertEquals(Seq(0L, 1L, 2L), deepEntries(log).map(_.offset))
+    assertEquals(Seq(10L, 11L, 12L), deepEntries(log).map(_.message.timestamp))
+    assertEquals(Seq("hello", "there", "beautiful"), deepEntries(log).map(entry => TestUtils.readString(entry.message.payload)))
+    assertEquals(Some(3L), converter.allConvertedOffsets.get(log.topicAndPartition))
+
+    // the checkpoint keeps the converted segment from being examined again
+    assertFalse(createConverter(log).convertNextSegment())
+  }
+
+  @Test
+  def testConvertUncompressedMessages() {
+    val log = createLog(LZ4CompressionCodec.name)
+    val converter = createConverter(log)
+    for (i <- 0 until 10)
+      log.append(new ByteBufferMessageSet(NoCompressionCodec, message("message " + i, i)))
+    log.roll()
+
+    assertTrue(converter.convertNextSegment())
+    assertEquals(Seq(LZ4CompressionCodec), shallowEntries(log).map(_.message.compressionCodec).distinct)
+    assertEquals((0L until 10L).toList, deepEntries(log).map(_.offset))
+    assertEquals((0L until 10L).toList, deepEntries(log).map(_.message.timestamp))
+    assertEquals(0L, log.fetchOffsetsByTimestamp(0L))
+    assertEquals(9L, log.fetchOffsetsByTimestamp(9L))
+  }
+
+  @Test
+  def testConvertToUncompressedWithLogAppendTime() {
+    val log = createLog(UncompressedCodec.name, TimestampType.LOG_APPEND_TIME)
+    val converter = createConverter(log)
+    log.append(new ByteBufferMessageSet(GZIPCompressionCodec, message("hello", 10L), message("there", 11L)))
+    val appendTime = time.milliseconds
+    log.roll()
+
+    assertTrue(converter.convertNextSegment())
+    val entries = shallowEntries(log)
+    assertEquals(Seq(0L, 1L), entries.map(_.offset))
+    entries.foreach { entry =>
+      assertEquals(NoCompressionCodec, entry.message.compressionCodec)
+      assertEquals(TimestampType.LOG_APPEND_TIME, entry.message.timestampType)
+      assertEquals(appendTime, entry.message.timestamp)
+      entry.message.ensureValid()
+    }
+  }
+
+  @Test
+  def testNoConversionWithoutDeferral() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.CompressionTypeProp, GZIPCompressionCodec.name)
+    val log = new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time = time)
+    val converter = createConverter(log)
+    log.append(new ByteBufferMessageSet(SnappyCompressionCodec, message("hello", 10L)))
+    log.roll()
+
+    assertEquals(Seq(GZIPCompressionCodec), shallowEntries(log).map(_.message.compressionCodec))
+    assertFalse(converter.convertNextSegment())
+  }
+}
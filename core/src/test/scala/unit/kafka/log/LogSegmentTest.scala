@@ -17,6 +17,7 @@
  package kafka.log
 
 import org.junit.Assert._
+import java.io.File
 import java.util.concurrent.atomic._
 
 import kafka.common.LongRef
@@ -134,6 +135,56 @@ class LogSegmentTest {
    * In a loop append two messages then truncate off the second of those messages and check that we can read
    * the first but not the second message.
    */
+  /**
+   * The key statistics of a segment describe the messages appended with their keys recorded, are saved when the
+   * segment becomes inactive and become unusable when the segment is truncated
+   */
+  @Test
+  def testKeyStats() {
+    val seg = createSegment(40)
+    val keyed = new ByteBufferMessageSet(NoCompressionCodec, new LongRef(40),
+      new Message("a".getBytes, "k1".getBytes, Message.NoTimestamp, Message.MagicValue_V1),
+      new Message(null, "k2".getBytes, Message.NoTimestamp, Message.MagicValue_V1),
+      new Message("c".getBytes, "k1".getBytes, Message.NoTimestamp, Message.MagicValue_V1))
+    seg.append(40, Message.NoTimestamp, -1L, keyed, keyedMessages = Some(keyed.map(_.message)))
+    val keyStats = seg.validKeyStats.get
+    assertEquals(3L, keyStats.keyedMessages)
+    assertEquals(1L, keyStats.tombstones)
+    assertEquals(2L, SegmentKeyStats.estimateDistinctKeys(Seq(keyStats)))
+
+    // the statistics are read back by a segment opened on the same log file
+    seg.onBecomeInactiveSegment()
+    val keyStatsFile = new File(seg.log.file.getPath + Log.KeyStatsFileSuffix)
+    assertTrue(keyStatsFile.exists)
+    val idxFile = TestUtils.tempFile()
+    val timeIdxFile = TestUtils.tempFile()
+    idxFile.delete()
+    timeIdxFile.delete()
+    val reopened = new LogSegment(new FileMessageSet(seg.log.file), new OffsetIndex(idxFile, 40, 1000),
+      new TimeIndex(timeIdxFile, 40, 1500), 40, 10, 0, SystemTime)
+    assertEquals(Some(3L), reopened.validKeyStats.map(_.keyedMessages))
+    reopened.index.delete()
+    reopened.timeIndex.delete()
+
+    seg.truncateTo(42)
+    assertEquals(None, seg.validKeyStats)
+    assertFalse(keyStatsFile.exists)
+  }
+
+  /**
+   * Appending messages without recording their keys makes the key statistics unusable
+   */
+  @Test
+  def testKeyStatsOfUnrecordedAppend() {
+    val seg = createSegment(40)
+    assertEquals(Some(0L), seg.validKeyStats.map(_.keyedMessages))
+    seg.append(40, Message.NoTimestamp, -1L, messages(40, "hello"))
+    assertEquals(None, seg.validKeyStats)
+    val there = messages(41, "there")
+    seg.append(41, Message.NoTimestamp, -1L, there, keyedMessages = Some(there.map(_.message)))
+    assertEquals(None, seg.validKeyStats)
+  }
+
   @Test
   def testTruncate() {
     val seg = createSegment(40)
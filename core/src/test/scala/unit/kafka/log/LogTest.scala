@@ -28,7 +28,7 @@ import org.scalatest.junit.JUnitSuite
 import org.junit.{After, Before, Test}
 import kafka.message._
 import kafka.utils._
-import kafka.server.KafkaConfig
+import kafka.server.{KafkaConfig, LogOffsetMetadata}
 import org.apache.kafka.common.utils.Utils
 
 class LogTest extends JUnitSuite {
@@ -918,6 +918,62 @@ class LogTest extends JUnitSuite {
     log.append(invalidMessage, assignOffsets = false)
   }
 
+  @Test
+  def testAppendAsFollower() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.MaxMessageBytesProp, 100: java.lang.Integer)
+    val log = new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time)
+
+    // the offsets are kept and the message size was already checked by the leader
+    val messages = new ByteBufferMessageSet(NoCompressionCodec, new LongRef(5),
+      (0 until 10).map(_ => new Message(TestUtils.randomBytes(150))): _*)
+    val appendInfo = log.appendAsFollower(messages)
+    assertEquals(14L, appendInfo.lastOffset)
+    assertEquals(15L, log.logEndOffset)
+    assertEquals(5L, log.read(5, 4096).messageSet.head.offset)
+
+    // offsets before the log end offset are rejected
+    try {
+      log.appendAsFollower(new ByteBufferMessageSet(NoCompressionCodec, new LongRef(14), new Message("14".getBytes)))
+      fail("Appending an offset before the log end offset should fail")
+    } catch {
+      case e: IllegalArgumentException => // this is good
+    }
+
+    // so are messages that do not match their CRC
+    val corrupt = new ByteBufferMessageSet(NoCompressionCodec, new LongRef(15), new Message("15".getBytes))
+    corrupt.buffer.put(corrupt.buffer.limit - 1, 0)
+    try {
+      log.appendAsFollower(corrupt)
+      fail("Appending a corrupt message should fail")
+    } catch {
+      case e: InvalidMessageException => // this is good
+    }
+    assertEquals(15L, log.logEndOffset)
+  }
+
+  /**
+   * The keys of compressed messages are recorded in the key statistics when the leader validation decompressed them,
+   * but compressed messages are not decompressed only to record their keys
+   */
+  @Test
+  def testKeyStatsOfCompressedAppends() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.CleanupPolicyProp, LogConfig.Compact)
+    val log = new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time)
+    def keyed(offset: Long, codec: CompressionCodec, keys: String*) = new ByteBufferMessageSet(codec, new LongRef(offset),
+      keys.map(key => new Message("value".getBytes, key.getBytes, Message.NoTimestamp, Message.MagicValue_V1)): _*)
+
+    log.append(keyed(0, NoCompressionCodec, "k1", "k2"))
+    log.append(keyed(0, GZIPCompressionCodec, "k1", "k3"))
+    assertEquals(Some(4L), log.activeSegment.validKeyStats.map(_.keyedMessages))
+
+    log.appendAsFollower(keyed(4, NoCompressionCodec, "k4"))
+    assertEquals(Some(5L), log.activeSegment.validKeyStats.map(_.keyedMessages))
+    log.appendAsFollower(keyed(5, GZIPCompressionCodec, "k5", "k6"))
+    assertEquals(None, log.activeSegment.validKeyStats)
+  }
+
   @Test
   def testCorruptLog() {
     // append some messages to create some segments
@@ -987,6 +1043,93 @@ class LogTest extends JUnitSuite {
     cleanShutdownFile.delete()
   }
 
+  @Test
+  def testIndexesAreMappedLazilyAfterCleanShutdown() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1000: java.lang.Integer)
+    logProps.put(LogConfig.IndexIntervalBytesProp, 1: java.lang.Integer)
+    val config = LogConfig(logProps)
+    val set = TestUtils.singleMessageSet("test".getBytes)
+    var log = new Log(logDir, config, recoveryPoint = 0L, time.scheduler, time)
+    for(i <- 0 until 100)
+      log.append(set)
+    log.close()
+
+    val cleanShutdownFile = new File(logDir.getParentFile, Log.CleanShutdownFile)
+    cleanShutdownFile.createNewFile()
+    try {
+      log = new Log(logDir, config, recoveryPoint = 0L, time.scheduler, time)
+      val inactiveSegments = log.logSegments.toList.dropRight(1)
+      assertTrue("The log should have inactive segments", inactiveSegments.nonEmpty)
+      for(segment <- inactiveSegments) {
+        assertFalse("The index of an inactive segment should not be mapped", segment.index.isMapped)
+        assertFalse("The time index of an inactive segment should not be mapped", segment.timeIndex.isMapped)
+      }
+      // the indexes are mapped when they are read
+      assertEquals(0L, log.read(0, 100, None).messageSet.head.offset)
+      assertTrue(log.logSegments.head.index.isMapped)
+      assertEquals(100L, log.logEndOffset)
+      log.close()
+    } finally {
+      cleanShutdownFile.delete()
+    }
+  }
+
+  @Test
+  def testConcurrentRecovery() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1000: java.lang.Integer)
+    logProps.put(LogConfig.IndexIntervalBytesProp, 1: java.lang.Integer)
+    logProps.put(LogConfig.MaxMessageBytesProp, 64*1024: java.lang.Integer)
+    val config = LogConfig(logProps)
+    val set = TestUtils.singleMessageSet("test".getBytes)
+    var log = new Log(logDir, config, recoveryPoint = 0L, time.scheduler, time)
+    for(i <- 0 until 200)
+      log.append(set)
+    val segments = log.logSegments.toList
+    val corruptSegment = segments(segments.size / 2)
+    val messages = segments.takeWhile(_ != corruptSegment).flatMap(_.log.iterator.toList) ++
+      corruptSegment.log.iterator.toList
+    log.close()
+
+    // corrupt a segment in the middle of the log, and remove the indexes of the other segments
+    TestUtils.appendNonsenseToFile(corruptSegment.log.file, 100)
+    segments.filter(_ != corruptSegment).foreach { segment =>
+      segment.index.file.delete()
+      segment.timeIndex.file.delete()
+    }
+
+    log = new Log(logDir, config, recoveryPoint = 0L, time.scheduler, time, recoveryThreads = 4)
+    assertEquals("The segments after the corrupt segment should be deleted", corruptSegment.baseOffset, log.activeSegment.baseOffset)
+    assertEquals(messages.size.toLong, log.logEndOffset)
+    assertEquals("Messages in the log after recovery should be the same.", messages, log.logSegments.flatMap(_.log.iterator.toList))
+    for(i <- 0 until messages.size)
+      assertEquals(i.toLong, log.read(i, 100, None).messageSet.head.offset)
+    log.close()
+  }
+
+  @Test
+  def testIsColdRead() {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1000: java.lang.Integer)
+    val log = new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time)
+    val set = TestUtils.singleMessageSet("test".getBytes)
+    for(i <- 0 until 100)
+      log.append(set)
+    assertTrue("The log should have several segments", log.numberOfSegments > 2)
+
+    val fetchOffsetMetadata = log.read(0, 100).fetchOffsetMetadata
+    val bytesBehind = log.size
+    assertTrue(log.isColdRead(fetchOffsetMetadata, bytesBehind - 1))
+    assertFalse(log.isColdRead(fetchOffsetMetadata, bytesBehind))
+    val tailOffsetMetadata = log.read(99, 100).fetchOffsetMetadata
+    assertFalse(log.isColdRead(tailOffsetMetadata, set.sizeInBytes))
+    assertTrue(log.isColdRead(tailOffsetMetadata, set.sizeInBytes - 1))
+    assertFalse("A position without segment information is never cold",
+      log.isColdRead(new LogOffsetMetadata(0L), 0L))
+    log.close()
+  }
+
   @Test
   def testParseTopicPartitionName() {
     val topic = "test_topic"
@@ -81,6 +81,24 @@ class OffsetIndexTest extends JUnitSuite {
     assertEquals(OffsetPosition(idx.baseOffset + idx.maxEntries, idx.maxEntries - 1), idx.lookup(idx.baseOffset + idx.maxEntries))
   }
   
+  @Test
+  def lookupAcrossWarmSection() {
+    // more entries than the 8KB warm section at the end of the index holds
+    val numEntries = 3000
+    val largeIdx = new OffsetIndex(nonExistantTempFile(), baseOffset = 0L, maxIndexSize = numEntries * 8)
+    try {
+      for(i <- 0 until numEntries)
+        largeIdx.append(2 * i + 1, i)
+      assertEquals(OffsetPosition(0L, 0), largeIdx.lookup(0L))
+      for(offset <- 1 until 2 * numEntries + 1) {
+        val slot = (offset - 1) / 2
+        assertEquals(OffsetPosition(2 * slot + 1, slot), largeIdx.lookup(offset))
+      }
+    } finally {
+      largeIdx.file.delete()
+    }
+  }
+  
   @Test
   def appendTooMany() {
     for(i <- 0 until idx.maxEntries) {
@@ -104,7 +122,10 @@ class OffsetIndexTest extends JUnitSuite {
     idx.append(sec.offset, sec.position)
     idx.close()
     val idxRo = new OffsetIndex(idx.file, baseOffset = idx.baseOffset)
+    assertFalse("The index should only be mapped when it is used", idxRo.isMapped)
+    assertEquals(2, idxRo.entries)
     assertEquals(first, idxRo.lookup(first.offset))
+    assertTrue(idxRo.isMapped)
     assertEquals(sec, idxRo.lookup(sec.offset))
     assertEquals(sec.offset, idxRo.lastOffset)
     assertEquals(2, idxRo.entries)
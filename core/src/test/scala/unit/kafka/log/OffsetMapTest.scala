@@ -56,7 +56,62 @@ class OffsetMapTest extends JUnitSuite {
     assertEquals(map.get(key(i-1L)), i-1L)
   }
 
+  @Test
+  def testCompactOffsetMap() {
+    for(items <- Seq(10, 100, 1000, 5000)) {
+      val map = new CompactOffsetMap((items / 0.5 * CompactOffsetMap.BytesPerEntry).toLong)
+      validateMap(map, items)
+      // overwriting a key does not add an entry
+      map.put(key(0), items)
+      assertEquals(items.toLong, map.get(key(0)))
+      assertEquals(items, map.size)
+      assertEquals(items.toLong, map.latestOffset)
+    }
+  }
+
+  @Test
+  def testCompactOffsetMapClear() {
+    val map = new CompactOffsetMap(4000)
+    for(i <- 0 until 10)
+      map.put(key(i), i)
+    map.clear()
+    assertEquals(0, map.size)
+    for(i <- 0 until 10)
+      assertEquals(-1L, map.get(key(i)))
+  }
+
+  @Test
+  def testCompactOffsetMapGetWhenFull() {
+    val map = new CompactOffsetMap(4096)
+    assertEquals(256, map.slots)
+    var i = 37L
+    while (map.size < map.slots) {
+      map.put(key(i), i)
+      i = i + 1L
+    }
+    assertEquals(-1L, map.get(key(i)))
+    assertEquals(i - 1L, map.get(key(i - 1L)))
+  }
+
+  @Test
+  def testCompactOffsetMapUsesRemainingKeyBytes() {
+    val map = new CompactOffsetMap(4096)
+    val buffer = ByteBuffer.wrap("prefix-key-with-more-than-eight-bytes".getBytes)
+    buffer.position(7)
+    map.put(buffer, 5L)
+    assertEquals(7, buffer.position)
+    assertEquals(5L, map.get(ByteBuffer.wrap("key-with-more-than-eight-bytes".getBytes)))
+    assertEquals(-1L, map.get(ByteBuffer.wrap("key-with-more-than-eight-byte".getBytes)))
+  }
+
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
+
+  def validateMap(map: OffsetMap, items: Int) {
+    for(i <- 0 until items)
+      map.put(key(i), i)
+    for(i <- 0 until items)
+      assertEquals(i.toLong, map.get(key(i)))
+  }
   
   def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
     val map = new SkimpyOffsetMap((items/loadFactor * 24).toInt)
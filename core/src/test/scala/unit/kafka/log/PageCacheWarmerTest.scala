@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import kafka.message._
+import kafka.utils.TestUtils
+import org.junit.Assert._
+import org.junit.{After, Test}
+import org.scalatest.junit.JUnitSuite
+
+class PageCacheWarmerTest extends JUnitSuite {
+
+  val warmer = new PageCacheWarmer(readAheadBytes = 1024)
+  val messageSet = new FileMessageSet(TestUtils.tempFile())
+  for (i <- 0 until 100)
+    messageSet.append(new ByteBufferMessageSet(NoCompressionCodec, new Message(("message " + i).getBytes)))
+
+  @After
+  def tearDown() {
+    warmer.shutdown()
+    messageSet.delete()
+  }
+
+  @Test
+  def testReadAfter() {
+    warmer.start()
+    val readAheadBytes = warmer.readAheadBytesRate.count
+    warmer.readAfter(messageSet.read(0, 100))
+    TestUtils.waitUntilTrue(() => warmer.readAheadBytesRate.count == readAheadBytes + 1024,
+      "The 1024 bytes following the read should be read ahead")
+  }
+
+  @Test
+  def testReadAfterEndOfFile() {
+    warmer.start()
+    val readAheadBytes = warmer.readAheadBytesRate.count
+    // read the 100 bytes that end 100 bytes before the end of the file
+    warmer.readAfter(messageSet.read(messageSet.sizeInBytes - 200, 100))
+    TestUtils.waitUntilTrue(() => warmer.readAheadBytesRate.count == readAheadBytes + 100,
+      "The read-ahead should stop at the end of the file")
+  }
+
+  @Test
+  def testReadAfterClosedFile() {
+    warmer.start()
+    val closed = new FileMessageSet(TestUtils.tempFile())
+    closed.append(new ByteBufferMessageSet(NoCompressionCodec, new Message("message".getBytes)))
+    closed.close()
+    warmer.readAfter(closed.read(0, 0))
+    val readAheadBytes = warmer.readAheadBytesRate.count
+    warmer.readAfter(messageSet.read(0, 100))
+    TestUtils.waitUntilTrue(() => warmer.readAheadBytesRate.count == readAheadBytes + 1024,
+      "The warmer should keep reading ahead after failing to read a closed file")
+    closed.delete()
+  }
+
+  @Test
+  def testReadAfterWhenNotRunning() {
+    val readAheadBytes = warmer.readAheadBytesRate.count
+    warmer.readAfter(messageSet.read(0, 100))
+    assertEquals(readAheadBytes, warmer.readAheadBytesRate.count)
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.{File, FileOutputStream}
+
+import kafka.message.Message
+import kafka.utils.TestUtils
+import org.junit.Assert._
+import org.junit.{After, Test}
+import org.scalatest.junit.JUnitSuite
+
+class SegmentKeyStatsTest extends JUnitSuite {
+
+  val file = new File(TestUtils.tempDir(), "00000000000000000000" + Log.KeyStatsFileSuffix)
+
+  @After
+  def tearDown() {
+    file.delete()
+  }
+
+  private def message(key: Int) = new Message(key.toString.getBytes, key.toString.getBytes, Message.NoTimestamp, Message.MagicValue_V1)
+
+  private def assertEstimate(expected: Long, stats: Iterable[SegmentKeyStats]) {
+    val estimate = SegmentKeyStats.estimateDistinctKeys(stats)
+    assertTrue("Estimated %d distinct keys instead of %d".format(estimate, expected), math.abs(estimate - expected) <= 0.1 * expected)
+  }
+
+  @Test
+  def testEstimateDistinctKeys() {
+    assertEquals(0L, SegmentKeyStats.estimateDistinctKeys(Seq(SegmentKeyStats())))
+    for (numKeys <- Seq(100, 10000, 1000000)) {
+      val stats = SegmentKeyStats()
+      for (i <- 0 until numKeys)
+        stats.record(message(i))
+      assertEquals(numKeys.toLong, stats.keyedMessages)
+      assertEstimate(numKeys, Seq(stats))
+    }
+  }
+
+  @Test
+  def testEstimateDistinctKeysOfSeveralSegments() {
+    // two segments with half of their keys in common
+    val first = SegmentKeyStats()
+    val second = SegmentKeyStats()
+    for (i <- 0 until 20000)
+      first.record(message(i))
+    for (i <- 10000 until 30000)
+      second.record(message(i))
+    assertEstimate(30000, Seq(first, second))
+  }
+
+  @Test
+  def testWriteAndRead() {
+    val stats = SegmentKeyStats()
+    for (i <- 0 until 1000)
+      stats.record(message(i % 100))
+    stats.record(new Message(null, "0".getBytes, Message.NoTimestamp, Message.MagicValue_V1))
+    stats.coveredBytes = 5000
+    stats.maybeWriteTo(file)
+
+    val read = SegmentKeyStats.readFrom(file)
+    assertEquals(5000, read.coveredBytes)
+    assertEquals(1001L, read.keyedMessages)
+    assertEquals(1L, read.tombstones)
+    assertEquals(SegmentKeyStats.estimateDistinctKeys(Seq(stats)), SegmentKeyStats.estimateDistinctKeys(Seq(read)))
+
+    stats.invalidate()
+    stats.maybeWriteTo(file)
+    assertFalse(file.exists)
+  }
+
+  @Test
+  def testReadInvalidFile() {
+    val out = new FileOutputStream(file)
+    try out.write(Array[Byte](0, 0, 0, 0, 1, 1))
+    finally out.close()
+    val stats = SegmentKeyStats.readFrom(file)
+    assertEquals(0, stats.coveredBytes)
+    assertEquals(0L, stats.keyedMessages)
+  }
+}
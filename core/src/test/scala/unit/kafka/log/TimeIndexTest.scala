@@ -60,6 +60,24 @@ class TimeIndexTest extends JUnitSuite {
     assertEquals(TimestampOffset(30L, 75L), idx.lookup(30))
   }
 
+  @Test
+  def testLookUpAcrossWarmSection() {
+    // more entries than the 8KB warm section at the end of the index holds
+    val numEntries = 2000
+    val largeIdx = new TimeIndex(file = nonExistantTempFile(), baseOffset = 0L, maxIndexSize = (numEntries + 1) * 12)
+    try {
+      for(i <- 0 until numEntries)
+        largeIdx.maybeAppend(10L * (i + 1), i)
+      assertEquals(TimestampOffset(-1L, 0L), largeIdx.lookup(5L))
+      for(timestamp <- 10L until 10L * (numEntries + 1) by 5L) {
+        val slot = (timestamp / 10 - 1).toInt
+        assertEquals(TimestampOffset(10L * (slot + 1), slot), largeIdx.lookup(timestamp))
+      }
+    } finally {
+      largeIdx.file.delete()
+    }
+  }
+
   @Test
   def testTruncate() {
     appendEntries(maxEntries - 1)
@@ -17,6 +17,7 @@
 
 package kafka.message
 
+import java.io.{DataInputStream, EOFException}
 import java.nio._
 
 import kafka.common.LongRef
@@ -26,6 +27,8 @@ import org.apache.kafka.common.record.TimestampType
 import org.junit.Assert._
 import org.junit.Test
 
+import scala.collection.mutable.ArrayBuffer
+
 class ByteBufferMessageSetTest extends BaseMessageSetTestCases {
 
   override def createMessageSet(messages: Seq[Message]): ByteBufferMessageSet = 
@@ -364,6 +367,42 @@ class ByteBufferMessageSetTest extends BaseMessageSetTestCases {
     checkOffsets(compressedMessagesWithOffset, offset)
   }
 
+  @Test
+  def testInPlaceOffsetAssignmentRequiresInnerOffsetsFromZero() {
+    val now = System.currentTimeMillis()
+    def compressedMessages(offsets: Seq[Long]) = new ByteBufferMessageSet(DefaultCompressionCodec, offsets,
+      new Message("hello".getBytes, timestamp = now, magicValue = Message.MagicValue_V1),
+      new Message("there".getBytes, timestamp = now, magicValue = Message.MagicValue_V1),
+      new Message("beautiful".getBytes, timestamp = now, magicValue = Message.MagicValue_V1))
+    def validate(messages: ByteBufferMessageSet) = messages.validateMessagesAndAssignOffsets(offsetCounter = new LongRef(5),
+                                                                                           now = now,
+                                                                                           sourceCodec = DefaultCompressionCodec,
+                                                                                           targetCodec = DefaultCompressionCodec,
+                                                                                           messageTimestampType = TimestampType.CREATE_TIME,
+                                                                                           messageTimestampDiffMaxMs = 5000L)
+
+    // inner offsets from 0 only need the wrapper offset to be rewritten
+    val fromZero = compressedMessages(Seq(0L, 1L, 2L))
+    val fromZeroResult = validate(fromZero)
+    assertFalse("Inner offsets from 0 should be kept", fromZeroResult.messageSizeMaybeChanged)
+    assertSame(fromZero, fromZeroResult.validatedMessages)
+    checkOffsets(fromZeroResult.validatedMessages, 5)
+
+    // consecutive inner offsets larger than the base offset are rewritten to start from 0 by re-compressing the messages
+    val consecutive = compressedMessages(Seq(100L, 101L, 102L))
+    val consecutiveResult = validate(consecutive)
+    assertTrue("Inner offsets not starting from 0 should be rewritten", consecutiveResult.messageSizeMaybeChanged)
+    assertEquals(Seq(0L, 1L, 2L), innerOffsets(consecutiveResult.validatedMessages))
+    checkOffsets(consecutiveResult.validatedMessages, 5)
+
+    // inner offsets with gaps are rewritten as well
+    val gaps = compressedMessages(Seq(0L, 2L, 4L))
+    val gapsResult = validate(gaps)
+    assertTrue("Inner offsets with gaps should be rewritten", gapsResult.messageSizeMaybeChanged)
+    assertEquals(Seq(0L, 1L, 2L), innerOffsets(gapsResult.validatedMessages))
+    checkOffsets(gapsResult.validatedMessages, 5)
+  }
+
   @Test
   def testOffsetAssignmentAfterMessageFormatConversion() {
     // Check up conversion
@@ -427,6 +466,25 @@ class ByteBufferMessageSetTest extends BaseMessageSetTestCases {
   }
   
   /* check that offsets are assigned based on byte offset from the given base offset */
+  /* the offsets stored in the compressed payload of the single wrapper message of the message set */
+  private def innerOffsets(messages: ByteBufferMessageSet): Seq[Long] = {
+    val wrapper = messages.shallowIterator.next().message
+    val input = new DataInputStream(CompressionFactory(wrapper.compressionCodec, wrapper.magic,
+      new ByteBufferBackedInputStream(wrapper.payload)))
+    val offsets = new ArrayBuffer[Long]
+    try {
+      while (true) {
+        offsets += input.readLong()
+        input.skipBytes(input.readInt())
+      }
+    } catch {
+      case _: EOFException =>
+    } finally {
+      input.close()
+    }
+    offsets
+  }
+
   def checkOffsets(messages: ByteBufferMessageSet, baseOffset: Long) {
     assertTrue("Message set should not be empty", messages.nonEmpty)
     var offset = baseOffset
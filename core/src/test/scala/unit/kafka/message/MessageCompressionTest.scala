@@ -53,6 +53,8 @@ class MessageCompressionTest extends JUnitSuite {
       codecs += SnappyCompressionCodec
     if(isLZ4Available)
       codecs += LZ4CompressionCodec
+    if(isZstdAvailable)
+      codecs += ZStdCompressionCodec
     for(codec <- codecs)
       testSimpleCompressDecompress(codec)
   }
@@ -74,6 +76,9 @@ class MessageCompressionTest extends JUnitSuite {
 
     if(isLZ4Available)
       testCompressSize(LZ4CompressionCodec, messages, 387)
+
+    if(isZstdAvailable)
+      testCompressSize(ZStdCompressionCodec, messages, 379)
   }
 
   def testSimpleCompressDecompress(compressionCodec: CompressionCodec) {
@@ -107,4 +112,13 @@ class MessageCompressionTest extends JUnitSuite {
       case e: UnsatisfiedLinkError => false
     }
   }
+
+  def isZstdAvailable: Boolean = {
+    try {
+      new com.github.luben.zstd.ZstdOutputStream(new ByteArrayOutputStream())
+      true
+    } catch {
+      case e: UnsatisfiedLinkError => false
+    }
+  }
 }
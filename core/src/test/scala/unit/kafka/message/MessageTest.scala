@@ -20,6 +20,7 @@ package kafka.message
 import java.nio._
 import java.util.HashMap
 import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.{ChecksumType, CompressionType, MemoryRecords, Records}
 
 import scala.collection._
 import org.junit.Assert._
@@ -139,6 +140,24 @@ class MessageTest extends JUnitSuite {
     }
   }
 
+  @Test
+  def testCrc32CMessageFormatConversion() {
+    val records = MemoryRecords.emptyRecords(ByteBuffer.allocate(1024), CompressionType.NONE, ChecksumType.CRC32C, 1024)
+    records.append(0L, 5L, "key".getBytes, "value".getBytes)
+    records.close()
+    val buffer = records.buffer
+    buffer.position(Records.LOG_OVERHEAD)
+    val message = new Message(buffer.slice())
+    assertEquals(ChecksumType.CRC32C, message.checksumType)
+    assertTrue("Message should be valid", message.isValid)
+
+    val convertedMessage = message.toFormatVersion(Message.MagicValue_V0)
+    assertEquals(ChecksumType.CRC32, convertedMessage.checksumType)
+    assertTrue("Message should still be valid", convertedMessage.isValid)
+    assertEquals(ChecksumType.CRC32, ChecksumType.forAttributes(convertedMessage.attributes))
+    assertEquals("Message payload should not change", ByteBuffer.wrap("value".getBytes), convertedMessage.payload)
+  }
+
   @Test(expected = classOf[IllegalArgumentException])
   def testInvalidTimestampAndMagicValueCombination() {
       new Message("hello".getBytes, 0L, Message.MagicValue_V0)
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.network
+
+import java.net.InetAddress
+import java.nio.ByteBuffer
+import java.util.{Collections, HashMap}
+
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.{ApiKeys, SecurityProtocol}
+import org.apache.kafka.common.requests._
+import org.apache.kafka.common.security.auth.KafkaPrincipal
+import org.junit.Assert._
+import org.junit.{After, Test}
+import org.scalatest.junit.JUnitSuite
+
+class RequestChannelTest extends JUnitSuite {
+
+  val channel = new RequestChannel(numProcessors = 1, queueSize = 10, controlPlaneQueueSize = 10,
+    groupCoordinationQueueSize = 10, groupCoordinationWeight = 2)
+
+  @After
+  def tearDown() {
+    channel.shutdown()
+  }
+
+  private def request(apiKey: ApiKeys, body: AbstractRequest): RequestChannel.Request = {
+    val buffer = RequestSend.serialize(new RequestHeader(apiKey.id, "client", 0), body.toStruct)
+    RequestChannel.Request(processor = 0, connectionId = "connection", RequestChannel.Session(KafkaPrincipal.ANONYMOUS,
+      InetAddress.getLocalHost), buffer, startTimeMs = 0, SecurityProtocol.PLAINTEXT)
+  }
+
+  private def produceRequest = request(ApiKeys.PRODUCE, new ProduceRequest(1, 1000, new HashMap[TopicPartition, ByteBuffer]()))
+
+  private def heartbeatRequest = request(ApiKeys.HEARTBEAT, new HeartbeatRequest("group", 1, "member"))
+
+  private def stopReplicaRequest = request(ApiKeys.STOP_REPLICA,
+    new StopReplicaRequest(0, 1, false, Collections.singleton(new TopicPartition("topic", 0))))
+
+  private def receivedApiKeys(count: Int): Seq[ApiKeys] =
+    (0 until count).map(_ => ApiKeys.forId(channel.receiveRequest(100).requestId))
+
+  @Test
+  def testRequestQueueTypes() {
+    assertEquals(RequestChannel.ControlPlaneQueue, RequestChannel.requestQueueType(ApiKeys.LEADER_AND_ISR.id))
+    assertEquals(RequestChannel.ControlPlaneQueue, RequestChannel.requestQueueType(ApiKeys.CONTROLLED_SHUTDOWN_KEY.id))
+    assertEquals(RequestChannel.GroupCoordinationQueue, RequestChannel.requestQueueType(ApiKeys.HEARTBEAT.id))
+    assertEquals(RequestChannel.GroupCoordinationQueue, RequestChannel.requestQueueType(ApiKeys.OFFSET_COMMIT.id))
+    assertEquals(RequestChannel.DataPlaneQueue, RequestChannel.requestQueueType(ApiKeys.PRODUCE.id))
+    assertEquals(RequestChannel.DataPlaneQueue, RequestChannel.requestQueueType(ApiKeys.METADATA.id))
+  }
+
+  @Test
+  def testControlPlaneRequestsAreTakenFirst() {
+    channel.sendRequest(produceRequest)
+    channel.sendRequest(heartbeatRequest)
+    channel.sendRequest(stopReplicaRequest)
+    assertEquals(Seq(ApiKeys.STOP_REPLICA, ApiKeys.HEARTBEAT, ApiKeys.PRODUCE), receivedApiKeys(3))
+    assertNull(channel.receiveRequest(10))
+  }
+
+  @Test
+  def testDataPlaneRequestsAreNotStarved() {
+    for (_ <- 0 until 2)
+      channel.sendRequest(produceRequest)
+    for (_ <- 0 until 5)
+      channel.sendRequest(heartbeatRequest)
+    assertEquals(Seq(ApiKeys.HEARTBEAT, ApiKeys.HEARTBEAT, ApiKeys.PRODUCE, ApiKeys.HEARTBEAT, ApiKeys.HEARTBEAT,
+      ApiKeys.PRODUCE, ApiKeys.HEARTBEAT), receivedApiKeys(7))
+    assertNull(channel.receiveRequest(10))
+  }
+}
@@ -109,9 +109,8 @@ class SocketServerTest extends JUnitSuite {
     sockets.clear()
   }
 
-  private def producerRequestBytes: Array[Byte] = {
+  private def producerRequestBytes(correlationId: Int = -1): Array[Byte] = {
     val apiKey: Short = 0
-    val correlationId = -1
     val clientId = ""
     val ackTimeoutMs = 10000
     val ack = 0: Short
@@ -132,7 +131,7 @@ class SocketServerTest extends JUnitSuite {
   def simpleRequest() {
     val plainSocket = connect(protocol = SecurityProtocol.PLAINTEXT)
     val traceSocket = connect(protocol = SecurityProtocol.TRACE)
-    val serializedBytes = producerRequestBytes
+    val serializedBytes = producerRequestBytes()
 
     // Test PLAINTEXT socket
     sendRequest(plainSocket, serializedBytes)
@@ -145,6 +144,40 @@ class SocketServerTest extends JUnitSuite {
     assertEquals(serializedBytes.toSeq, receiveResponse(traceSocket).toSeq)
   }
 
+  @Test
+  def testPipelinedRequests() {
+    val pipelinedProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    pipelinedProps.put(KafkaConfig.MaxPipelinedRequestsPerConnectionProp, "3")
+    val pipelinedServer = new SocketServer(KafkaConfig.fromProps(pipelinedProps), new Metrics, new SystemTime)
+    try {
+      pipelinedServer.startup()
+      val channel = pipelinedServer.requestChannel
+      val socket = connect(pipelinedServer)
+      val requests = (0 until 3).map(correlationId => producerRequestBytes(correlationId))
+      requests.foreach(sendRequest(socket, _))
+
+      // requests from a connection are passed to the request handlers one at a time
+      val first = channel.receiveRequest(2000)
+      assertNotNull(first)
+      assertNull(channel.receiveRequest(200))
+      channel.requestHandled(first)
+      val second = channel.receiveRequest(2000)
+      assertNotNull(second)
+
+      // the next request is passed on once the response of the previous one is ready, even if it is not sent yet
+      processRequest(channel, second)
+      val third = channel.receiveRequest(2000)
+      assertNotNull(third)
+      processRequest(channel, third)
+
+      // responses are sent in the order of the requests
+      processRequest(channel, first)
+      requests.foreach(request => assertEquals(request.toSeq, receiveResponse(socket).toSeq))
+    } finally {
+      pipelinedServer.shutdown()
+    }
+  }
+
   @Test
   def tooBigRequestIsRejected() {
     val tooManyBytes = new Array[Byte](server.config.socketRequestMaxBytes + 1)
@@ -213,7 +246,7 @@ class SocketServerTest extends JUnitSuite {
     TestUtils.waitUntilTrue(() => server.connectionCount(address) < conns.length,
       "Failed to decrement connection count after close")
     val conn2 = connect()
-    val serializedBytes = producerRequestBytes
+    val serializedBytes = producerRequestBytes()
     sendRequest(conn2, serializedBytes)
     val request = server.requestChannel.receiveRequest(2000)
     assertNotNull(request)
@@ -232,7 +265,7 @@ class SocketServerTest extends JUnitSuite {
       val conns = (0 until overrideNum).map(_ => connect(overrideServer))
 
       // it should succeed
-      val serializedBytes = producerRequestBytes
+      val serializedBytes = producerRequestBytes()
       sendRequest(conns.last, serializedBytes)
       val request = overrideServer.requestChannel.receiveRequest(2000)
       assertNotNull(request)
@@ -317,7 +350,7 @@ class SocketServerTest extends JUnitSuite {
     try {
       overrideServer.startup()
       conn = connect(overrideServer)
-      val serializedBytes = producerRequestBytes
+      val serializedBytes = producerRequestBytes()
       sendRequest(conn, serializedBytes)
 
       val channel = overrideServer.requestChannel
@@ -357,7 +390,7 @@ class SocketServerTest extends JUnitSuite {
     try {
       overrideServer.startup()
       conn = connect(overrideServer)
-      val serializedBytes = producerRequestBytes
+      val serializedBytes = producerRequestBytes()
       sendRequest(conn, serializedBytes)
       val channel = overrideServer.requestChannel
       val request = channel.receiveRequest(2000)
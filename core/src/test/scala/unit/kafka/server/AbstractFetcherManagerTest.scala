@@ -0,0 +1,61 @@
+/**
+  * Licensed to the Apache Software Foundation (ASF) under one or more
+  * contributor license agreements.  See the NOTICE file distributed with
+  * this work for additional information regarding copyright ownership.
+  * The ASF licenses this file to You under the Apache License, Version 2.0
+  * (the "License"); you may not use this file except in compliance with
+  * the License.  You may obtain a copy of the License at
+  *
+  *    http://www.apache.org/licenses/LICENSE-2.0
+  *
+  * Unless required by applicable law or agreed to in writing, software
+  * distributed under the License is distributed on an "AS IS" BASIS,
+  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  * See the License for the specific language governing permissions and
+  * limitations under the License.
+  */
+package kafka.server
+
+import kafka.common.TopicAndPartition
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class AbstractFetcherManagerTest {
+
+  private def partition(id: Int) = TopicAndPartition("topic", id)
+
+  @Test
+  def testPlanMovesEvensOutLoad() {
+    // fetcher 0 has a busy partition and two others, fetcher 1 has nothing to fetch
+    val moves = AbstractFetcherManager.planMoves(Map(
+      0 -> Map(partition(0) -> 1000L, partition(1) -> 600L, partition(2) -> 400L),
+      1 -> Map.empty))
+    assertEquals(Map(partition(0) -> 1), moves)
+  }
+
+  @Test
+  def testPlanMovesToSeveralFetchers() {
+    val moves = AbstractFetcherManager.planMoves(Map(
+      0 -> Map(partition(0) -> 100L, partition(1) -> 100L, partition(2) -> 100L),
+      1 -> Map(partition(3) -> 0L),
+      2 -> Map.empty))
+    assertEquals(2, moves.size)
+    assertEquals(Set(1, 2), moves.values.toSet)
+  }
+
+  @Test
+  def testPlanMovesWhenBalanced() {
+    // the load is within the allowed imbalance
+    assertEquals(Map.empty, AbstractFetcherManager.planMoves(Map(
+      0 -> Map(partition(0) -> 110L),
+      1 -> Map(partition(1) -> 90L))))
+    // a single busy partition cannot be split
+    assertEquals(Map.empty, AbstractFetcherManager.planMoves(Map(
+      0 -> Map(partition(0) -> 1000L, partition(1) -> 0L),
+      1 -> Map.empty)))
+    // nothing was fetched
+    assertEquals(Map.empty, AbstractFetcherManager.planMoves(Map(
+      0 -> Map(partition(0) -> 0L, partition(1) -> 0L),
+      1 -> Map.empty)))
+  }
+}
@@ -17,6 +17,9 @@
 
 package kafka.server
 
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
 import com.yammer.metrics.Metrics
 import kafka.cluster.BrokerEndPoint
 import kafka.common.TopicAndPartition
@@ -24,7 +27,7 @@ import kafka.message.ByteBufferMessageSet
 import kafka.server.AbstractFetcherThread.{FetchRequest, PartitionData}
 import kafka.utils.TestUtils
 import org.apache.kafka.common.protocol.Errors
-import org.junit.Assert.{assertFalse, assertTrue}
+import org.junit.Assert.{assertEquals, assertFalse, assertTrue}
 import org.junit.{Before, Test}
 
 import scala.collection.JavaConverters._
@@ -50,7 +53,8 @@ class AbstractFetcherThreadTest {
 
     // wait until all fetcher metrics are present
     TestUtils.waitUntilTrue(() =>
-      allMetricsNames == Set(FetcherMetrics.BytesPerSec, FetcherMetrics.RequestsPerSec, FetcherMetrics.ConsumerLag),
+      allMetricsNames == Set(FetcherMetrics.BytesPerSec, FetcherMetrics.RequestsPerSec, FetcherMetrics.UtilizationPercent,
+        FetcherMetrics.ConsumerLag),
       "Failed waiting for all fetcher metrics to be registered")
 
     fetcherThread.shutdown()
@@ -82,6 +86,46 @@ class AbstractFetcherThreadTest {
     fetcherThread.shutdown()
   }
 
+  @Test
+  def testTakePartitions() {
+    val partition0 = new TopicAndPartition("topic", 0)
+    val partition1 = new TopicAndPartition("topic", 1)
+    val fetcherThread = new DummyFetcherThread("dummy", "client", new BrokerEndPoint(0, "localhost", 9092))
+
+    fetcherThread.addPartitions(Map(partition0 -> 5L, partition1 -> 10L))
+    assertEquals(Map(partition0 -> 0L, partition1 -> 0L), fetcherThread.drainFetchedBytes())
+
+    // the taken partitions are no longer fetched and come with the offset to fetch them from
+    assertEquals(Map(partition1 -> 10L), fetcherThread.takePartitions(Set(partition1, new TopicAndPartition("topic", 2))))
+    assertEquals(1, fetcherThread.partitionCount())
+    assertEquals(Set(partition0), fetcherThread.drainFetchedBytes().keySet)
+  }
+
+  @Test
+  def testUtilizationExcludesFetchWait() {
+    val partition = new TopicAndPartition("topic", 0)
+    val fetchWaitMs = 50L
+    val fetches = new AtomicInteger
+    val fetcherThread = new DummyFetcherThread("dummy", "client", new BrokerEndPoint(0, "localhost", 9092)) {
+      override protected def fetch(fetchRequest: DummyFetchRequest): collection.Map[TopicAndPartition, DummyPartitionData] = {
+        // simulate a fetch that waits at the source broker before returning
+        Thread.sleep(fetchWaitMs)
+        fetches.incrementAndGet()
+        super.fetch(fetchRequest)
+      }
+    }
+
+    fetcherThread.addPartitions(Map(partition -> 0L))
+    fetcherThread.start()
+    TestUtils.waitUntilTrue(() => fetches.get >= 10, "Failed waiting for fetches")
+    fetcherThread.shutdown()
+
+    // the time waiting in fetch is not counted as busy time
+    val busyNs = fetcherThread.fetcherStats.utilizationRate.count
+    val fetchWaitNs = TimeUnit.MILLISECONDS.toNanos(fetches.get * fetchWaitMs)
+    assertTrue(s"Busy time $busyNs ns includes the fetch wait of $fetchWaitNs ns", busyNs < fetchWaitNs / 2)
+  }
+
   private def allMetricsNames = Metrics.defaultRegistry().allMetrics().asScala.keySet.map(_.getName)
 
   class DummyFetchRequest(val offsets: collection.Map[TopicAndPartition, Long]) extends FetchRequest {
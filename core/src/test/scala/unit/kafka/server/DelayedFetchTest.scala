@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.server
+
+import kafka.api.{FetchResponsePartitionData, PartitionFetchInfo}
+import kafka.cluster.Replica
+import kafka.common.TopicAndPartition
+import org.easymock.EasyMock._
+import org.easymock.IAnswer
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.{Map, mutable}
+
+class DelayedFetchTest {
+  val topicAndPartition0 = TopicAndPartition("test-topic", 0)
+  val topicAndPartition1 = TopicAndPartition("test-topic", 1)
+  val fetchOffset = new LogOffsetMetadata(10L, 0L, 1000)
+
+  /* the high watermark of each partition, as returned by its leader replica */
+  val highWatermarks = mutable.Map(topicAndPartition0 -> fetchOffset, topicAndPartition1 -> fetchOffset)
+
+  @Test
+  def testMinBytesAccumulatedAcrossKeyChanges(): Unit = {
+    val replicaManager = mockReplicaManager(Map(topicAndPartition0 -> 2, topicAndPartition1 -> 2))
+    val quota = mockQuota(throttled = false)
+    replay(quota)
+    val delayedFetch = newDelayedFetch(100, replicaManager, quota)
+
+    assertFalse("Nothing is available yet", delayedFetch.tryComplete())
+
+    // the first partition alone does not reach the min bytes
+    highWatermarks.put(topicAndPartition0, new LogOffsetMetadata(11L, 0L, 1060))
+    delayedFetch.onKeyChanged(new TopicPartitionOperationKey(topicAndPartition0))
+    assertFalse("60 bytes are less than the min bytes", delayedFetch.tryComplete())
+
+    // the bytes of the first partition still count when only the second one changes
+    highWatermarks.put(topicAndPartition1, new LogOffsetMetadata(11L, 0L, 1050))
+    delayedFetch.onKeyChanged(new TopicPartitionOperationKey(topicAndPartition1))
+    assertTrue("110 bytes reach the min bytes", delayedFetch.tryComplete())
+    assertTrue(delayedFetch.isCompleted)
+
+    // each partition was read once initially and once after its key changed
+    verify(replicaManager)
+  }
+
+  @Test
+  def testUnchangedPartitionsAreNotReadAgain(): Unit = {
+    val replicaManager = mockReplicaManager(Map(topicAndPartition0 -> 2, topicAndPartition1 -> 1))
+    val quota = mockQuota(throttled = false)
+    replay(quota)
+    val delayedFetch = newDelayedFetch(100, replicaManager, quota)
+
+    highWatermarks.put(topicAndPartition1, new LogOffsetMetadata(11L, 0L, 1070))
+    assertFalse("70 bytes are less than the min bytes", delayedFetch.tryComplete())
+
+    // nothing changed, so no partition is read again
+    assertFalse(delayedFetch.tryComplete())
+
+    // only the changed partition is read again, and the bytes cached for the other one complete the fetch
+    highWatermarks.put(topicAndPartition0, new LogOffsetMetadata(11L, 0L, 1030))
+    delayedFetch.onKeyChanged(new TopicPartitionOperationKey(topicAndPartition0))
+    assertTrue("100 bytes reach the min bytes", delayedFetch.tryComplete())
+
+    verify(replicaManager)
+  }
+
+  @Test
+  def testThrottledPartitionOnOlderSegmentIsCheckedAgain(): Unit = {
+    val replicaManager = mockReplicaManager(Map(topicAndPartition0 -> 2, topicAndPartition1 -> 1))
+    val quota = mockQuota(throttled = true)
+    expect(quota.isQuotaExceeded()).andReturn(true).once()
+    expect(quota.isQuotaExceeded()).andReturn(false).once()
+    replay(quota)
+    val delayedFetch = newDelayedFetch(100, replicaManager, quota)
+
+    // the first partition has rolled past the segment of the fetch offset, but it is throttled and the quota is exceeded
+    highWatermarks.put(topicAndPartition0, new LogOffsetMetadata(20L, 15L, 0))
+    assertFalse("The quota is exceeded", delayedFetch.tryComplete())
+
+    // the partition is checked again without any key change, and the fetch completes once the quota allows
+    assertTrue("The quota is no longer exceeded", delayedFetch.tryComplete())
+
+    verify(replicaManager)
+    verify(quota)
+  }
+
+  private def newDelayedFetch(minBytes: Int, replicaManager: ReplicaManager, quota: ReplicaQuota): DelayedFetch = {
+    val fetchMetadata = FetchMetadata(minBytes, fetchOnlyLeader = true, fetchOnlyCommitted = true, isFromFollower = false,
+      Map(topicAndPartition0 -> FetchPartitionStatus(fetchOffset, PartitionFetchInfo(fetchOffset.messageOffset, 1000)),
+        topicAndPartition1 -> FetchPartitionStatus(fetchOffset, PartitionFetchInfo(fetchOffset.messageOffset, 1000))))
+    new DelayedFetch(1000, fetchMetadata, replicaManager, quota,
+      (_: Map[TopicAndPartition, FetchResponsePartitionData]) => ())
+  }
+
+  // a replica manager whose leader replica of each partition is expected to be looked up the given number of times
+  private def mockReplicaManager(lookups: Map[TopicAndPartition, Int]): ReplicaManager = {
+    val replicaManager = createMock(classOf[ReplicaManager])
+    for ((topicAndPartition, times) <- lookups) {
+      val replica = createMock(classOf[Replica])
+      expect(replica.highWatermark).andAnswer(new IAnswer[LogOffsetMetadata] {
+        override def answer(): LogOffsetMetadata = highWatermarks(topicAndPartition)
+      }).anyTimes()
+      replay(replica)
+      expect(replicaManager.getLeaderReplicaIfLocal(topicAndPartition.topic, topicAndPartition.partition))
+        .andReturn(replica).times(times)
+    }
+    expect(replicaManager.readFromLocalLog(anyBoolean(), anyBoolean(), anyObject(), anyObject()))
+      .andReturn(Map.empty[TopicAndPartition, LogReadResult]).anyTimes()
+    replay(replicaManager)
+    replicaManager
+  }
+
+  private def mockQuota(throttled: Boolean): ReplicaQuota = {
+    val quota = createMock(classOf[ReplicaQuota])
+    expect(quota.isThrottled(anyObject())).andReturn(throttled).anyTimes()
+    quota
+  }
+}
@@ -17,6 +17,7 @@
 
 package kafka.server
 
+import kafka.utils.timer.SystemTimer
 import org.junit.{After, Before, Test}
 import org.junit.Assert._
 
@@ -98,8 +99,81 @@ class DelayedOperationTest {
     assertEquals("Purgatory should have 1 watched elements instead of " + purgatory.watched(), 1, purgatory.watched())
   }
 
+  @Test
+  def testPurgeCompletedEntries() {
+    val timer = new SystemTimer("mock")
+    val manualPurgatory = new DelayedOperationPurgatory[MockDelayedOperation]("mock", timer, purgeInterval = 1, reaperEnabled = false)
+    try {
+      val r1 = new MockDelayedOperation(100000L)
+      val r2 = new MockDelayedOperation(100000L)
+      val r3 = new MockDelayedOperation(100000L)
+      manualPurgatory.tryCompleteElseWatch(r1, Array("test1", "test2"))
+      manualPurgatory.tryCompleteElseWatch(r2, Array("test1"))
+      manualPurgatory.tryCompleteElseWatch(r3, Array("test2", "test3"))
+
+      // completed operations stay watched until they are purged
+      r1.completable = true
+      r1.tryComplete()
+      r3.completable = true
+      r3.tryComplete()
+      assertEquals(5, manualPurgatory.watched())
+      assertEquals(4, manualPurgatory.completedWatched())
+
+      manualPurgatory.advanceClock(0L)
+      assertEquals(1, manualPurgatory.watched())
+      assertEquals(0, manualPurgatory.completedWatched())
+      assertFalse(r2.isCompleted())
+
+      r2.completable = true
+      assertEquals(1, manualPurgatory.checkAndComplete("test1"))
+      assertEquals(0, manualPurgatory.watched())
+      assertEquals(0, manualPurgatory.completedWatched())
+
+      // the entries of operations completed and unlinked by checkAndComplete are no longer counted
+      for (i <- 0 until 10) {
+        val r = new MockDelayedOperation(100000L)
+        manualPurgatory.tryCompleteElseWatch(r, Array("test4", "test5"))
+        r.completable = true
+        assertEquals(1, manualPurgatory.checkAndComplete("test4"))
+      }
+      assertEquals(10, manualPurgatory.watched())
+      assertEquals(10, manualPurgatory.completedWatched())
+      assertEquals(0, manualPurgatory.checkAndComplete("test5"))
+      assertEquals(0, manualPurgatory.watched())
+      assertEquals(0, manualPurgatory.completedWatched())
+    } finally {
+      manualPurgatory.shutdown()
+    }
+  }
+
+  @Test
+  def testCheckAndCompleteAll() {
+    val r1 = new MockDelayedOperation(100000L)
+    val r2 = new MockDelayedOperation(100000L)
+    assertFalse(purgatory.tryCompleteElseWatch(r1, Array("test1", "test2", "test3")))
+    assertFalse(purgatory.tryCompleteElseWatch(r2, Array("test3")))
+    r1.checks = 0
+    r1.changedKeys.clear()
+    r2.checks = 0
+
+    // r1 is checked once for all of the keys that changed, r2 is not watched on them
+    assertEquals(0, purgatory.checkAndCompleteAll(Seq("test1", "test2", "test4")))
+    assertEquals(1, r1.checks)
+    assertEquals(Set("test1", "test2"), r1.changedKeys)
+    assertEquals(0, r2.checks)
+
+    r1.completable = true
+    r2.completable = true
+    assertEquals("r1 and r2 satisfied", 2, purgatory.checkAndCompleteAll(Seq("test1", "test3")))
+    assertEquals(2, r1.checks)
+    assertEquals(1, r2.checks)
+    assertEquals("Nothing satisfied", 0, purgatory.checkAndCompleteAll(Seq("test1", "test2", "test3")))
+  }
+
   class MockDelayedOperation(delayMs: Long) extends DelayedOperation(delayMs) {
     var completable = false
+    var checks = 0
+    val changedKeys = scala.collection.mutable.Set[Any]()
 
     def awaitExpiration() {
       synchronized {
@@ -107,7 +181,12 @@ class DelayedOperationTest {
       }
     }
 
+    override def onKeyChanged(key: Any) {
+      changedKeys += key
+    }
+
     override def tryComplete() = {
+      checks += 1
       if (completable)
         forceComplete()
       else
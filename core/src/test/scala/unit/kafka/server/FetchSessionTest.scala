@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import kafka.api.{FetchRequest, FetchResponsePartitionData, PartitionFetchInfo}
+import kafka.common.TopicAndPartition
+import kafka.message.{ByteBufferMessageSet, Message, MessageSet}
+import kafka.utils.MockTime
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.requests.{FetchResponse, FetchRequest => JFetchRequest}
+import org.junit.Assert._
+import org.junit.{After, Test}
+
+import scala.collection.JavaConverters._
+
+class FetchSessionTest {
+
+  private val time = new MockTime
+  private val cache = new FetchSessionCache(maxSessions = 2, evictionIdleMs = 1000L, time = time)
+  private val tp0 = TopicAndPartition("topic", 0)
+  private val tp1 = TopicAndPartition("topic", 1)
+  private val tp2 = TopicAndPartition("topic", 2)
+
+  @After
+  def tearDown() {
+    cache.close()
+  }
+
+  @Test
+  def testSessionlessFetch() {
+    val request = fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.FinalEpoch, Map(tp0 -> 0L, tp1 -> 0L))
+    val context = cache.newContext(request)
+    assertEquals(FetchRequest.InvalidSessionId, context.sessionId)
+    assertEquals(request.requestInfo, context.fetchInfo)
+    assertEquals(0, cache.size)
+
+    // requests of older versions are never part of a session
+    assertEquals(FetchRequest.InvalidSessionId, cache.newContext(fetchRequest(2, requestInfo = Map(tp0 -> 0L))).sessionId)
+    assertEquals(0, cache.size)
+  }
+
+  @Test
+  def testIncrementalFetch() {
+    val full = cache.newContext(fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.InitialEpoch,
+      Map(tp0 -> 0L, tp1 -> 0L, tp2 -> 0L)))
+    assertTrue(full.isInstanceOf[FullFetchContext])
+    assertEquals(1, cache.size)
+    val sessionId = full.sessionId
+    // the first response holds every partition
+    assertEquals(Set(tp0, tp1, tp2), full.responseData(Map(tp0 -> data(10), tp1 -> data(10), tp2 -> data(10))).keySet)
+
+    // tp0 moved, tp2 was removed and the others are fetched from where they were
+    val incremental = cache.newContext(fetchRequest(3, sessionId, 1, Map(tp0 -> 5L), Seq(tp2)))
+    assertTrue(incremental.isInstanceOf[IncrementalFetchContext])
+    assertEquals(Map(tp0 -> PartitionFetchInfo(5L, 1024), tp1 -> PartitionFetchInfo(0L, 1024)), incremental.fetchInfo)
+
+    // only the partitions with data, errors or a new high watermark are returned
+    val response = incremental.responseData(Map(tp0 -> data(10, messages = 1), tp1 -> data(10)))
+    assertEquals(Set(tp0), response.keySet)
+    val next = cache.newContext(fetchRequest(3, sessionId, 2, Map(tp0 -> 6L)))
+    assertEquals(Set(tp1), next.responseData(Map(tp0 -> data(10), tp1 -> data(11))).keySet)
+    val last = cache.newContext(fetchRequest(3, sessionId, 3, Map.empty))
+    assertEquals(Set(tp0), last.responseData(Map(tp0 -> data(10, Errors.NOT_LEADER_FOR_PARTITION), tp1 -> data(11))).keySet)
+  }
+
+  @Test
+  def testSessionErrors() {
+    val sessionId = cache.newContext(fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.InitialEpoch, Map(tp0 -> 0L))).sessionId
+
+    // a repeated or skipped epoch is an error
+    assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH.code, cache.newContext(fetchRequest(3, sessionId, 2, Map.empty)).errorCode)
+    val context = cache.newContext(fetchRequest(3, sessionId, 1, Map.empty))
+    assertEquals(Errors.NONE.code, context.errorCode)
+    assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH.code, cache.newContext(fetchRequest(3, sessionId, 1, Map.empty)).errorCode)
+
+    // the session is only known to the replica that created it
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND.code,
+      cache.newContext(fetchRequest(3, sessionId, 2, Map.empty, replicaId = 2)).errorCode)
+
+    // a sessionless request closes the session
+    cache.newContext(fetchRequest(3, sessionId, FetchRequest.FinalEpoch, Map(tp0 -> 0L)))
+    assertEquals(0, cache.size)
+    val error = cache.newContext(fetchRequest(3, sessionId, 2, Map.empty))
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND.code, error.errorCode)
+    assertTrue(error.fetchInfo.isEmpty)
+  }
+
+  @Test
+  def testEviction() {
+    val session1 = cache.newContext(fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.InitialEpoch, Map(tp0 -> 0L))).sessionId
+    time.sleep(500)
+    val session2 = cache.newContext(fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.InitialEpoch, Map(tp0 -> 0L))).sessionId
+    cache.newContext(fetchRequest(3, session1, 1, Map.empty))
+    assertEquals(2, cache.size)
+
+    // the least recently used session has not been idle for long enough to be evicted
+    time.sleep(500)
+    assertEquals(FetchRequest.InvalidSessionId,
+      cache.newContext(fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.InitialEpoch, Map(tp0 -> 0L))).sessionId)
+
+    time.sleep(500)
+    val session3 = cache.newContext(fetchRequest(3, FetchRequest.InvalidSessionId, FetchRequest.InitialEpoch, Map(tp0 -> 0L))).sessionId
+    assertNotEquals(FetchRequest.InvalidSessionId, session3)
+    assertTrue(cache.get(session2).isEmpty)
+    assertTrue(cache.get(session1).isDefined)
+
+    // creating a new session closes the previous one of the client
+    val session4 = cache.newContext(fetchRequest(3, session3, FetchRequest.InitialEpoch, Map(tp0 -> 0L))).sessionId
+    assertTrue(cache.get(session3).isEmpty)
+    assertTrue(cache.get(session4).isDefined)
+  }
+
+  @Test
+  def testHandler() {
+    val handler = new FetchSessionHandler("client", 0)
+    val partition0 = new TopicPartition("topic", 0)
+    val partition1 = new TopicPartition("topic", 1)
+
+    val full = handler.build(Map(partition0 -> new JFetchRequest.PartitionData(0L, 1024),
+      partition1 -> new JFetchRequest.PartitionData(0L, 1024)))
+    assertEquals(FetchRequest.InitialEpoch, full.sessionEpoch)
+    assertEquals(2, full.toSend.size)
+    assertTrue(handler.handleResponse(response(Errors.NONE, 123)))
+
+    // only the partition that moved is sent, the one that is no longer fetched is forgotten
+    val incremental = handler.build(Map(partition0 -> new JFetchRequest.PartitionData(5L, 1024)))
+    assertEquals(FetchSessionRequestData(Map.empty, Seq(partition1), 123, 1), incremental.copy(toSend = Map.empty))
+    assertEquals(Set(partition0), incremental.toSend.keySet)
+    assertTrue(handler.handleResponse(response(Errors.NONE, 123)))
+
+    val unchanged = handler.build(Map(partition0 -> new JFetchRequest.PartitionData(5L, 1024)))
+    assertEquals(FetchSessionRequestData(Map.empty, Seq.empty, 123, 2), unchanged)
+
+    // a session error closes the session, and the next request creates a new one with every partition
+    assertFalse(handler.handleResponse(response(Errors.INVALID_FETCH_SESSION_EPOCH, 123)))
+    val recreate = handler.build(Map(partition0 -> new JFetchRequest.PartitionData(5L, 1024)))
+    assertEquals(123, recreate.sessionId)
+    assertEquals(FetchRequest.InitialEpoch, recreate.sessionEpoch)
+    assertEquals(Set(partition0), recreate.toSend.keySet)
+    assertTrue(handler.handleResponse(response(Errors.NONE, 456)))
+
+    handler.build(Map(partition0 -> new JFetchRequest.PartitionData(6L, 1024)))
+    handler.handleError()
+    val afterFailure = handler.build(Map(partition0 -> new JFetchRequest.PartitionData(6L, 1024)))
+    assertEquals(FetchRequest.InitialEpoch, afterFailure.sessionEpoch)
+    assertEquals(Set(partition0), afterFailure.toSend.keySet)
+  }
+
+  @Test
+  def testHandlerAndCache() {
+    val handler = new FetchSessionHandler("client", 0)
+    val partition0 = new TopicPartition("topic", 0)
+    val partition1 = new TopicPartition("topic", 1)
+
+    def roundTrip(offsets: Map[TopicPartition, Long], highWatermark: Long): Set[TopicAndPartition] = {
+      val requestData = handler.build(offsets.map { case (partition, offset) => partition -> new JFetchRequest.PartitionData(offset, 1024) })
+      val context = cache.newContext(fetchRequest(3, requestData.sessionId, requestData.sessionEpoch,
+        requestData.toSend.map { case (partition, data) => TopicAndPartition(partition.topic, partition.partition) -> data.offset }.toMap,
+        requestData.toForget.map(partition => TopicAndPartition(partition.topic, partition.partition))))
+      val responseData = context.responseData(context.fetchInfo.map { case (partition, _) => partition -> data(highWatermark) })
+      assertTrue(handler.handleResponse(new FetchResponse(context.errorCode, context.sessionId, Map.empty[TopicPartition, FetchResponse.PartitionData].asJava, 0)))
+      responseData.keySet.toSet
+    }
+
+    assertEquals(Set(tp0, tp1), roundTrip(Map(partition0 -> 0L, partition1 -> 0L), 10L))
+    assertEquals(Set.empty, roundTrip(Map(partition0 -> 0L, partition1 -> 0L), 10L))
+    assertEquals(Set(tp0, tp1), roundTrip(Map(partition0 -> 0L, partition1 -> 0L), 11L))
+    assertEquals(Set(tp0), roundTrip(Map(partition0 -> 0L), 12L))
+  }
+
+  private def fetchRequest(version: Int,
+                           sessionId: Int = FetchRequest.InvalidSessionId,
+                           sessionEpoch: Int = FetchRequest.FinalEpoch,
+                           requestInfo: Map[TopicAndPartition, Long],
+                           toForget: Seq[TopicAndPartition] = Seq.empty,
+                           replicaId: Int = 1): FetchRequest =
+    FetchRequest(versionId = version.toShort, replicaId = replicaId, sessionId = sessionId, sessionEpoch = sessionEpoch,
+      requestInfo = requestInfo.map { case (partition, offset) => partition -> PartitionFetchInfo(offset, 1024) }, toForget = toForget)
+
+  private def data(highWatermark: Long, error: Errors = Errors.NONE, messages: Int = 0): FetchResponsePartitionData = {
+    val messageSet =
+      if (messages == 0) MessageSet.Empty
+      else new ByteBufferMessageSet((0 until messages).map(i => new Message(i.toString.getBytes)): _*)
+    FetchResponsePartitionData(error.code, highWatermark, messageSet)
+  }
+
+  private def response(error: Errors, sessionId: Int): FetchResponse =
+    new FetchResponse(error.code, sessionId, Map.empty[TopicPartition, FetchResponse.PartitionData].asJava, 0)
+}
@@ -18,13 +18,15 @@
 package kafka.server
 
 import java.nio.ByteBuffer
+import java.util.Properties
 
+import kafka.log.LogConfig
 import kafka.utils.TestUtils
 import org.apache.kafka.test.{TestUtils => JTestUtils}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.protocol.{ApiKeys, Errors, ProtoUtils}
 import org.apache.kafka.common.record.{CompressionType, Record}
-import org.apache.kafka.common.requests.{ProduceRequest, ProduceResponse}
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, ProduceRequest, ProduceResponse}
 import org.junit.Assert._
 import org.junit.Test
 
@@ -62,8 +64,8 @@ class ProduceRequestTest extends BaseRequestTest {
   }
 
   /* returns a pair of partition id and leader id */
-  private def createTopicAndFindPartitionWithLeader(topic: String): (Int, Int) = {
-    val partitionToLeader = TestUtils.createTopic(zkUtils, topic, 3, 2, servers)
+  private def createTopicAndFindPartitionWithLeader(topic: String, topicConfig: Properties = new Properties): (Int, Int) = {
+    val partitionToLeader = TestUtils.createTopic(zkUtils, topic, 3, 2, servers, topicConfig)
     partitionToLeader.collectFirst {
       case (partition, Some(leader)) if leader != -1 => (partition, leader)
     }.getOrElse(fail(s"No leader elected for topic $topic"))
@@ -88,8 +90,58 @@ class ProduceRequestTest extends BaseRequestTest {
     assertEquals(-1, partitionResponse.timestamp)
   }
 
-  private def sendProduceRequest(leaderId: Int, request: ProduceRequest): ProduceResponse = {
-    val response = send(request, ApiKeys.PRODUCE, destination = brokerSocketServer(leaderId))
+  @Test
+  def testZStdRequiresNewRequestVersions() {
+    val (partition, leader) = createTopicAndFindPartitionWithLeader("topic")
+    val topicPartition = new TopicPartition("topic", partition)
+    def partitionRecords = Map(topicPartition -> JTestUtils.partitionRecordsBuffer(0, CompressionType.ZSTD,
+      new Record(System.currentTimeMillis(), "key".getBytes, "value".getBytes)))
+
+    // zstd cannot be produced by clients that may not be able to read it
+    val v2Response = sendProduceRequest(leader, new ProduceRequest(-1, 3000, partitionRecords.asJava), Some(2))
+    assertEquals(Errors.UNSUPPORTED_COMPRESSION_TYPE.code, v2Response.responses.get(topicPartition).errorCode)
+    val v3Response = sendProduceRequest(leader, new ProduceRequest(-1, 3000, partitionRecords.asJava), Some(3))
+    assertEquals(Errors.NONE.code, v3Response.responses.get(topicPartition).errorCode)
+    assertEquals(0, v3Response.responses.get(topicPartition).baseOffset)
+
+    def fetch(version: Short): FetchResponse.PartitionData = {
+      val request = new FetchRequest(version, -1, 0, 1, FetchRequest.INVALID_SESSION_ID, FetchRequest.FINAL_EPOCH,
+        Map(topicPartition -> new FetchRequest.PartitionData(0, 1024)).asJava, List.empty[TopicPartition].asJava)
+      val response = send(request, ApiKeys.FETCH, Some(version), destination = brokerSocketServer(leader))
+      FetchResponse.parse(response, version).responseData.get(topicPartition)
+    }
+
+    // older fetch versions get an error instead of the zstd messages
+    val v3Data = fetch(3)
+    assertEquals(Errors.UNSUPPORTED_COMPRESSION_TYPE.code, v3Data.errorCode)
+    assertEquals(0, v3Data.recordSet.remaining)
+    val v4Data = fetch(4)
+    assertEquals(Errors.NONE.code, v4Data.errorCode)
+    assertTrue(v4Data.recordSet.remaining > 0)
+  }
+
+  @Test
+  def testZStdRecompressedByTopicCompressionType() {
+    val topicConfig = new Properties
+    topicConfig.put(LogConfig.CompressionTypeProp, "gzip")
+    val (partition, leader) = createTopicAndFindPartitionWithLeader("gzip-topic", topicConfig)
+    val topicPartition = new TopicPartition("gzip-topic", partition)
+    val partitionRecords = Map(topicPartition -> JTestUtils.partitionRecordsBuffer(0, CompressionType.ZSTD,
+      new Record(System.currentTimeMillis(), "key".getBytes, "value".getBytes)))
+
+    // the messages are appended compressed with gzip, so any client can read them
+    val response = sendProduceRequest(leader, new ProduceRequest(-1, 3000, partitionRecords.asJava), Some(2))
+    assertEquals(Errors.NONE.code, response.responses.get(topicPartition).errorCode)
+    val request = new FetchRequest(3, -1, 0, 1, FetchRequest.INVALID_SESSION_ID, FetchRequest.FINAL_EPOCH,
+      Map(topicPartition -> new FetchRequest.PartitionData(0, 1024)).asJava, List.empty[TopicPartition].asJava)
+    val data = FetchResponse.parse(send(request, ApiKeys.FETCH, Some(3.toShort), destination = brokerSocketServer(leader)), 3)
+      .responseData.get(topicPartition)
+    assertEquals(Errors.NONE.code, data.errorCode)
+    assertTrue(data.recordSet.remaining > 0)
+  }
+
+  private def sendProduceRequest(leaderId: Int, request: ProduceRequest, version: Option[Short] = None): ProduceResponse = {
+    val response = send(request, ApiKeys.PRODUCE, version, destination = brokerSocketServer(leaderId))
     ProduceResponse.parse(response)
   }
 
@@ -116,6 +116,7 @@ class ReplicaManagerQuotasTest {
         new LogOffsetMetadata(0L, 0L, 0),
         new ByteBufferMessageSet()
       )).anyTimes()
+    expect(log.isColdRead(anyObject(), anyLong())).andReturn(false).anyTimes()
     replay(log)
 
     //Create log manager
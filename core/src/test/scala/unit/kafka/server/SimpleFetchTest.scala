@@ -90,6 +90,7 @@ class SimpleFetchTest {
         new LogOffsetMetadata(0L, 0L, 0),
         new ByteBufferMessageSet(messagesToLEO)
       )).anyTimes()
+    EasyMock.expect(log.isColdRead(EasyMock.anyObject(), EasyMock.anyLong())).andReturn(false).anyTimes()
     EasyMock.replay(log)
 
     // create the log manager that is aware of this mock log
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.OffsetIndex;
+import kafka.log.OffsetPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link OffsetIndex#lookup(long)}, both for random offsets across the whole segment (lagging consumers)
+ * and for offsets near the end of the index (consumers and followers reading the tail of the log).
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OffsetIndexBenchmark {
+
+    private static final long BASE_OFFSET = 1000L;
+    private static final int OFFSET_INTERVAL = 10;
+    private static final int TAIL_ENTRIES = 8;
+    private static final int LOOKUP_COUNT = 1024;
+
+    @Param({"1000", "1000000"})
+    private int entryCount;
+
+    private File file;
+    private OffsetIndex index;
+    private long[] randomOffsets;
+    private long[] tailOffsets;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("kafka-jmh", ".index");
+        file.delete();
+        index = new OffsetIndex(file, BASE_OFFSET, entryCount * 8);
+        for (int i = 0; i < entryCount; i++)
+            index.append(BASE_OFFSET + (long) i * OFFSET_INTERVAL, i * 4096);
+
+        Random random = new Random(0);
+        long range = (long) entryCount * OFFSET_INTERVAL;
+        long tailRange = (long) Math.min(entryCount, TAIL_ENTRIES) * OFFSET_INTERVAL;
+        randomOffsets = new long[LOOKUP_COUNT];
+        tailOffsets = new long[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            randomOffsets[i] = BASE_OFFSET + (long) (random.nextDouble() * range);
+            tailOffsets[i] = BASE_OFFSET + range - 1 - (long) (random.nextDouble() * tailRange);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        index.close();
+        index.delete();
+    }
+
+    @Benchmark
+    public OffsetPosition randomLookup() {
+        next = (next + 1) % LOOKUP_COUNT;
+        return index.lookup(randomOffsets[next]);
+    }
+
+    @Benchmark
+    public OffsetPosition tailLookup() {
+        next = (next + 1) % LOOKUP_COUNT;
+        return index.lookup(tailOffsets[next]);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.SkimpyOffsetMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures put and get on the {@link SkimpyOffsetMap} used by the log cleaner to deduplicate keys, with the map
+ * filled to the load factor the cleaner uses by default.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SkimpyOffsetMapBenchmark {
+
+    private static final int KEY_COUNT = 1024;
+    private static final double LOAD_FACTOR = 0.9;
+
+    @Param({"1048576", "134217728"})
+    private int memory;
+
+    @Param({"16", "64"})
+    private int keySize;
+
+    @Param({"MD5"})
+    private String hashAlgorithm;
+
+    private SkimpyOffsetMap map;
+    private ByteBuffer[] keys;
+    private long offset;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        map = new SkimpyOffsetMap(memory, hashAlgorithm);
+        Random random = new Random(0);
+        keys = new ByteBuffer[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            byte[] key = new byte[keySize];
+            random.nextBytes(key);
+            keys[i] = ByteBuffer.wrap(key);
+        }
+        // pre-fill the map with distinct keys so that probing behaves like a map the cleaner has been filling up
+        int fill = (int) (map.slots() * LOAD_FACTOR) - KEY_COUNT;
+        ByteBuffer filler = ByteBuffer.allocate(keySize);
+        for (int i = 0; i < fill; i++) {
+            filler.putInt(0, i);
+            map.put(filler, i);
+        }
+        offset = fill;
+        for (ByteBuffer key : keys)
+            map.put(key, offset++);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEY_COUNT)
+    public long put() {
+        for (ByteBuffer key : keys)
+            map.put(key, offset++);
+        return map.latestOffset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEY_COUNT)
+    public long get() {
+        long sum = 0;
+        for (ByteBuffer key : keys)
+            sum += map.get(key);
+        return sum;
+    }
+}
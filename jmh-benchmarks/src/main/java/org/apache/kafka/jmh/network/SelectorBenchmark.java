@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.network;
+
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.network.NetworkSend;
+import org.apache.kafka.common.network.PlaintextChannelBuilder;
+import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.utils.SystemTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a request/response round trip through {@link Selector#poll(long)} against a local echo server, with
+ * one request outstanding on each of a number of connections.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SelectorBenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"1", "10"})
+    private int connectionCount;
+
+    @Param({"100", "10000"})
+    private int payloadSize;
+
+    private EchoServer server;
+    private Metrics metrics;
+    private Selector selector;
+    private List<String> nodes;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new EchoServer();
+        server.start();
+        metrics = new Metrics();
+        PlaintextChannelBuilder channelBuilder = new PlaintextChannelBuilder();
+        channelBuilder.configure(new HashMap<String, Object>());
+        selector = new Selector(Selector.NO_IDLE_TIMEOUT_MS, metrics, new SystemTime(), "benchmark", channelBuilder);
+        nodes = new ArrayList<>(connectionCount);
+        for (int i = 0; i < connectionCount; i++) {
+            String node = Integer.toString(i);
+            selector.connect(node, new InetSocketAddress("localhost", server.port), BUFFER_SIZE, BUFFER_SIZE);
+            while (!selector.isChannelReady(node))
+                selector.poll(1000L);
+            nodes.add(node);
+        }
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        selector.close();
+        server.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        for (String node : nodes)
+            selector.send(new NetworkSend(node, ByteBuffer.wrap(payload)));
+        int received = 0;
+        while (received < connectionCount) {
+            selector.poll(1000L);
+            received += selector.completedReceives().size();
+        }
+        return received;
+    }
+
+    /**
+     * A server that takes size delimited byte arrays and echos them back to the sender, one thread per connection.
+     */
+    private static class EchoServer extends Thread {
+        final int port;
+        private final ServerSocket serverSocket;
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+        EchoServer() throws IOException {
+            this.serverSocket = new ServerSocket(0);
+            this.port = serverSocket.getLocalPort();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    sockets.add(socket);
+                    Thread thread = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                DataInputStream input = new DataInputStream(socket.getInputStream());
+                                DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                                byte[] bytes = new byte[0];
+                                while (!socket.isClosed()) {
+                                    int size = input.readInt();
+                                    if (bytes.length < size)
+                                        bytes = new byte[size];
+                                    input.readFully(bytes, 0, size);
+                                    output.writeInt(size);
+                                    output.write(bytes, 0, size);
+                                    output.flush();
+                                }
+                            } catch (IOException e) {
+                                // the connection was closed
+                            }
+                        }
+                    };
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // the server socket was closed
+            }
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets)
+                    socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.RecordBatch;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.utils.SystemTime;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of appending records to the {@link RecordAccumulator} and of draining the resulting batches,
+ * which together make up the hot path between {@code KafkaProducer.send} and the sender thread.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordAccumulatorBenchmark {
+
+    private static final String TOPIC = "benchmark";
+    private static final int RECORDS_PER_DRAIN = 1000;
+
+    @Param({"1", "16"})
+    private int partitionCount;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    @Param({"NONE", "LZ4"})
+    private CompressionType compressionType;
+
+    private final Time time = new SystemTime();
+    private Metrics metrics;
+    private RecordAccumulator accumulator;
+    private Cluster cluster;
+    private List<TopicPartition> partitions;
+    private byte[] key;
+    private byte[] value;
+    private int nextPartition;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Node node = new Node(0, "localhost", 9092);
+        Node[] replicas = new Node[] {node};
+        List<PartitionInfo> partitionInfos = new ArrayList<>(partitionCount);
+        partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitionInfos.add(new PartitionInfo(TOPIC, i, node, replicas, replicas));
+            partitions.add(new TopicPartition(TOPIC, i));
+        }
+        cluster = new Cluster(Collections.singletonList(node), partitionInfos, Collections.<String>emptySet(),
+                Collections.<String>emptySet());
+
+        Random random = new Random(0);
+        key = new byte[16];
+        value = new byte[valueSize];
+        random.nextBytes(key);
+        random.nextBytes(value);
+
+        metrics = new Metrics(time);
+        accumulator = new RecordAccumulator(16384, 32 * 1024 * 1024L, compressionType, 0L, 100L, metrics, time);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        drainAll();
+        accumulator.close();
+        metrics.close();
+    }
+
+    /**
+     * Append a single record, draining the accumulator whenever a batch fills up so that memory is recycled
+     * the same way the sender thread would do it.
+     */
+    @Benchmark
+    public boolean append() throws InterruptedException {
+        TopicPartition tp = partitions.get(nextPartition);
+        nextPartition = (nextPartition + 1) % partitionCount;
+        RecordAccumulator.RecordAppendResult result = accumulator.append(tp, time.milliseconds(), key, value, null, 0L);
+        if (result.batchIsFull)
+            drainAll();
+        return result.newBatchCreated;
+    }
+
+    /**
+     * Append a fixed number of records spread over all partitions and then drain everything that is ready.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_DRAIN)
+    public int appendAndDrain() throws InterruptedException {
+        long now = time.milliseconds();
+        for (int i = 0; i < RECORDS_PER_DRAIN; i++)
+            accumulator.append(partitions.get(i % partitionCount), now, key, value, null, 0L);
+        return drainAll();
+    }
+
+    /**
+     * Drain until the accumulator is empty; each drain takes at most one batch per partition.
+     */
+    private int drainAll() {
+        int count = 0;
+        while (accumulator.hasUnsent()) {
+            long now = time.milliseconds();
+            RecordAccumulator.ReadyCheckResult ready = accumulator.ready(cluster, now);
+            Map<Integer, List<RecordBatch>> drained = accumulator.drain(cluster, ready.readyNodes, Integer.MAX_VALUE, now);
+            for (List<RecordBatch> batches : drained.values()) {
+                for (RecordBatch batch : batches) {
+                    accumulator.deallocate(batch);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
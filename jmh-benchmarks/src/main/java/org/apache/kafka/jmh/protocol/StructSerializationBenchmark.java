@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.protocol;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ProtoUtils;
+import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Struct} and {@link org.apache.kafka.common.protocol.types.Schema} serialization for the fetch
+ * request and response, whose size grows with the number of partitions being fetched.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StructSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int topicCount;
+
+    @Param({"10"})
+    private int partitionsPerTopic;
+
+    private Map<TopicPartition, FetchRequest.PartitionData> fetchData;
+    private Map<TopicPartition, FetchResponse.PartitionData> responseData;
+    private ByteBuffer serializedRequest;
+    private ByteBuffer serializedResponse;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fetchData = new LinkedHashMap<>();
+        responseData = new LinkedHashMap<>();
+        ByteBuffer records = ByteBuffer.allocate(64);
+        for (int t = 0; t < topicCount; t++) {
+            for (int p = 0; p < partitionsPerTopic; p++) {
+                TopicPartition tp = new TopicPartition("topic-" + t, p);
+                fetchData.put(tp, new FetchRequest.PartitionData(1000L * p, 1024 * 1024));
+                responseData.put(tp, new FetchResponse.PartitionData((short) 0, 1000L * p, records));
+            }
+        }
+        serializedRequest = serializeFetchRequest();
+        serializedResponse = serializeFetchResponse();
+    }
+
+    @Benchmark
+    public ByteBuffer serializeFetchRequest() {
+        FetchRequest request = new FetchRequest(-1, 500, 1, fetchData);
+        ByteBuffer buffer = ByteBuffer.allocate(request.sizeOf());
+        request.writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public FetchRequest parseFetchRequest() {
+        return FetchRequest.parse(serializedRequest.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer serializeFetchResponse() {
+        FetchResponse response = new FetchResponse(responseData, 0);
+        ByteBuffer buffer = ByteBuffer.allocate(response.sizeOf());
+        response.writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public Struct parseFetchResponseStruct() {
+        return ProtoUtils.parseResponse(ApiKeys.FETCH.id, serializedResponse.duplicate());
+    }
+}
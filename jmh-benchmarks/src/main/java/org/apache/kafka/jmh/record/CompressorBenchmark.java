@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.record.ByteBufferInputStream;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Compressor;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.Records;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link Compressor} for every {@link CompressionType}: compressing a batch worth of records into a
+ * buffer, optionally forcing the buffer to expand, and decompressing the resulting wrapper value again. The size of
+ * the compressed batch is printed when a trial starts, so that the compression ratio of the codecs can be compared too.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressorBenchmark {
+
+    private static final int BATCH_SIZE = 16384;
+
+    @Param({"NONE", "GZIP", "SNAPPY", "LZ4", "ZSTD"})
+    private CompressionType compressionType;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    @Param({Payloads.TEXT, Payloads.JSON})
+    private String payload;
+
+    /**
+     * Whether the output buffer starts out large enough, or has to be grown by the output stream while compressing.
+     */
+    @Param({"false", "true"})
+    private boolean expand;
+
+    private byte[] key;
+    private byte[][] values;
+    private int maxRecordSize;
+    private ByteBuffer compressedValue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        key = new byte[16];
+        random.nextBytes(key);
+        // keep as many records as fit into a batch
+        byte[][] pool = Payloads.generate(payload, BATCH_SIZE / valueSize + 1, valueSize, random);
+        int recordCount = 0;
+        int bytes = 0;
+        while (recordCount < pool.length) {
+            int size = Record.recordSize(key, pool[recordCount]);
+            if (recordCount > 0 && bytes + Records.LOG_OVERHEAD + size > BATCH_SIZE)
+                break;
+            bytes += Records.LOG_OVERHEAD + size;
+            maxRecordSize = Math.max(maxRecordSize, size);
+            recordCount++;
+        }
+        values = Arrays.copyOf(pool, recordCount);
+
+        ByteBuffer buffer = compress();
+        buffer.flip();
+        if (compressionType == CompressionType.NONE) {
+            compressedValue = buffer;
+        } else {
+            // skip the offset and size of the wrapper message and keep only its compressed value
+            buffer.position(Records.LOG_OVERHEAD);
+            compressedValue = new Record(buffer.slice()).value();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer compress() {
+        ByteBuffer buffer = ByteBuffer.allocate(expand ? 1024 : BATCH_SIZE + 1024);
+        Compressor compressor = new Compressor(buffer, compressionType);
+        for (int i = 0; i < values.length; i++) {
+            int size = Record.recordSize(key, values[i]);
+            compressor.putLong(i);
+            compressor.putInt(size);
+            compressor.putRecord(Record.NO_TIMESTAMP, key, values[i]);
+            compressor.recordWritten(Records.LOG_OVERHEAD + size);
+        }
+        compressor.close();
+        return compressor.buffer();
+    }
+
+    @Benchmark
+    public long decompress() throws IOException {
+        DataInputStream stream = Compressor.wrapForInput(new ByteBufferInputStream(compressedValue.duplicate()),
+                compressionType, Record.CURRENT_MAGIC_VALUE);
+        byte[] recordBuffer = new byte[maxRecordSize];
+        long sum = 0;
+        try {
+            for (int i = 0; i < values.length; i++) {
+                sum += stream.readLong();
+                int size = stream.readInt();
+                stream.readFully(recordBuffer, 0, size);
+            }
+        } finally {
+            stream.close();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.LogEntry;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a {@link MemoryRecords} batch the way the producer does and iterating over one the way the
+ * consumer and the broker do, including deep iteration over compressed wrapper messages.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemoryRecordsBenchmark {
+
+    @Param({"100", "1000"})
+    private int recordCount;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    @Param({"NONE", "GZIP", "SNAPPY", "LZ4"})
+    private CompressionType compressionType;
+
+    private byte[] key;
+    private byte[] value;
+    private int bufferSize;
+    private ByteBuffer readableBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        key = new byte[16];
+        value = new byte[valueSize];
+        random.nextBytes(key);
+        // half random, half constant so that the compressed codecs have something to work with
+        random.nextBytes(value);
+        for (int i = valueSize / 2; i < valueSize; i++)
+            value[i] = (byte) 'a';
+        bufferSize = recordCount * (Record.recordSize(key, value) + 12);
+        MemoryRecords records = build();
+        records.close();
+        readableBuffer = records.buffer();
+    }
+
+    @Benchmark
+    public MemoryRecords build() {
+        MemoryRecords records = MemoryRecords.emptyRecords(ByteBuffer.allocate(bufferSize), compressionType);
+        for (int i = 0; i < recordCount; i++)
+            records.append(i, Record.NO_TIMESTAMP, key, value);
+        records.close();
+        return records;
+    }
+
+    @Benchmark
+    public void deepIterate(Blackhole bh) {
+        Iterator<LogEntry> iterator = MemoryRecords.readableRecords(readableBuffer.duplicate()).iterator();
+        while (iterator.hasNext()) {
+            LogEntry entry = iterator.next();
+            bh.consume(entry.offset());
+            bh.consume(entry.record().value());
+        }
+    }
+
+    @Benchmark
+    public void deepIterateAndValidate(Blackhole bh) {
+        Iterator<LogEntry> iterator = MemoryRecords.readableRecords(readableBuffer.duplicate()).iterator();
+        while (iterator.hasNext()) {
+            Record record = iterator.next().record();
+            record.ensureValid();
+            bh.consume(record);
+        }
+    }
+
+    @Benchmark
+    public void shallowIterate(Blackhole bh) {
+        Iterator<LogEntry> iterator = new MemoryRecords.RecordsIterator(readableBuffer.duplicate(), true);
+        while (iterator.hasNext())
+            bh.consume(iterator.next().offset());
+    }
+}
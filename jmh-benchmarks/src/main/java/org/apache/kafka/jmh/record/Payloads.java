@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Record values for the compression benchmarks. Every value is different, as the records of a real batch would be.
+ */
+final class Payloads {
+
+    /**
+     * Random letters from a small alphabet, which compress about as well as text.
+     */
+    static final String TEXT = "text";
+
+    /**
+     * Small JSON events that share their field names and most of their values with each other, like the records of a
+     * typical topic.
+     */
+    static final String JSON = "json";
+
+    private static final String[] EVENTS = {"page_view", "click", "add_to_cart", "purchase", "search", "login"};
+    private static final String[] COUNTRIES = {"US", "DE", "FR", "GB", "IN", "BR", "JP"};
+    private static final String[] BROWSERS = {"chrome", "firefox", "safari", "edge"};
+    private static final String[] WORDS = {"the", "quick", "order", "was", "shipped", "to", "customer", "after",
+        "payment", "confirmed", "item", "returned", "because", "size", "did", "not", "fit", "and", "refund"};
+
+    private Payloads() {
+    }
+
+    static byte[][] generate(String kind, int count, int size, Random random) {
+        byte[][] values = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (TEXT.equals(kind))
+                values[i] = text(size, random);
+            else if (JSON.equals(kind))
+                values[i] = json(size, random);
+            else
+                throw new IllegalArgumentException("Unknown payload " + kind);
+        }
+        return values;
+    }
+
+    private static byte[] text(int size, Random random) {
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++)
+            value[i] = (byte) ('a' + random.nextInt(8));
+        return value;
+    }
+
+    /**
+     * A JSON event of roughly the given size, which is padded with a free text field.
+     */
+    private static byte[] json(int size, Random random) {
+        StringBuilder builder = new StringBuilder(size + 32);
+        builder.append("{\"id\":").append(random.nextInt(Integer.MAX_VALUE))
+            .append(",\"user\":\"user-").append(random.nextInt(10000))
+            .append("\",\"event\":\"").append(EVENTS[random.nextInt(EVENTS.length)])
+            .append("\",\"url\":\"/products/").append(random.nextInt(1000))
+            .append("\",\"timestamp\":").append(1476700000000L + random.nextInt(1000000))
+            .append(",\"country\":\"").append(COUNTRIES[random.nextInt(COUNTRIES.length)])
+            .append("\",\"browser\":\"").append(BROWSERS[random.nextInt(BROWSERS.length)])
+            .append("\",\"amount\":").append(random.nextInt(100000) / 100.0)
+            .append(",\"comment\":\"");
+        while (builder.length() < size - 2)
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        builder.append("\"}");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.apache.kafka.common.record.ByteBufferInputStream;
+import org.apache.kafka.common.record.ChecksumType;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Compressor;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.record.ZstdDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures zstd compression of small batches of JSON records with and without a dictionary trained on similar
+ * records. Small batches are where a dictionary helps most, since there is little data in the batch itself to learn
+ * the structure of the records from. The size of the compressed batch is printed when a trial starts.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZstdDictionaryBenchmark {
+
+    private static final int VALUE_SIZE = 200;
+    private static final int DICTIONARY_SIZE = 16 * 1024;
+    private static final int TRAINING_RECORDS = 10000;
+
+    @Param({"1024", "16384"})
+    private int batchSize;
+
+    @Param({"false", "true"})
+    private boolean useDictionary;
+
+    private byte[][] values;
+    private ZstdDictionary dictionary;
+    private ByteBuffer compressedValue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (useDictionary) {
+            // train on different records than the ones that are compressed
+            byte[][] samples = Payloads.generate(Payloads.JSON, TRAINING_RECORDS, VALUE_SIZE, new Random(1));
+            ZstdDictTrainer trainer = new ZstdDictTrainer(TRAINING_RECORDS * (VALUE_SIZE + 64), DICTIONARY_SIZE);
+            for (byte[] sample : samples)
+                trainer.addSample(sample);
+            dictionary = ZstdDictionary.parse(trainer.trainSamples());
+            ZstdDictionary.register(dictionary);
+        }
+
+        int recordCount = Math.max(1, batchSize / (Records.LOG_OVERHEAD + Record.RECORD_OVERHEAD + VALUE_SIZE));
+        values = Payloads.generate(Payloads.JSON, recordCount, VALUE_SIZE, new Random(0));
+        ByteBuffer buffer = compress();
+        buffer.flip();
+        buffer.position(Records.LOG_OVERHEAD);
+        compressedValue = new Record(buffer.slice()).value();
+    }
+
+    @Benchmark
+    public ByteBuffer compress() {
+        ByteBuffer buffer = ByteBuffer.allocate(batchSize + 1024);
+        Compressor compressor = new Compressor(buffer, CompressionType.ZSTD, ChecksumType.CRC32, dictionary);
+        for (int i = 0; i < values.length; i++) {
+            int size = Record.recordSize(null, values[i]);
+            compressor.putLong(i);
+            compressor.putInt(size);
+            compressor.putRecord(Record.NO_TIMESTAMP, null, values[i]);
+            compressor.recordWritten(Records.LOG_OVERHEAD + size);
+        }
+        compressor.close();
+        return compressor.buffer();
+    }
+
+    @Benchmark
+    public long decompress() throws IOException {
+        DataInputStream stream = Compressor.wrapForInput(new ByteBufferInputStream(compressedValue.duplicate()),
+                CompressionType.ZSTD, Record.CURRENT_MAGIC_VALUE);
+        byte[] recordBuffer = new byte[Record.RECORD_OVERHEAD + 2 * VALUE_SIZE];
+        long sum = 0;
+        try {
+            for (int i = 0; i < values.length; i++) {
+                sum += stream.readLong();
+                int size = stream.readInt();
+                stream.readFully(recordBuffer, 0, size);
+            }
+        } finally {
+            stream.close();
+        }
+        return sum;
+    }
+}
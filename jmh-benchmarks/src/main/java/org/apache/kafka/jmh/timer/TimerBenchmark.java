@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.timer;
+
+import kafka.server.DelayedOperation;
+import kafka.utils.timer.SystemTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hierarchical timing wheel behind {@link SystemTimer}: adding delayed operations with a spread of
+ * timeouts, cancelling them the way a completed operation does, and advancing the clock over expired buckets.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimerBenchmark {
+
+    private static final int TASK_COUNT = 1000;
+
+    /**
+     * The maximum timeout of the added tasks; larger values spill into the overflow wheels.
+     */
+    @Param({"100", "30000"})
+    private int maxDelayMs;
+
+    private SystemTimer timer;
+    private long[] delays;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        timer = new SystemTimer("jmh", 1L, 20, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        Random random = new Random(0);
+        delays = new long[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++)
+            delays[i] = 1 + random.nextInt(maxDelayMs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        timer.shutdown();
+    }
+
+    /**
+     * Add operations and complete them before they time out, which is the common case for delayed produce and fetch.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TASK_COUNT)
+    public int addAndCancel() {
+        NoOpOperation[] operations = new NoOpOperation[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            operations[i] = new NoOpOperation(delays[i]);
+            timer.add(operations[i]);
+        }
+        for (NoOpOperation operation : operations)
+            operation.forceComplete();
+        return timer.size();
+    }
+
+    /**
+     * Add operations with very short timeouts and advance the clock until all of them have expired.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TASK_COUNT)
+    public int addAndExpire() {
+        for (int i = 0; i < TASK_COUNT; i++)
+            timer.add(new NoOpOperation(1 + i % 2));
+        while (timer.size() > 0)
+            timer.advanceClock(1L);
+        return timer.size();
+    }
+
+    private static class NoOpOperation extends DelayedOperation {
+
+        NoOpOperation(long delayMs) {
+            super(delayMs);
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return false;
+        }
+    }
+}